@@ -0,0 +1,244 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+
+/**
+ * Chromatogram building by the HighestDataPointConnector, compared with the previous connector
+ * which scanned all building chromatograms for each m/z peak. The centroided scans are read into
+ * memory before the benchmark, so only the connecting of the m/z peaks is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HighestDataPointConnectorBenchmark {
+
+  @Param({"10000", "100000"})
+  public int numOfScans;
+
+  @Param({"100"})
+  public int noisePeaksPerScan;
+
+  private RawDataFile dataFile;
+  private int scanNumbers[];
+  private double mzValues[][], intensityValues[][];
+  private DataPoint dataPoints[][];
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+
+    BenchmarkEnvironment.init();
+
+    SyntheticLCMSData data = new SyntheticLCMSData(numOfScans, numOfScans / 2, noisePeaksPerScan);
+    dataFile = data.createRawDataFile("Chromatogram builder benchmark", 0, false);
+    scanNumbers = dataFile.getScanNumbers(1);
+
+    mzValues = new double[scanNumbers.length][];
+    intensityValues = new double[scanNumbers.length][];
+    for (int i = 0; i < scanNumbers.length; i++) {
+      Scan scan = dataFile.getScan(scanNumbers[i]);
+      mzValues[i] = new double[scan.getNumberOfDataPoints()];
+      intensityValues[i] = new double[scan.getNumberOfDataPoints()];
+      scan.getDataPoints(mzValues[i], intensityValues[i]);
+    }
+
+    dataPoints = new DataPoint[scanNumbers.length][];
+    for (int i = 0; i < scanNumbers.length; i++) {
+      dataPoints[i] = new DataPoint[mzValues[i].length];
+      for (int j = 0; j < mzValues[i].length; j++)
+        dataPoints[i][j] = new SimpleDataPoint(mzValues[i][j], intensityValues[i][j]);
+    }
+
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dataFile.close();
+  }
+
+  @Benchmark
+  public Chromatogram[] buildChromatograms() {
+
+    HighestDataPointConnector connector = new HighestDataPointConnector(dataFile, scanNumbers,
+        0.02, 1E4, new MZTolerance(0.002, 10));
+
+    for (int i = 0; i < scanNumbers.length; i++)
+      connector.addScan(scanNumbers[i], mzValues[i], intensityValues[i], mzValues[i].length);
+
+    return connector.finishChromatograms();
+  }
+
+  @Benchmark
+  public Chromatogram[] buildChromatogramsLinearScan() {
+
+    LinearScanConnector connector = new LinearScanConnector(dataFile, scanNumbers, 0.02, 1E4,
+        new MZTolerance(0.002, 10));
+
+    for (int i = 0; i < scanNumbers.length; i++)
+      connector.addScan(scanNumbers[i], dataPoints[i].clone());
+
+    return connector.finishChromatograms();
+  }
+
+  /**
+   * The HighestDataPointConnector before the m/z index was added, which compares each m/z peak with
+   * all building chromatograms
+   */
+  private static class LinearScanConnector {
+
+    private final MZTolerance mzTolerance;
+    private final double minimumTimeSpan, minimumHeight;
+    private final RawDataFile dataFile;
+    private final int allScanNumbers[];
+
+    private Set<Chromatogram> buildingChromatograms = new LinkedHashSet<Chromatogram>();
+
+    LinearScanConnector(RawDataFile dataFile, int allScanNumbers[], double minimumTimeSpan,
+        double minimumHeight, MZTolerance mzTolerance) {
+      this.mzTolerance = mzTolerance;
+      this.minimumHeight = minimumHeight;
+      this.minimumTimeSpan = minimumTimeSpan;
+      this.dataFile = dataFile;
+      this.allScanNumbers = allScanNumbers;
+    }
+
+    void addScan(int scanNumber, DataPoint mzValues[]) {
+
+      // Sort m/z peaks by descending intensity
+      Arrays.sort(mzValues,
+          new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+
+      // Set of already connected chromatograms in each iteration
+      Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
+
+      for (DataPoint mzPeak : mzValues) {
+
+        // Search for best chromatogram, which has highest last data point
+        Chromatogram bestChromatogram = null;
+
+        for (Chromatogram testChrom : buildingChromatograms) {
+          DataPoint lastMzPeak = testChrom.getLastMzPeak();
+          Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
+          if (toleranceRange.contains(mzPeak.getMZ())) {
+            if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
+                .getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())) {
+              bestChromatogram = testChrom;
+            }
+          }
+        }
+
+        if (bestChromatogram != null) {
+          if (connectedChromatograms.contains(bestChromatogram))
+            continue;
+        } else {
+          bestChromatogram = new Chromatogram(dataFile, allScanNumbers);
+        }
+
+        bestChromatogram.addMzPeak(scanNumber, mzPeak);
+        connectedChromatograms.add(bestChromatogram);
+      }
+
+      // Process those chromatograms which were not connected to any m/z peak
+      for (Chromatogram testChrom : buildingChromatograms) {
+
+        if (connectedChromatograms.contains(testChrom))
+          continue;
+
+        if (testChrom.getBuildingSegmentLength() >= minimumTimeSpan) {
+          testChrom.commitBuildingSegment();
+          connectedChromatograms.add(testChrom);
+          continue;
+        }
+
+        if (testChrom.getNumberOfCommittedSegments() > 0) {
+          testChrom.removeBuildingSegment();
+          connectedChromatograms.add(testChrom);
+          continue;
+        }
+      }
+
+      buildingChromatograms = connectedChromatograms;
+    }
+
+    Chromatogram[] finishChromatograms() {
+
+      Iterator<Chromatogram> chromIterator = buildingChromatograms.iterator();
+      while (chromIterator.hasNext()) {
+
+        Chromatogram chromatogram = chromIterator.next();
+
+        if (chromatogram.getBuildingSegmentLength() >= minimumTimeSpan) {
+          chromatogram.commitBuildingSegment();
+          chromatogram.finishChromatogram();
+        } else {
+          if (chromatogram.getNumberOfCommittedSegments() == 0) {
+            chromIterator.remove();
+            continue;
+          } else {
+            chromatogram.removeBuildingSegment();
+            chromatogram.finishChromatogram();
+          }
+        }
+
+        if (chromatogram.getHeight() < minimumHeight)
+          chromIterator.remove();
+      }
+
+      return buildingChromatograms.toArray(new Chromatogram[0]);
+    }
+
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.join;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Join alignment of synthetic feature lists, including the scoring of all row pairs. Each feature
+ * list contains a random subset of the compounds with slightly shifted retention times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JoinAlignerBenchmark {
+
+  @Param({"10"})
+  public int numOfPeakLists;
+
+  @Param({"10000"})
+  public int numOfCompounds;
+
+  private ParameterSet parameters;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+
+    BenchmarkEnvironment.init();
+
+    // Only the features are needed, the raw data files do not contain any scans
+    SyntheticLCMSData data = new SyntheticLCMSData(10000, numOfCompounds, 0);
+    PeakList peakLists[] = new PeakList[numOfPeakLists];
+    for (int i = 0; i < numOfPeakLists; i++) {
+      RawDataFile dataFile = new RawDataFileImpl("Sample " + i);
+      peakLists[i] = data.createPeakList("Feature list " + i, new RawDataFile[] {dataFile}, 0.8,
+          0.05 * (i - numOfPeakLists / 2) / numOfPeakLists);
+    }
+
+    parameters = new JoinAlignerParameters();
+    parameters.getParameter(JoinAlignerParameters.peakLists)
+        .setValue(PeakListsSelectionType.SPECIFIC_PEAKLISTS, peakLists);
+    parameters.getParameter(JoinAlignerParameters.peakListName).setValue("Aligned feature list");
+    parameters.getParameter(JoinAlignerParameters.MZTolerance).setValue(new MZTolerance(0.002, 5));
+    parameters.getParameter(JoinAlignerParameters.MZWeight).setValue(3.0);
+    parameters.getParameter(JoinAlignerParameters.RTTolerance).setValue(new RTTolerance(true, 0.1));
+    parameters.getParameter(JoinAlignerParameters.RTWeight).setValue(1.0);
+    parameters.getParameter(JoinAlignerParameters.SameChargeRequired).setValue(false);
+    parameters.getParameter(JoinAlignerParameters.SameIDRequired).setValue(false);
+    parameters.getParameter(JoinAlignerParameters.compareIsotopePattern).setValue(false);
+    parameters.getParameter(JoinAlignerParameters.compareSpectraSimilarity).setValue(false);
+
+  }
+
+  @Benchmark
+  public void align() {
+    JoinAlignerTask task = new JoinAlignerTask(new MZmineProjectImpl(), parameters);
+    task.run();
+    if (task.getStatus() != TaskStatus.FINISHED)
+      throw new IllegalStateException("Join aligner failed: " + task.getErrorMessage());
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Gap filling of a synthetic aligned feature list. Each compound is missing in 30 % of the raw data
+ * files, and the gaps are filled from the scans of these files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PeakFinderBenchmark {
+
+  @Param({"4"})
+  public int numOfDataFiles;
+
+  @Param({"5000"})
+  public int numOfScans;
+
+  @Param({"false", "true"})
+  public boolean parallel;
+
+  private RawDataFile dataFiles[];
+  private PeakList peakList;
+  private ParameterSet parameters;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+
+    BenchmarkEnvironment.init();
+
+    SyntheticLCMSData data = new SyntheticLCMSData(numOfScans, numOfScans, 200);
+    dataFiles = new RawDataFile[numOfDataFiles];
+    for (int i = 0; i < numOfDataFiles; i++)
+      dataFiles[i] = data.createRawDataFile("Sample " + i, i, false);
+    peakList = data.createPeakList("Aligned feature list", dataFiles, 0.7, 0);
+
+    parameters = new PeakFinderParameters();
+    parameters.getParameter(PeakFinderParameters.peakLists)
+        .setValue(PeakListsSelectionType.SPECIFIC_PEAKLISTS, new PeakList[] {peakList});
+    parameters.getParameter(PeakFinderParameters.suffix).setValue("gap-filled");
+    parameters.getParameter(PeakFinderParameters.intTolerance).setValue(0.5);
+    parameters.getParameter(PeakFinderParameters.MZTolerance).setValue(new MZTolerance(0.002, 5));
+    parameters.getParameter(PeakFinderParameters.RTTolerance).setValue(new RTTolerance(true, 0.1));
+    parameters.getParameter(PeakFinderParameters.RTCorrection).setValue(false);
+    parameters.getParameter(PeakFinderParameters.useParallel).setValue(parallel);
+    parameters.getParameter(PeakFinderParameters.autoRemove).setValue(false);
+
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (RawDataFile dataFile : dataFiles)
+      dataFile.close();
+  }
+
+  @Benchmark
+  public void fillGaps() {
+    PeakFinderTask task = new PeakFinderTask(new MZmineProjectImpl(), peakList, parameters);
+    task.run();
+    if (task.getStatus() != TaskStatus.FINISHED)
+      throw new IllegalStateException("Gap filling failed: " + task.getErrorMessage());
+  }
+
+}
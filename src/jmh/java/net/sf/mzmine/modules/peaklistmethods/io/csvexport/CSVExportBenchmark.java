@@ -0,0 +1,102 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.csvexport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.modules.peaklistmethods.io.gnpsexport.fbmn.GnpsFbmnExportAndSubmitParameters.RowFilter;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * CSV export of a synthetic feature list with all common and data file columns, with the rows
+ * formatted one by one or in parallel chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CSVExportBenchmark {
+
+  @Param({"20"})
+  public int numOfDataFiles;
+
+  @Param({"50000"})
+  public int numOfCompounds;
+
+  @Param({"false", "true"})
+  public boolean parallel;
+
+  private PeakList peakList;
+  private File file;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+
+    BenchmarkEnvironment.init();
+
+    // Only the features are needed, the raw data files do not contain any scans
+    SyntheticLCMSData data = new SyntheticLCMSData(10000, numOfCompounds, 0);
+    RawDataFile dataFiles[] = new RawDataFile[numOfDataFiles];
+    for (int i = 0; i < numOfDataFiles; i++)
+      dataFiles[i] = new RawDataFileImpl("Sample " + i);
+    peakList = data.createPeakList("Feature list", dataFiles, 0.8, 0);
+
+    file = File.createTempFile("mzmine", ".csv");
+
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public void export() {
+    CSVExportTask task = new CSVExportTask(new PeakList[] {peakList}, file, ",",
+        ExportRowCommonElement.values(), ExportRowDataFileElement.values(), false, ";",
+        RowFilter.ALL, false, parallel);
+    task.run();
+    if (task.getStatus() != TaskStatus.FINISHED)
+      throw new IllegalStateException("CSV export failed: " + task.getErrorMessage());
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.centroid.CentroidMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.centroid.CentroidMassDetectorParameters;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.exactmass.ExactMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.exactmass.ExactMassDetectorParameters;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.localmaxima.LocalMaxMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.localmaxima.LocalMaxMassDetectorParameters;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.recursive.RecursiveMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.recursive.RecursiveMassDetectorParameters;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.wavelet.WaveletMassDetector;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.wavelet.WaveletMassDetectorParameters;
+import net.sf.mzmine.parameters.ParameterSet;
+
+/**
+ * Mass detection of synthetic spectra by each MassDetector implementation. The centroid detector
+ * processes centroided spectra, all other detectors process profile spectra.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MassDetectorBenchmark {
+
+  private static final double NOISE_LEVEL = 5E3;
+
+  @Param({"centroid", "exactmass", "localmaxima", "recursive", "wavelet"})
+  public String detectorName;
+
+  @Param({"1000"})
+  public int numOfScans;
+
+  private MassDetector detector;
+  private ParameterSet parameters;
+  private DataPoint spectra[][];
+
+  @Setup(Level.Trial)
+  public void setup() {
+
+    BenchmarkEnvironment.init();
+
+    switch (detectorName) {
+      case "centroid":
+        detector = new CentroidMassDetector();
+        parameters = new CentroidMassDetectorParameters();
+        parameters.getParameter(CentroidMassDetectorParameters.noiseLevel).setValue(NOISE_LEVEL);
+        break;
+      case "exactmass":
+        detector = new ExactMassDetector();
+        parameters = new ExactMassDetectorParameters();
+        parameters.getParameter(ExactMassDetectorParameters.noiseLevel).setValue(NOISE_LEVEL);
+        break;
+      case "localmaxima":
+        detector = new LocalMaxMassDetector();
+        parameters = new LocalMaxMassDetectorParameters();
+        parameters.getParameter(LocalMaxMassDetectorParameters.noiseLevel).setValue(NOISE_LEVEL);
+        break;
+      case "recursive":
+        detector = new RecursiveMassDetector();
+        parameters = new RecursiveMassDetectorParameters();
+        parameters.getParameter(RecursiveMassDetectorParameters.noiseLevel).setValue(NOISE_LEVEL);
+        parameters.getParameter(RecursiveMassDetectorParameters.minimumMZPeakWidth)
+            .setValue(0.001);
+        parameters.getParameter(RecursiveMassDetectorParameters.maximumMZPeakWidth).setValue(0.1);
+        break;
+      case "wavelet":
+        detector = new WaveletMassDetector();
+        parameters = new WaveletMassDetectorParameters();
+        parameters.getParameter(WaveletMassDetectorParameters.noiseLevel).setValue(NOISE_LEVEL);
+        parameters.getParameter(WaveletMassDetectorParameters.scaleLevel).setValue(3);
+        parameters.getParameter(WaveletMassDetectorParameters.waveletWindow).setValue(0.3);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown mass detector " + detectorName);
+    }
+
+    final boolean profile = !detectorName.equals("centroid");
+    SyntheticLCMSData data = new SyntheticLCMSData(numOfScans, numOfScans * 5, 300);
+    spectra = new DataPoint[numOfScans][];
+    for (int i = 0; i < numOfScans; i++)
+      spectra[i] = data.generateSpectrum(0, i, profile);
+
+  }
+
+  @Benchmark
+  public void detectMasses(Blackhole blackhole) {
+    for (DataPoint spectrum[] : spectra)
+      blackhole.consume(detector.getMassValues(spectrum, parameters));
+  }
+
+}
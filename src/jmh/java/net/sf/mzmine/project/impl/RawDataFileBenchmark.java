@@ -0,0 +1,130 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+
+/**
+ * Writing scans to a RawDataFileImpl and reading them back, either as DataPoint arrays or as
+ * primitive arrays. The spectra cache size is a parameter, 0 means every read goes to the data
+ * points file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RawDataFileBenchmark {
+
+  @Param({"10000"})
+  public int numOfScans;
+
+  @Param({"0", "256"})
+  public int cacheSizeMB;
+
+  private SimpleScan scans[];
+  private RawDataFile dataFile;
+  private int scanNumbers[];
+  private double mzBuffer[], intensityBuffer[];
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+
+    BenchmarkEnvironment.init();
+    DataPointsCache.getInstance().setMaximumSize((long) cacheSizeMB << 20);
+
+    SyntheticLCMSData data = new SyntheticLCMSData(numOfScans, numOfScans / 2, 200);
+
+    scans = new SimpleScan[numOfScans];
+    int maxDataPoints = 0;
+    for (int i = 0; i < numOfScans; i++) {
+      DataPoint dataPoints[] = data.generateSpectrum(0, i, false);
+      scans[i] = new SimpleScan(null, i + 1, 1, data.getRetentionTime(i), 0, 0, null, dataPoints,
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", null);
+      maxDataPoints = Math.max(maxDataPoints, dataPoints.length);
+    }
+
+    dataFile = writeScans("Read benchmark");
+    scanNumbers = dataFile.getScanNumbers();
+    mzBuffer = new double[maxDataPoints];
+    intensityBuffer = new double[maxDataPoints];
+
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dataFile.close();
+    DataPointsCache.getInstance().setMaximumSize((long) DataPointsCache.DEFAULT_SIZE_MB << 20);
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    writeScans("Write benchmark").close();
+  }
+
+  @Benchmark
+  public void readDataPoints(Blackhole blackhole) {
+    for (int scanNumber : scanNumbers)
+      blackhole.consume(dataFile.getScan(scanNumber).getDataPoints());
+  }
+
+  @Benchmark
+  public void readPrimitiveArrays(Blackhole blackhole) {
+    for (int scanNumber : scanNumbers) {
+      Scan scan = dataFile.getScan(scanNumber);
+      blackhole.consume(scan.getDataPoints(mzBuffer, intensityBuffer));
+    }
+    blackhole.consume(mzBuffer);
+    blackhole.consume(intensityBuffer);
+  }
+
+  private RawDataFile writeScans(String name) throws IOException {
+    RawDataFileImpl newFile = new RawDataFileImpl(name);
+    for (SimpleScan scan : scans)
+      newFile.addScan(scan);
+    return newFile.finishWriting();
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.scans;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.util.scans.similarity.SpectralSimilarityFunction;
+import net.sf.mzmine.util.scans.similarity.Weights;
+import net.sf.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarity;
+import net.sf.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarityParameters;
+
+/**
+ * Alignment and weighted cosine similarity of pairs of centroided spectra. Each pair consists of
+ * two neighbouring scans of the synthetic data, so most of the signals can be matched. The spectra
+ * are copied before each comparison, because the alignment sorts them in place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanAlignmentBenchmark {
+
+  @Param({"1000"})
+  public int numOfPairs;
+
+  @Param({"200"})
+  public int noisePeaksPerScan;
+
+  private final MZTolerance mzTolerance = new MZTolerance(0.002, 10);
+  private SpectralSimilarityFunction cosine;
+  private ParameterSet cosineParameters;
+  private DataPoint library[][], query[][];
+
+  @Setup(Level.Trial)
+  public void setup() {
+
+    BenchmarkEnvironment.init();
+
+    cosine = new WeightedCosineSpectralSimilarity();
+    cosineParameters = new WeightedCosineSpectralSimilarityParameters();
+    cosineParameters.getParameter(WeightedCosineSpectralSimilarityParameters.weight)
+        .setValue(Weights.MASSBANK);
+    cosineParameters.getParameter(WeightedCosineSpectralSimilarityParameters.minCosine)
+        .setValue(0.0);
+    cosineParameters.getParameter(WeightedCosineSpectralSimilarityParameters.removeUnmatched)
+        .setValue(false);
+
+    SyntheticLCMSData data = new SyntheticLCMSData(numOfPairs + 1, numOfPairs, noisePeaksPerScan);
+    library = new DataPoint[numOfPairs][];
+    query = new DataPoint[numOfPairs][];
+    for (int i = 0; i < numOfPairs; i++) {
+      library[i] = data.generateSpectrum(0, i, false);
+      query[i] = data.generateSpectrum(1, i + 1, false);
+    }
+
+  }
+
+  @Benchmark
+  public void align(Blackhole blackhole) {
+    for (int i = 0; i < numOfPairs; i++)
+      blackhole.consume(ScanAlignment.align(mzTolerance, library[i].clone(), query[i].clone()));
+  }
+
+  @Benchmark
+  public void weightedCosine(Blackhole blackhole) {
+    for (int i = 0; i < numOfPairs; i++)
+      blackhole.consume(cosine.getSimilarity(cosineParameters, mzTolerance, 0,
+          library[i].clone(), query[i].clone()));
+  }
+
+}
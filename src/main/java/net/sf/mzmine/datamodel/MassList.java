@@ -20,6 +20,8 @@ package net.sf.mzmine.datamodel;
 
 import javax.annotation.Nonnull;
 
+import com.google.common.collect.Range;
+
 /**
  * This class represent detected masses (ions) in one mass spectrum. Each ion is represented by a
  * DataPoint
@@ -35,4 +37,49 @@ public interface MassList {
   @Nonnull
   public DataPoint[] getDataPoints();
 
+  /**
+   * @return Number of detected masses
+   */
+  public default int getNumberOfDataPoints() {
+    return getDataPoints().length;
+  }
+
+  /**
+   * Copies the m/z and intensity values of the detected masses, sorted in m/z order, into the given
+   * arrays. Both arrays must hold at least getNumberOfDataPoints() values.
+   *
+   * @see MassSpectrum#getDataPoints(double[], double[])
+   * @return Number of data points copied into the arrays
+   */
+  public default int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+    final DataPoint dataPoints[] = getDataPoints();
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return dataPoints.length;
+  }
+
+  /**
+   * Copies the m/z and intensity values of the detected masses in given m/z range into the given
+   * arrays, starting at index 0.
+   *
+   * @see MassSpectrum#getDataPointsByMass(Range, double[], double[])
+   * @return Number of data points copied into the arrays
+   */
+  public default int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+      @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+    int count = 0;
+    for (DataPoint dp : getDataPoints()) {
+      if (dp.getMZ() > mzRange.upperEndpoint())
+        break;
+      if (dp.getMZ() >= mzRange.lowerEndpoint()) {
+        mzValues[count] = dp.getMZ();
+        intensityValues[count] = dp.getIntensity();
+        count++;
+      }
+    }
+    return count;
+  }
+
 }
@@ -95,4 +95,38 @@ public interface MassSpectrum {
   @Nonnull
   public DataPoint[] getDataPointsOverIntensity(double intensity);
 
+  /**
+   * Copies the m/z and intensity values of all data points, sorted in m/z order, into the given
+   * arrays. Both arrays must hold at least getNumberOfDataPoints() values. Unlike getDataPoints(),
+   * implementations do not need to create any DataPoint instances, so modules processing many scans
+   * should prefer this method and reuse the arrays.
+   *
+   * @return Number of data points copied into the arrays
+   */
+  public default int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+    final DataPoint dataPoints[] = getDataPoints();
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return dataPoints.length;
+  }
+
+  /**
+   * Copies the m/z and intensity values of the data points in given m/z range, sorted in m/z order,
+   * into the given arrays, starting at index 0. Both arrays must hold at least
+   * getNumberOfDataPoints() values.
+   *
+   * @return Number of data points copied into the arrays
+   */
+  public default int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+      @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+    final DataPoint dataPoints[] = getDataPointsByMass(mzRange);
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return dataPoints.length;
+  }
+
 }
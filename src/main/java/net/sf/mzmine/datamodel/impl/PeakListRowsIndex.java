@@ -0,0 +1,161 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.sf.mzmine.datamodel.PeakListRow;
+
+/**
+ * Index of feature list rows by their average m/z and RT, used for range queries. The rows are
+ * sorted both by m/z and by RT and each query scans the shorter of the two candidate intervals. The
+ * index is a snapshot of the rows and their average values at the time it was created.
+ */
+class PeakListRowsIndex {
+
+  private final PeakListRow rows[];
+  private final double mzValues[], rtValues[];
+
+  // Row positions sorted by m/z and by RT, and the sorted values
+  private final int mzOrder[], rtOrder[];
+  private final double sortedMZValues[], sortedRTValues[];
+
+  private final long rowsModCount;
+
+  /**
+   * @param rowsModCount modification counter of the feature list, read before the rows
+   */
+  PeakListRowsIndex(List<PeakListRow> rowList, long rowsModCount) {
+
+    // The counter is read before the values, so that concurrent changes invalidate the index
+    this.rowsModCount = rowsModCount;
+
+    rows = rowList.toArray(new PeakListRow[0]);
+    mzValues = new double[rows.length];
+    rtValues = new double[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      mzValues[i] = rows[i].getAverageMZ();
+      rtValues[i] = rows[i].getAverageRT();
+    }
+
+    mzOrder = createOrder(mzValues);
+    rtOrder = createOrder(rtValues);
+    sortedMZValues = new double[rows.length];
+    sortedRTValues = new double[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      sortedMZValues[i] = mzValues[mzOrder[i]];
+      sortedRTValues[i] = rtValues[rtOrder[i]];
+    }
+
+  }
+
+  /**
+   * Returns false if rows were added or removed or the average values of any row may have changed
+   * since the index was created
+   */
+  boolean isValid(long currentRowsModCount) {
+    return rowsModCount == currentRowsModCount;
+  }
+
+  /**
+   * Returns the rows inside given ranges, in the order of the feature list
+   */
+  PeakListRow[] getRowsInside(Range<Double> rtRange, Range<Double> mzRange) {
+
+    final int mzStart = getStartIndex(sortedMZValues, mzRange);
+    final int mzEnd = getEndIndex(sortedMZValues, mzRange);
+    final int rtStart = getStartIndex(sortedRTValues, rtRange);
+    final int rtEnd = getEndIndex(sortedRTValues, rtRange);
+
+    final int order[], start, end;
+    if (mzEnd - mzStart <= rtEnd - rtStart) {
+      order = mzOrder;
+      start = mzStart;
+      end = mzEnd;
+    } else {
+      order = rtOrder;
+      start = rtStart;
+      end = rtEnd;
+    }
+
+    final int positions[] = new int[Math.max(0, end - start)];
+    int numOfPositions = 0;
+    for (int i = start; i < end; i++) {
+      final int position = order[i];
+      if (rtRange.contains(rtValues[position]) && mzRange.contains(mzValues[position]))
+        positions[numOfPositions++] = position;
+    }
+
+    // Keep the order of the feature list
+    Arrays.sort(positions, 0, numOfPositions);
+
+    final PeakListRow rowsInside[] = new PeakListRow[numOfPositions];
+    for (int i = 0; i < numOfPositions; i++)
+      rowsInside[i] = rows[positions[i]];
+    return rowsInside;
+
+  }
+
+  private static int[] createOrder(double values[]) {
+    final int order[] = new int[values.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    IntArrays.quickSort(order, (i1, i2) -> Double.compare(values[i1], values[i2]));
+    return order;
+  }
+
+  /**
+   * Returns the index of the first value which is not below the range
+   */
+  private static int getStartIndex(double sortedValues[], Range<Double> range) {
+    if (!range.hasLowerBound())
+      return 0;
+    final double lowerBound = range.lowerEndpoint();
+    int low = 0, high = sortedValues.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (Double.compare(sortedValues[mid], lowerBound) < 0)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the index of the first value which is above the range
+   */
+  private static int getEndIndex(double sortedValues[], Range<Double> range) {
+    if (!range.hasUpperBound())
+      return sortedValues.length;
+    final double upperBound = range.upperEndpoint();
+    int low = 0, high = sortedValues.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (Double.compare(sortedValues[mid], upperBound) <= 0)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+}
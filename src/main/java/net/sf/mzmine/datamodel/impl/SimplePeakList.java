@@ -25,7 +25,10 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
+import javax.swing.SwingUtilities;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
@@ -48,6 +51,15 @@ public class SimplePeakList implements PeakList {
   private String dateCreated;
   private Range<Double> mzRange, rtRange;
 
+  // Index for range queries, created lazily and discarded when rows are added or removed
+  private volatile PeakListRowsIndex rowsIndex;
+
+  // Incremented when rows are added or removed or the average m/z or RT of a row changes
+  private final AtomicLong rowsModCount = new AtomicLong();
+
+  // Loads the rows on first access, if the feature list was opened without its rows
+  private volatile Callable<PeakListRow[]> rowsLoader;
+
   public static DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 
   public SimplePeakList(String name, RawDataFile dataFile) {
@@ -111,6 +123,7 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public int getNumberOfRows() {
+    loadRows();
     return peakListRows.size();
   }
 
@@ -122,6 +135,7 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public Feature getPeak(int row, RawDataFile rawDataFile) {
+    loadRows();
     return peakListRows.get(row).getPeak(rawDataFile);
   }
 
@@ -130,6 +144,7 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public Feature[] getPeaks(RawDataFile rawDataFile) {
+    loadRows();
     Vector<Feature> peakSet = new Vector<Feature>();
     for (int row = 0; row < getNumberOfRows(); row++) {
       Feature p = peakListRows.get(row).getPeak(rawDataFile);
@@ -144,11 +159,13 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public PeakListRow getRow(int row) {
+    loadRows();
     return peakListRows.get(row);
   }
 
   @Override
   public PeakListRow[] getRows() {
+    loadRows();
     return peakListRows.toArray(new PeakListRow[0]);
   }
 
@@ -166,18 +183,35 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public PeakListRow[] getRowsInsideScanAndMZRange(Range<Double> rtRange, Range<Double> mzRange) {
-    Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
+    return getRowsIndex().getRowsInside(rtRange, mzRange);
+  }
 
-    for (PeakListRow row : peakListRows) {
-      if (rtRange.contains(row.getAverageRT()) && mzRange.contains(row.getAverageMZ()))
-        rowsInside.add(row);
+  /**
+   * Returns the index of the rows, which is rebuilt if rows were added or removed or if the average
+   * m/z or RT of any row changed since it was created
+   */
+  private PeakListRowsIndex getRowsIndex() {
+    loadRows();
+    PeakListRowsIndex index = rowsIndex;
+    if ((index != null) && index.isValid(rowsModCount.get()))
+      return index;
+    synchronized (this) {
+      index = rowsIndex;
+      if ((index == null) || !index.isValid(rowsModCount.get())) {
+        index = new PeakListRowsIndex(peakListRows, rowsModCount.get());
+        rowsIndex = index;
+      }
+      return index;
     }
-
-    return rowsInside.toArray(new PeakListRow[0]);
   }
 
   @Override
   public void addRow(PeakListRow row) {
+    loadRows();
+    addRowWithoutLoading(row);
+  }
+
+  private void addRowWithoutLoading(PeakListRow row) {
     List<RawDataFile> myFiles = Arrays.asList(this.getRawDataFiles());
     for (RawDataFile testFile : row.getRawDataFiles()) {
       if (!myFiles.contains(testFile))
@@ -185,6 +219,10 @@ public class SimplePeakList implements PeakList {
     }
 
     peakListRows.add(row);
+    if (row instanceof SimplePeakListRow)
+      ((SimplePeakListRow) row).addPeakListModCount(rowsModCount);
+    rowsModCount.incrementAndGet();
+    rowsIndex = null;
     if (row.getDataPointMaxIntensity() > maxDataPointIntensity) {
       maxDataPointIntensity = row.getDataPointMaxIntensity();
     }
@@ -243,7 +281,12 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public void removeRow(PeakListRow row) {
+    loadRows();
     peakListRows.remove(row);
+    if (row instanceof SimplePeakListRow)
+      ((SimplePeakListRow) row).removePeakListModCount(rowsModCount);
+    rowsModCount.incrementAndGet();
+    rowsIndex = null;
 
     // We have to update the project tree model
     MZmineProjectImpl project =
@@ -259,10 +302,12 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public void removeRow(int rowNum) {
+    loadRows();
     removeRow(peakListRows.get(rowNum));
   }
 
   private void updateMaxIntensity() {
+    loadRows();
     maxDataPointIntensity = 0;
     mzRange = null;
     rtRange = null;
@@ -282,11 +327,13 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public Stream<PeakListRow> stream() {
+    loadRows();
     return peakListRows.stream();
   }
 
   @Override
   public Stream<PeakListRow> parallelStream() {
+    loadRows();
     return peakListRows.parallelStream();
   }
 
@@ -311,6 +358,7 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public double getDataPointMaxIntensity() {
+    loadRows();
     return maxDataPointIntensity;
   }
 
@@ -370,4 +418,48 @@ public class SimplePeakList implements PeakList {
   public PeakListRow findRowByID(int id) {
     return stream().filter(r -> r.getID() == id).findFirst().orElse(null);
   }
+
+  /**
+   * Sets the loader of the rows of a feature list that was opened without its rows. The rows are
+   * loaded by loadRows(), or when they are accessed for the first time.
+   */
+  public void setRowsLoader(Callable<PeakListRow[]> rowsLoader) {
+    this.rowsLoader = rowsLoader;
+  }
+
+  /**
+   * @return false if the rows of this feature list were not loaded yet
+   */
+  public boolean isLoaded() {
+    return rowsLoader == null;
+  }
+
+  /**
+   * Loads the rows of a feature list that was opened without its rows. Called by the first access to
+   * the rows, or by a task before the feature list is shown in the GUI.
+   */
+  public void loadRows() {
+    if (rowsLoader == null)
+      return;
+    synchronized (this) {
+      final Callable<PeakListRow[]> loader = rowsLoader;
+      if (loader == null)
+        return;
+      final PeakListRow rows[];
+      try {
+        rows = loader.call();
+      } catch (Exception e) {
+        throw new IllegalStateException("Could not load the rows of feature list " + name, e);
+      }
+      for (PeakListRow row : rows)
+        addRowWithoutLoading(row);
+      rowsLoader = null;
+    }
+
+    // Show the rows in the project tree
+    MZmineProjectImpl project =
+        (MZmineProjectImpl) MZmineCore.getProjectManager().getCurrentProject();
+    PeakListTreeModel treeModel = project.getPeakListTreeModel();
+    SwingUtilities.invokeLater(() -> treeModel.notifyObjectChanged(this, true));
+  }
 }
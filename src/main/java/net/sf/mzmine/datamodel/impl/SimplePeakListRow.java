@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -44,6 +45,12 @@ import net.sf.mzmine.util.SortingProperty;
  */
 public class SimplePeakListRow implements PeakListRow {
 
+  private static final AtomicLong NO_MOD_COUNTS[] = new AtomicLong[0];
+
+  // Modification counters of the feature lists containing this row, incremented when the average
+  // m/z or RT changes so the feature lists can tell if their row index is still up to date
+  private volatile AtomicLong peakListModCounts[] = NO_MOD_COUNTS;
+
   // faster than Hashtable
   private ConcurrentHashMap<RawDataFile, Feature> peaks;
   private Feature preferredPeak;
@@ -145,6 +152,26 @@ public class SimplePeakListRow implements PeakListRow {
     return rowCharge;
   }
 
+  synchronized void addPeakListModCount(AtomicLong modCount) {
+    for (AtomicLong existing : peakListModCounts) {
+      if (existing == modCount)
+        return;
+    }
+    AtomicLong newModCounts[] = Arrays.copyOf(peakListModCounts, peakListModCounts.length + 1);
+    newModCounts[peakListModCounts.length] = modCount;
+    peakListModCounts = newModCounts;
+  }
+
+  synchronized void removePeakListModCount(AtomicLong modCount) {
+    peakListModCounts = Arrays.stream(peakListModCounts).filter(existing -> existing != modCount)
+        .toArray(AtomicLong[]::new);
+  }
+
+  private void averageValuesChanged() {
+    for (AtomicLong modCount : peakListModCounts)
+      modCount.incrementAndGet();
+  }
+
   private synchronized void calculateAverageValues() {
     double rtSum = 0, mzSum = 0, heightSum = 0, areaSum = 0;
     int charge = 0;
@@ -163,6 +190,7 @@ public class SimplePeakListRow implements PeakListRow {
     }
     averageRT = rtSum / peaks.size();
     averageMZ = mzSum / peaks.size();
+    averageValuesChanged();
     averageHeight = heightSum / peaks.size();
     averageArea = areaSum / peaks.size();
     if (chargeArr.size() < 2) {
@@ -218,6 +246,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageMZ(double mz) {
     this.averageMZ = mz;
+    averageValuesChanged();
   }
 
   /**
@@ -226,6 +255,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageRT(double rt) {
     this.averageRT = rt;
+    averageValuesChanged();
   }
 
   /**
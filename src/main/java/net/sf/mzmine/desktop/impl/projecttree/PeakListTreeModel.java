@@ -32,6 +32,7 @@ import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
 
 /**
  * Project tree model implementation
@@ -78,6 +79,11 @@ public class PeakListTreeModel extends DefaultTreeModel {
       int childCount = getChildCount(rootNode);
       insertNodeInto(newNode, rootNode, childCount);
       final PeakList peakList = (PeakList) object;
+
+      // The rows of feature lists opened on demand are added when they are loaded
+      if ((peakList instanceof SimplePeakList) && !((SimplePeakList) peakList).isLoaded())
+        return;
+
       PeakListRow rows[] = peakList.getRows();
       for (int i = 0; i < rows.length; i++) {
         DefaultMutableTreeNode rowNode = new DefaultMutableTreeNode(rows[i]);
@@ -22,14 +22,18 @@ import java.awt.Window;
 import java.text.DecimalFormat;
 import org.w3c.dom.Element;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.projectmethods.projectsave.PeakListFormat;
+import net.sf.mzmine.modules.projectmethods.projectsave.ScanDataCompression;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
 import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.ComboParameter;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import net.sf.mzmine.parameters.parametertypes.submodules.OptionalModuleParameter;
+import net.sf.mzmine.project.impl.DataPointsCache;
 import net.sf.mzmine.util.ColorPalettes;
 import net.sf.mzmine.util.ExitCode;
 
@@ -52,6 +56,21 @@ public class MZminePreferences extends SimpleParameterSet {
 
   public static final NumOfThreadsParameter numOfThreads = new NumOfThreadsParameter();
 
+  public static final IntegerParameter spectraCacheSize = new IntegerParameter(
+      "Spectra cache size (MB)",
+      "Maximum memory used to keep recently read spectra and mass lists in memory (0 disables the cache)",
+      DataPointsCache.DEFAULT_SIZE_MB, 0, null);
+
+  public static final ComboParameter<ScanDataCompression> projectScanCompression =
+      new ComboParameter<>("Project scan data compression",
+          "Compression of the scan data in saved projects. Saving without compression is the fastest, but creates larger project files.",
+          ScanDataCompression.values(), ScanDataCompression.DEFLATE);
+
+  public static final ComboParameter<PeakListFormat> projectPeakListFormat =
+      new ComboParameter<>("Project feature list format",
+          "Format of the feature lists in saved projects. The binary format is smaller and faster to save and open, but cannot be opened by older versions of MZmine.",
+          PeakListFormat.values(), PeakListFormat.XML);
+
   public static final OptionalModuleParameter proxySettings = new OptionalModuleParameter(
       "Use proxy", "Use proxy for internet connection?", new ProxySettings());
 
@@ -70,7 +89,8 @@ public class MZminePreferences extends SimpleParameterSet {
 
   public MZminePreferences() {
     super(new Parameter[] {colorPalettes, mzFormat, rtFormat, intensityFormat, numOfThreads,
-        proxySettings, rExecPath, sendStatistics, windowSetttings, sendErrorEMail});
+        spectraCacheSize, projectScanCompression, projectPeakListFormat, proxySettings, rExecPath,
+        sendStatistics, windowSetttings, sendErrorEMail});
   }
 
   @Override
@@ -83,6 +103,9 @@ public class MZminePreferences extends SimpleParameterSet {
       // Update proxy settings
       updateSystemProxySettings();
 
+      // Update spectra cache size
+      updateSpectraCacheSize();
+
       // Repaint windows to update number formats
       MZmineCore.getDesktop().getMainWindow().repaint();
     }
@@ -94,6 +117,24 @@ public class MZminePreferences extends SimpleParameterSet {
   public void loadValuesFromXML(Element xmlElement) {
     super.loadValuesFromXML(xmlElement);
     updateSystemProxySettings();
+    updateSpectraCacheSize();
+  }
+
+  /**
+   * @return the number of concurrently running tasks, which is also the number of threads used by a
+   *         task that processes its data in parallel
+   */
+  public int getNumOfThreads() {
+    NumOfThreadsParameter parameter = getParameter(numOfThreads);
+    if (parameter.isAutomatic() || (parameter.getValue() == null))
+      return Runtime.getRuntime().availableProcessors();
+    return Math.max(1, parameter.getValue());
+  }
+
+  private void updateSpectraCacheSize() {
+    Integer cacheSize = getParameter(spectraCacheSize).getValue();
+    if (cacheSize != null)
+      DataPointsCache.getInstance().setMaximumSize((long) cacheSize << 20);
   }
 
   private void updateSystemProxySettings() {
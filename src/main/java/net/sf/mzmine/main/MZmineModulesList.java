@@ -62,6 +62,8 @@ import net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch.Loc
 import net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch.sort.SortSpectralDBIdentitiesModule;
 import net.sf.mzmine.modules.peaklistmethods.io.adap.mgfexport.AdapMgfExportModule;
 import net.sf.mzmine.modules.peaklistmethods.io.adap.mspexport.AdapMspExportModule;
+import net.sf.mzmine.modules.peaklistmethods.io.binaryexport.BinaryExportModule;
+import net.sf.mzmine.modules.peaklistmethods.io.binaryimport.BinaryImportModule;
 import net.sf.mzmine.modules.peaklistmethods.io.csvexport.CSVExportModule;
 import net.sf.mzmine.modules.peaklistmethods.io.gnpsexport.fbmn.GnpsFbmnExportAndSubmitModule;
 import net.sf.mzmine.modules.peaklistmethods.io.gnpsexport.gc.GnpsGcExportAndSubmitModule;
@@ -194,8 +196,10 @@ public class MZmineModulesList {
       MzTabExportModule.class, //
       SQLExportModule.class, //
       XMLExportModule.class, //
+      BinaryExportModule.class, //
       MzTabImportModule.class, //
       XMLImportModule.class, //
+      BinaryImportModule.class, //
       AdapMspExportModule.class, //
       AdapMgfExportModule.class, //
       GnpsFbmnExportAndSubmitModule.class, //
@@ -57,6 +57,9 @@ public class BatchTask extends AbstractTask {
   private final List<RawDataFile> createdDataFiles, previousCreatedDataFiles;
   private final List<PeakList> createdPeakLists, previousCreatedPeakLists;
 
+  // Tasks of the batch step being processed
+  private volatile List<Task> stepTasks;
+
   BatchTask(MZmineProject project, ParameterSet parameters) {
     this.project = project;
     this.queue = parameters.getParameter(BatchModeParameters.batchQueue).getValue();
@@ -195,64 +198,63 @@ public class BatchTask extends AbstractTask {
     if (currentStepTasks.isEmpty())
       return;
 
-    boolean allTasksFinished = false;
-
     // Submit the tasks to the task controller for processing
+    stepTasks = currentStepTasks;
     MZmineCore.getTaskController().addTasks(currentStepTasks.toArray(new Task[0]));
 
-    while (!allTasksFinished) {
-
-      // If we canceled the batch, cancel all running tasks
-      if (isCanceled()) {
-        for (Task stepTask : currentStepTasks)
-          stepTask.cancel();
-        return;
-      }
-
-      // First set to true, then check all tasks
-      allTasksFinished = true;
+    try {
+      MZmineCore.getTaskController().waitForTasks(currentStepTasks);
+    } catch (InterruptedException e) {
+      cancel();
+    } finally {
+      stepTasks = null;
+    }
 
-      for (Task stepTask : currentStepTasks) {
+    // If we canceled the batch, cancel all running tasks
+    if (isCanceled()) {
+      for (Task stepTask : currentStepTasks)
+        stepTask.cancel();
+      return;
+    }
 
-        TaskStatus stepStatus = stepTask.getStatus();
+    for (Task stepTask : currentStepTasks) {
 
-        // If any of them is not finished, keep checking
-        if (stepStatus != TaskStatus.FINISHED)
-          allTasksFinished = false;
-
-        // If there was an error, we have to stop the whole batch
-        if (stepStatus == TaskStatus.ERROR) {
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
-          return;
-        }
-
-        // If user canceled any of the tasks, we have to cancel the
-        // whole batch
-        if (stepStatus == TaskStatus.CANCELED) {
-          setStatus(TaskStatus.CANCELED);
-          for (Task t : currentStepTasks)
-            t.cancel();
-          return;
-        }
+      TaskStatus stepStatus = stepTask.getStatus();
 
+      // If there was an error, we have to stop the whole batch. A task which is not finished after
+      // its thread ended failed with an unhandled exception.
+      if ((stepStatus == TaskStatus.ERROR) || (stepStatus == TaskStatus.WAITING)
+          || (stepStatus == TaskStatus.PROCESSING)) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
+        return;
       }
 
-      // Wait 1s before checking the tasks again
-      if (!allTasksFinished) {
-        synchronized (this) {
-          try {
-            this.wait(1000);
-          } catch (InterruptedException e) {
-            // ignore
-          }
-        }
+      // If user canceled any of the tasks, we have to cancel the
+      // whole batch
+      if (stepStatus == TaskStatus.CANCELED) {
+        setStatus(TaskStatus.CANCELED);
+        for (Task t : currentStepTasks)
+          t.cancel();
+        return;
       }
 
     }
 
   }
 
+  @Override
+  public void cancel() {
+    super.cancel();
+
+    // Cancel the tasks of the current step, so we don't wait for them
+    final List<Task> currentStepTasks = stepTasks;
+    if (currentStepTasks != null) {
+      for (Task stepTask : currentStepTasks)
+        stepTask.cancel();
+    }
+  }
+
   @Override
   public TaskPriority getTaskPriority() {
     // to not block mzmine when run with single thread
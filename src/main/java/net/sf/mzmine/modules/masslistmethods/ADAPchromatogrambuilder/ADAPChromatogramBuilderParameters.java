@@ -26,6 +26,7 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.dialogs.ParameterSetupDialog;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.DoubleParameter;
 import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.MassListParameter;
@@ -69,9 +70,15 @@ public class ADAPChromatogramBuilderParameters extends SimpleParameterSet {
       MZmineCore.getConfiguration().getIntensityFormat());
   // End Owen Edit
 
+  public static final BooleanParameter streaming = new BooleanParameter("Streaming (low memory)",
+      "Build the chromatograms scan by scan instead of sorting all data points by intensity.\n"
+          + "Only the currently open chromatograms are kept in memory. A chromatogram is closed when\n"
+          + "it has no data points in more scans than the min group size.",
+      false);
+
   public ADAPChromatogramBuilderParameters() {
     super(new Parameter[] {dataFiles, scanSelection, massList, minimumScanSpan, IntensityThresh2,
-        startIntensity, mzTolerance, suffix});
+        startIntensity, mzTolerance, streaming, suffix});
   }
 
   public ExitCode showSetupDialog(Window parent, boolean valueCheckRequired) {
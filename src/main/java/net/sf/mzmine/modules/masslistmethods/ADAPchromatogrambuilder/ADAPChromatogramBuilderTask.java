@@ -79,6 +79,7 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
   // Owen added User parameers;
   private double IntensityThresh2;
   private double minIntensityForStartChrom;
+  private boolean streaming;
 
   private SimplePeakList newPeakList;
 
@@ -114,6 +115,8 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
         parameters.getParameter(ADAPChromatogramBuilderParameters.IntensityThresh2).getValue();
     this.minIntensityForStartChrom =
         parameters.getParameter(ADAPChromatogramBuilderParameters.startIntensity).getValue();
+    this.streaming =
+        parameters.getParameter(ADAPChromatogramBuilderParameters.streaming).getValue();
 
 
   }
@@ -196,6 +199,13 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
     // Create new feature list
     newPeakList = new SimplePeakList(dataFile + " " + suffix, dataFile);
 
+    if (streaming) {
+      List<ADAPChromatogram> chromatograms = buildChromatogramsStreaming(allScanNumbers);
+      if (chromatograms != null)
+        addChromatograms(chromatograms.toArray(new ADAPChromatogram[0]));
+      return;
+    }
+
     // make a list of all the data points
     // sort data points by intensity
     // loop through list
@@ -409,6 +419,63 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
     ADAPChromatogram[] chromatograms = buildingChromatograms.toArray(new ADAPChromatogram[0]);
 
 
+    addChromatograms(chromatograms);
+  }
+
+  /**
+   * Builds the chromatograms scan by scan, see {@link ADAPStreamingChromatogramBuilder}. Closed
+   * chromatograms are filtered right away.
+   *
+   * @return the chromatograms or null if the task was canceled or failed
+   */
+  private List<ADAPChromatogram> buildChromatogramsStreaming(int allScanNumbers[]) {
+
+    List<ADAPChromatogram> buildingChromatograms = new ArrayList<ADAPChromatogram>();
+    ADAPStreamingChromatogramBuilder builder = new ADAPStreamingChromatogramBuilder(dataFile,
+        allScanNumbers, mzTolerance, minIntensityForStartChrom, minimumScanSpan, chromatogram -> {
+          // remove chromatograms who dont have a certian number of continous points above the
+          // IntensityThresh2 level.
+          if (chromatogram
+              .findNumberOfContinuousPointsAboveNoise(IntensityThresh2) >= minimumScanSpan)
+            buildingChromatograms.add(chromatogram);
+        });
+
+    progress = 0.0;
+    for (int i = 0; i < scans.length; i++) {
+      if (isCanceled())
+        return null;
+
+      Scan scan = scans[i];
+      MassList massList = scan.getMassList(massListName);
+      if (massList == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Scan " + dataFile + " #" + scan.getScanNumber()
+            + " does not have a mass list " + massListName);
+        return null;
+      }
+
+      DataPoint mzValues[] = massList.getDataPoints();
+      if (mzValues == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Mass list " + massListName + " does not contain m/z values for scan #"
+            + scan.getScanNumber() + " of file " + dataFile);
+        return null;
+      }
+
+      builder.addScan(scan.getScanNumber(), mzValues);
+      progress = (double) (i + 1) / scans.length;
+    }
+    builder.finish();
+
+    return buildingChromatograms;
+  }
+
+  /**
+   * Adds the chromatograms, sorted by m/z, to the new feature list and the feature list to the
+   * project
+   */
+  private void addChromatograms(ADAPChromatogram chromatograms[]) {
+
     // Sort the final chromatograms by m/z
     Arrays.sort(chromatograms, new PeakSorter(SortingProperty.MZ, SortingDirection.Ascending));
 
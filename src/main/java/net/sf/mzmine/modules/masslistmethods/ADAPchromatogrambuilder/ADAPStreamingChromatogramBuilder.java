@@ -0,0 +1,296 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+
+/**
+ * Builds ADAP chromatograms scan by scan, in retention time order. Only the m/z regions of the
+ * currently open chromatograms are kept, sorted by m/z in primitive arrays. A region is created the
+ * same way as in the intensity ordered algorithm of {@link ADAPChromatogramBuilderTask} (m/z
+ * tolerance around the point, not overlapping other regions), but from the most intense points of
+ * each scan instead of the most intense points of the whole run. A chromatogram is closed and
+ * passed to the consumer when its region did not get a data point for maxGap scans, so memory
+ * depends on the number of concurrently open ions, not on the number of data points. The data
+ * points below the start intensity of the last maxGap scans are kept, so a new region also gets the
+ * less intense points preceding its first intense point, as in the original algorithm.
+ */
+public class ADAPStreamingChromatogramBuilder {
+
+  private final RawDataFile dataFile;
+  private final int allScanNumbers[];
+  private final MZTolerance mzTolerance;
+  private final double minIntensityForStartChrom;
+  private final int maxGap;
+  private final Consumer<ADAPChromatogram> closedChromatograms;
+
+  // Open regions sorted by m/z: open range (lower, upper), chromatogram, index of the last scan with
+  // a data point and highest intensity
+  private int size = 0;
+  private double lower[] = new double[256], upper[] = new double[256];
+  private ADAPChromatogram chromatograms[] = new ADAPChromatogram[256];
+  private int lastScanIndex[] = new int[256];
+  private double maxIntensity[] = new double[256];
+
+  private int scanIndex = -1;
+
+  // Ring buffer of the last maxGap scans: data points below minIntensityForStartChrom which were
+  // not added to any region, sorted by m/z. Points are set to null when a new region takes them.
+  private final int bufferedScanNumbers[];
+  private final double bufferedMZValues[][];
+  private final DataPoint bufferedPoints[][];
+
+  /**
+   * @param allScanNumbers all scans of the chromatograms
+   * @param maxGap number of scans without data point, after which a chromatogram is closed
+   * @param closedChromatograms receives the finished chromatograms
+   */
+  public ADAPStreamingChromatogramBuilder(RawDataFile dataFile, int allScanNumbers[],
+      MZTolerance mzTolerance, double minIntensityForStartChrom, int maxGap,
+      Consumer<ADAPChromatogram> closedChromatograms) {
+    this.dataFile = dataFile;
+    this.allScanNumbers = allScanNumbers;
+    this.mzTolerance = mzTolerance;
+    this.minIntensityForStartChrom = minIntensityForStartChrom;
+    this.maxGap = maxGap;
+    this.closedChromatograms = closedChromatograms;
+
+    final int bufferSize = Math.max(maxGap, 0);
+    this.bufferedScanNumbers = new int[bufferSize];
+    this.bufferedMZValues = new double[bufferSize][];
+    this.bufferedPoints = new DataPoint[bufferSize][];
+  }
+
+  /**
+   * Adds the data points of the next scan. Scans must be added in the order of allScanNumbers.
+   */
+  public void addScan(int scanNumber, DataPoint dataPoints[]) {
+
+    scanIndex++;
+
+    // Most intense points first, the first point of a scan is kept in each chromatogram
+    DataPoint sortedPoints[] = dataPoints.clone();
+    Arrays.sort(sortedPoints,
+        new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+
+    // Less intense points are processed after all regions of this scan have been opened
+    List<DataPoint> belowThreshold = new ArrayList<>();
+
+    for (DataPoint dp : sortedPoints) {
+
+      if (dp == null || Double.isNaN(dp.getMZ()) || Double.isNaN(dp.getIntensity()))
+        continue;
+
+      final double mz = dp.getMZ();
+      int region = findRegion(mz);
+      if (region < 0) {
+
+        // keep it for a region opened in the next maxGap scans, if the intensity is not high
+        // enough to start a chromatogram
+        if (dp.getIntensity() < minIntensityForStartChrom) {
+          belowThreshold.add(dp);
+          continue;
+        }
+
+        // Make the new region span the m/z tolerance, without overlapping neighboring regions
+        final Range<Double> toleranceRange = mzTolerance.getToleranceRange(mz);
+        final int plusRegion = findRegion(toleranceRange.upperEndpoint());
+        final int minusRegion = findRegion(toleranceRange.lowerEndpoint());
+        final double newLower =
+            minusRegion < 0 ? toleranceRange.lowerEndpoint() : upper[minusRegion];
+        final double newUpper =
+            plusRegion < 0 ? toleranceRange.upperEndpoint() : lower[plusRegion];
+
+        if (newLower < newUpper) {
+          region = insertRegion(newLower, newUpper);
+          addBufferedPoints(region);
+        } else if (newLower == newUpper && plusRegion >= 0) {
+          region = plusRegion;
+        } else {
+          throw new IllegalStateException(
+              String.format("Incorrect range [%f, %f] for m/z %f", newLower, newUpper, mz));
+        }
+      }
+
+      chromatograms[region].addMzPeak(scanNumber, dp);
+      lastScanIndex[region] = scanIndex;
+      if (dp.getIntensity() > maxIntensity[region]) {
+        maxIntensity[region] = dp.getIntensity();
+        chromatograms[region].setHighPointMZ(mz);
+      }
+    }
+
+    bufferPoints(scanNumber, belowThreshold);
+    closeRegions(scanIndex - maxGap);
+  }
+
+  /**
+   * Closes all remaining chromatograms
+   */
+  public void finish() {
+    closeRegions(Integer.MAX_VALUE);
+  }
+
+  /**
+   * @return number of currently open chromatograms
+   */
+  public int getNumberOfOpenChromatograms() {
+    return size;
+  }
+
+  /**
+   * @return index of the open region containing mz, or -1
+   */
+  private int findRegion(double mz) {
+    // last region with lower < mz
+    int low = 0, high = size - 1, found = -1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (lower[mid] < mz) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found >= 0 && mz < upper[found] ? found : -1;
+  }
+
+  private int insertRegion(double newLower, double newUpper) {
+    if (size == lower.length) {
+      final int newLength = size * 2;
+      lower = Arrays.copyOf(lower, newLength);
+      upper = Arrays.copyOf(upper, newLength);
+      chromatograms = Arrays.copyOf(chromatograms, newLength);
+      lastScanIndex = Arrays.copyOf(lastScanIndex, newLength);
+      maxIntensity = Arrays.copyOf(maxIntensity, newLength);
+    }
+
+    int index = size;
+    while (index > 0 && lower[index - 1] > newLower)
+      index--;
+    final int moved = size - index;
+    System.arraycopy(lower, index, lower, index + 1, moved);
+    System.arraycopy(upper, index, upper, index + 1, moved);
+    System.arraycopy(chromatograms, index, chromatograms, index + 1, moved);
+    System.arraycopy(lastScanIndex, index, lastScanIndex, index + 1, moved);
+    System.arraycopy(maxIntensity, index, maxIntensity, index + 1, moved);
+
+    lower[index] = newLower;
+    upper[index] = newUpper;
+    chromatograms[index] = new ADAPChromatogram(dataFile, allScanNumbers);
+    lastScanIndex[index] = scanIndex;
+    maxIntensity[index] = 0;
+    size++;
+    return index;
+  }
+
+  /**
+   * Stores the less intense points of the current scan in the ring buffer, replacing the oldest scan
+   */
+  private void bufferPoints(int scanNumber, List<DataPoint> points) {
+    if (bufferedPoints.length == 0)
+      return;
+    final DataPoint sortedPoints[] = points.toArray(new DataPoint[points.size()]);
+    Arrays.sort(sortedPoints, new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
+    final double mzValues[] = new double[sortedPoints.length];
+    for (int i = 0; i < sortedPoints.length; i++)
+      mzValues[i] = sortedPoints[i].getMZ();
+
+    final int slot = scanIndex % bufferedPoints.length;
+    bufferedScanNumbers[slot] = scanNumber;
+    bufferedMZValues[slot] = mzValues;
+    bufferedPoints[slot] = sortedPoints;
+  }
+
+  /**
+   * Adds the buffered points of the previous maxGap scans within the m/z range of a new region to
+   * its chromatogram, the most intense point of each scan
+   */
+  private void addBufferedPoints(int region) {
+    for (int i = Math.max(0, scanIndex - bufferedPoints.length); i < scanIndex; i++) {
+      final int slot = i % bufferedPoints.length;
+      final double mzValues[] = bufferedMZValues[slot];
+      final DataPoint points[] = bufferedPoints[slot];
+
+      // first point with lower < mz
+      int index = Arrays.binarySearch(mzValues, lower[region]);
+      index = index < 0 ? -index - 1 : index;
+      while (index < mzValues.length && mzValues[index] <= lower[region])
+        index++;
+
+      DataPoint best = null;
+      for (; index < mzValues.length && mzValues[index] < upper[region]; index++) {
+        if (points[index] == null)
+          continue;
+        if (best == null || points[index].getIntensity() > best.getIntensity())
+          best = points[index];
+        points[index] = null;
+      }
+
+      if (best != null) {
+        chromatograms[region].addMzPeak(bufferedScanNumbers[slot], best);
+        if (best.getIntensity() > maxIntensity[region]) {
+          maxIntensity[region] = best.getIntensity();
+          chromatograms[region].setHighPointMZ(best.getMZ());
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes the chromatograms without data points after the given scan index, keeping the m/z order
+   * of the remaining regions
+   */
+  private void closeRegions(int lastOpenScanIndex) {
+    int kept = 0;
+    for (int i = 0; i < size; i++) {
+      if (lastScanIndex[i] < lastOpenScanIndex) {
+        ADAPChromatogram chromatogram = chromatograms[i];
+        chromatograms[i] = null;
+        chromatogram.finishChromatogram();
+        closedChromatograms.accept(chromatogram);
+        continue;
+      }
+      if (kept != i) {
+        lower[kept] = lower[i];
+        upper[kept] = upper[i];
+        chromatograms[kept] = chromatograms[i];
+        lastScanIndex[kept] = lastScanIndex[i];
+        maxIntensity[kept] = maxIntensity[i];
+        chromatograms[i] = null;
+      }
+      kept++;
+    }
+    size = kept;
+  }
+
+}
@@ -18,19 +18,23 @@
 
 package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import com.google.common.collect.Range;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import net.sf.mzmine.util.DataPointSorter;
-import net.sf.mzmine.util.SortingDirection;
-import net.sf.mzmine.util.SortingProperty;
 
 public class HighestDataPointConnector {
 
@@ -42,6 +46,16 @@ public class HighestDataPointConnector {
   // Mapping of last data point m/z --> chromatogram
   private Set<Chromatogram> buildingChromatograms;
 
+  // Building chromatograms sorted by the m/z of their last data point at the beginning of the scan
+  private Chromatogram indexedChromatograms[] = new Chromatogram[0];
+  private double indexedMZValues[] = new double[0];
+
+  // Chromatograms created in the last scan, which are not indexed yet
+  private final List<Chromatogram> createdChromatograms = new ArrayList<>();
+
+  // Positions of the chromatograms in buildingChromatograms, used to resolve ties
+  private Object2IntMap<Chromatogram> positions;
+
   public HighestDataPointConnector(RawDataFile dataFile, int allScanNumbers[],
       double minimumTimeSpan, double minimumHeight, MZTolerance mzTolerance) {
 
@@ -60,31 +74,50 @@ public class HighestDataPointConnector {
 
   public void addScan(int scanNumber, DataPoint mzValues[]) {
 
-    // Sort m/z peaks by descending intensity
-    Arrays.sort(mzValues,
-        new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+    final double mzArray[] = new double[mzValues.length];
+    final double intensityArray[] = new double[mzValues.length];
+    for (int i = 0; i < mzValues.length; i++) {
+      mzArray[i] = mzValues[i].getMZ();
+      intensityArray[i] = mzValues[i].getIntensity();
+    }
 
-    // Set of already connected chromatograms in each iteration
-    Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
+    addScan(scanNumber, mzArray, intensityArray, mzValues.length);
 
-    // TODO: these two nested cycles should be optimized for speed
-    for (DataPoint mzPeak : mzValues) {
+  }
 
-      // Search for best chromatogram, which has highest last data point
-      Chromatogram bestChromatogram = null;
+  /**
+   * Connects the given m/z peaks, which are passed as primitive arrays to avoid creating DataPoint
+   * instances for the peaks that do not end up in any chromatogram. The arrays are not modified.
+   */
+  public void addScan(int scanNumber, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
+
+    // Sort m/z peaks by descending intensity (and descending m/z in case of equal intensities).
+    // Merge sort is stable, so the order is the same as if we sorted DataPoints using the
+    // DataPointSorter.
+    final int order[] = new int[numOfDataPoints];
+    for (int i = 0; i < numOfDataPoints; i++)
+      order[i] = i;
+    IntArrays.mergeSort(order, (i1, i2) -> {
+      int result = Double.compare(intensityValues[i2], intensityValues[i1]);
+      if (result == 0)
+        result = Double.compare(mzValues[i2], mzValues[i1]);
+      return result;
+    });
+
+    // Index the building chromatograms by the m/z of their last data point
+    buildIndex();
+
+    // Set of already connected chromatograms in each iteration
+    Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
 
-      for (Chromatogram testChrom : buildingChromatograms) {
+    for (int index : order) {
 
-        DataPoint lastMzPeak = testChrom.getLastMzPeak();
-        Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
-        if (toleranceRange.contains(mzPeak.getMZ())) {
-          if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
-              .getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())) {
-            bestChromatogram = testChrom;
-          }
-        }
+      final double mz = mzValues[index];
+      final double intensity = intensityValues[index];
 
-      }
+      // Search for best chromatogram, which has highest last data point
+      Chromatogram bestChromatogram = findBestChromatogram(mz);
 
       // If we found best chromatogram, check if it is already connected.
       // In such case, we may discard this mass and continue. If we
@@ -95,10 +128,11 @@ public class HighestDataPointConnector {
         }
       } else {
         bestChromatogram = new Chromatogram(dataFile, allScanNumbers);
+        createdChromatograms.add(bestChromatogram);
       }
 
       // Add this mzPeak to the chromatogram
-      bestChromatogram.addMzPeak(scanNumber, mzPeak);
+      bestChromatogram.addMzPeak(scanNumber, new SimpleDataPoint(mz, intensity));
 
       // Move the chromatogram to the set of connected chromatograms
       connectedChromatograms.add(bestChromatogram);
@@ -139,6 +173,136 @@ public class HighestDataPointConnector {
 
   }
 
+  /**
+   * Updates the m/z index of the building chromatograms. The chromatograms which were already
+   * indexed in the previous scan moved by at most one m/z tolerance window, so their order is
+   * almost preserved and insertion sort is cheap. The chromatograms created in the previous scan are
+   * sorted separately and merged in.
+   */
+  private void buildIndex() {
+
+    final int numOfChromatograms = buildingChromatograms.size();
+    final Chromatogram chromatograms[] = new Chromatogram[numOfChromatograms];
+    final double lastMZValues[] = new double[numOfChromatograms];
+
+    // Keep the indexed chromatograms which were not discarded
+    int numOfIndexed = 0;
+    for (Chromatogram chromatogram : indexedChromatograms) {
+      if (!buildingChromatograms.contains(chromatogram))
+        continue;
+      final double lastMZ = chromatogram.getLastMzPeak().getMZ();
+      int i = numOfIndexed++;
+      while ((i > 0) && (lastMZValues[i - 1] > lastMZ)) {
+        chromatograms[i] = chromatograms[i - 1];
+        lastMZValues[i] = lastMZValues[i - 1];
+        i--;
+      }
+      chromatograms[i] = chromatogram;
+      lastMZValues[i] = lastMZ;
+    }
+
+    // Merge with the new chromatograms
+    createdChromatograms.sort(Comparator.comparingDouble(c -> c.getLastMzPeak().getMZ()));
+    indexedChromatograms = new Chromatogram[numOfChromatograms];
+    indexedMZValues = new double[numOfChromatograms];
+    int i = 0, j = 0;
+    for (int k = 0; k < numOfChromatograms; k++) {
+      if ((j >= createdChromatograms.size()) || ((i < numOfIndexed)
+          && (lastMZValues[i] <= createdChromatograms.get(j).getLastMzPeak().getMZ()))) {
+        indexedChromatograms[k] = chromatograms[i];
+        indexedMZValues[k] = lastMZValues[i];
+        i++;
+      } else {
+        indexedChromatograms[k] = createdChromatograms.get(j);
+        indexedMZValues[k] = indexedChromatograms[k].getLastMzPeak().getMZ();
+        j++;
+      }
+    }
+
+    createdChromatograms.clear();
+    positions = null;
+
+  }
+
+  /**
+   * Returns the position of given chromatogram in buildingChromatograms. Only needed to resolve
+   * ties, so the positions are calculated lazily.
+   */
+  private int getPosition(Chromatogram chromatogram) {
+    if (positions == null) {
+      positions = new Object2IntOpenHashMap<>(buildingChromatograms.size());
+      int position = 0;
+      for (Chromatogram c : buildingChromatograms)
+        positions.put(c, position++);
+    }
+    return positions.getInt(chromatogram);
+  }
+
+  /**
+   * Finds the building chromatogram with the highest last data point within m/z tolerance of the
+   * given m/z value, or null if there is no such chromatogram. Among chromatograms with equal last
+   * intensity, the one which comes first in buildingChromatograms is returned.
+   */
+  private Chromatogram findBestChromatogram(double mz) {
+
+    // The index contains the last m/z values at the beginning of the scan, but the chromatograms
+    // which were already connected in this scan have moved by up to one tolerance window since.
+    // Therefore we search within two tolerance windows and check the current last m/z values.
+    final double searchWindow = getSearchWindow(mz);
+    final double minMZ = mz - searchWindow;
+    final double maxMZ = mz + searchWindow;
+
+    int low = 0, high = indexedMZValues.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (indexedMZValues[mid] < minMZ)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    Chromatogram bestChromatogram = null;
+    double bestIntensity = 0;
+
+    for (int i = low; (i < indexedMZValues.length) && (indexedMZValues[i] <= maxMZ); i++) {
+
+      final Chromatogram testChrom = indexedChromatograms[i];
+      final DataPoint lastMzPeak = testChrom.getLastMzPeak();
+      final Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
+      if (!toleranceRange.contains(mz))
+        continue;
+
+      final double lastIntensity = lastMzPeak.getIntensity();
+      if ((bestChromatogram == null) || (lastIntensity > bestIntensity)
+          || ((lastIntensity == bestIntensity)
+              && (getPosition(testChrom) < getPosition(bestChromatogram)))) {
+        bestChromatogram = testChrom;
+        bestIntensity = lastIntensity;
+      }
+
+    }
+
+    return bestChromatogram;
+
+  }
+
+  /**
+   * Returns the maximum distance between the given m/z value and the indexed m/z value of a
+   * chromatogram which may be within tolerance of the m/z value
+   */
+  private double getSearchWindow(double mz) {
+    final double relativeTolerance = mzTolerance.getPpmTolerance() / 1000000.0;
+    if (relativeTolerance >= 0.5)
+      return Double.POSITIVE_INFINITY;
+    // Upper bound of the m/z values involved, the tolerance is highest there
+    final double absoluteTolerance = mzTolerance.getMzTolerance();
+    final double maxMZ =
+        (mz + 2 * absoluteTolerance) / ((1 - relativeTolerance) * (1 - relativeTolerance));
+    final double maxTolerance = mzTolerance.getMzToleranceForMass(maxMZ);
+    // Add a small margin to avoid rounding issues, the exact check is done afterwards
+    return 2 * maxTolerance * 1.000001 + 1E-9;
+  }
+
   public Chromatogram[] finishChromatograms() {
 
     // Iterate through current chromatograms and remove those which do not
@@ -18,12 +18,17 @@
 
 package net.sf.mzmine.modules.peaklistmethods.alignment.join;
 
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.BitSet;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.IsotopePattern;
 import net.sf.mzmine.datamodel.MZmineProject;
@@ -33,6 +38,7 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreCalculator;
 import net.sf.mzmine.parameters.ParameterSet;
@@ -53,7 +59,8 @@ public class JoinAlignerTask extends AbstractTask {
   private PeakList peakLists[], alignedPeakList;
 
   // Processed rows counter
-  private int processedRows, totalRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows;
 
   private String peakListName;
   private MZTolerance mzTolerance;
@@ -129,7 +136,7 @@ public class JoinAlignerTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0f;
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   /**
@@ -177,125 +184,66 @@ public class JoinAlignerTask extends AbstractTask {
     // Iterate source feature lists
     for (PeakList peakList : peakLists) {
 
-      // Create a sorted set of scores matching
-      TreeSet<RowVsRowScore> scoreSet = new TreeSet<RowVsRowScore>();
-
       PeakListRow allRows[] = peakList.getRows();
 
-      // Calculate scores for all possible alignments of this row
-      for (PeakListRow row : allRows) {
-
-        if (isCanceled())
-          return;
-
-        // Calculate limits for a row with which the row can be aligned
-        Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
-        Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
-
-        // Get all rows of the aligned peaklist within parameter limits
-        PeakListRow candidateRows[] = alignedPeakList.getRowsInsideScanAndMZRange(rtRange, mzRange);
-
-        // Calculate scores and store them
-        for (PeakListRow candidate : candidateRows) {
-
-          if (sameChargeRequired) {
-            if (!PeakUtils.compareChargeState(row, candidate))
-              continue;
-          }
-
-          if (sameIDRequired) {
-            if (!PeakUtils.compareIdentities(row, candidate))
-              continue;
-          }
-
-          if (compareIsotopePattern) {
-            IsotopePattern ip1 = row.getBestIsotopePattern();
-            IsotopePattern ip2 = candidate.getBestIsotopePattern();
-
-            if ((ip1 != null) && (ip2 != null)) {
-              ParameterSet isotopeParams =
-                  parameters.getParameter(JoinAlignerParameters.compareIsotopePattern)
-                      .getEmbeddedParameters();
-
-              if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
-                continue;
-              }
-            }
-          }
+      // Positions of the rows of the aligned feature list
+      final PeakListRow alignedRows[] = alignedPeakList.getRows();
+      final Object2IntMap<PeakListRow> alignedRowIndexes =
+          new Object2IntOpenHashMap<>(alignedRows.length);
+      for (int i = 0; i < alignedRows.length; i++)
+        alignedRowIndexes.put(alignedRows[i], i);
+
+      // Calculate scores for all possible alignments of each row, in parallel
+      final int candidateIndexes[][] = new int[allRows.length][];
+      final double candidateScores[][] = new double[allRows.length][];
+      final ForkJoinPool pool =
+          new ForkJoinPool(MZmineCore.getConfiguration().getPreferences().getNumOfThreads());
+      try {
+        pool.submit(() -> IntStream.range(0, allRows.length).parallel().forEach(i -> {
+          if (isCanceled())
+            return;
+          calculateScores(allRows[i], alignedRowIndexes, i, candidateIndexes, candidateScores);
+          processedRows.incrementAndGet();
+        })).join();
+      } finally {
+        pool.shutdown();
+      }
 
-          // compare the similarity of spectra mass lists on MS1 or MS2 level
-          if (compareSpectraSimilarity) {
-            DataPoint[] rowDPs = null;
-            DataPoint[] candidateDPs = null;
-            SpectralSimilarity sim = null;
-
-            // get data points of mass list of the representative scans
-            if (msLevel == 1) {
-              rowDPs =
-                  row.getBestPeak().getRepresentativeScan().getMassList(massList).getDataPoints();
-              candidateDPs = candidate.getBestPeak().getRepresentativeScan().getMassList(massList)
-                  .getDataPoints();
-            }
-
-            // get data points of mass list of the best fragmentation scans
-            if (msLevel == 2) {
-              if (row.getBestFragmentation() != null && candidate.getBestFragmentation() != null) {
-                rowDPs = row.getBestFragmentation().getMassList(massList).getDataPoints();
-                candidateDPs =
-                    candidate.getBestFragmentation().getMassList(massList).getDataPoints();
-              } else
-                continue;
-            }
-
-            // compare mass list data points of selected scans
-            if (rowDPs != null && candidateDPs != null) {
-
-              // calculate similarity using SimilarityFunction
-              sim = createSimilarity(rowDPs, candidateDPs);
-
-              // check if similarity is null. Similarity is not null if similarity score is >= the
-              // user set threshold
-              if (sim == null) {
-                continue;
-              }
-            }
-          }
+      if (isCanceled())
+        return;
 
-          RowVsRowScore score =
-              new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
-                  RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
-
-          scoreSet.add(score);
-        }
-        processedRows++;
-      }
+      RowVsRowScores scores = new RowVsRowScores(candidateIndexes, candidateScores);
 
       // Create a table of mappings for best scores
-      Hashtable<PeakListRow, PeakListRow> alignmentMapping =
-          new Hashtable<PeakListRow, PeakListRow>();
+      PeakListRow targetRows[] = new PeakListRow[allRows.length];
+      BitSet mappedRows = new BitSet(allRows.length);
+      BitSet filledAlignedRows = new BitSet(alignedRows.length);
 
       // Iterate scores by descending order
-      Iterator<RowVsRowScore> scoreIterator = scoreSet.iterator();
-      while (scoreIterator.hasNext()) {
+      for (int index : scores.getDescendingOrder()) {
 
-        RowVsRowScore score = scoreIterator.next();
+        final int rowIndex = scores.getRowIndex(index);
+        final int alignedRowIndex = scores.getAlignedRowIndex(index);
 
         // Check if the row is already mapped
-        if (alignmentMapping.containsKey(score.getPeakListRow()))
+        if (mappedRows.get(rowIndex))
           continue;
 
         // Check if the aligned row is already filled
-        if (alignmentMapping.containsValue(score.getAlignedRow()))
+        if (filledAlignedRows.get(alignedRowIndex))
           continue;
 
-        alignmentMapping.put(score.getPeakListRow(), score.getAlignedRow());
+        mappedRows.set(rowIndex);
+        filledAlignedRows.set(alignedRowIndex);
+        targetRows[rowIndex] = alignedRows[alignedRowIndex];
 
       }
 
       // Align all rows using mapping
-      for (PeakListRow row : allRows) {
+      for (int i = 0; i < allRows.length; i++) {
 
-        PeakListRow targetRow = alignmentMapping.get(row);
+        PeakListRow row = allRows[i];
+        PeakListRow targetRow = targetRows[i];
 
         // If we have no mapping for this row, add a new one
         if (targetRow == null) {
@@ -313,7 +261,7 @@ public class JoinAlignerTask extends AbstractTask {
         // aligned row
         PeakUtils.copyPeakListRowProperties(row, targetRow);
 
-        processedRows++;
+        processedRows.incrementAndGet();
 
       }
 
@@ -332,6 +280,101 @@ public class JoinAlignerTask extends AbstractTask {
 
   }
 
+  /**
+   * Calculates the scores of all rows of the aligned feature list which can be aligned with given
+   * row and stores them at given row index
+   */
+  private void calculateScores(PeakListRow row, Object2IntMap<PeakListRow> alignedRowIndexes,
+      int rowIndex, int candidateIndexes[][], double candidateScores[][]) {
+
+    // Calculate limits for a row with which the row can be aligned
+    Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+    Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
+
+    // Get all rows of the aligned peaklist within parameter limits
+    PeakListRow candidateRows[] = alignedPeakList.getRowsInsideScanAndMZRange(rtRange, mzRange);
+
+    // Calculate scores and store them
+    IntArrayList indexes = new IntArrayList();
+    DoubleArrayList scores = new DoubleArrayList();
+    for (PeakListRow candidate : candidateRows) {
+
+      if (sameChargeRequired) {
+        if (!PeakUtils.compareChargeState(row, candidate))
+          continue;
+      }
+
+      if (sameIDRequired) {
+        if (!PeakUtils.compareIdentities(row, candidate))
+          continue;
+      }
+
+      if (compareIsotopePattern) {
+        IsotopePattern ip1 = row.getBestIsotopePattern();
+        IsotopePattern ip2 = candidate.getBestIsotopePattern();
+
+        if ((ip1 != null) && (ip2 != null)) {
+          ParameterSet isotopeParams =
+              parameters.getParameter(JoinAlignerParameters.compareIsotopePattern)
+                  .getEmbeddedParameters();
+
+          if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
+            continue;
+          }
+        }
+      }
+
+      // compare the similarity of spectra mass lists on MS1 or MS2 level
+      if (compareSpectraSimilarity) {
+        DataPoint[] rowDPs = null;
+        DataPoint[] candidateDPs = null;
+        SpectralSimilarity sim = null;
+
+        // get data points of mass list of the representative scans
+        if (msLevel == 1) {
+          rowDPs =
+              row.getBestPeak().getRepresentativeScan().getMassList(massList).getDataPoints();
+          candidateDPs = candidate.getBestPeak().getRepresentativeScan().getMassList(massList)
+              .getDataPoints();
+        }
+
+        // get data points of mass list of the best fragmentation scans
+        if (msLevel == 2) {
+          if (row.getBestFragmentation() != null && candidate.getBestFragmentation() != null) {
+            rowDPs = row.getBestFragmentation().getMassList(massList).getDataPoints();
+            candidateDPs =
+                candidate.getBestFragmentation().getMassList(massList).getDataPoints();
+          } else
+            continue;
+        }
+
+        // compare mass list data points of selected scans
+        if (rowDPs != null && candidateDPs != null) {
+
+          // calculate similarity using SimilarityFunction
+          sim = createSimilarity(rowDPs, candidateDPs);
+
+          // check if similarity is null. Similarity is not null if similarity score is >= the
+          // user set threshold
+          if (sim == null) {
+            continue;
+          }
+        }
+      }
+
+      double score = RowVsRowScores.calculateScore(row, candidate,
+          RangeUtils.rangeLength(mzRange) / 2.0, mzWeight, RangeUtils.rangeLength(rtRange) / 2.0,
+          rtWeight);
+
+      indexes.add(alignedRowIndexes.getInt(candidate));
+      scores.add(score);
+    }
+
+    candidateIndexes[rowIndex] = indexes.toIntArray();
+    candidateScores[rowIndex] = scores.toDoubleArray();
+
+  }
+
   /**
    * Uses the similarity function and filter to create similarity.
    * 
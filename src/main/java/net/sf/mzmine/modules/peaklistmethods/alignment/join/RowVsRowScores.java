@@ -0,0 +1,118 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.join;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.sf.mzmine.datamodel.PeakListRow;
+
+/**
+ * This class holds the scores between feature list rows and aligned feature list rows. The scores
+ * are stored in primitive arrays instead of one object per candidate pair.
+ */
+class RowVsRowScores {
+
+  private final int rowIndexes[], alignedRowIndexes[];
+  private final double scores[];
+
+  /**
+   * @param alignedRowIndexes indexes of the aligned rows matching each feature list row
+   * @param scores scores of the aligned rows matching each feature list row
+   */
+  RowVsRowScores(int alignedRowIndexes[][], double scores[][]) {
+
+    int numOfScores = 0;
+    for (int i = 0; i < scores.length; i++)
+      numOfScores += scores[i].length;
+
+    this.rowIndexes = new int[numOfScores];
+    this.alignedRowIndexes = new int[numOfScores];
+    this.scores = new double[numOfScores];
+
+    int index = 0;
+    for (int i = 0; i < scores.length; i++) {
+      for (int j = 0; j < scores[i].length; j++) {
+        this.rowIndexes[index] = i;
+        this.alignedRowIndexes[index] = alignedRowIndexes[i][j];
+        this.scores[index] = scores[i][j];
+        index++;
+      }
+    }
+
+  }
+
+  /**
+   * Calculates the score between feature list row and aligned feature list row (the higher score,
+   * the better match)
+   */
+  static double calculateScore(PeakListRow peakListRow, PeakListRow alignedRow, double mzMaxDiff,
+      double mzWeight, double rtMaxDiff, double rtWeight) {
+
+    // Calculate differences between m/z and RT values
+    double mzDiff = Math.abs(peakListRow.getAverageMZ() - alignedRow.getAverageMZ());
+
+    double rtDiff = Math.abs(peakListRow.getAverageRT() - alignedRow.getAverageRT());
+
+    return ((1 - mzDiff / mzMaxDiff) * mzWeight) + ((1 - rtDiff / rtMaxDiff) * rtWeight);
+
+  }
+
+  int getNumberOfScores() {
+    return scores.length;
+  }
+
+  int getRowIndex(int index) {
+    return rowIndexes[index];
+  }
+
+  int getAlignedRowIndex(int index) {
+    return alignedRowIndexes[index];
+  }
+
+  double getScore(int index) {
+    return scores[index];
+  }
+
+  /**
+   * Returns the score indexes sorted by descending score. Equal scores are sorted by descending
+   * index, so the score which was added last comes first.
+   */
+  int[] getDescendingOrder() {
+
+    final int order[] = new int[scores.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+
+    IntArrays.parallelQuickSort(order, (i1, i2) -> {
+      final double score1 = scores[i1], score2 = scores[i2];
+      if (score1 > score2)
+        return -1;
+      if (score1 < score2)
+        return 1;
+      // NaN scores go last
+      final boolean isNaN1 = Double.isNaN(score1), isNaN2 = Double.isNaN(score2);
+      if (isNaN1 != isNaN2)
+        return isNaN1 ? 1 : -1;
+      return Integer.compare(i2, i1);
+    });
+
+    return order;
+
+  }
+
+}
@@ -86,6 +86,81 @@ public class Gap {
           new GapDataPoint(scan.getScanNumber(), RangeUtils.rangeCenter(mzRange), scanRT, 0);
     }
 
+    offerDataPoint(currentDataPoint);
+
+  }
+
+  /**
+   * Same as offerNextScan(Scan), but uses already decoded m/z and intensity values of the scan,
+   * sorted by m/z. This allows to read each scan only once for all gaps.
+   */
+  public void offerNextScan(Scan scan, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
+
+    double scanRT = scan.getRetentionTime();
+
+    // If not yet inside the RT range, or we have passed the RT range and finished processing last
+    // peak
+    if (scanRT < rtRange.lowerEndpoint() || isComplete(scanRT))
+      return;
+
+    // Find top m/z peak in our range
+    int basePeakIndex =
+        ScanUtils.findBasePeakIndex(mzValues, intensityValues, numOfDataPoints, mzRange);
+
+    if (basePeakIndex >= 0)
+      offerNextScan(scan, mzValues[basePeakIndex], intensityValues[basePeakIndex]);
+    else
+      offerNextScan(scan, Double.NaN, 0);
+
+  }
+
+  /**
+   * Same as offerNextScan(Scan), but with the top m/z peak in the m/z range of this gap already
+   * found. basePeakMZ is NaN if the scan has no data point in the m/z range.
+   */
+  public void offerNextScan(Scan scan, double basePeakMZ, double basePeakIntensity) {
+
+    double scanRT = scan.getRetentionTime();
+
+    // If not yet inside the RT range
+    if (scanRT < rtRange.lowerEndpoint())
+      return;
+
+    // If we have passed the RT range and finished processing last peak
+    if (isComplete(scanRT))
+      return;
+
+    GapDataPoint currentDataPoint;
+    if (!Double.isNaN(basePeakMZ)) {
+      currentDataPoint =
+          new GapDataPoint(scan.getScanNumber(), basePeakMZ, scanRT, basePeakIntensity);
+    } else {
+      currentDataPoint =
+          new GapDataPoint(scan.getScanNumber(), RangeUtils.rangeCenter(mzRange), scanRT, 0);
+    }
+
+    offerDataPoint(currentDataPoint);
+
+  }
+
+  /**
+   * @return true if scans with this or a later retention time cannot change the result any more
+   */
+  public boolean isComplete(double scanRT) {
+    return (scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null);
+  }
+
+  public Range<Double> getMZRange() {
+    return mzRange;
+  }
+
+  public Range<Double> getRTRange() {
+    return rtRange;
+  }
+
+  private void offerDataPoint(GapDataPoint currentDataPoint) {
+
     // If we have not yet started, just create a new peak
     if (currentPeakDataPoints == null) {
       currentPeakDataPoints = new Vector<GapDataPoint>();
@@ -31,7 +31,6 @@ import net.sf.mzmine.datamodel.PeakIdentity;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
@@ -168,32 +167,8 @@ class PeakFinderTask extends AbstractTask {
           return;
         }
 
-        // Get all scans of this data file
-        int scanNumbers[] = dataFile.getScanNumbers(1);
-
-        // Process each scan
-        for (int scanNumber : scanNumbers) {
-          // Canceled?
-          if (isCanceled()) {
-            // inside stream - only skips this element
-            return;
-          }
-
-          // Get the scan
-          Scan scan = dataFile.getScan(scanNumber);
-
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
-
-          processedScans.incrementAndGet();
-        }
-
-        // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
+        // Process the scans of this data file in blocks
+        new ScanBlockGapFiller(dataFile, gaps, useParallelStream).fill(this, processedScans);
       });
     }
     // terminate - stream only skips all elements
@@ -304,31 +279,10 @@ class PeakFinderTask extends AbstractTask {
           continue;
         }
 
-        // Get all scans of this data file
-        int scanNumbers[] = datafile1.getScanNumbers(1);
-
-        // Process each scan
-        for (int scanNumber : scanNumbers) {
-
-          // Canceled?
-          if (isCanceled()) {
-            return;
-          }
-
-          // Get the scan
-          Scan scan = datafile1.getScan(scanNumber);
-
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
-          processedScans.incrementAndGet();
-        }
-
-        // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
+        // Process the scans of this data file in blocks
+        if (!new ScanBlockGapFiller(datafile1, gaps, useParallelStream).fill(this,
+            processedScans))
+          return;
       }
     }
   }
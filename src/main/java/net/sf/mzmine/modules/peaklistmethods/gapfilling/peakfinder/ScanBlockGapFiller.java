@@ -0,0 +1,281 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+
+/**
+ * Fills all gaps of one raw data file. The work is split into blocks of scans, which can be
+ * processed in parallel:
+ *
+ * 1) Each scan is decoded once. The gaps are sorted by m/z, so the top data point in the m/z range
+ * of all gaps active in the scan is found in one pass over the data points. The results are stored
+ * per gap and scan.
+ *
+ * 2) The stored data points are offered to each gap in scan order, so the result is the same as
+ * when offering all scans to the gaps one by one, independent of the number of threads.
+ *
+ * Data points are stored for the scans within the RT range of each gap, extended by the width of
+ * the RT range. Gaps which still need scans after that (peak tail) read them one by one.
+ *
+ * The stored data points are limited to a fraction of the heap, so the gaps are processed in chunks
+ * of consecutive gaps which fit into that budget. A single gap exceeding the budget reads its scans
+ * one by one.
+ */
+public class ScanBlockGapFiller {
+
+  // min. number of scans per block
+  private static final int MIN_BLOCK_SIZE = 16;
+
+  // m/z and intensity of a stored data point
+  private static final int BYTES_PER_POINT = 2 * Double.BYTES;
+
+  private final Gap gaps[];
+  private final boolean parallel;
+  private final int threads;
+
+  private final Scan scans[];
+
+  // m/z range of each gap, scan index range and the position of its first data point in the arrays
+  // below
+  private final double mzMin[], mzMax[];
+  private final int firstScan[], lastScan[];
+  private final long offsets[];
+  private final double basePeakMZ[], basePeakIntensity[];
+
+  // end (exclusive) of each chunk of gaps, and the max. number of data points stored per chunk
+  private final int chunkEnds[];
+  private final long maxChunkPoints;
+
+  /**
+   * @param gaps gaps of dataFile
+   * @param parallel process the scan blocks and gaps in parallel
+   */
+  public ScanBlockGapFiller(RawDataFile dataFile, List<Gap> gaps, boolean parallel) {
+    this.parallel = parallel;
+
+    // other tasks may fill gaps at the same time, so each one gets its share of the budget
+    final int numOfThreads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+    this.threads = parallel ? numOfThreads : 1;
+    maxChunkPoints = Math.min(Integer.MAX_VALUE - 8,
+        Runtime.getRuntime().maxMemory() / 4 / numOfThreads / BYTES_PER_POINT);
+
+    // m/z-sorted gap index
+    this.gaps = gaps.toArray(new Gap[gaps.size()]);
+    Arrays.sort(this.gaps, Comparator.comparingDouble(g -> g.getMZRange().lowerEndpoint()));
+
+    final int scanNumbers[] = dataFile.getScanNumbers(1);
+    scans = new Scan[scanNumbers.length];
+    final double rts[] = new double[scanNumbers.length];
+    for (int i = 0; i < scanNumbers.length; i++) {
+      scans[i] = dataFile.getScan(scanNumbers[i]);
+      rts[i] = scans[i].getRetentionTime();
+    }
+
+    mzMin = new double[this.gaps.length];
+    mzMax = new double[this.gaps.length];
+    firstScan = new int[this.gaps.length];
+    lastScan = new int[this.gaps.length];
+    offsets = new long[this.gaps.length + 1];
+    for (int g = 0; g < this.gaps.length; g++) {
+      mzMin[g] = this.gaps[g].getMZRange().lowerEndpoint();
+      mzMax[g] = this.gaps[g].getMZRange().upperEndpoint();
+      final double rtMin = this.gaps[g].getRTRange().lowerEndpoint();
+      final double rtMax = this.gaps[g].getRTRange().upperEndpoint();
+      firstScan[g] = firstIndex(rts, rtMin);
+      lastScan[g] = firstIndex(rts, Math.nextUp(rtMax + (rtMax - rtMin))) - 1;
+      offsets[g + 1] = offsets[g] + Math.max(0, lastScan[g] - firstScan[g] + 1);
+    }
+
+    // Split the gaps into chunks of at most maxChunkPoints data points, gaps above that get a chunk
+    // of their own
+    final int ends[] = new int[this.gaps.length];
+    int numOfChunks = 0, start = 0;
+    long chunkPoints = 0;
+    for (int g = 0; g < this.gaps.length; g++) {
+      if (g > start && offsets[g + 1] - offsets[start] > maxChunkPoints) {
+        ends[numOfChunks++] = g;
+        start = g;
+      }
+      if (offsets[g + 1] - offsets[g] > maxChunkPoints) {
+        ends[numOfChunks++] = g + 1;
+        start = g + 1;
+      } else {
+        chunkPoints = Math.max(chunkPoints, offsets[g + 1] - offsets[start]);
+      }
+    }
+    if (start < this.gaps.length)
+      ends[numOfChunks++] = this.gaps.length;
+    chunkEnds = Arrays.copyOf(ends, numOfChunks);
+
+    basePeakMZ = new double[(int) chunkPoints];
+    basePeakIntensity = new double[(int) chunkPoints];
+  }
+
+  /**
+   * Fills the gaps
+   *
+   * @param task the calling task, stops when it is canceled
+   * @param processedScans incremented for each processed scan
+   * @return false if the task was canceled
+   */
+  public boolean fill(AbstractTask task, AtomicInteger processedScans) {
+    for (int chunk = 0; chunk < chunkEnds.length; chunk++) {
+      if (task.isCanceled())
+        return false;
+      final int fromGap = chunk == 0 ? 0 : chunkEnds[chunk - 1];
+      final int toGap = chunkEnds[chunk];
+      if (offsets[toGap] - offsets[fromGap] > maxChunkPoints) {
+        // Too many data points to store, offer the scans to the gap one by one
+        fillGap(fromGap, task);
+        processedScans.addAndGet(
+            (scans.length - chunk + chunkEnds.length - 1) / chunkEnds.length);
+      } else {
+        fillChunk(fromGap, toGap, chunk, task, processedScans);
+      }
+    }
+    return !task.isCanceled();
+  }
+
+  private void fillGap(int g, AbstractTask task) {
+    final Gap gap = gaps[g];
+    for (int i = firstScan[g]; i < scans.length; i++) {
+      if (task.isCanceled())
+        return;
+      if (gap.isComplete(scans[i].getRetentionTime()))
+        break;
+      gap.offerNextScan(scans[i]);
+    }
+    gap.noMoreOffers();
+  }
+
+  private void fillChunk(int fromGap, int toGap, int chunk, AbstractTask task,
+      AtomicInteger processedScans) {
+
+    // 1) Find the top data points of all gaps, block by block
+    final int blockSize =
+        Math.max(MIN_BLOCK_SIZE, (scans.length + threads * 4 - 1) / (threads * 4));
+    final int numOfBlocks = (scans.length + blockSize - 1) / blockSize;
+    IntStream blocks = IntStream.range(0, numOfBlocks);
+    if (parallel)
+      blocks = blocks.parallel();
+    blocks.forEach(block -> {
+      if (task.isCanceled())
+        return;
+      processBlock(fromGap, toGap, block * blockSize,
+          Math.min(scans.length, (block + 1) * blockSize), chunk, task, processedScans);
+    });
+    if (task.isCanceled())
+      return;
+
+    // 2) Offer the data points to the gaps in scan order
+    IntStream gapIndexes = IntStream.range(fromGap, toGap);
+    if (parallel)
+      gapIndexes = gapIndexes.parallel();
+    gapIndexes.forEach(g -> {
+      if (task.isCanceled())
+        return;
+      final Gap gap = gaps[g];
+      for (int i = firstScan[g]; i <= lastScan[g]; i++) {
+        final int point = (int) (offsets[g] - offsets[fromGap] + i - firstScan[g]);
+        gap.offerNextScan(scans[i], basePeakMZ[point], basePeakIntensity[point]);
+      }
+      // peak tail after the stored scans
+      for (int i = Math.max(firstScan[g], lastScan[g] + 1); i < scans.length; i++) {
+        if (gap.isComplete(scans[i].getRetentionTime()))
+          break;
+        gap.offerNextScan(scans[i]);
+      }
+      gap.noMoreOffers();
+    });
+  }
+
+  private void processBlock(int fromGap, int toGap, int fromScan, int toScan, int chunk,
+      AbstractTask task, AtomicInteger processedScans) {
+
+    // Gaps of the chunk active in this block, in m/z order
+    final int blockGaps[] = IntStream.range(fromGap, toGap)
+        .filter(g -> firstScan[g] < toScan && lastScan[g] >= fromScan).toArray();
+
+    double mzValues[] = new double[0];
+    double intensityValues[] = new double[0];
+
+    for (int i = fromScan; i < toScan; i++) {
+      if (task.isCanceled())
+        return;
+
+      if (blockGaps.length > 0) {
+        final Scan scan = scans[i];
+        final int numOfDataPoints = scan.getNumberOfDataPoints();
+        if (mzValues.length < numOfDataPoints) {
+          mzValues = new double[numOfDataPoints];
+          intensityValues = new double[numOfDataPoints];
+        }
+        scan.getDataPoints(mzValues, intensityValues);
+
+        // The lower m/z limits of the gaps are increasing, so the first data point of each gap
+        // is found by moving forward only
+        int first = 0;
+        for (int g : blockGaps) {
+          if (i < firstScan[g] || i > lastScan[g])
+            continue;
+          while (first < numOfDataPoints && mzValues[first] < mzMin[g])
+            first++;
+          int basePeak = -1;
+          for (int j = first; j < numOfDataPoints && mzValues[j] <= mzMax[g]; j++) {
+            if (basePeak < 0 || intensityValues[j] > intensityValues[basePeak])
+              basePeak = j;
+          }
+          final int point = (int) (offsets[g] - offsets[fromGap] + i - firstScan[g]);
+          basePeakMZ[point] = basePeak < 0 ? Double.NaN : mzValues[basePeak];
+          basePeakIntensity[point] = basePeak < 0 ? 0 : intensityValues[basePeak];
+        }
+      }
+
+      // each scan is counted once over all chunks
+      if (i % chunkEnds.length == chunk)
+        processedScans.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return index of the first retention time >= rt
+   */
+  private static int firstIndex(double rts[], double rt) {
+    int low = 0, high = rts.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (rts[mid] < rt)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+}
@@ -20,6 +20,7 @@ package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.multithreade
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.Feature;
@@ -27,8 +28,8 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.Gap;
+import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.ScanBlockGapFiller;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
@@ -43,7 +44,8 @@ class MultiThreadPeakFinderTask extends AbstractTask {
   private double intTolerance;
   private MZTolerance mzTolerance;
   private RTTolerance rtTolerance;
-  private int processedScans, totalScans;
+  private int totalScans;
+  private AtomicInteger processedScans = new AtomicInteger();
 
   // start and end (exclusive) for raw data file processing
   private int start;
@@ -122,35 +124,14 @@ class MultiThreadPeakFinderTask extends AbstractTask {
 
       // Stop processing this file if there are no gaps
       if (gaps.isEmpty()) {
-        processedScans += dataFile.getNumOfScans();
+        processedScans.addAndGet(dataFile.getNumOfScans());
         continue;
       }
 
-      // Get all scans of this data file
-      int scanNumbers[] = dataFile.getScanNumbers(1);
-
-      // Process each scan
-      for (int scanNumber : scanNumbers) {
-        // Canceled?
-        if (isCanceled()) {
-          return;
-        }
-
-        // Get the scan
-        Scan scan = dataFile.getScan(scanNumber);
-
-        // Feed this scan to all gaps
-        for (Gap gap : gaps) {
-          gap.offerNextScan(scan);
-        }
-
-        processedScans++;
-      }
-
-      // Finalize gaps
-      for (Gap gap : gaps) {
-        gap.noMoreOffers();
-      }
+      // Process the scans of this data file in blocks. The sub tasks already run in parallel, so
+      // each of them fills its gaps on its own thread.
+      if (!new ScanBlockGapFiller(dataFile, gaps, false).fill(this, processedScans))
+        return;
     }
 
     // first notify listener
@@ -167,7 +148,7 @@ class MultiThreadPeakFinderTask extends AbstractTask {
     if (totalScans == 0) {
       return 0;
     }
-    return (double) processedScans / (double) totalScans;
+    return (double) processedScans.get() / (double) totalScans;
   }
 
   public String getTaskDescription() {
@@ -24,9 +24,16 @@ import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.
 import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.AdductSearchParameters.RT_TOLERANCE;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
+import com.google.common.collect.Range;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
@@ -47,7 +54,7 @@ public class AdductSearchTask extends AbstractTask {
   // Logger.
   private static final Logger LOG = Logger.getLogger(AdductSearchTask.class.getName());
 
-  private int finishedRows;
+  private volatile int finishedRows;
   private int totalRows;
   private final PeakList peakList;
 
@@ -125,7 +132,10 @@ public class AdductSearchTask extends AbstractTask {
   }
 
   /**
-   * Search peak-list for adducts.
+   * Search peak-list for adducts. The candidate rows of each row and adduct are found by binary
+   * search on the rows sorted by m/z, in parallel. The identities are added afterwards in the order
+   * of the pairwise comparison (main rows by decreasing height, then candidate rows, then adducts),
+   * so the result does not depend on the number of threads.
    */
   private void searchAdducts() {
 
@@ -136,61 +146,103 @@ public class AdductSearchTask extends AbstractTask {
     // Start with the highest peaks.
     Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height, SortingDirection.Descending));
 
-    // Compare each pair of rows against each other.
-    for (int i = 0; !isCanceled() && i < totalRows; i++) {
-      for (int j = 0; !isCanceled() && j < totalRows; j++) {
-
-        if (i == j)
-          continue;
-
-        findAdducts(rows[i], rows[j]);
-      }
-
-      finishedRows++;
+    final double mzValues[] = new double[totalRows];
+    final double rtValues[] = new double[totalRows];
+    final double heights[] = new double[totalRows];
+    for (int i = 0; i < totalRows; i++) {
+      mzValues[i] = rows[i].getAverageMZ();
+      rtValues[i] = rows[i].getAverageRT();
+      heights[i] = rows[i].getAverageHeight();
     }
-  }
-
-  /**
-   * Check if candidate peak may be a possible adduct of a given main peak.
-   *
-   * @param mainRow main peak.
-   * @param possibleAdduct candidate adduct peak.
-   */
-  private void findAdducts(final PeakListRow mainRow, final PeakListRow possibleAdduct) {
 
-    for (final AdductType adduct : selectedAdducts) {
+    // Rows sorted by m/z
+    final int mzOrder[] = new int[totalRows];
+    for (int i = 0; i < totalRows; i++)
+      mzOrder[i] = i;
+    IntArrays.quickSort(mzOrder, (i1, i2) -> Double.compare(mzValues[i1], mzValues[i2]));
+    final double sortedMZValues[] = new double[totalRows];
+    for (int i = 0; i < totalRows; i++)
+      sortedMZValues[i] = mzValues[mzOrder[i]];
+
+    // Adducts of each main row, as candidate row * number of adducts + adduct index
+    final long adducts[][] = new long[totalRows][];
+    final AtomicInteger searchedRows = new AtomicInteger();
+    final ForkJoinPool pool =
+        new ForkJoinPool(MZmineCore.getConfiguration().getPreferences().getNumOfThreads());
+    try {
+      pool.submit(() -> IntStream.range(0, totalRows).parallel().forEach(i -> {
+        if (isCanceled())
+          return;
+        adducts[i] = findAdducts(i, mzValues, rtValues, heights, mzOrder, sortedMZValues);
+        // the second half of the progress is for adding the identities
+        finishedRows = searchedRows.incrementAndGet() / 2;
+      })).join();
+    } finally {
+      pool.shutdown();
+    }
 
-      if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+    for (int i = 0; !isCanceled() && i < totalRows; i++) {
+      for (long adduct : adducts[i]) {
+        final PeakListRow possibleAdduct = rows[(int) (adduct / selectedAdducts.length)];
 
         // Add adduct identity and notify GUI.
-        possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
+        possibleAdduct.addPeakIdentity(
+            new AdductIdentity(rows[i], selectedAdducts[(int) (adduct % selectedAdducts.length)]),
+            false);
         MZmineCore.getProjectManager().getCurrentProject().notifyObjectChanged(possibleAdduct,
             false);
       }
+      finishedRows = (totalRows + i + 1) / 2;
     }
   }
 
   /**
-   * Check if candidate peak is a given type of adduct of given main peak.
+   * Finds the rows which may be an adduct of a given main row.
    *
-   * @param mainPeak main peak.
-   * @param possibleAdduct candidate adduct peak.
-   * @param adduct adduct.
-   * @return true if mass difference, retention time tolerance and adduct peak height conditions are
-   *         met.
+   * @param mainRow index of the main row.
+   * @return candidate row * number of adducts + adduct index, sorted.
    */
-  private boolean checkAdduct(final PeakListRow mainPeak, final PeakListRow possibleAdduct,
-      final AdductType adduct) {
+  private long[] findAdducts(final int mainRow, final double mzValues[], final double rtValues[],
+      final double heights[], final int mzOrder[], final double sortedMZValues[]) {
+
+    final Range<Double> rtRange = rtTolerance.getToleranceRange(rtValues[mainRow]);
+    final double maxHeight = heights[mainRow] * maxAdductHeight;
+
+    LongArrayList found = new LongArrayList();
+    for (int a = 0; a < selectedAdducts.length; a++) {
+
+      // Check mass difference condition.
+      final Range<Double> mzRange =
+          mzTolerance.getToleranceRange(mzValues[mainRow] + selectedAdducts[a].getMassDifference());
+      for (int k = firstIndex(sortedMZValues, mzRange.lowerEndpoint()); k < sortedMZValues.length
+          && sortedMZValues[k] <= mzRange.upperEndpoint(); k++) {
+        final int row = mzOrder[k];
+        if (row == mainRow)
+          continue;
 
-    return
-    // Check mass difference condition.
-    mzTolerance.checkWithinTolerance(mainPeak.getAverageMZ() + adduct.getMassDifference(),
-        possibleAdduct.getAverageMZ())
+        // Check retention time and height conditions.
+        if (rtRange.contains(rtValues[row]) && heights[row] <= maxHeight)
+          found.add((long) row * selectedAdducts.length + a);
+      }
+    }
 
-        // Check retention time condition.
-        && rtTolerance.checkWithinTolerance(mainPeak.getAverageRT(), possibleAdduct.getAverageRT())
+    final long result[] = found.toLongArray();
+    Arrays.sort(result);
+    return result;
+  }
 
-        // Check height condition.
-        && possibleAdduct.getAverageHeight() <= mainPeak.getAverageHeight() * maxAdductHeight;
+  /**
+   * @return index of the first value >= value
+   */
+  private static int firstIndex(final double sortedValues[], final double value) {
+    int low = 0, high = sortedValues.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sortedValues[mid] < value)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
   }
 }
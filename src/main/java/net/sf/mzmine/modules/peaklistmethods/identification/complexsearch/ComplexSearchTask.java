@@ -19,7 +19,10 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.complexsearch;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import net.sf.mzmine.datamodel.IonizationType;
 import net.sf.mzmine.datamodel.PeakList;
@@ -40,11 +43,15 @@ import net.sf.mzmine.util.SortingProperty;
 
 import com.google.common.collect.Range;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
 public class ComplexSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private int finishedRows, totalRows;
+  private volatile int finishedRows;
+  private int totalRows;
   private PeakList peakList;
 
   private RTTolerance rtTolerance;
@@ -97,37 +104,65 @@ public class ComplexSearchTask extends AbstractTask {
     PeakListRow rows[] = peakList.getRows();
     totalRows = rows.length;
 
-    // Sort the array by m/z so we start with biggest peak (possible
-    // complex)
-    Arrays.sort(rows, new PeakListRowSorter(SortingProperty.MZ, SortingDirection.Descending));
-
-    // Compare each three rows against each other
+    // Values of the rows in the order of the feature list
+    final double mzValues[] = new double[totalRows];
+    final double rtValues[] = new double[totalRows];
+    final double heights[] = new double[totalRows];
     for (int i = 0; i < totalRows; i++) {
+      mzValues[i] = rows[i].getAverageMZ();
+      rtValues[i] = rows[i].getAverageRT();
+      heights[i] = rows[i].getAverageHeight();
+    }
 
-      Range<Double> testRTRange = rtTolerance.getToleranceRange(rows[i].getAverageRT());
-      PeakListRow testRows[] = peakList.getRowsInsideScanRange(testRTRange);
-
-      for (int j = 0; j < testRows.length; j++) {
-
-        for (int k = j; k < testRows.length; k++) {
-
-          // Task canceled?
-          if (isCanceled())
-            return;
+    // Rows sorted by RT, to find the rows inside the RT range of each possible complex
+    final int rtOrder[] = new int[totalRows];
+    for (int i = 0; i < totalRows; i++)
+      rtOrder[i] = i;
+    IntArrays.quickSort(rtOrder, (i1, i2) -> Double.compare(rtValues[i1], rtValues[i2]));
+    final double sortedRTValues[] = new double[totalRows];
+    for (int i = 0; i < totalRows; i++)
+      sortedRTValues[i] = rtValues[rtOrder[i]];
+
+    // Complexes of each row, as row1 * number of rows + row2 (row1 <= row2), found in parallel
+    final long complexes[][] = new long[totalRows][];
+    final AtomicInteger searchedRows = new AtomicInteger();
+    final ForkJoinPool pool =
+        new ForkJoinPool(MZmineCore.getConfiguration().getPreferences().getNumOfThreads());
+    try {
+      pool.submit(() -> IntStream.range(0, totalRows).parallel().forEach(i -> {
+        if (isCanceled())
+          return;
+        complexes[i] = findComplexes(i, mzValues, rtValues, heights, rtOrder, sortedRTValues);
+        // the second half of the progress is for adding the identities
+        finishedRows = searchedRows.incrementAndGet() / 2;
+      })).join();
+    } finally {
+      pool.shutdown();
+    }
+    if (isCanceled())
+      return;
 
-          // To avoid finding a complex of the peak itself and another
-          // very small m/z peak
-          if ((rows[i] == testRows[j]) || (rows[i] == testRows[k]))
-            continue;
+    // Add the identities in the original order: possible complexes by decreasing m/z, then pairs
+    // in the order of the feature list
+    Integer complexOrder[] = new Integer[totalRows];
+    for (int i = 0; i < totalRows; i++)
+      complexOrder[i] = i;
+    PeakListRowSorter sorter =
+        new PeakListRowSorter(SortingProperty.MZ, SortingDirection.Descending);
+    Arrays.sort(complexOrder, (i1, i2) -> sorter.compare(rows[i1], rows[i2]));
 
-          if (checkComplex(rows[i], testRows[j], testRows[k]))
-            addComplexInfo(rows[i], testRows[j], testRows[k]);
+    for (int n = 0; n < totalRows; n++) {
 
-        }
+      // Task canceled?
+      if (isCanceled())
+        return;
 
-      }
+      final int i = complexOrder[n];
+      for (long complex : complexes[i])
+        addComplexInfo(rows[i], rows[(int) (complex / totalRows)],
+            rows[(int) (complex % totalRows)]);
 
-      finishedRows++;
+      finishedRows = (totalRows + n + 1) / 2;
 
     }
 
@@ -146,6 +181,90 @@ public class ComplexSearchTask extends AbstractTask {
 
   }
 
+  /**
+   * Finds the pairs of rows which may form a given complex row. The rows inside the RT range of the
+   * complex are sorted by m/z, so the second row of each pair is found by binary search.
+   *
+   * @return row1 * number of rows + row2 (row1 <= row2), sorted
+   */
+  private long[] findComplexes(int complexRow, double mzValues[], double rtValues[],
+      double heights[], int rtOrder[], double sortedRTValues[]) {
+
+    // Check retention time condition
+    Range<Double> rtRange = rtTolerance.getToleranceRange(rtValues[complexRow]);
+
+    // Check height condition, and avoid finding a complex of the peak itself and another very
+    // small m/z peak
+    final int start = firstIndex(sortedRTValues, sortedRTValues.length, rtRange.lowerEndpoint());
+    int end = start;
+    while (end < sortedRTValues.length && sortedRTValues[end] <= rtRange.upperEndpoint())
+      end++;
+    final int candidates[] = new int[end - start];
+    int numOfCandidates = 0;
+    for (int k = start; k < end; k++) {
+      final int row = rtOrder[k];
+      if ((row == complexRow) || !rtRange.contains(rtValues[row]))
+        continue;
+      if (heights[complexRow] > heights[row] * maxComplexHeight)
+        continue;
+      candidates[numOfCandidates++] = row;
+    }
+
+    // Candidates sorted by m/z
+    final int sortedCandidates[] = candidates;
+    IntArrays.quickSort(sortedCandidates, 0, numOfCandidates,
+        (i1, i2) -> Double.compare(mzValues[i1], mzValues[i2]));
+    final double candidateMZValues[] = new double[numOfCandidates];
+    for (int c = 0; c < numOfCandidates; c++)
+      candidateMZValues[c] = mzValues[sortedCandidates[c]];
+
+    // Check mass condition
+    double detectedMass = mzValues[complexRow] - ionType.getAddedMass();
+    Range<Double> mzRange = mzTolerance.getToleranceRange(detectedMass);
+
+    LongArrayList found = new LongArrayList();
+    for (int c = 0; c < numOfCandidates; c++) {
+      final int row1 = sortedCandidates[c];
+
+      // m/z range of the second row, extended by a small margin for rounding. The exact condition
+      // is checked below.
+      final double offset = 2 * ionType.getAddedMass() - mzValues[row1];
+      final double margin = 1e-9 * (Math.abs(mzRange.upperEndpoint()) + Math.abs(offset) + 1);
+      final double upper = mzRange.upperEndpoint() + offset + margin;
+
+      for (int k = firstIndex(candidateMZValues, numOfCandidates,
+          mzRange.lowerEndpoint() + offset - margin); k < numOfCandidates
+              && candidateMZValues[k] <= upper; k++) {
+        final int row2 = sortedCandidates[k];
+        // each pair once, in the order of the feature list
+        if (row2 < row1)
+          continue;
+        double expectedMass = mzValues[row1] + mzValues[row2] - (2 * ionType.getAddedMass());
+        if (mzRange.contains(expectedMass))
+          found.add((long) row1 * mzValues.length + row2);
+      }
+    }
+
+    final long result[] = found.toLongArray();
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * @return index of the first value >= value
+   */
+  private static int firstIndex(double sortedValues[], int length, double value) {
+    int low = 0, high = length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sortedValues[mid] < value)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
   /**
    * Check if candidate peak may be a possible complex of given two peaks
    * 
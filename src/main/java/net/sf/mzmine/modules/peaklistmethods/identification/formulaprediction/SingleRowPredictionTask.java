@@ -45,7 +45,7 @@ import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.re
 import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreCalculator;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreParameters;
-import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction.IsotopePatternCalculator;
+import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction.IsotopePatternCache;
 import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScore;
 import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScoreCalculator;
 import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScoreParameters;
@@ -216,8 +216,8 @@ public class SingleRowPredictionTask extends AbstractTask {
     // Fixed min abundance
     final double minPredictedAbundance = 0.00001;
 
-    final IsotopePattern predictedIsotopePattern = IsotopePatternCalculator.calculateIsotopePattern(
-        adjustedFormula, minPredictedAbundance, charge, ionType.getPolarity());
+    final IsotopePattern predictedIsotopePattern = IsotopePatternCache.getInstance()
+        .getIsotopePattern(adjustedFormula, minPredictedAbundance, charge, ionType.getPolarity());
 
     Double isotopeScore = null;
     if ((checkIsotopes) && (detectedPattern != null)) {
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import org.openscience.cdk.formula.MolecularFormulaGenerator;
+import org.openscience.cdk.formula.MolecularFormulaRange;
+import org.openscience.cdk.interfaces.IIsotope;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import net.sf.mzmine.util.files.FileAndPathUtil;
+
+/**
+ * Formulas of an element range which pass the row independent constraints, sorted by mass in
+ * windows of 1 Da. A window is generated when it is searched for the first time and stored in the
+ * formula index folder of the MZmine cache folder, so later searches with the same elements and
+ * constraints read it from the disk instead of running the formula generator for each row. Only
+ * the recently used windows are kept in memory.
+ */
+class FormulaMassIndex {
+
+  private static final Logger logger = Logger.getLogger(FormulaMassIndex.class.getName());
+
+  private static final int MAGIC = 0x4D5A4649; // "MZFI"
+  private static final int VERSION = 1;
+
+  // Maximum number of formulas kept in memory
+  private static final long MAX_CACHED_FORMULAS = 2000000;
+
+  /**
+   * Formulas with a mass from the window start (inclusive) to the next whole Da (exclusive)
+   */
+  private static class Window {
+
+    private final double masses[];
+    private final String formulas[];
+
+    private Window(double masses[], String formulas[]) {
+      this.masses = masses;
+      this.formulas = formulas;
+    }
+  }
+
+  private final FormulaPredictionPeakListTask task;
+  private final String key;
+  private final File folder;
+
+  private final Cache<Long, Window> windows = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_CACHED_FORMULAS)
+      .weigher((Long start, Window window) -> window.masses.length).build();
+
+  /**
+   * @param task the calling task, generates and checks the formulas and stops when canceled
+   */
+  FormulaMassIndex(FormulaPredictionPeakListTask task, MolecularFormulaRange elements) {
+    this.task = task;
+    this.key = getElementsKey(elements) + task.getConstraintsKey();
+    this.folder = new File(FileAndPathUtil.getCacheDir(),
+        "formula_index" + File.separator + Integer.toHexString(key.hashCode()));
+  }
+
+  /**
+   * @return the formulas with a mass inside the given range, or an empty list if the task was
+   *         canceled
+   */
+  List<String> getFormulas(Range<Double> massRange) {
+    final long firstWindow = (long) Math.floor(Math.max(0, massRange.lowerEndpoint()));
+    final long lastWindow = (long) Math.floor(Math.max(0, massRange.upperEndpoint()));
+    List<String> result = new ArrayList<>();
+    for (long start = firstWindow; start <= lastWindow; start++) {
+      final Window window;
+      try {
+        final long windowStart = start;
+        window = windows.get(windowStart, () -> loadWindow(windowStart));
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        if (e.getCause() instanceof CancellationException)
+          return new ArrayList<>();
+        throw new IllegalStateException("Cannot create formula index", e.getCause());
+      }
+
+      final double masses[] = window.masses;
+      int first = Arrays.binarySearch(masses, massRange.lowerEndpoint());
+      if (first < 0)
+        first = -first - 1;
+      while (first > 0 && masses[first - 1] >= massRange.lowerEndpoint())
+        first--;
+      for (int i = first; i < masses.length && masses[i] <= massRange.upperEndpoint(); i++)
+        result.add(window.formulas[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Reads the window from the index folder or generates it
+   *
+   * @throws CancellationException if the task was canceled
+   */
+  private Window loadWindow(long start) {
+
+    final File file = new File(folder, start + ".idx");
+    if (file.isFile()) {
+      try {
+        Window window = read(file);
+        if (window != null)
+          return window;
+      } catch (IOException e) {
+        logger.warning("Cannot read formula index " + file + ": " + e);
+      }
+    }
+
+    logger.finest("Generating formula index for " + key + " from " + start + " Da");
+    MolecularFormulaGenerator generator = task.createGenerator(start, start + 1);
+    DoubleArrayList generatedMassList = new DoubleArrayList();
+    List<String> generatedFormulas = new ArrayList<>();
+    try {
+      IMolecularFormula cdkFormula;
+      while ((cdkFormula = generator.getNextFormula()) != null) {
+        if (task.isCanceled())
+          throw new CancellationException();
+        final double mass = MolecularFormulaManipulator.getTotalExactMass(cdkFormula);
+        // formulas at the end of the range belong to the next window
+        if ((mass >= start + 1) || !task.checkFormulaConstraints(cdkFormula))
+          continue;
+        generatedMassList.add(mass);
+        generatedFormulas.add(MolecularFormulaManipulator.getString(cdkFormula));
+      }
+    } finally {
+      task.removeGenerator(generator);
+    }
+    if (task.isCanceled())
+      throw new CancellationException();
+
+    // Sort by mass
+    final double generatedMasses[] = generatedMassList.toDoubleArray();
+    final int order[] = new int[generatedMasses.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    IntArrays.quickSort(order,
+        (i1, i2) -> Double.compare(generatedMasses[i1], generatedMasses[i2]));
+    final double masses[] = new double[order.length];
+    final String formulas[] = new String[order.length];
+    for (int i = 0; i < order.length; i++) {
+      masses[i] = generatedMasses[order[i]];
+      formulas[i] = generatedFormulas.get(order[i]);
+    }
+
+    Window window = new Window(masses, formulas);
+    try {
+      write(file, window);
+    } catch (IOException e) {
+      // The window is only used in this search
+      logger.warning("Cannot write formula index " + file + ": " + e);
+    }
+    return window;
+  }
+
+  /**
+   * Isotopes and their count ranges, in a fixed order
+   */
+  private static String getElementsKey(MolecularFormulaRange elements) {
+    List<IIsotope> isotopes = new ArrayList<>();
+    for (IIsotope isotope : elements.isotopes())
+      isotopes.add(isotope);
+    isotopes.sort(Comparator.comparing((IIsotope i) -> i.getSymbol())
+        .thenComparing(i -> i.getMassNumber() == null ? 0 : i.getMassNumber()));
+    StringBuilder key = new StringBuilder();
+    for (IIsotope isotope : isotopes) {
+      key.append(isotope.getSymbol());
+      if (isotope.getMassNumber() != null)
+        key.append('^').append(isotope.getMassNumber());
+      key.append('[').append(elements.getIsotopeCountMin(isotope)).append('-')
+          .append(elements.getIsotopeCountMax(isotope)).append(']');
+    }
+    return key.toString();
+  }
+
+  /**
+   * @return the window or null if it was generated for other elements or constraints
+   */
+  private Window read(File file) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key))
+        return null;
+      final int count = in.readInt();
+      final double masses[] = new double[count];
+      final String formulas[] = new String[count];
+      for (int i = 0; i < count; i++) {
+        masses[i] = in.readDouble();
+        formulas[i] = in.readUTF();
+      }
+      return new Window(masses, formulas);
+    }
+  }
+
+  private void write(File file, Window window) throws IOException {
+    FileAndPathUtil.createDirectory(folder);
+    // Write to a temporary file first, so other searches never read an incomplete index
+    File tmpFile = File.createTempFile("mzmine_formulas", ".tmp", folder);
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(key);
+        out.writeInt(window.masses.length);
+        for (int i = 0; i < window.masses.length; i++) {
+          out.writeDouble(window.masses[i]);
+          out.writeUTF(window.formulas[i]);
+        }
+      }
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmpFile.toPath());
+    }
+  }
+
+}
@@ -25,6 +25,7 @@ import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.Isotop
 import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScoreParameters;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.ComboParameter;
 import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
@@ -67,8 +68,13 @@ public class FormulaPredictionPeakListParameters extends SimpleParameterSet {
   public static final OptionalModuleParameter msmsFilter =
       new OptionalModuleParameter("MS/MS filter", "Check MS/MS data", new MSMSScoreParameters());
 
+  public static final BooleanParameter formulaIndex = new BooleanParameter("Use formula index",
+      "Generate the formulas of the element ranges once per 1 Da window and store them in the "
+          + "MZmine cache folder for later searches with the same elements and restrictions",
+      false);
+
   public FormulaPredictionPeakListParameters() {
     super(new Parameter[] {charge, ionization, PEAK_LISTS, mzTolerance, maxBestFormulasPerPeak,
-        elements, elementalRatios, rdbeRestrictions, isotopeFilter, msmsFilter});
+        elements, elementalRatios, rdbeRestrictions, isotopeFilter, msmsFilter, formulaIndex});
   }
 }
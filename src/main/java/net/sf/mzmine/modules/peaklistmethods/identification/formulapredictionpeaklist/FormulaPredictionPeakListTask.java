@@ -17,9 +17,14 @@
  */
 package net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import org.openscience.cdk.formula.MolecularFormulaGenerator;
 import org.openscience.cdk.formula.MolecularFormulaRange;
@@ -42,10 +47,11 @@ import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.re
 import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreCalculator;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreParameters;
-import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction.IsotopePatternCalculator;
+import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction.IsotopePatternCache;
 import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScore;
 import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScoreCalculator;
 import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScoreParameters;
+import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
@@ -55,19 +61,22 @@ import net.sf.mzmine.util.FormulaUtils;
 public class FormulaPredictionPeakListTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private Range<Double> massRange;
   private MolecularFormulaRange elementCounts;
-  private MolecularFormulaGenerator generator;
   private IonizationType ionType;
-  private double searchedMass;
   private int charge;
   private PeakList peakList;
   private boolean checkIsotopes, checkMSMS, checkRatios, checkRDBE;
   private ParameterSet isotopeParameters, msmsParameters, ratiosParameters, rdbeParameters;
   private MZTolerance mzTolerance;
-  private String message;
-  private int totalRows, finishedRows;
+  private volatile String message;
+  private int totalRows;
+  private final AtomicInteger finishedRows = new AtomicInteger();
   private int maxBestFormulasPerPeak;
+  private boolean useFormulaIndex;
+
+  // Formula generators of the rows which are currently searched, to cancel them
+  private final Set<MolecularFormulaGenerator> generators =
+      Collections.synchronizedSet(new HashSet<>());
 
   /**
    *
@@ -112,6 +121,9 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
     maxBestFormulasPerPeak = parameters
         .getParameter(FormulaPredictionPeakListParameters.maxBestFormulasPerPeak).getValue();
 
+    useFormulaIndex =
+        parameters.getParameter(FormulaPredictionPeakListParameters.formulaIndex).getValue();
+
     message = "Formula Prediction";
   }
 
@@ -122,7 +134,7 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0.0;
-    return (double) finishedRows / (double) totalRows;
+    return (double) finishedRows.get() / (double) totalRows;
   }
 
   /**
@@ -141,81 +153,126 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
 
     setStatus(TaskStatus.PROCESSING);
 
-    totalRows = peakList.getNumberOfRows();
+    final PeakListRow rows[] = peakList.getRows();
+    totalRows = rows.length;
 
-    for (PeakListRow row : peakList.getRows()) {
+    // Formulas of the searched masses are generated once per window of 1 Da
+    final FormulaMassIndex formulaIndex =
+        useFormulaIndex ? new FormulaMassIndex(this, elementCounts) : null;
+    message = "Formula prediction in " + peakList;
 
-      if (row.getPeakIdentities().length > 0) {
-        continue;
-      }
+    // The rows are independent, so they are searched in parallel
+    Arrays.stream(rows).parallel().forEach(row -> {
+      if (getStatus() != TaskStatus.PROCESSING)
+        return;
+      if (row.getPeakIdentities().length == 0)
+        predictFormulas(row, formulaIndex);
+      finishedRows.incrementAndGet();
+    });
 
-      this.searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+    if (getStatus() != TaskStatus.PROCESSING)
+      return;
 
-      message = "Formula prediction for "
-          + MZmineCore.getConfiguration().getMZFormat().format(searchedMass);
+    logger.finest("Finished formula search for all the peaks");
 
-      massRange = mzTolerance.getToleranceRange(searchedMass);
+    setStatus(TaskStatus.FINISHED);
 
-      IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
-      generator = new MolecularFormulaGenerator(builder, massRange.lowerEndpoint(),
-          massRange.upperEndpoint(), elementCounts);
+  }
 
-      IMolecularFormula cdkFormula;
+  private double getSearchedMass(PeakListRow row) {
+    return (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+  }
 
-      // create a map to store ResultFormula and relative mass deviation for sorting
-      Map<Double, String> possibleFormulas = new TreeMap<>();
-      while ((cdkFormula = generator.getNextFormula()) != null) {
-        if (isCanceled())
-          return;
+  /**
+   * Adds the best formulas of one row as identities
+   *
+   * @param index formula index or null to generate the formulas
+   */
+  private void predictFormulas(PeakListRow row, FormulaMassIndex index) {
+
+    final double searchedMass = getSearchedMass(row);
 
-        // Mass is ok, so test other constraints
-        if (checkConstraints(cdkFormula, row) == true) {
-          String formula = MolecularFormulaManipulator.getString(cdkFormula);
+    final Range<Double> massRange = mzTolerance.getToleranceRange(searchedMass);
 
-          // calc rel mass deviation
-          Double relMassDev =
-              ((searchedMass - (FormulaUtils.calculateExactMass(formula))) / searchedMass)
-                  * 1000000;
+    // create a map to store ResultFormula and relative mass deviation for sorting
+    Map<Double, String> possibleFormulas = new TreeMap<>();
 
-          // write to map
-          possibleFormulas.put(relMassDev, formula);
+    if (index != null) {
+      IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
+      for (String formula : index.getFormulas(massRange)) {
+        if (getStatus() != TaskStatus.PROCESSING)
+          return;
+        addFormula(MolecularFormulaManipulator.getMolecularFormula(formula, builder), row,
+            searchedMass, possibleFormulas);
+      }
+    } else {
+      MolecularFormulaGenerator generator =
+          createGenerator(massRange.lowerEndpoint(), massRange.upperEndpoint());
+      try {
+        IMolecularFormula cdkFormula;
+        while ((cdkFormula = generator.getNextFormula()) != null) {
+          if (getStatus() != TaskStatus.PROCESSING)
+            return;
+          addFormula(cdkFormula, row, searchedMass, possibleFormulas);
         }
+      } finally {
+        removeGenerator(generator);
       }
+    }
 
-      if (isCanceled())
-        return;
+    if (getStatus() != TaskStatus.PROCESSING)
+      return;
 
-      // create a map to store ResultFormula and relative mass deviation for sorting
-      Map<Double, String> possibleFormulasSorted = new TreeMap<>(
-          (Comparator<Double>) (o1, o2) -> Double.compare(Math.abs(o1), Math.abs(o2)));
-      possibleFormulasSorted.putAll(possibleFormulas);
-
-      // Add the new formula entry top results
-      int ctr = 0;
-      for (Map.Entry<Double, String> entry : possibleFormulasSorted.entrySet()) {
-        if (ctr < maxBestFormulasPerPeak) {
-          SimplePeakIdentity newIdentity = new SimplePeakIdentity(entry.getValue(),
-              entry.getValue(), this.getClass().getName(), null, null);
-          row.addPeakIdentity(newIdentity, false);
-          ctr++;
-        }
+    // create a map to store ResultFormula and relative mass deviation for sorting
+    Map<Double, String> possibleFormulasSorted = new TreeMap<>(
+        (Comparator<Double>) (o1, o2) -> Double.compare(Math.abs(o1), Math.abs(o2)));
+    possibleFormulasSorted.putAll(possibleFormulas);
+
+    // Add the new formula entry top results
+    int ctr = 0;
+    for (Map.Entry<Double, String> entry : possibleFormulasSorted.entrySet()) {
+      if (ctr < maxBestFormulasPerPeak) {
+        SimplePeakIdentity newIdentity = new SimplePeakIdentity(entry.getValue(), entry.getValue(),
+            this.getClass().getName(), null, null);
+        row.addPeakIdentity(newIdentity, false);
+        ctr++;
       }
-      if (isCanceled())
-        return;
-      finishedRows++;
-
     }
+  }
 
-    if (isCanceled())
-      return;
+  private void addFormula(IMolecularFormula cdkFormula, PeakListRow row, double searchedMass,
+      Map<Double, String> possibleFormulas) {
 
-    logger.finest("Finished formula search for all the peaks");
+    // Mass is ok, so test other constraints
+    if (checkConstraints(cdkFormula, row) == true) {
+      String formula = MolecularFormulaManipulator.getString(cdkFormula);
 
-    setStatus(TaskStatus.FINISHED);
+      // calc rel mass deviation
+      Double relMassDev =
+          ((searchedMass - (FormulaUtils.calculateExactMass(formula))) / searchedMass) * 1000000;
 
+      // write to map
+      possibleFormulas.put(relMassDev, formula);
+    }
   }
 
-  private boolean checkConstraints(IMolecularFormula cdkFormula, PeakListRow peakListRow) {
+  MolecularFormulaGenerator createGenerator(double minMass, double maxMass) {
+    IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
+    MolecularFormulaGenerator generator =
+        new MolecularFormulaGenerator(builder, minMass, maxMass, elementCounts);
+    generators.add(generator);
+    return generator;
+  }
+
+  void removeGenerator(MolecularFormulaGenerator generator) {
+    generators.remove(generator);
+  }
+
+  /**
+   * Checks the constraints which do not depend on the row (elemental ratios and RDBE), also used
+   * for the formula index
+   */
+  boolean checkFormulaConstraints(IMolecularFormula cdkFormula) {
 
     // Check elemental ratios
     if (checkRatios) {
@@ -235,6 +292,32 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
       }
     }
 
+    return true;
+  }
+
+  /**
+   * @return the settings of the constraints checked by checkFormulaConstraints()
+   */
+  String getConstraintsKey() {
+    StringBuilder key = new StringBuilder();
+    if (checkRatios) {
+      key.append(" ratios");
+      for (Parameter<?> parameter : ratiosParameters.getParameters())
+        key.append(' ').append(parameter.getName()).append('=').append(parameter.getValue());
+    }
+    if (checkRDBE) {
+      key.append(" RDBE");
+      for (Parameter<?> parameter : rdbeParameters.getParameters())
+        key.append(' ').append(parameter.getName()).append('=').append(parameter.getValue());
+    }
+    return key.toString();
+  }
+
+  private boolean checkConstraints(IMolecularFormula cdkFormula, PeakListRow peakListRow) {
+
+    if (!checkFormulaConstraints(cdkFormula))
+      return false;
+
     // Calculate isotope similarity score
     IsotopePattern detectedPattern = peakListRow.getBestIsotopePattern();
     IsotopePattern predictedIsotopePattern = null;
@@ -252,8 +335,8 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
 
       final double minPredictedAbundance = isotopeNoiseLevel / detectedPatternHeight;
 
-      predictedIsotopePattern = IsotopePatternCalculator.calculateIsotopePattern(adjustedFormula,
-          minPredictedAbundance, charge, ionType.getPolarity());
+      predictedIsotopePattern = IsotopePatternCache.getInstance().getIsotopePattern(
+          adjustedFormula, minPredictedAbundance, charge, ionType.getPolarity());
 
       isotopeScore = IsotopePatternScoreCalculator.getSimilarityScore(detectedPattern,
           predictedIsotopePattern, isotopeParameters);
@@ -305,10 +388,11 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
   public void cancel() {
     super.cancel();
 
-    // We need to cancel the formula generator, because searching for next
+    // We need to cancel the formula generators, because searching for next
     // candidate formula may take a looong time
-    if (generator != null) {
-      generator.cancel();
+    synchronized (generators) {
+      for (MolecularFormulaGenerator generator : generators)
+        generator.cancel();
     }
 
   }
@@ -48,7 +48,7 @@ public class LocalSpectralDBSearchParameters extends SimpleParameterSet {
 
   public static final FileNameParameter dataBaseFile = new FileNameParameter(
       "Spectral database file",
-      "(GNPS json, MONA json, NIST msp, JCAMP-DX jdx) Name of file that contains information for peak identification");
+      "(GNPS json, MONA json, NIST msp, JCAMP-DX jdx, compiled mzlib) Name of file that contains information for peak identification. Libraries are compiled to an indexed binary file (.mzlib) on first use.");
 
   public static final OptionalModuleParameter<MassListDeisotoperParameters> deisotoping =
       new OptionalModuleParameter<>("13C deisotoping",
@@ -100,6 +100,11 @@ public class LocalSpectralDBSearchParameters extends SimpleParameterSet {
           "Algorithm to calculate similarity and filter matches",
           SpectralSimilarityFunction.FUNCTIONS);
 
+  public static final OptionalParameter<IntegerParameter> maxMatches =
+      new OptionalParameter<>(new IntegerParameter("Max. matches per row",
+          "Only keep the matches with the highest similarity score for each row", 10, 1, null),
+          false);
+
   /**
    * for SelectedRowsParameters
    * 
@@ -112,7 +117,7 @@ public class LocalSpectralDBSearchParameters extends SimpleParameterSet {
   public LocalSpectralDBSearchParameters() {
     super(new Parameter[] {peakLists, massList, dataBaseFile, msLevel, allMS2Spectra,
         mzTolerancePrecursor, noiseLevel, deisotoping, needsIsotopePattern, cropSpectraToOverlap,
-        mzTolerance, rtTolerance, minMatch, similarityFunction});
+        mzTolerance, rtTolerance, minMatch, similarityFunction, maxMatches});
   }
 
   @Override
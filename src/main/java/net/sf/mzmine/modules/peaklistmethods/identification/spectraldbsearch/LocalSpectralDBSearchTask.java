@@ -19,8 +19,6 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,12 +30,12 @@ import net.sf.mzmine.desktop.Desktop;
 import net.sf.mzmine.desktop.impl.HeadLessDesktop;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch.sort.SortSpectralDBIdentitiesTask;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
-import net.sf.mzmine.util.spectraldb.parser.AutoLibraryParser;
-import net.sf.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
-import net.sf.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+import net.sf.mzmine.util.exceptions.MissingMassListException;
+import net.sf.mzmine.util.spectraldb.compiled.CompiledSpectralLibrary;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBPeakIdentity;
 
 class LocalSpectralDBSearchTask extends AbstractTask {
 
@@ -49,9 +47,8 @@ class LocalSpectralDBSearchTask extends AbstractTask {
 
   private ParameterSet parameters;
 
-  private List<RowsSpectralMatchTask> tasks;
+  private final SpectralDBMatcher matcher;
 
-  private int totalTasks;
   private PeakListRow[] rows;
 
   public LocalSpectralDBSearchTask(PeakList peakList, ParameterSet parameters) {
@@ -60,6 +57,7 @@ class LocalSpectralDBSearchTask extends AbstractTask {
     this.parameters = parameters;
     dataBaseFile = parameters.getParameter(LocalSpectralDBSearchParameters.dataBaseFile).getValue();
     massListName = parameters.getParameter(LocalSpectralDBSearchParameters.massList).getValue();
+    matcher = new SpectralDBMatcher(parameters);
   }
 
   /**
@@ -67,9 +65,7 @@ class LocalSpectralDBSearchTask extends AbstractTask {
    */
   @Override
   public double getFinishedPercentage() {
-    if (totalTasks == 0 || tasks == null)
-      return 0;
-    return ((double) totalTasks - tasks.size()) / totalTasks;
+    return matcher.getFinishedPercentage();
   }
 
   /**
@@ -87,38 +83,38 @@ class LocalSpectralDBSearchTask extends AbstractTask {
   public void run() {
     setStatus(TaskStatus.PROCESSING);
     int count = 0;
-    try {
-      tasks = parseFile(dataBaseFile);
-      totalTasks = tasks.size();
-      if (!tasks.isEmpty()) {
-        // wait for the tasks to finish
-        while (!isCanceled() && !tasks.isEmpty()) {
-          for (int i = 0; i < tasks.size(); i++) {
-            if (tasks.get(i).isFinished() || tasks.get(i).isCanceled()) {
-              count += tasks.get(i).getCount();
-              tasks.remove(i);
-              i--;
-            }
-          }
-          // wait for all sub tasks to finish
-          try {
-            Thread.sleep(100);
-          } catch (Exception e) {
-            cancel();
-          }
-        }
-        // cancelled
-        if (isCanceled()) {
-          tasks.stream().forEach(AbstractTask::cancel);
-        }
-      } else {
+    try (CompiledSpectralLibrary library = CompiledSpectralLibrary.open(this, dataBaseFile)) {
+      if (isCanceled())
+        return;
+      if (library == null || library.getNumberOfEntries() == 0) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("DB file was empty - or error while parsing " + dataBaseFile);
+        return;
       }
+
+      List<List<SpectralDBPeakIdentity>> matches = matcher.matchRows(this, rows, library);
+      if (matches == null)
+        return;
+
+      for (int i = 0; i < rows.length; i++) {
+        for (SpectralDBPeakIdentity match : matches.get(i)) {
+          rows[i].addPeakIdentity(match, false);
+          count++;
+        }
+        // sort identities based on similarity score
+        if (!matches.get(i).isEmpty())
+          SortSpectralDBIdentitiesTask.sortIdentities(rows[i]);
+      }
+    } catch (MissingMassListException e) {
+      logger.log(Level.WARNING, "Data base matching failed. To many missing mass lists ", e);
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Data base matching failed. To many missing mass lists ");
+      return;
     } catch (Exception e) {
       logger.log(Level.SEVERE, "Could not read file " + dataBaseFile, e);
       setStatus(TaskStatus.ERROR);
       setErrorMessage(e.toString());
+      return;
     }
     logger.info("Added " + count + " spectral library matches");
 
@@ -135,30 +131,4 @@ class LocalSpectralDBSearchTask extends AbstractTask {
 
   }
 
-  /**
-   * Load all library entries from data base file
-   * 
-   * @param dataBaseFile
-   * @return
-   */
-  private List<RowsSpectralMatchTask> parseFile(File dataBaseFile)
-      throws UnsupportedFormatException, IOException {
-    //
-    List<RowsSpectralMatchTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
-      @Override
-      public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        RowsSpectralMatchTask task =
-            new RowsSpectralMatchTask(peakList.getName(), rows, parameters, alreadyProcessed + 1, list);
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
-      }
-    });
-
-    // return tasks
-    parser.parse(this, dataBaseFile);
-    return tasks;
-  }
-
 }
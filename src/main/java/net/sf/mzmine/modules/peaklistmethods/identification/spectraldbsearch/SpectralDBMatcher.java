@@ -0,0 +1,456 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.MZmineProcessingStep;
+import net.sf.mzmine.modules.visualization.spectra.simplespectra.datapointprocessing.isotopes.MassListDeisotoper;
+import net.sf.mzmine.modules.visualization.spectra.simplespectra.datapointprocessing.isotopes.MassListDeisotoperParameters;
+import net.sf.mzmine.modules.visualization.spectra.simplespectra.spectraidentification.spectraldatabase.SpectralMatchTask;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.util.exceptions.MissingMassListException;
+import net.sf.mzmine.util.scans.ScanAlignment;
+import net.sf.mzmine.util.scans.ScanUtils;
+import net.sf.mzmine.util.scans.similarity.SpectralSimilarity;
+import net.sf.mzmine.util.scans.similarity.SpectralSimilarityFunction;
+import net.sf.mzmine.util.scans.sorting.ScanSortMode;
+import net.sf.mzmine.util.spectraldb.compiled.CompiledSpectralLibrary;
+import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBPeakIdentity;
+
+/**
+ * Matches feature list rows against spectral library entries. For a search of many rows, the query
+ * spectra (filtered and deisotoped mass lists of the rows) are prepared once and shared read-only,
+ * blocks of library entries are scored in a fork/join pool and the matches are reduced to the best
+ * matches of each row.
+ */
+class SpectralDBMatcher {
+
+  private static final Logger logger = Logger.getLogger(SpectralDBMatcher.class.getName());
+
+  private static final String METHOD = "Spectral DB search";
+
+  // max. number of rows with missing mass lists
+  private static final int MAX_ERROR = 3;
+
+  // library entries scored in one block
+  private static final int ENTRIES_PER_CHUNK = 256;
+
+  private final @Nonnull String massListName;
+  private final MZTolerance mzToleranceSpectra;
+  private final MZTolerance mzTolerancePrecursor;
+  private final RTTolerance rtTolerance;
+  private final boolean useRT;
+  private final int msLevel;
+  private final double noiseLevel;
+  private final int minMatch;
+  private final MZmineProcessingStep<SpectralSimilarityFunction> simFunction;
+  private final boolean removeIsotopes;
+  private final MassListDeisotoperParameters deisotopeParam;
+  private final boolean cropSpectraToOverlap;
+  private final boolean allMS2Scans;
+  private final boolean needsIsotopePattern;
+  private final int minMatchedIsoSignals;
+  private final int maxMatches;
+
+  // progress of matchRows: prepared rows and scored library entries
+  private final AtomicInteger finishedSteps = new AtomicInteger();
+  private volatile int totalSteps;
+
+  /**
+   * Query spectra of one row: the scans (best scan first) and their filtered and deisotoped mass
+   * lists
+   */
+  static class Query {
+    private final PeakListRow row;
+    private final List<Scan> scans;
+    private final List<DataPoint[]> massLists;
+
+    private Query(PeakListRow row, List<Scan> scans, List<DataPoint[]> massLists) {
+      this.row = row;
+      this.scans = scans;
+      this.massLists = massLists;
+    }
+  }
+
+  /**
+   * A match and the library index of its entry, to order equal scores
+   */
+  private static class Match {
+    private final int entry;
+    private final SpectralDBPeakIdentity identity;
+
+    private Match(int entry, SpectralDBPeakIdentity identity) {
+      this.entry = entry;
+      this.identity = identity;
+    }
+  }
+
+  // worst match first
+  private static final Comparator<Match> WORST_FIRST =
+      Comparator.<Match>comparingDouble(m -> m.identity.getSimilarity().getScore())
+          .thenComparing(Comparator.<Match>comparingInt(m -> m.entry).reversed());
+
+  SpectralDBMatcher(ParameterSet parameters) {
+    massListName = parameters.getParameter(LocalSpectralDBSearchParameters.massList).getValue();
+    mzToleranceSpectra =
+        parameters.getParameter(LocalSpectralDBSearchParameters.mzTolerance).getValue();
+    msLevel = parameters.getParameter(LocalSpectralDBSearchParameters.msLevel).getValue();
+    noiseLevel = parameters.getParameter(LocalSpectralDBSearchParameters.noiseLevel).getValue();
+
+    useRT = parameters.getParameter(LocalSpectralDBSearchParameters.rtTolerance).getValue();
+    rtTolerance = parameters.getParameter(LocalSpectralDBSearchParameters.rtTolerance)
+        .getEmbeddedParameter().getValue();
+
+    minMatch = parameters.getParameter(LocalSpectralDBSearchParameters.minMatch).getValue();
+    simFunction =
+        parameters.getParameter(LocalSpectralDBSearchParameters.similarityFunction).getValue();
+    needsIsotopePattern =
+        parameters.getParameter(LocalSpectralDBSearchParameters.needsIsotopePattern).getValue();
+    minMatchedIsoSignals = !needsIsotopePattern ? 0
+        : parameters.getParameter(LocalSpectralDBSearchParameters.needsIsotopePattern)
+            .getEmbeddedParameter().getValue();
+    removeIsotopes =
+        parameters.getParameter(LocalSpectralDBSearchParameters.deisotoping).getValue();
+    deisotopeParam = parameters.getParameter(LocalSpectralDBSearchParameters.deisotoping)
+        .getEmbeddedParameters();
+    cropSpectraToOverlap =
+        parameters.getParameter(LocalSpectralDBSearchParameters.cropSpectraToOverlap).getValue();
+    if (msLevel > 1)
+      mzTolerancePrecursor =
+          parameters.getParameter(LocalSpectralDBSearchParameters.mzTolerancePrecursor).getValue();
+    else
+      mzTolerancePrecursor = null;
+
+    allMS2Scans = parameters.getParameter(LocalSpectralDBSearchParameters.allMS2Spectra).getValue();
+
+    maxMatches = parameters.getParameter(LocalSpectralDBSearchParameters.maxMatches).getValue()
+        ? parameters.getParameter(LocalSpectralDBSearchParameters.maxMatches)
+            .getEmbeddedParameter().getValue()
+        : Integer.MAX_VALUE;
+  }
+
+  /**
+   * Matches all rows against all entries of the library.
+   *
+   * @param task the calling task, stops when it is canceled
+   * @return the matches of each row (same order as rows), best match first, or null if the task was
+   *         canceled
+   * @throws MissingMassListException if the mass lists of too many rows are missing
+   */
+  List<List<SpectralDBPeakIdentity>> matchRows(AbstractTask task, PeakListRow rows[],
+      CompiledSpectralLibrary library) throws MissingMassListException {
+
+    final int numOfEntries = library.getNumberOfEntries();
+    finishedSteps.set(0);
+    totalSteps = rows.length + numOfEntries;
+
+    final ForkJoinPool pool =
+        new ForkJoinPool(MZmineCore.getConfiguration().getPreferences().getNumOfThreads());
+    try {
+      // 1) Prepare the query spectra of all rows
+      final Query queries[] = new Query[rows.length];
+      final AtomicInteger errors = new AtomicInteger();
+      pool.submit(() -> IntStream.range(0, rows.length).parallel().forEach(i -> {
+        if (task.isCanceled() || errors.get() > MAX_ERROR)
+          return;
+        try {
+          queries[i] = prepareQuery(rows[i]);
+        } catch (MissingMassListException e) {
+          logger.log(Level.WARNING, "No mass list in spectrum for rowID=" + rows[i].getID(), e);
+          errors.incrementAndGet();
+        }
+        finishedSteps.incrementAndGet();
+      })).join();
+      if (errors.get() > MAX_ERROR)
+        throw new MissingMassListException("Too many rows without mass list.", massListName);
+      if (task.isCanceled())
+        return null;
+
+      // Rows with query spectra, sorted by m/z
+      final int sortedRows[] = IntStream.range(0, rows.length)
+          .filter(i -> queries[i] != null && !queries[i].scans.isEmpty()).boxed()
+          .sorted(Comparator.comparingDouble(i -> rows[i].getAverageMZ()))
+          .mapToInt(Integer::intValue).toArray();
+      final double sortedMZ[] =
+          Arrays.stream(sortedRows).mapToDouble(i -> rows[i].getAverageMZ()).toArray();
+
+      // 2) Score the library entries, block by block
+      final List<PriorityQueue<Match>> bestMatches = new ArrayList<>(rows.length);
+      for (int i = 0; i < rows.length; i++)
+        bestMatches.add(new PriorityQueue<>(WORST_FIRST));
+
+      final int numOfChunks = (numOfEntries + ENTRIES_PER_CHUNK - 1) / ENTRIES_PER_CHUNK;
+      pool.submit(() -> IntStream.range(0, numOfChunks).parallel().forEach(chunk -> {
+        final int toEntry = Math.min(numOfEntries, (chunk + 1) * ENTRIES_PER_CHUNK);
+        for (int e = chunk * ENTRIES_PER_CHUNK; e < toEntry; e++) {
+          if (task.isCanceled())
+            return;
+          matchEntry(library, e, queries, sortedRows, sortedMZ, bestMatches);
+          finishedSteps.incrementAndGet();
+        }
+      })).join();
+      if (task.isCanceled())
+        return null;
+
+      // 3) Best matches of each row, best first
+      final List<List<SpectralDBPeakIdentity>> matches = new ArrayList<>(rows.length);
+      for (PriorityQueue<Match> rowMatches : bestMatches) {
+        matches.add(rowMatches.stream().sorted(WORST_FIRST.reversed()).map(m -> m.identity)
+            .collect(Collectors.toList()));
+      }
+      return matches;
+
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Scores one library entry against all rows with a matching precursor m/z (all rows for MS1)
+   */
+  private void matchEntry(CompiledSpectralLibrary library, int entry, Query queries[],
+      int sortedRows[], double sortedMZ[], List<PriorityQueue<Match>> bestMatches) {
+
+    int first = 0, last = sortedRows.length;
+    if (mzTolerancePrecursor != null) {
+      final double precursorMZ = library.getPrecursorMZ(entry);
+      if (Double.isNaN(precursorMZ))
+        return;
+      final Range<Double> mzRange = mzTolerancePrecursor.getToleranceRange(precursorMZ);
+      first = firstIndex(sortedMZ, mzRange.lowerEndpoint());
+      last = firstIndex(sortedMZ, Math.nextUp(mzRange.upperEndpoint()));
+    }
+    if (first >= last)
+      return;
+
+    // decode and deisotope each library entry once for all rows
+    final SpectralDBEntry ident = library.getEntry(entry);
+    final DataPoint libraryDataPoints[] = getLibraryDataPoints(ident);
+
+    for (int i = first; i < last; i++) {
+      final int row = sortedRows[i];
+      final SpectralDBPeakIdentity best = match(queries[row], ident, libraryDataPoints);
+      if (best == null)
+        continue;
+      final PriorityQueue<Match> rowMatches = bestMatches.get(row);
+      synchronized (rowMatches) {
+        rowMatches.add(new Match(entry, best));
+        if (rowMatches.size() > maxMatches)
+          rowMatches.poll();
+      }
+    }
+  }
+
+  /**
+   * @return index of the first value >= mz
+   */
+  private static int firstIndex(double values[], double mz) {
+    int low = 0, high = values.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (values[mid] < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * @return finished part of the last matchRows call
+   */
+  double getFinishedPercentage() {
+    final int total = totalSteps;
+    return total == 0 ? 0 : (double) finishedSteps.get() / total;
+  }
+
+  /**
+   * Scans of the row and their filtered and deisotoped mass lists
+   */
+  Query prepareQuery(PeakListRow row) throws MissingMassListException {
+    List<Scan> scans = getScans(row);
+    List<DataPoint[]> massLists = new ArrayList<>(scans.size());
+    for (Scan scan : scans) {
+      // get mass list and perform deisotoping if active
+      DataPoint[] rowMassList = getDataPoints(scan, true);
+      if (removeIsotopes)
+        rowMassList = removeIsotopes(rowMassList);
+      massLists.add(rowMassList);
+    }
+    return new Query(row, scans, massLists);
+  }
+
+  /**
+   * Data points of a library entry, deisotoped if active
+   */
+  DataPoint[] getLibraryDataPoints(SpectralDBEntry ident) {
+    DataPoint[] library = ident.getDataPoints();
+    if (removeIsotopes)
+      library = removeIsotopes(library);
+    return library;
+  }
+
+  /**
+   * Matches all scans of the query against the library entry to find the best match
+   *
+   * @param libraryDataPoints see {@link #getLibraryDataPoints(SpectralDBEntry)}, null to get them
+   *        only if the entry passes the RT and precursor m/z check
+   * @return best match or null
+   */
+  SpectralDBPeakIdentity match(Query query, SpectralDBEntry ident,
+      @Nullable DataPoint[] libraryDataPoints) {
+    final PeakListRow row = query.row;
+    // retention time
+    // MS level 1 or check precursorMZ
+    if (!checkRT(row, ident) || (msLevel != 1 && !checkPrecursorMZ(row, ident)))
+      return null;
+    if (libraryDataPoints == null)
+      libraryDataPoints = getLibraryDataPoints(ident);
+
+    SpectralDBPeakIdentity best = null;
+    for (int i = 0; i < query.scans.size(); i++) {
+      SpectralSimilarity sim = spectraDBMatch(query.massLists.get(i), libraryDataPoints);
+      if (sim != null
+          && (!needsIsotopePattern || SpectralMatchTask.checkForIsotopePattern(sim,
+              mzToleranceSpectra, minMatchedIsoSignals))
+          && (best == null || best.getSimilarity().getScore() < sim.getScore())) {
+        best = new SpectralDBPeakIdentity(query.scans.get(i), massListName, ident, sim, METHOD);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Remove 13C isotopes from masslist
+   * 
+   * @param a
+   * @return
+   */
+  private DataPoint[] removeIsotopes(DataPoint[] a) {
+    return MassListDeisotoper.filterIsotopes(a, deisotopeParam);
+  }
+
+  /**
+   * 
+   * @param rowMassList
+   * @param library
+   * @return spectral similarity or null if no match
+   */
+  private SpectralSimilarity spectraDBMatch(DataPoint[] rowMassList, DataPoint[] library) {
+    // crop the spectra to their overlapping mz range
+    // helpful when comparing spectra, acquired with different fragmentation energy
+    DataPoint[] query = rowMassList;
+    if (cropSpectraToOverlap) {
+      DataPoint[][] cropped = ScanAlignment.cropToOverlap(mzToleranceSpectra, library, query);
+      library = cropped[0];
+      query = cropped[1];
+    }
+
+    // check spectra similarity
+    return createSimilarity(library, query);
+  }
+
+  /**
+   * Uses the similarity function and filter to create similarity.
+   * 
+   * @param a
+   * @param b
+   * @return positive match with similarity or null if criteria was not met
+   */
+  private SpectralSimilarity createSimilarity(DataPoint[] library, DataPoint[] query) {
+    return simFunction.getModule().getSimilarity(simFunction.getParameterSet(), mzToleranceSpectra,
+        minMatch, library, query);
+  }
+
+  private boolean checkPrecursorMZ(PeakListRow row, SpectralDBEntry ident) {
+    if (ident.getPrecursorMZ() == null)
+      return false;
+    else
+      return mzTolerancePrecursor.checkWithinTolerance(ident.getPrecursorMZ(), row.getAverageMZ());
+  }
+
+  private boolean checkRT(PeakListRow row, SpectralDBEntry ident) {
+    Double rt = (Double) ident.getField(DBEntryField.RT).orElse(null);
+    return (!useRT || rt == null || rtTolerance.checkWithinTolerance(rt, row.getAverageRT()));
+  }
+
+  /**
+   * Thresholded masslist
+   * 
+   * @param row
+   * @return
+   * @throws MissingMassListException
+   */
+  private DataPoint[] getDataPoints(Scan scan, boolean noiseFilter)
+      throws MissingMassListException {
+    if (scan == null || scan.getMassList(massListName) == null) {
+      return new DataPoint[0];
+    }
+
+    MassList masses = scan.getMassList(massListName);
+    DataPoint[] dps = masses.getDataPoints();
+    return noiseFilter ? ScanUtils.getFiltered(dps, noiseLevel) : dps;
+  }
+
+  List<Scan> getScans(PeakListRow row) throws MissingMassListException {
+    if (msLevel == 1) {
+      List<Scan> scans = new ArrayList<>();
+      scans.add(row.getBestPeak().getRepresentativeScan());
+      return scans;
+    } else {
+      // first entry is the best scan
+      List<Scan> scans = ScanUtils.listAllFragmentScans(row, massListName, noiseLevel, minMatch,
+          ScanSortMode.MAX_TIC);
+      if (allMS2Scans)
+        return scans;
+      else {
+        // only keep first (with highest TIC)
+        while (scans.size() > 1) {
+          scans.remove(1);
+        }
+        return scans;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package net.sf.mzmine.modules.peaklistmethods.io.binaryexport;
+
+import net.sf.mzmine.modules.projectmethods.projectsave.BinaryPeakListSaveHandler;
+import net.sf.mzmine.parameters.Parameter;
+import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.filenames.FileNameParameter;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
+
+public class BinaryExportParameters extends SimpleParameterSet {
+
+  public static final PeakListsParameter peakLists = new PeakListsParameter(1);
+
+  public static final FileNameParameter filename = new FileNameParameter("Filename",
+      "Use pattern \"{}\" in the file name to substitute with feature list name. "
+          + "(i.e. \"blah{}blah.mzfl\" would become \"blahSourcePeakListNameblah.mzfl\"). "
+          + "If the file already exists, it will be overwritten.",
+      BinaryPeakListSaveHandler.EXTENSION);
+
+  public BinaryExportParameters() {
+    super(new Parameter[] {peakLists, filename});
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package net.sf.mzmine.modules.peaklistmethods.io.binaryexport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.modules.projectmethods.projectsave.BinaryPeakListSaveHandler;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+public class BinaryExportTask extends AbstractTask {
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+  private PeakList[] peakLists;
+  private String plNamePattern = "{}";
+  private BinaryPeakListSaveHandler[] peakListSaveHandlers;
+
+  // parameter values
+  private File fileName;
+
+  public BinaryExportTask(ParameterSet parameters) {
+
+    fileName = parameters.getParameter(BinaryExportParameters.filename).getValue();
+
+    this.peakLists =
+        parameters.getParameter(BinaryExportParameters.peakLists).getValue().getMatchingPeakLists();
+
+    this.peakListSaveHandlers = new BinaryPeakListSaveHandler[this.peakLists.length];
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    if (peakListSaveHandlers.length == 0)
+      return 0;
+    double percentage = 0.0;
+    for (BinaryPeakListSaveHandler peakListSaveHandler : peakListSaveHandlers) {
+      if (peakListSaveHandler != null)
+        percentage += peakListSaveHandler.getProgress();
+    }
+    return percentage / peakListSaveHandlers.length;
+  }
+
+  @Override
+  public void cancel() {
+    super.cancel();
+    for (BinaryPeakListSaveHandler peakListSaveHandler : peakListSaveHandlers) {
+      if (peakListSaveHandler != null)
+        peakListSaveHandler.cancel();
+    }
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Exporting feature list(s) " + Arrays.toString(peakLists) + " to binary file(s)";
+  }
+
+  @Override
+  public void run() {
+
+    setStatus(TaskStatus.PROCESSING);
+
+    // Shall export several files?
+    boolean substitute = fileName.getPath().contains(plNamePattern);
+
+    // Process feature lists
+    for (int i = 0; i < peakLists.length; i++) {
+
+      PeakList peakList = peakLists[i];
+
+      File curFile = fileName;
+      if (substitute) {
+        // Cleanup from illegal filename characters
+        String cleanPlName = peakList.getName().replaceAll("[^a-zA-Z0-9.-]", "_");
+        // Substitute
+        String newFilename =
+            fileName.getPath().replaceAll(Pattern.quote(plNamePattern), cleanPlName);
+        curFile = new File(newFilename);
+      }
+
+      logger.info("Started saving feature list " + peakList.getName() + " to " + curFile);
+
+      // Raw data files are identified by their names
+      Hashtable<RawDataFile, String> dataFilesIDMap = new Hashtable<RawDataFile, String>();
+      for (RawDataFile file : peakList.getRawDataFiles()) {
+        dataFilesIDMap.put(file, file.getName());
+      }
+
+      try (OutputStream out = new FileOutputStream(curFile)) {
+        BinaryPeakListSaveHandler peakListSaveHandler =
+            new BinaryPeakListSaveHandler(out, dataFilesIDMap);
+        peakListSaveHandlers[i] = peakListSaveHandler;
+        peakListSaveHandler.savePeakList(peakList);
+      } catch (Exception e) {
+        /* we may already have set the status to CANCELED */
+        if (getStatus() == TaskStatus.PROCESSING) {
+          setStatus(TaskStatus.ERROR);
+        }
+        setErrorMessage("Could not write feature list " + peakList.getName() + " to " + curFile
+            + ": " + e.toString());
+        e.printStackTrace();
+        return;
+      }
+
+      if (isCanceled()) {
+        curFile.delete();
+        return;
+      }
+
+      logger.info("Finished saving " + peakList.getName());
+    }
+
+    setStatus(TaskStatus.FINISHED);
+  }
+
+}
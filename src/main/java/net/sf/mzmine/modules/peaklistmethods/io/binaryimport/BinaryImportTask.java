@@ -0,0 +1,113 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package net.sf.mzmine.modules.peaklistmethods.io.binaryimport;
+
+import java.io.File;
+import java.util.Hashtable;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
+import net.sf.mzmine.modules.projectmethods.projectload.BinaryPeakListFile;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+public class BinaryImportTask extends AbstractTask {
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
+  // parameter values
+  private final MZmineProject project;
+  private final File fileName;
+
+  private BinaryPeakListFile peakListFile;
+
+  public BinaryImportTask(MZmineProject project, ParameterSet parameters) {
+    this.project = project;
+    fileName = parameters.getParameter(BinaryImportParameters.filename).getValue();
+  }
+
+  @Override
+  public void cancel() {
+    super.cancel();
+    final BinaryPeakListFile file = peakListFile;
+    if (file != null)
+      file.cancel();
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    final BinaryPeakListFile file = peakListFile;
+    return file == null ? 0 : file.getProgress();
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Loading feature list from " + fileName;
+  }
+
+  @Override
+  public void run() {
+
+    setStatus(TaskStatus.PROCESSING);
+    logger.info("Started reading file " + fileName);
+
+    PeakList peakList;
+    try {
+
+      if ((!fileName.exists()) || (!fileName.canRead())) {
+        throw new Exception("Reading cancelled, file does not exist or is not readable");
+      }
+
+      // Raw data files are identified by their names
+      Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<String, RawDataFile>();
+      for (RawDataFile file : project.getDataFiles()) {
+        dataFilesIDMap.put(file.getName(), file);
+      }
+
+      try (BinaryPeakListFile file = new BinaryPeakListFile(fileName, 0, dataFilesIDMap)) {
+        peakListFile = file;
+        if (isCanceled())
+          return;
+        peakList = file.readPeakList();
+      }
+
+    } catch (Throwable e) {
+      /* we may already have set the status to CANCELED */
+      if (getStatus() == TaskStatus.PROCESSING) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(e.toString());
+        e.printStackTrace();
+      }
+      return;
+    }
+
+    QualityParameters.calculateQualityParameters(peakList);
+
+    // Add new feature list to the project
+    project.addPeakList(peakList);
+
+    logger.info("Finished reading " + fileName);
+    setStatus(TaskStatus.FINISHED);
+
+  }
+
+}
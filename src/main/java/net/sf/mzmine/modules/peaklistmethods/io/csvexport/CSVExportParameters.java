@@ -61,9 +61,15 @@ public class CSVExportParameters extends SimpleParameterSet {
       "Filter rows", "Limit the exported rows to those with MS/MS data (or annotated rows)",
       RowFilter.values(), RowFilter.ALL);
 
+  public static final BooleanParameter gzip = new BooleanParameter("Compress (gzip)",
+      "Write a gzip compressed file. The extension .gz is added to the file name.", false);
+
+  public static final BooleanParameter parallel = new BooleanParameter("Parallel",
+      "Format the rows in parallel (the file content does not change)", true);
+
   public CSVExportParameters() {
     super(new Parameter[] {peakLists, filename, fieldSeparator, exportCommonItems,
-        exportDataFileItems, exportAllPeakInfo, idSeparator, filter});
+        exportDataFileItems, exportAllPeakInfo, idSeparator, filter, gzip, parallel});
   }
 
 }
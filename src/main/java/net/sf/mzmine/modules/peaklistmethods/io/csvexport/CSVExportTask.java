@@ -18,14 +18,28 @@
 
 package net.sf.mzmine.modules.peaklistmethods.io.csvexport;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.text.NumberFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.Feature.FeatureStatus;
 import net.sf.mzmine.datamodel.PeakIdentity;
@@ -37,14 +51,23 @@ import net.sf.mzmine.modules.peaklistmethods.io.gnpsexport.fbmn.GnpsFbmnExportAn
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.RangeUtils;
 
+/**
+ * Exports feature lists to CSV. The rows are formatted in chunks, in parallel if selected, and
+ * written in row order through a large buffer, so the file content does not depend on the number
+ * of threads.
+ */
 public class CSVExportTask extends AbstractTask {
 
+  // Rows formatted by one job
+  private static final int CHUNK_SIZE = 256;
+
+  // Output buffer size
+  private static final int BUFFER_SIZE = 1 << 20;
 
   private PeakList[] peakLists;
-  private int processedRows = 0, totalRows = 0;
+  private volatile int processedRows = 0, totalRows = 0;
 
   // parameter values
   private File fileName;
@@ -55,6 +78,14 @@ public class CSVExportTask extends AbstractTask {
   private Boolean exportAllPeakInfo;
   private String idSeparator;
   private RowFilter filter;
+  private boolean gzip = false;
+  private boolean parallel = true;
+
+  // NumberFormat is not thread safe, each formatting thread uses its own copy
+  private final ThreadLocal<NumberFormat> mzFormat = ThreadLocal
+      .withInitial(() -> (NumberFormat) MZmineCore.getConfiguration().getMZFormat().clone());
+  private final ThreadLocal<NumberFormat> rtFormat = ThreadLocal
+      .withInitial(() -> (NumberFormat) MZmineCore.getConfiguration().getRTFormat().clone());
 
   public CSVExportTask(ParameterSet parameters) {
     this.peakLists =
@@ -66,6 +97,8 @@ public class CSVExportTask extends AbstractTask {
     exportAllPeakInfo = parameters.getParameter(CSVExportParameters.exportAllPeakInfo).getValue();
     idSeparator = parameters.getParameter(CSVExportParameters.idSeparator).getValue();
     this.filter = parameters.getParameter(CSVExportParameters.filter).getValue();
+    gzip = parameters.getParameter(CSVExportParameters.gzip).getValue();
+    parallel = parameters.getParameter(CSVExportParameters.parallel).getValue();
 
   }
 
@@ -83,6 +116,20 @@ public class CSVExportTask extends AbstractTask {
   public CSVExportTask(PeakList[] peakLists, File fileName, String fieldSeparator,
       ExportRowCommonElement[] commonElements, ExportRowDataFileElement[] dataFileElements,
       Boolean exportAllPeakInfo, String idSeparator, RowFilter filter) {
+    this(peakLists, fileName, fieldSeparator, commonElements, dataFileElements, exportAllPeakInfo,
+        idSeparator, filter, false, true);
+  }
+
+  /**
+   * 
+   * @param filter Row filter
+   * @param gzip write a gzip compressed file (.gz is added to the file name)
+   * @param parallel format the rows in parallel
+   */
+  public CSVExportTask(PeakList[] peakLists, File fileName, String fieldSeparator,
+      ExportRowCommonElement[] commonElements, ExportRowDataFileElement[] dataFileElements,
+      Boolean exportAllPeakInfo, String idSeparator, RowFilter filter, boolean gzip,
+      boolean parallel) {
     super();
     this.peakLists = peakLists;
     this.fileName = fileName;
@@ -92,6 +139,8 @@ public class CSVExportTask extends AbstractTask {
     this.exportAllPeakInfo = exportAllPeakInfo;
     this.idSeparator = idSeparator;
     this.filter = filter;
+    this.gzip = gzip;
+    this.parallel = parallel;
   }
 
   @Override
@@ -133,11 +182,13 @@ public class CSVExportTask extends AbstractTask {
             fileName.getPath().replaceAll(Pattern.quote(plNamePattern), cleanPlName);
         curFile = new File(newFilename);
       }
+      if (gzip && !curFile.getName().endsWith(".gz"))
+        curFile = new File(curFile.getPath() + ".gz");
 
       // Open file
-      FileWriter writer;
+      Writer writer;
       try {
-        writer = new FileWriter(curFile);
+        writer = openFile(curFile);
       } catch (Exception e) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Could not open file " + curFile + " for writing.");
@@ -146,11 +197,6 @@ public class CSVExportTask extends AbstractTask {
 
       exportPeakList(peakList, writer, curFile);
 
-      // Cancel?
-      if (isCanceled()) {
-        return;
-      }
-
       // Close file
       try {
         writer.close();
@@ -160,6 +206,11 @@ public class CSVExportTask extends AbstractTask {
         return;
       }
 
+      // Cancel or error?
+      if (getStatus() != TaskStatus.PROCESSING) {
+        return;
+      }
+
       // If feature list substitution pattern wasn't found,
       // treat one feature list only
       if (!substitute)
@@ -171,12 +222,21 @@ public class CSVExportTask extends AbstractTask {
 
   }
 
-  private void exportPeakList(PeakList peakList, FileWriter writer, File fileName) {
-    NumberFormat mzForm = MZmineCore.getConfiguration().getMZFormat();
+  /**
+   * Buffered writer in the platform charset (same as FileWriter), gzip compressed if selected
+   */
+  private Writer openFile(File file) throws IOException {
+    OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), BUFFER_SIZE);
+    if (gzip)
+      out = new GZIPOutputStream(out, BUFFER_SIZE);
+    return new OutputStreamWriter(out, Charset.defaultCharset());
+  }
+
+  private void exportPeakList(PeakList peakList, Writer writer, File fileName) {
     RawDataFile rawDataFiles[] = peakList.getRawDataFiles();
 
     // Buffer for writing
-    StringBuffer line = new StringBuffer();
+    StringBuilder line = new StringBuilder();
 
     // Write column headers
 
@@ -190,12 +250,16 @@ public class CSVExportTask extends AbstractTask {
       line.append(name + fieldSeparator);
     }
 
-    // peak Information
+    // Rows to export and peak Information
+    List<PeakListRow> rows = new ArrayList<>(peakList.getNumberOfRows());
     Set<String> peakInformationFields = new HashSet<>();
 
     for (PeakListRow row : peakList.getRows()) {
-      if (!filter.filter(row))
+      if (!filter.filter(row)) {
+        processedRows++;
         continue;
+      }
+      rows.add(row);
       if (row.getPeakInformation() != null) {
         for (String key : row.getPeakInformation().getAllProperties().keySet()) {
           peakInformationFields.add(key);
@@ -222,189 +286,253 @@ public class CSVExportTask extends AbstractTask {
 
     try {
       writer.write(line.toString());
-    } catch (Exception e) {
+
+      // Write data rows
+      final int numOfChunks = (rows.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      if (!parallel || numOfChunks < 2) {
+        for (PeakListRow row : rows) {
+          // Cancel?
+          if (isCanceled()) {
+            return;
+          }
+          line.setLength(0);
+          appendRow(line, row, rawDataFiles, peakInformationFields);
+          writer.append(line);
+          processedRows++;
+        }
+      } else {
+        writeChunks(writer, rows, numOfChunks, rawDataFiles, peakInformationFields);
+      }
+    } catch (IOException e) {
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Could not write to file " + fileName);
-      return;
     }
+  }
 
-    // Write data rows
-    for (PeakListRow peakListRow : peakList.getRows()) {
+  /**
+   * Formats the chunks of rows in parallel and writes them in order. Only a limited number of
+   * chunks is formatted ahead of the writer.
+   */
+  private void writeChunks(Writer writer, List<PeakListRow> rows, int numOfChunks,
+      RawDataFile rawDataFiles[], Set<String> peakInformationFields) throws IOException {
 
-      if (!filter.filter(peakListRow)) {
-        processedRows++;
-        continue;
-      }
+    final int threads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "CSV export");
+      t.setDaemon(true);
+      return t;
+    });
 
-      // Cancel?
-      if (isCanceled()) {
-        return;
+    try {
+      final ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+      int nextChunk = 0, writtenChunks = 0;
+      while (nextChunk < numOfChunks || !pending.isEmpty()) {
+
+        while (nextChunk < numOfChunks && pending.size() < threads * 2) {
+          final List<PeakListRow> chunk = rows.subList(nextChunk * CHUNK_SIZE,
+              Math.min(rows.size(), (nextChunk + 1) * CHUNK_SIZE));
+          pending.add(executor.submit(() -> {
+            StringBuilder text = new StringBuilder(chunk.size() * 256);
+            for (PeakListRow row : chunk)
+              appendRow(text, row, rawDataFiles, peakInformationFields);
+            return text.toString();
+          }));
+          nextChunk++;
+        }
+
+        // Cancel?
+        if (isCanceled()) {
+          return;
+        }
+
+        final Future<String> future = pending.poll();
+        final String text;
+        try {
+          text = future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          setStatus(TaskStatus.CANCELED);
+          return;
+        } catch (ExecutionException e) {
+          setStatus(TaskStatus.ERROR);
+          setErrorMessage("Error formatting feature list rows: " + e.getCause());
+          return;
+        }
+        writer.write(text);
+        processedRows += Math.min(CHUNK_SIZE, rows.size() - writtenChunks * CHUNK_SIZE);
+        writtenChunks++;
       }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 
-      // Reset the buffer
-      line.setLength(0);
+  /**
+   * Appends one line of the CSV file
+   */
+  private void appendRow(StringBuilder line, PeakListRow peakListRow, RawDataFile rawDataFiles[],
+      Set<String> peakInformationFields) {
 
-      // Common elements
-      length = commonElements.length;
-      for (int i = 0; i < length; i++) {
-        switch (commonElements[i]) {
-          case ROW_ID:
-            line.append(peakListRow.getID() + fieldSeparator);
-            break;
-          case ROW_MZ:
-            line.append(peakListRow.getAverageMZ() + fieldSeparator);
-            break;
-          case ROW_RT:
-            line.append(peakListRow.getAverageRT() + fieldSeparator);
-            break;
-          case ROW_IDENTITY:
-            // Identity elements
-            PeakIdentity peakId = peakListRow.getPreferredPeakIdentity();
-            if (peakId == null) {
-              line.append(fieldSeparator);
-              break;
-            }
-            String propertyValue = peakId.toString();
-            propertyValue = escapeStringForCSV(propertyValue);
-            line.append(propertyValue + fieldSeparator);
-            break;
-          case ROW_IDENTITY_ALL:
-            // Identity elements
-            PeakIdentity[] peakIdentities = peakListRow.getPeakIdentities();
-            propertyValue = "";
-            for (int x = 0; x < peakIdentities.length; x++) {
-              if (x > 0)
-                propertyValue += idSeparator;
-              propertyValue += peakIdentities[x].toString();
-            }
-            propertyValue = escapeStringForCSV(propertyValue);
-            line.append(propertyValue + fieldSeparator);
-            break;
-          case ROW_IDENTITY_DETAILS:
-            peakId = peakListRow.getPreferredPeakIdentity();
-            if (peakId == null) {
-              line.append(fieldSeparator);
-              break;
-            }
-            propertyValue = peakId.getDescription();
-            if (propertyValue != null)
-              propertyValue = propertyValue.replaceAll("\\n", ";");
-            propertyValue = escapeStringForCSV(propertyValue);
-            line.append(propertyValue + fieldSeparator);
+    // Common elements
+    int length = commonElements.length;
+    for (int i = 0; i < length; i++) {
+      switch (commonElements[i]) {
+        case ROW_ID:
+          line.append(peakListRow.getID()).append(fieldSeparator);
+          break;
+        case ROW_MZ:
+          line.append(peakListRow.getAverageMZ()).append(fieldSeparator);
+          break;
+        case ROW_RT:
+          line.append(peakListRow.getAverageRT()).append(fieldSeparator);
+          break;
+        case ROW_IDENTITY:
+          // Identity elements
+          PeakIdentity peakId = peakListRow.getPreferredPeakIdentity();
+          if (peakId == null) {
+            line.append(fieldSeparator);
             break;
-          case ROW_COMMENT:
-            String comment = escapeStringForCSV(peakListRow.getComment());
-            line.append(comment + fieldSeparator);
+          }
+          String propertyValue = peakId.toString();
+          propertyValue = escapeStringForCSV(propertyValue);
+          line.append(propertyValue).append(fieldSeparator);
+          break;
+        case ROW_IDENTITY_ALL:
+          // Identity elements
+          PeakIdentity[] peakIdentities = peakListRow.getPeakIdentities();
+          StringBuilder identities = new StringBuilder();
+          for (int x = 0; x < peakIdentities.length; x++) {
+            if (x > 0)
+              identities.append(idSeparator);
+            identities.append(peakIdentities[x].toString());
+          }
+          propertyValue = escapeStringForCSV(identities.toString());
+          line.append(propertyValue).append(fieldSeparator);
+          break;
+        case ROW_IDENTITY_DETAILS:
+          peakId = peakListRow.getPreferredPeakIdentity();
+          if (peakId == null) {
+            line.append(fieldSeparator);
             break;
-          case ROW_PEAK_NUMBER:
-            int numDetected = 0;
-            for (Feature p : peakListRow.getPeaks()) {
-              if (p.getFeatureStatus() == FeatureStatus.DETECTED) {
-                numDetected++;
-              }
+          }
+          propertyValue = peakId.getDescription();
+          if (propertyValue != null)
+            propertyValue = propertyValue.replaceAll("\\n", ";");
+          propertyValue = escapeStringForCSV(propertyValue);
+          line.append(propertyValue).append(fieldSeparator);
+          break;
+        case ROW_COMMENT:
+          String comment = escapeStringForCSV(peakListRow.getComment());
+          line.append(comment).append(fieldSeparator);
+          break;
+        case ROW_PEAK_NUMBER:
+          int numDetected = 0;
+          for (Feature p : peakListRow.getPeaks()) {
+            if (p.getFeatureStatus() == FeatureStatus.DETECTED) {
+              numDetected++;
             }
-            line.append(numDetected + fieldSeparator);
-            break;
-        }
+          }
+          line.append(numDetected).append(fieldSeparator);
+          break;
       }
+    }
 
-      // peak Information
-      if (exportAllPeakInfo) {
-        if (peakListRow.getPeakInformation() != null) {
-          Map<String, String> allPropertiesMap =
-              peakListRow.getPeakInformation().getAllProperties();
-
-          for (String key : peakInformationFields) {
-            String value = allPropertiesMap.get(key);
-            if (value == null)
-              value = "";
-            line.append(value + fieldSeparator);
-          }
+    // peak Information
+    if (exportAllPeakInfo) {
+      if (peakListRow.getPeakInformation() != null) {
+        Map<String, String> allPropertiesMap = peakListRow.getPeakInformation().getAllProperties();
+
+        for (String key : peakInformationFields) {
+          String value = allPropertiesMap.get(key);
+          if (value == null)
+            value = "";
+          line.append(value).append(fieldSeparator);
         }
       }
+    }
 
-      // Data file elements
-      length = dataFileElements.length;
-      for (RawDataFile dataFile : rawDataFiles) {
-        for (int i = 0; i < length; i++) {
-          Feature peak = peakListRow.getPeak(dataFile);
-          if (peak != null) {
-            switch (dataFileElements[i]) {
-              case PEAK_STATUS:
-                line.append(peak.getFeatureStatus() + fieldSeparator);
-                break;
-              case PEAK_NAME:
-                line.append(PeakUtils.peakToString(peak) + fieldSeparator);
-                break;
-              case PEAK_MZ:
-                line.append(peak.getMZ() + fieldSeparator);
-                break;
-              case PEAK_RT:
-                line.append(peak.getRT() + fieldSeparator);
-                break;
-              case PEAK_RT_START:
-                line.append(peak.getRawDataPointsRTRange().lowerEndpoint() + fieldSeparator);
-                break;
-              case PEAK_RT_END:
-                line.append(peak.getRawDataPointsRTRange().upperEndpoint() + fieldSeparator);
-                break;
-              case PEAK_DURATION:
-                line.append(
-                    RangeUtils.rangeLength(peak.getRawDataPointsRTRange()) + fieldSeparator);
-                break;
-              case PEAK_HEIGHT:
-                line.append(peak.getHeight() + fieldSeparator);
-                break;
-              case PEAK_AREA:
-                line.append(peak.getArea() + fieldSeparator);
-                break;
-              case PEAK_CHARGE:
-                line.append(peak.getCharge() + fieldSeparator);
-                break;
-              case PEAK_DATAPOINTS:
-                line.append(peak.getScanNumbers().length + fieldSeparator);
-                break;
-              case PEAK_FWHM:
-                line.append(peak.getFWHM() + fieldSeparator);
-                break;
-              case PEAK_TAILINGFACTOR:
-                line.append(peak.getTailingFactor() + fieldSeparator);
-                break;
-              case PEAK_ASYMMETRYFACTOR:
-                line.append(peak.getAsymmetryFactor() + fieldSeparator);
-                break;
-              case PEAK_MZMIN:
-                line.append(peak.getRawDataPointsMZRange().lowerEndpoint() + fieldSeparator);
-                break;
-              case PEAK_MZMAX:
-                line.append(peak.getRawDataPointsMZRange().upperEndpoint() + fieldSeparator);
-                break;
-            }
-          } else {
-            switch (dataFileElements[i]) {
-              case PEAK_STATUS:
-                line.append(FeatureStatus.UNKNOWN + fieldSeparator);
-                break;
-              default:
-                line.append("0" + fieldSeparator);
-                break;
-            }
+    // Data file elements
+    length = dataFileElements.length;
+    for (RawDataFile dataFile : rawDataFiles) {
+      Feature peak = peakListRow.getPeak(dataFile);
+      for (int i = 0; i < length; i++) {
+        if (peak != null) {
+          switch (dataFileElements[i]) {
+            case PEAK_STATUS:
+              line.append(peak.getFeatureStatus()).append(fieldSeparator);
+              break;
+            case PEAK_NAME:
+              appendPeakName(line, peak);
+              line.append(fieldSeparator);
+              break;
+            case PEAK_MZ:
+              line.append(peak.getMZ()).append(fieldSeparator);
+              break;
+            case PEAK_RT:
+              line.append(peak.getRT()).append(fieldSeparator);
+              break;
+            case PEAK_RT_START:
+              line.append(peak.getRawDataPointsRTRange().lowerEndpoint()).append(fieldSeparator);
+              break;
+            case PEAK_RT_END:
+              line.append(peak.getRawDataPointsRTRange().upperEndpoint()).append(fieldSeparator);
+              break;
+            case PEAK_DURATION:
+              line.append(RangeUtils.rangeLength(peak.getRawDataPointsRTRange()))
+                  .append(fieldSeparator);
+              break;
+            case PEAK_HEIGHT:
+              line.append(peak.getHeight()).append(fieldSeparator);
+              break;
+            case PEAK_AREA:
+              line.append(peak.getArea()).append(fieldSeparator);
+              break;
+            case PEAK_CHARGE:
+              line.append(peak.getCharge()).append(fieldSeparator);
+              break;
+            case PEAK_DATAPOINTS:
+              line.append(peak.getScanNumbers().length).append(fieldSeparator);
+              break;
+            case PEAK_FWHM:
+              line.append(peak.getFWHM()).append(fieldSeparator);
+              break;
+            case PEAK_TAILINGFACTOR:
+              line.append(peak.getTailingFactor()).append(fieldSeparator);
+              break;
+            case PEAK_ASYMMETRYFACTOR:
+              line.append(peak.getAsymmetryFactor()).append(fieldSeparator);
+              break;
+            case PEAK_MZMIN:
+              line.append(peak.getRawDataPointsMZRange().lowerEndpoint()).append(fieldSeparator);
+              break;
+            case PEAK_MZMAX:
+              line.append(peak.getRawDataPointsMZRange().upperEndpoint()).append(fieldSeparator);
+              break;
+          }
+        } else {
+          switch (dataFileElements[i]) {
+            case PEAK_STATUS:
+              line.append(FeatureStatus.UNKNOWN).append(fieldSeparator);
+              break;
+            default:
+              line.append("0").append(fieldSeparator);
+              break;
           }
         }
       }
+    }
 
-      line.append("\n");
-
-      try {
-        writer.write(line.toString());
-      } catch (Exception e) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not write to file " + fileName);
-        return;
-      }
+    line.append("\n");
+  }
 
-      processedRows++;
-    }
+  /**
+   * Same text as PeakUtils.peakToString(), with the formats of the current thread
+   */
+  private void appendPeakName(StringBuilder line, Feature peak) {
+    line.append(mzFormat.get().format(peak.getMZ()));
+    line.append(" m/z @");
+    line.append(rtFormat.get().format(peak.getRT()));
+    line.append(" [").append(peak.getDataFile().getName()).append("]");
   }
 
   private String escapeStringForCSV(final String inputString) {
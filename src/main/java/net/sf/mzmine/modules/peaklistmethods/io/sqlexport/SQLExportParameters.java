@@ -21,6 +21,7 @@ package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
 import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.StringParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
 
@@ -41,8 +42,16 @@ public class SQLExportParameters extends SimpleParameterSet {
   public static final BooleanParameter emptyExport = new BooleanParameter("Export empty feature list",
       "If selected, an empty feature list will be exported with null values for all column other than the rawdatafile and any constant values.");
 
+  public static final IntegerParameter batchSize = new IntegerParameter("Batch size",
+      "Number of table rows sent to the database at once", 1000, 1, null);
+
+  public static final BooleanParameter streamRows = new BooleanParameter("Prepare rows in parallel",
+      "If selected, the values of the table rows (including MS/MS mass lists) are collected on a separate thread while the database inserts the previous rows.",
+      true);
+
   public SQLExportParameters() {
-    super(new Parameter[] {peakList, connectionString, tableName, exportColumns, emptyExport});
+    super(new Parameter[] {peakList, connectionString, tableName, exportColumns, emptyExport,
+        batchSize, streamRows});
   }
 
 }
@@ -24,6 +24,10 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
@@ -34,36 +38,59 @@ import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
-import net.sf.mzmine.modules.peaklistmethods.io.mztabexport.MzTabExportParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.RangeUtils;
 import net.sf.mzmine.util.scans.ScanUtils;
 
+/**
+ * Inserts the feature list rows into a database table. All table rows are inserted by one prepared
+ * statement in JDBC batches, in one transaction. The values of the table rows can be collected on
+ * a separate thread while the database inserts the previous batch.
+ */
 class SQLExportTask extends AbstractTask {
 
+  // Marks the end of the rows in the queue
+  private static final List<Object[]> END_OF_ROWS = new ArrayList<>(0);
+
   private final PeakList peakList;
   private final String connectionString;
   private final String tableName;
   private final SQLColumnSettings exportColumns;
   private final boolean emptyExport;
+  private final int batchSize;
+  private final boolean streamRows;
 
-  private int processedRows = 0, totalRows = 0;
+  private volatile int processedRows = 0, totalRows = 0;
 
   private Connection dbConnection;
 
   SQLExportTask(ParameterSet parameters) {
+    this(parameters.getParameter(SQLExportParameters.peakList).getValue()
+        .getMatchingPeakLists()[0],
+        parameters.getParameter(SQLExportParameters.connectionString).getValue(),
+        parameters.getParameter(SQLExportParameters.tableName).getValue(),
+        parameters.getParameter(SQLExportParameters.exportColumns).getValue(),
+        parameters.getParameter(SQLExportParameters.emptyExport).getValue(),
+        parameters.getParameter(SQLExportParameters.batchSize).getValue(),
+        parameters.getParameter(SQLExportParameters.streamRows).getValue());
+  }
 
-    this.peakList =
-        parameters.getParameter(SQLExportParameters.peakList).getValue().getMatchingPeakLists()[0];
-    this.connectionString =
-        parameters.getParameter(SQLExportParameters.connectionString).getValue();
-
-    this.tableName = parameters.getParameter(SQLExportParameters.tableName).getValue();
-    this.exportColumns = parameters.getParameter(SQLExportParameters.exportColumns).getValue();
-    this.emptyExport = parameters.getParameter(SQLExportParameters.emptyExport).getValue();
-
+  /**
+   * @param connectionString JDBC connection string, e.g. of an embedded H2 or Derby database
+   * @param batchSize number of table rows per JDBC batch
+   * @param streamRows collect the values of the table rows on a separate thread
+   */
+  SQLExportTask(PeakList peakList, String connectionString, String tableName,
+      SQLColumnSettings exportColumns, boolean emptyExport, int batchSize, boolean streamRows) {
+    this.peakList = peakList;
+    this.connectionString = connectionString;
+    this.tableName = tableName;
+    this.exportColumns = exportColumns;
+    this.emptyExport = emptyExport;
+    this.batchSize = Math.max(1, batchSize);
+    this.streamRows = streamRows;
   }
 
   public double getFinishedPercentage() {
@@ -96,21 +123,35 @@ class SQLExportTask extends AbstractTask {
     try {
       dbConnection.setAutoCommit(false);
 
-      // If select, an empty row with just the raw data file
-      // information will be exported
-      if (rows.length < 1 && emptyExport) {
-        exportPeakListRow(null);
-      } else {
-        for (PeakListRow row : rows) {
-          if (getStatus() != TaskStatus.PROCESSING)
-            break;
-          exportPeakListRow(row);
-          processedRows++;
+      try (PreparedStatement statement = dbConnection.prepareStatement(getInsertStatement())) {
+
+        // If select, an empty row with just the raw data file
+        // information will be exported
+        if (rows.length < 1 && emptyExport) {
+          bindValues(statement, getEmptyRowValues());
+          statement.executeUpdate();
+        } else if (streamRows) {
+          exportRowsStreamed(statement, rows);
+        } else {
+          int batchRows = 0;
+          for (PeakListRow row : rows) {
+            if (getStatus() != TaskStatus.PROCESSING)
+              break;
+            batchRows = addToBatch(statement, getRowValues(row), batchRows);
+            processedRows++;
+          }
+          if (batchRows > 0)
+            statement.executeBatch();
         }
       }
-      dbConnection.commit();
+
+      if (getStatus() == TaskStatus.PROCESSING)
+        dbConnection.commit();
+      else
+        dbConnection.rollback();
       dbConnection.close();
     } catch (SQLException e) {
+      closeConnection();
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Error running SQL query: " + e.toString());
       return;
@@ -121,16 +162,89 @@ class SQLExportTask extends AbstractTask {
 
   }
 
-  private void exportPeakListRow(PeakListRow row) throws SQLException {
+  /**
+   * Collects the values of the rows on a separate thread, while this thread inserts them
+   */
+  private void exportRowsStreamed(PreparedStatement statement, PeakListRow rows[])
+      throws SQLException {
 
-    // Cancel?
-    if (isCanceled()) {
-      return;
+    final BlockingQueue<List<Object[]>> queue = new ArrayBlockingQueue<>(batchSize * 2);
+    final RuntimeException producerError[] = new RuntimeException[1];
+
+    Thread producer = new Thread(() -> {
+      try {
+        for (PeakListRow row : rows) {
+          if (isCanceled())
+            break;
+          queue.put(getRowValues(row));
+        }
+      } catch (InterruptedException e) {
+        // consumer stopped
+        return;
+      } catch (RuntimeException e) {
+        producerError[0] = e;
+      }
+      try {
+        queue.put(END_OF_ROWS);
+      } catch (InterruptedException e) {
+        // consumer stopped
+      }
+    }, "SQL export row producer");
+    producer.setDaemon(true);
+    producer.start();
+
+    int batchRows = 0;
+    try {
+      while (getStatus() == TaskStatus.PROCESSING) {
+        List<Object[]> values = queue.take();
+        if (values == END_OF_ROWS)
+          break;
+        batchRows = addToBatch(statement, values, batchRows);
+        processedRows++;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("SQL export interrupted", e);
+    } finally {
+      producer.interrupt();
     }
 
-    // Value for looping through raw data files
-    boolean loopDataFiles = false;
+    if (producerError[0] != null)
+      throw producerError[0];
 
+    if (batchRows > 0 && getStatus() == TaskStatus.PROCESSING)
+      statement.executeBatch();
+  }
+
+  /**
+   * Adds the table rows to the batch and executes the batch when it is full
+   * 
+   * @return number of table rows in the batch
+   */
+  private int addToBatch(PreparedStatement statement, List<Object[]> values, int batchRows)
+      throws SQLException {
+    for (Object rowValues[] : values) {
+      bindValues(statement, rowValues);
+      statement.addBatch();
+      batchRows++;
+      if (batchRows >= batchSize) {
+        statement.executeBatch();
+        batchRows = 0;
+      }
+    }
+    return batchRows;
+  }
+
+  private void closeConnection() {
+    try {
+      dbConnection.rollback();
+      dbConnection.close();
+    } catch (SQLException e) {
+      // the original error is reported
+    }
+  }
+
+  private String getInsertStatement() {
     StringBuilder sql = new StringBuilder();
     sql.append("INSERT INTO ");
     sql.append(tableName);
@@ -147,166 +261,200 @@ class SQLExportTask extends AbstractTask {
         sql.append(",");
     }
     sql.append(")");
+    return sql.toString();
+  }
+
+  /**
+   * Sets the statement parameters. Values are Double, Integer, String or byte[] (BLOB), null values
+   * are set as NULL of the column type.
+   */
+  private void bindValues(PreparedStatement statement, Object values[]) throws SQLException {
+    for (int i = 0; i < values.length; i++) {
+      final Object value = values[i];
+      if (value == null) {
+        statement.setNull(i + 1, isBlobColumn(i) ? Types.BLOB : Types.VARCHAR);
+      } else if (value instanceof Double) {
+        statement.setDouble(i + 1, (Double) value);
+      } else if (value instanceof Integer) {
+        statement.setInt(i + 1, (Integer) value);
+      } else if (value instanceof byte[]) {
+        statement.setBlob(i + 1, new ByteArrayInputStream((byte[]) value));
+      } else {
+        statement.setString(i + 1, value.toString());
+      }
+    }
+  }
 
-    PreparedStatement statement = dbConnection.prepareStatement(sql.toString());
+  private boolean isBlobColumn(int column) {
+    SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(column, 1);
+    return dataType == SQLExportDataType.ISOTOPEPATTERN || dataType == SQLExportDataType.MSMS;
+  }
+
+  /**
+   * Values of the empty row: only the raw data file and constant values
+   */
+  private Object[] getEmptyRowValues() {
+    Object values[] = new Object[exportColumns.getRowCount()];
+    for (int i = 0; i < exportColumns.getRowCount(); i++) {
+      SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
+      String dataValue = (String) exportColumns.getValueAt(i, 2);
+      switch (dataType) {
+        case CONSTANT:
+          values[i] = dataValue;
+          break;
+        case RAWFILE:
+          RawDataFile rawdatafiles[] = peakList.getRawDataFiles();
+          values[i] = rawdatafiles[0].getName();
+          break;
+        default:
+          values[i] = null;
+          break;
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Values of the table rows of one feature list row: one table row per raw data file if data file
+   * elements are exported, otherwise one table row
+   */
+  private List<Object[]> getRowValues(PeakListRow row) {
+
+    List<Object[]> tableRows = new ArrayList<>(1);
+
+    // Value for looping through raw data files
+    boolean loopDataFiles = false;
 
-    if (row == null) {
+    for (RawDataFile rawDataFile : row.getRawDataFiles()) {
+      Feature peak = row.getPeak(rawDataFile);
+
+      Object values[] = new Object[exportColumns.getRowCount()];
       for (int i = 0; i < exportColumns.getRowCount(); i++) {
         SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
         String dataValue = (String) exportColumns.getValueAt(i, 2);
         switch (dataType) {
           case CONSTANT:
-            statement.setString(i + 1, dataValue);
+            values[i] = dataValue;
+            break;
+          case MZ:
+            values[i] = row.getAverageMZ();
+            break;
+          case RT:
+            values[i] = row.getAverageRT();
+            break;
+          case ID:
+            values[i] = row.getID();
+            break;
+          case PEAKCHARGE:
+            values[i] = (double) peak.getCharge();
+            loopDataFiles = true;
+            break;
+          case PEAKDURATION:
+            values[i] = RangeUtils.rangeLength(peak.getRawDataPointsRTRange());
+            loopDataFiles = true;
+            break;
+          case PEAKSTATUS:
+            values[i] = peak.getFeatureStatus().name();
+            loopDataFiles = true;
+            break;
+          case PEAKMZ:
+            values[i] = peak.getMZ();
+            loopDataFiles = true;
+            break;
+          case PEAKRT:
+            values[i] = peak.getRT();
+            loopDataFiles = true;
+            break;
+          case PEAKRT_START:
+            values[i] = peak.getRawDataPointsRTRange().lowerEndpoint();
+            loopDataFiles = true;
+            break;
+          case PEAKRT_END:
+            values[i] = peak.getRawDataPointsRTRange().upperEndpoint();
+            loopDataFiles = true;
+            break;
+          case PEAKHEIGHT:
+            values[i] = peak.getHeight();
+            loopDataFiles = true;
+            break;
+          case PEAKAREA:
+            values[i] = peak.getArea();
+            loopDataFiles = true;
+            break;
+          case DATAPOINTS:
+            values[i] = (double) peak.getScanNumbers().length;
+            loopDataFiles = true;
+            break;
+          case FWHM:
+            values[i] = peak.getFWHM();
+            loopDataFiles = true;
+            break;
+          case TAILINGFACTOR:
+            values[i] = peak.getTailingFactor();
+            loopDataFiles = true;
+            break;
+          case ASYMMETRYFACTOR:
+            values[i] = peak.getAsymmetryFactor();
+            loopDataFiles = true;
             break;
           case RAWFILE:
-            RawDataFile rawdatafiles[] = peakList.getRawDataFiles();
-            statement.setString(i + 1, rawdatafiles[0].getName());
+            values[i] = rawDataFile.getName();
+            loopDataFiles = true;
             break;
-          default:
-            statement.setString(i + 1, null);
+          case HEIGHT:
+            values[i] = row.getAverageHeight();
             break;
-        }
-      }
-      statement.executeUpdate();
-    }
-
-    else {
-      for (RawDataFile rawDataFile : row.getRawDataFiles()) {
-        Feature peak = row.getPeak(rawDataFile);
-
-        for (int i = 0; i < exportColumns.getRowCount(); i++) {
-          SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
-          String dataValue = (String) exportColumns.getValueAt(i, 2);
-          switch (dataType) {
-            case CONSTANT:
-              statement.setString(i + 1, dataValue);
-              break;
-            case MZ:
-              statement.setDouble(i + 1, row.getAverageMZ());
-              break;
-            case RT:
-              statement.setDouble(i + 1, row.getAverageRT());
-              break;
-            case ID:
-              statement.setInt(i + 1, row.getID());
-              break;
-            case PEAKCHARGE:
-              statement.setDouble(i + 1, peak.getCharge());
-              loopDataFiles = true;
-              break;
-            case PEAKDURATION:
-              statement.setDouble(i + 1, RangeUtils.rangeLength(peak.getRawDataPointsRTRange()));
-              loopDataFiles = true;
-              break;
-            case PEAKSTATUS:
-              statement.setString(i + 1, peak.getFeatureStatus().name());
-              loopDataFiles = true;
-              break;
-            case PEAKMZ:
-              statement.setDouble(i + 1, peak.getMZ());
-              loopDataFiles = true;
-              break;
-            case PEAKRT:
-              statement.setDouble(i + 1, peak.getRT());
-              loopDataFiles = true;
-              break;
-            case PEAKRT_START:
-              statement.setDouble(i + 1, peak.getRawDataPointsRTRange().lowerEndpoint());
-              loopDataFiles = true;
-              break;
-            case PEAKRT_END:
-              statement.setDouble(i + 1, peak.getRawDataPointsRTRange().upperEndpoint());
-              loopDataFiles = true;
-              break;
-            case PEAKHEIGHT:
-              statement.setDouble(i + 1, peak.getHeight());
-              loopDataFiles = true;
-              break;
-            case PEAKAREA:
-              statement.setDouble(i + 1, peak.getArea());
-              loopDataFiles = true;
-              break;
-            case DATAPOINTS:
-              statement.setDouble(i + 1, peak.getScanNumbers().length);
-              loopDataFiles = true;
-              break;
-            case FWHM:
-              statement.setDouble(i + 1, peak.getFWHM());
-              loopDataFiles = true;
-              break;
-            case TAILINGFACTOR:
-              statement.setDouble(i + 1, peak.getTailingFactor());
-              loopDataFiles = true;
-              break;
-            case ASYMMETRYFACTOR:
-              statement.setDouble(i + 1, peak.getAsymmetryFactor());
-              loopDataFiles = true;
-              break;
-            case RAWFILE:
-              statement.setString(i + 1, rawDataFile.getName());
-              loopDataFiles = true;
-              break;
-            case HEIGHT:
-              statement.setDouble(i + 1, row.getAverageHeight());
-              break;
-            case AREA:
-              statement.setDouble(i + 1, row.getAverageArea());
-              break;
-            case COMMENT:
-              statement.setString(i + 1, row.getComment());
-              break;
-            case IDENTITY:
-              PeakIdentity id = row.getPreferredPeakIdentity();
-              if (id != null) {
-                statement.setString(i + 1, id.getName());
-              } else {
-                statement.setNull(i + 1, Types.VARCHAR);
-              }
-              break;
-            case ISOTOPEPATTERN:
-              IsotopePattern isotopes = row.getBestIsotopePattern();
-              if (isotopes == null) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              DataPoint dataPoints[] = isotopes.getDataPoints();
-              byte bytes[] = ScanUtils.encodeDataPointsToBytes(dataPoints);
-              ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-              statement.setBlob(i + 1, is);
+          case AREA:
+            values[i] = row.getAverageArea();
+            break;
+          case COMMENT:
+            values[i] = row.getComment();
+            break;
+          case IDENTITY:
+            PeakIdentity id = row.getPreferredPeakIdentity();
+            values[i] = id != null ? id.getName() : null;
+            break;
+          case ISOTOPEPATTERN:
+            IsotopePattern isotopes = row.getBestIsotopePattern();
+            if (isotopes == null) {
+              values[i] = null;
               break;
-            case MSMS:
-              int msmsScanNum = row.getBestPeak().getMostIntenseFragmentScanNumber();
-              // Check if there is any MS/MS scan
-              if (msmsScanNum <= 0) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              RawDataFile dataFile = row.getBestPeak().getDataFile();
-              Scan msmsScan = dataFile.getScan(msmsScanNum);
-              MassList msmsMassList = msmsScan.getMassList(dataValue);
-              // Check if there is a masslist for the scan
-              if (msmsMassList == null) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              dataPoints = msmsMassList.getDataPoints();
-              bytes = ScanUtils.encodeDataPointsToBytes(dataPoints);
-              is = new ByteArrayInputStream(bytes);
-              statement.setBlob(i + 1, is);
+            }
+            DataPoint dataPoints[] = isotopes.getDataPoints();
+            values[i] = ScanUtils.encodeDataPointsToBytes(dataPoints);
+            break;
+          case MSMS:
+            int msmsScanNum = row.getBestPeak().getMostIntenseFragmentScanNumber();
+            // Check if there is any MS/MS scan
+            if (msmsScanNum <= 0) {
+              values[i] = null;
               break;
-            default:
+            }
+            RawDataFile dataFile = row.getBestPeak().getDataFile();
+            Scan msmsScan = dataFile.getScan(msmsScanNum);
+            MassList msmsMassList = msmsScan.getMassList(dataValue);
+            // Check if there is a masslist for the scan
+            if (msmsMassList == null) {
+              values[i] = null;
               break;
-          }
+            }
+            dataPoints = msmsMassList.getDataPoints();
+            values[i] = ScanUtils.encodeDataPointsToBytes(dataPoints);
+            break;
+          default:
+            values[i] = null;
+            break;
         }
-        statement.executeUpdate();
+      }
+      tableRows.add(values);
 
-        // If no data file elements are selected then don't loop through
-        // all
-        // data files in feature list
-        if (!loopDataFiles) {
-          break;
-        }
+      // If no data file elements are selected then don't loop through
+      // all
+      // data files in feature list
+      if (!loopDataFiles) {
+        break;
       }
     }
+    return tableRows;
   }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.impl.SimpleIsotopePattern;
+
+/**
+ * Cache of predicted isotope patterns, shared by all modules. Entries are keyed by the formula,
+ * charge, polarity, minimum abundance and merge width, and the least recently used entries are
+ * evicted first. The cache is thread safe.
+ *
+ * Isotope patterns are not immutable (the data point array is returned directly), so callers get a
+ * copy of the cached pattern.
+ */
+public class IsotopePatternCache {
+
+  private static final Logger logger = Logger.getLogger(IsotopePatternCache.class.getName());
+
+  /**
+   * Maximum number of cached isotope patterns
+   */
+  public static final int MAXIMUM_SIZE = 100000;
+
+  private static final IsotopePatternCache instance = new IsotopePatternCache();
+
+  private final Cache<Key, IsotopePattern> cache =
+      CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).recordStats().build();
+
+  private IsotopePatternCache() {}
+
+  public static IsotopePatternCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Same as {@link IsotopePatternCalculator#calculateIsotopePattern(String, double, int,
+   * PolarityType)}, but returns a copy of the cached pattern if the same pattern was calculated
+   * before
+   */
+  public @Nonnull IsotopePattern getIsotopePattern(@Nonnull String molecularFormula,
+      double minAbundance, int charge, @Nonnull PolarityType polarity) {
+    return getIsotopePattern(molecularFormula, minAbundance, 0.00005f, charge, polarity);
+  }
+
+  /**
+   * Same as {@link IsotopePatternCalculator#calculateIsotopePattern(String, double, double, int,
+   * PolarityType, boolean)} without isotope compositions, but returns a copy of the cached pattern
+   * if the same pattern was calculated before
+   */
+  public @Nonnull IsotopePattern getIsotopePattern(@Nonnull String molecularFormula,
+      double minAbundance, double mergeWidth, int charge, @Nonnull PolarityType polarity) {
+
+    final String formula = molecularFormula.replace(" ", "");
+    final Key key = new Key(formula, minAbundance, mergeWidth, charge, polarity);
+
+    final IsotopePattern pattern;
+    try {
+      pattern = cache.get(key, () -> IsotopePatternCalculator.calculateIsotopePattern(formula,
+          minAbundance, mergeWidth, charge, polarity, false));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      // Same exceptions as without the cache
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+
+    return new SimpleIsotopePattern(pattern.getDataPoints().clone(), pattern.getStatus(),
+        pattern.getDescription());
+  }
+
+  /**
+   * Removes all cached isotope patterns
+   */
+  public void invalidateAll() {
+    logger.finest("Isotope pattern cache statistics: " + cache.stats());
+    cache.invalidateAll();
+  }
+
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  private static final class Key {
+
+    private final String formula;
+    private final double minAbundance, mergeWidth;
+    private final int charge;
+    private final PolarityType polarity;
+
+    Key(String formula, double minAbundance, double mergeWidth, int charge,
+        PolarityType polarity) {
+      this.formula = formula;
+      this.minAbundance = minAbundance;
+      this.mergeWidth = mergeWidth;
+      this.charge = charge;
+      this.polarity = polarity;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return formula.equals(other.formula)
+          && (Double.compare(minAbundance, other.minAbundance) == 0)
+          && (Double.compare(mergeWidth, other.mergeWidth) == 0) && (charge == other.charge)
+          && (polarity == other.polarity);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(formula, minAbundance, mergeWidth, charge, polarity);
+    }
+
+  }
+
+}
@@ -72,8 +72,12 @@ public class DeconvolutionParameters extends SimpleParameterSet {
               + "considered belonging to the same feature. If not activated, the pairing of MS1 scan with the corresponding MS2 scan\n"
               + "will be done on the full retention time range of the chromatogram."));
 
+  public static final BooleanParameter PARALLEL = new BooleanParameter("Parallel",
+      "Resolve the chromatograms in parallel (R-based algorithms use one R session per thread)",
+      false);
+
   public DeconvolutionParameters() {
     super(new Parameter[] {PEAK_LISTS, SUFFIX, PEAK_RESOLVER, MZ_CENTER_FUNCTION, mzRangeMSMS,
-        RetentionTimeMSMS, AUTO_REMOVE});
+        RetentionTimeMSMS, PARALLEL, AUTO_REMOVE});
   }
 }
@@ -19,10 +19,19 @@
 package net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution;
 
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.AUTO_REMOVE;
+import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.PARALLEL;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.PEAK_RESOLVER;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.RetentionTimeMSMS;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.SUFFIX;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.mzRangeMSMS;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.sf.mzmine.datamodel.Feature;
@@ -34,6 +43,7 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.parameters.ParameterSet;
@@ -55,13 +65,15 @@ public class DeconvolutionTask extends AbstractTask {
   private PeakList newPeakList;
 
   // Counters.
-  private int processedRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
   private int totalRows;
 
   // User parameters
   private final ParameterSet parameters;
 
   private RSessionWrapper rSession;
+  // All R sessions opened by this task (one per thread in parallel mode)
+  private final List<RSessionWrapper> rSessions = new ArrayList<>();
   private String errorMsg;
   private boolean setMSMSRange, setMSMSRT;
   private double msmsRange, RTRangeMSMS;
@@ -83,7 +95,6 @@ public class DeconvolutionTask extends AbstractTask {
     parameters = parameterSet;
     originalPeakList = list;
     newPeakList = null;
-    processedRows = 0;
     totalRows = 0;
     this.mzCenterFunction = mzCenterFunction;
   }
@@ -97,7 +108,7 @@ public class DeconvolutionTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    return totalRows == 0 ? 0.0 : (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -125,18 +136,9 @@ public class DeconvolutionTask extends AbstractTask {
           final MZmineProcessingStep<PeakResolver> resolver =
               parameters.getParameter(PEAK_RESOLVER).getValue();
 
-          if (resolver.getModule().getRequiresR()) {
-            // Check R availability, by trying to open the
-            // connection.
-            String[] reqPackages = resolver.getModule().getRequiredRPackages();
-            String[] reqPackagesVersions = resolver.getModule().getRequiredRPackagesVersions();
-            String callerFeatureName = resolver.getModule().getName();
-
-            REngineType rEngineType =
-                resolver.getModule().getREngineType(resolver.getParameterSet());
-            this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages,
-                reqPackagesVersions);
-            this.rSession.open();
+          // In parallel mode, each thread opens its own R session.
+          if (!parameters.getParameter(PARALLEL).getValue()) {
+            this.rSession = openRSession(resolver);
           } else {
             this.rSession = null;
           }
@@ -162,7 +164,7 @@ public class DeconvolutionTask extends AbstractTask {
           }
           // Turn off R instance.
           if (this.rSession != null)
-            this.rSession.close(false);
+            closeRSession(this.rSession);
 
         } catch (RSessionWrapperException e) {
           errorMsg = "'R computing error' during CentWave detection. \n" + e.getMessage();
@@ -245,26 +247,28 @@ public class DeconvolutionTask extends AbstractTask {
         "Peak deconvolution by " + resolver, resolver.getParameterSet()));
 
     // Initialise counters.
-    processedRows = 0;
+    processedRows.set(0);
     totalRows = peakList.getNumberOfRows();
     int peakId = 1;
 
     // Process each chromatogram.
     final PeakListRow[] peakListRows = peakList.getRows();
     final int chromatogramCount = peakListRows.length;
+    final ResolvedPeak[][] resolved = new ResolvedPeak[chromatogramCount][];
+    if (parameters.getParameter(PARALLEL).getValue()) {
+      resolveParallel(peakListRows, dataFile, resolver, resolved);
+    } else {
+      for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
+        resolved[index] = resolvePeaks(peakListRows[index], dataFile, resolver, rSession);
+        processedRows.incrementAndGet();
+      }
+    }
+
+    // Add peaks to the new feature list, in the order of the chromatograms.
     for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
 
       final PeakListRow currentRow = peakListRows[index];
-      final Feature chromatogram = currentRow.getPeak(dataFile);
-
-      // Resolve peaks.
-      final PeakResolver resolverModule = resolver.getModule();
-      final ParameterSet resolverParams = resolver.getParameterSet();
-      final ResolvedPeak[] peaks = resolverModule.resolvePeaks(chromatogram, resolverParams, rSession,
-          mzCenterFunction, msmsRange, RTRangeMSMS);
-
-      // Add peaks to the new feature list.
-      for (final ResolvedPeak peak : peaks) {
+      for (final ResolvedPeak peak : resolved[index]) {
 
         peak.setParentChromatogramRowID(currentRow.getID());
 
@@ -273,23 +277,138 @@ public class DeconvolutionTask extends AbstractTask {
         newRow.setPeakInformation(peak.getPeakInformation());
         resolvedPeaks.addRow(newRow);
       }
-
-      processedRows++;
+      resolved[index] = null;
     }
 
     return resolvedPeaks;
   }
 
+  /**
+   * Resolves the peaks of one chromatogram.
+   */
+  private ResolvedPeak[] resolvePeaks(final PeakListRow row, final RawDataFile dataFile,
+      final MZmineProcessingStep<PeakResolver> resolver, final RSessionWrapper rSession)
+      throws RSessionWrapperException {
+
+    final Feature chromatogram = row.getPeak(dataFile);
+    return resolver.getModule().resolvePeaks(chromatogram, resolver.getParameterSet(), rSession,
+        mzCenterFunction, msmsRange, RTRangeMSMS);
+  }
+
+  /**
+   * Resolves the chromatograms on one thread per processor. The threads take the next unresolved
+   * chromatogram, so the results are stored by chromatogram index.
+   */
+  private void resolveParallel(final PeakListRow[] rows, final RawDataFile dataFile,
+      final MZmineProcessingStep<PeakResolver> resolver, final ResolvedPeak[][] resolved)
+      throws RSessionWrapperException {
+
+    final int numOfThreads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+    final int threads = Math.max(1, Math.min(rows.length, numOfThreads));
+    final AtomicInteger nextRow = new AtomicInteger();
+    final AtomicBoolean failed = new AtomicBoolean();
+
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "Peak deconvolution");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final List<Future<Void>> futures = new ArrayList<>(threads);
+    for (int t = 0; t < threads; t++) {
+      futures.add(executor.submit(() -> {
+        RSessionWrapper threadRSession = null;
+        try {
+          threadRSession = openRSession(resolver);
+          for (int index = nextRow.getAndIncrement(); !isCanceled() && !failed.get()
+              && index < rows.length; index = nextRow.getAndIncrement()) {
+            resolved[index] = resolvePeaks(rows[index], dataFile, resolver, threadRSession);
+            processedRows.incrementAndGet();
+          }
+        } catch (RSessionWrapperException | RuntimeException e) {
+          failed.set(true);
+          throw e;
+        } finally {
+          if (threadRSession != null && !isCanceled())
+            closeRSession(threadRSession);
+        }
+        return null;
+      }));
+    }
+    executor.shutdown();
+
+    try {
+      for (Future<Void> future : futures)
+        future.get();
+    } catch (InterruptedException e) {
+      failed.set(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Peak deconvolution interrupted", e);
+    } catch (ExecutionException e) {
+      failed.set(true);
+      if (e.getCause() instanceof RSessionWrapperException)
+        throw (RSessionWrapperException) e.getCause();
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Opens an R session if the resolver requires R.
+   * 
+   * @return the session, or null.
+   */
+  private RSessionWrapper openRSession(final MZmineProcessingStep<PeakResolver> resolver)
+      throws RSessionWrapperException {
+
+    if (!resolver.getModule().getRequiresR())
+      return null;
+
+    // Check R availability, by trying to open the connection.
+    String[] reqPackages = resolver.getModule().getRequiredRPackages();
+    String[] reqPackagesVersions = resolver.getModule().getRequiredRPackagesVersions();
+    String callerFeatureName = resolver.getModule().getName();
+
+    REngineType rEngineType = resolver.getModule().getREngineType(resolver.getParameterSet());
+    RSessionWrapper session =
+        new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, reqPackagesVersions);
+    synchronized (rSessions) {
+      rSessions.add(session);
+    }
+    try {
+      session.open();
+    } catch (RSessionWrapperException | RuntimeException e) {
+      synchronized (rSessions) {
+        rSessions.remove(session);
+      }
+      throw e;
+    }
+    return session;
+  }
+
+  /**
+   * Closes an R session and removes it from the sessions closed by cancel()
+   */
+  private void closeRSession(RSessionWrapper session) throws RSessionWrapperException {
+    synchronized (rSessions) {
+      rSessions.remove(session);
+    }
+    session.close(false);
+  }
+
   @Override
   public void cancel() {
 
     super.cancel();
-    // Turn off R instance, if already existing.
-    try {
-      if (this.rSession != null)
-        this.rSession.close(true);
-    } catch (RSessionWrapperException e) {
-      // Silent, always...
+    // Turn off R instances, if already existing.
+    synchronized (rSessions) {
+      for (RSessionWrapper session : rSessions) {
+        try {
+          session.close(true);
+        } catch (RSessionWrapperException e) {
+          // Silent, always...
+        }
+      }
     }
   }
 }
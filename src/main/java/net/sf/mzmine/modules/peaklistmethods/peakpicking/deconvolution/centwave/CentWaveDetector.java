@@ -29,9 +29,7 @@ import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.ce
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwave.CentWaveDetectorParameters.PEAK_SCALES;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwave.CentWaveDetectorParameters.SN_THRESHOLD;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
@@ -39,7 +37,6 @@ import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.PeakResolver;
 import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.ResolvedPeak;
-import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwave.CentWaveDetectorParameters.PeakIntegrationMethod;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.util.R.REngineType;
 import net.sf.mzmine.util.R.RSessionWrapper;
@@ -47,22 +44,13 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
 import net.sf.mzmine.util.maths.CenterFunction;
 
 /**
- * Use XCMS findPeaks.centWave to identify peaks.
+ * Identify peaks with the CentWave algorithm of XCMS (findPeaks.centWave), implemented in Java.
  */
 public class CentWaveDetector implements PeakResolver {
 
-  // Logger.
-  private static final Logger LOG = Logger.getLogger(CentWaveDetector.class.getName());
-
   // Name.
   private static final String NAME = "Wavelets (XCMS)";
 
-  // Minutes <-> seconds.
-  private static final double SECONDS_PER_MINUTE = 60.0;
-
-  // Required minimum version of XCMS.
-  private static final String XCMS_VERSION = "1.33.2";
-
   @Nonnull
   @Override
   public String getName() {
@@ -79,22 +67,22 @@ public class CentWaveDetector implements PeakResolver {
 
   @Override
   public boolean getRequiresR() {
-    return true;
+    return false;
   }
 
   @Override
   public String[] getRequiredRPackages() {
-    return new String[] {"xcms"};
+    return null;
   }
 
   @Override
   public String[] getRequiredRPackagesVersions() {
-    return new String[] {XCMS_VERSION};
+    return null;
   }
 
   @Override
   public REngineType getREngineType(final ParameterSet parameters) {
-    return parameters.getParameter(CentWaveDetectorParameters.RENGINE_TYPE).getValue();
+    return null;
   }
 
   @Override
@@ -117,150 +105,48 @@ public class CentWaveDetector implements PeakResolver {
         intensities[i] = 0.0;
     }
 
-    // Call findPeaks.centWave.
-    double[][] peakMatrix = null;
-
-    peakMatrix = centWave(rSession, retentionTimes, intensities, chromatogram.getMZ(),
-        parameters.getParameter(SN_THRESHOLD).getValue(),
+    // Find the peaks.
+    final List<int[]> peaks = CentWavePeakFinder.findPeaks(retentionTimes, intensities,
         parameters.getParameter(PEAK_SCALES).getValue(),
+        parameters.getParameter(SN_THRESHOLD).getValue(),
         parameters.getParameter(INTEGRATION_METHOD).getValue());
 
-    final List<ResolvedPeak> resolvedPeaks;
-    if (peakMatrix == null) {
-
-      resolvedPeaks = new ArrayList<ResolvedPeak>(0);
-
-    } else {
-
-      LOG.finest("Processing peak matrix...");
-
-      final Range<Double> peakDuration = parameters.getParameter(PEAK_DURATION).getValue();
+    final Range<Double> peakDuration = parameters.getParameter(PEAK_DURATION).getValue();
 
-      // Process peak matrix.
-      resolvedPeaks = new ArrayList<ResolvedPeak>(peakMatrix.length);
+    final List<ResolvedPeak> resolvedPeaks = new ArrayList<ResolvedPeak>(peaks.size());
 
-      for (final double[] peakRow : peakMatrix) {
+    for (final int[] peak : peaks) {
 
-        // Get peak start and end.
-        final int peakLeft = findRTIndex(retentionTimes, peakRow[4]);
-        final int peakRight = findRTIndex(retentionTimes, peakRow[5]);
+      // Get peak start and end.
+      final int peakLeft = peak[0];
+      final int peakRight = peak[1];
 
-        // Partition into sections bounded by null data points, creating
-        // a peak for each.
-        for (int start = peakLeft; start < peakRight; start++) {
+      // Partition into sections bounded by null data points, creating
+      // a peak for each.
+      for (int start = peakLeft; start < peakRight; start++) {
 
-          if (chromatogram.getDataPoint(scanNumbers[start]) != null) {
+        if (chromatogram.getDataPoint(scanNumbers[start]) != null) {
 
-            int end = start;
+          int end = start;
 
-            while (end < peakRight && chromatogram.getDataPoint(scanNumbers[end + 1]) != null) {
+          while (end < peakRight && chromatogram.getDataPoint(scanNumbers[end + 1]) != null) {
 
-              end++;
-            }
-
-            if ((end > start)
-                && (peakDuration.contains(retentionTimes[end] - retentionTimes[start]))) {
-
-              resolvedPeaks.add(new ResolvedPeak(chromatogram, start, end, mzCenterFunction,
-                  msmsRange, rTRangeMSMS));
-            }
-
-            start = end;
+            end++;
           }
-        }
-      }
-    }
-
-    return resolvedPeaks.toArray(new ResolvedPeak[resolvedPeaks.size()]);
-  }
-
-  private static int findRTIndex(final double[] rtMinutes, final double rtSec) {
 
-    final int i = Arrays.binarySearch(rtMinutes, rtSec / SECONDS_PER_MINUTE);
-    return i >= 0 ? i : -i - 2;
-  }
-
-  /**
-   * Do peak picking using xcms::findPeaks.centWave.
-   * 
-   * @param scanTime retention times (for each scan).
-   * @param intensity intensity values (for each scan).
-   * @param mz fixed m/z value for EIC.
-   * @param snrThreshold signal:noise ratio threshold.
-   * @param peakWidth peak width range.
-   * @param integrationMethod integration method.
-   * @return a matrix with a row for each detected peak.
-   * @throws RSessionWrapperException
-   */
-  private static double[][] centWave(RSessionWrapper rSession, final double[] scanTime,
-      final double[] intensity, final double mz, final double snrThreshold,
-      final Range<Double> peakWidth, final PeakIntegrationMethod integrationMethod)
-      throws RSessionWrapperException {
-
-    LOG.finest("Detecting peaks.");
-
-    final double[][] peaks;
-
-    // Set vectors.
-    rSession.assign("scantime", scanTime);
-    rSession.assign("intensity", intensity);
+          if ((end > start)
+              && (peakDuration.contains(retentionTimes[end] - retentionTimes[start]))) {
 
-    // Initialize.
-    rSession.eval("mz <- " + mz);
-    rSession.eval("numPoints <- length(intensity)");
-
-    // Construct xcmsRaw object
-    rSession.eval("xRaw <- new(\"xcmsRaw\")");
-    rSession.eval("xRaw@tic <- intensity");
-    rSession.eval("xRaw@scantime <- scantime * " + SECONDS_PER_MINUTE);
-    rSession.eval("xRaw@scanindex <- 0:(numPoints-1)");
-    rSession.eval("xRaw@env$mz <- rep(mz, numPoints)");
-    rSession.eval("xRaw@env$intensity <- intensity");
-
-    // Construct ROIs.
-    rSession.eval("ROIs <- list()");
-    int roi = 1;
-    for (int start = 0; start < intensity.length; start++) {
-
-      // Found non-zero section.
-      if (intensity[start] > 0.0) {
-
-        // Look for end.
-        int end = start + 1;
-        while (end < intensity.length && intensity[end] > 0.0) {
+            resolvedPeaks.add(new ResolvedPeak(chromatogram, start, end, mzCenterFunction,
+                msmsRange, rTRangeMSMS));
+          }
 
-          end++;
+          start = end;
         }
-
-        // Add ROI to list.
-        rSession.eval("ROIs[[" + roi + "]] <- list('scmin'=" + (start + 1) + ", 'scmax'=" + end
-            + ", 'mzmin'=mz, 'mzmax'=mz)");
-
-        // Next ROI.
-        start = end;
-        roi++;
-
       }
     }
 
-    // Do peak picking.
-    rSession.eval("mtx <- findPeaks.centWave(xRaw, ppm=0, mzdiff=0, verbose=TRUE" + ", peakwidth=c("
-        + peakWidth.lowerEndpoint() * SECONDS_PER_MINUTE + ", "
-        + peakWidth.upperEndpoint() * SECONDS_PER_MINUTE + ')' + ", snthresh=" + snrThreshold
-        + ", integrate=" + integrationMethod.getIndex() + ", ROI.list=ROIs)");
-
-    // Get rid of 'NA' values potentially found in the resulting matrix
-    rSession.eval("mtx[is.na(mtx)] <- " + RSessionWrapper.NA_DOUBLE); // + "0");//
-
-
-    final Object centWave = roi <= 1 ? null : (double[][]) rSession.collect("mtx", false);
-
-    // Done: Refresh R code stack
-    rSession.clearCode();
-
-    peaks = (centWave == null) ? null : (double[][]) centWave;
-
-    return peaks;
+    return resolvedPeaks.toArray(new ResolvedPeak[resolvedPeaks.size()]);
   }
 
 }
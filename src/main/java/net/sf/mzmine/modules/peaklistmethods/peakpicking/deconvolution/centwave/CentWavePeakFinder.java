@@ -0,0 +1,636 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwave.CentWaveDetectorParameters.PeakIntegrationMethod;
+
+/**
+ * Java version of the CentWave peak detection of XCMS (findPeaks.centWave, Tautenhahn et al. 2008)
+ * for one chromatogram, including the continuous wavelet transform and ridge search of the
+ * MassSpecWavelet package. The regions of interest are the runs of non-zero intensities. The class
+ * is stateless, so chromatograms can be processed in parallel.
+ */
+class CentWavePeakFinder {
+
+  // Mexican hat wavelet sampled on [-8, 8], as in MassSpecWavelet
+  private static final int PSI_LENGTH = 1024;
+  private static final double PSI_RANGE = 16.0;
+  private static final double PSI[] = new double[PSI_LENGTH];
+
+  static {
+    for (int i = 0; i < PSI_LENGTH; i++) {
+      final double x = -PSI_RANGE / 2 + PSI_RANGE * i / (PSI_LENGTH - 1);
+      PSI[i] = 2.0 / Math.sqrt(3.0) * Math.pow(Math.PI, -0.25) * (1.0 - x * x) * Math.exp(-x * x / 2);
+    }
+  }
+
+  // Max. number of scales a ridge may skip
+  private static final int RIDGE_GAP = 3;
+
+  private static final double NOISE_TRIM = 0.05;
+
+  private CentWavePeakFinder() {}
+
+  /**
+   * @param retentionTimes retention times of the scans
+   * @param intensities intensities of the scans, 0 if there is no data point
+   * @param peakWidth range of peak widths, in the same unit as the retention times
+   * @return start and end scan index (inclusive) of each peak, in retention time order
+   */
+  static List<int[]> findPeaks(final double retentionTimes[], final double intensities[],
+      final Range<Double> peakWidth, final double snThreshold,
+      final PeakIntegrationMethod integrationMethod) {
+
+    final List<int[]> result = new ArrayList<>();
+    final int numOfScans = intensities.length;
+    if (numOfScans < 2)
+      return result;
+
+    final int scales[] = getScales(retentionTimes, peakWidth);
+    if (scales.length == 0)
+      return result;
+
+    final int minPeakWidth = scales[0];
+    final int maxScale = scales[scales.length - 1];
+    final int localNoiseRange = 3 * minPeakWidth;
+    final int noiseRange = 3 * maxScale;
+    final int minPtsAboveBaseline = Math.max(4, minPeakWidth - 2);
+    final int scanRangeTolerance = minPeakWidth / 2;
+    final int maxDescOutliers = minPeakWidth / 2;
+
+    double fullNoise = Double.NaN;
+
+    // Peak candidates: start, end, area
+    final List<double[]> peaks = new ArrayList<>();
+
+    for (int roiStart = 0; roiStart < numOfScans; roiStart++) {
+
+      if (!(intensities[roiStart] > 0.0))
+        continue;
+      int roiEnd = roiStart;
+      while (roiEnd + 1 < numOfScans && intensities[roiEnd + 1] > 0.0)
+        roiEnd++;
+      final int roiLength = roiEnd - roiStart + 1;
+
+      // The region of interest plus the noise range, used for the baseline and wavelets
+      final int from = Math.max(0, roiStart - noiseRange);
+      final int to = Math.min(numOfScans - 1, roiEnd + noiseRange);
+      final double d[] = Arrays.copyOfRange(intensities, from, to + 1);
+      final int length = d.length;
+
+      // Region of interest plus tolerance, relative to d
+      final int fFrom = Math.max(0, roiStart - scanRangeTolerance - from);
+      final int fTo = Math.min(length - 1, roiEnd + scanRangeTolerance - from);
+
+      roiStart = roiEnd;
+
+      // 1st baseline guess: trimmed mean, of the whole chromatogram for long regions
+      final double noise;
+      if (roiLength >= 10 * minPeakWidth) {
+        if (Double.isNaN(fullNoise))
+          fullNoise = estimateChromNoise(intensities, 3 * minPeakWidth);
+        noise = fullNoise;
+      } else {
+        noise = estimateChromNoise(d, 3 * minPeakWidth);
+      }
+
+      // Any continuous data above the 1st baseline?
+      if (!continuousPointsAbove(d, fFrom, fTo, noise, minPtsAboveBaseline))
+        continue;
+
+      // 2nd baseline estimate from the region around the peak
+      final double localNoise[] = localNoiseEstimate(d, fFrom, fTo, localNoiseRange,
+          numOfScans, noise, minPtsAboveBaseline);
+      final double baseline = Math.max(1.0, Math.min(localNoise[0], noise));
+      final double sdNoise = Math.max(1.0, localNoise[1]);
+      final double sdThreshold = sdNoise * snThreshold;
+
+      // Any data above the S/N threshold?
+      boolean above = false;
+      for (int i = fFrom; i <= fTo && !above; i++)
+        above = d[i] - baseline >= sdThreshold;
+      if (!above)
+        continue;
+
+      final double coefficients[][] = cwt(d, scales);
+      if (coefficients.length == 0)
+        continue;
+      above = false;
+      for (int s = 0; s < coefficients.length && !above; s++)
+        for (int i = 0; i < length && !above; i++)
+          above = coefficients[s][i] - baseline >= sdThreshold;
+      if (!above)
+        continue;
+      if (to == numOfScans - 1 && length > 1) {
+        for (double scaleCoefficients[] : coefficients)
+          scaleCoefficients[length - 1] = scaleCoefficients[length - 2] * 0.99;
+      }
+
+      final boolean localMaxima[][] = new boolean[coefficients.length][];
+      for (int s = 0; s < coefficients.length; s++)
+        localMaxima[s] = localMaximum(coefficients[s], Math.max(2 * scales[s] + 1, 5));
+
+      final int halfWindow = (int) Math.ceil(scales[0] / 2.0);
+      for (Ridge ridge : getRidges(localMaxima, scales)) {
+
+        // The ridge must be above the S/N threshold and in the region
+        boolean inRegion = false;
+        above = false;
+        boolean dataAbove = false;
+        for (int k = 0; k < ridge.size; k++) {
+          final int pos = ridge.positions[k];
+          above |= coefficients[ridge.getScaleIndex(k)][pos] - baseline >= sdThreshold;
+          if (pos >= fFrom && pos <= fTo) {
+            inRegion = true;
+            dataAbove |= d[pos] - baseline >= sdThreshold;
+          }
+        }
+        if (!above || !inRegion || !dataAbove)
+          continue;
+
+        // Best scale: highest intensity sum around the ridge position
+        int best = 0;
+        double bestSum = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < ridge.size; k++) {
+          final int pos = ridge.positions[k];
+          double sum = 0.0;
+          for (int i = Math.max(0, pos - halfWindow); i <= Math.min(length - 1,
+              pos + halfWindow); i++)
+            sum += d[i];
+          if (sum > bestSum) {
+            bestSum = sum;
+            best = k;
+          }
+        }
+        final int scaleIndex = ridge.getScaleIndex(best);
+        final int bestScale = scales[scaleIndex];
+        final int bestPos = ridge.positions[best];
+        final int lwPos = Math.max(0, bestPos - bestScale);
+        final int rwPos = Math.min(length - 1, bestPos + bestScale);
+
+        // Peak boundaries
+        int bounds[];
+        if (integrationMethod == PeakIntegrationMethod.UseSmoothedData) {
+          bounds = descendMin(coefficients[scaleIndex], bestPos);
+          boolean gap = true;
+          for (int i = bounds[0]; i <= bounds[1] && gap; i++)
+            gap = d[i] == 0.0;
+          if (bounds[0] == bounds[1] || gap)
+            bounds = descendMinTol(d, lwPos, rwPos, maxDescOutliers);
+        } else {
+          bounds = descendMinTol(d, lwPos, rwPos, maxDescOutliers);
+        }
+
+        // Narrow down the boundaries by skipping zeros, keep one zero on each side
+        int left = bounds[0], right = bounds[1];
+        int first = left;
+        while (first <= right && d[first] < 1.0)
+          first++;
+        if (first <= right) {
+          int last = right;
+          while (d[last] < 1.0)
+            last--;
+          left = Math.max(left, first - 1);
+          right = Math.min(right, last + 1);
+        }
+
+        // Area, used to resolve overlapping peaks
+        final double rtLeft = retentionTimes[from + left], rtRight = retentionTimes[from + right];
+        final double width = right > left ? (rtRight - rtLeft) / (right - left) : 1.0;
+        double area = 0.0;
+        for (int i = left; i <= right; i++)
+          area += d[i];
+        peaks.add(new double[] {from + left, from + right, area * width});
+      }
+    }
+
+    // Remove peaks overlapping a larger peak
+    peaks.sort(Comparator.comparingDouble((double p[]) -> p[2]).reversed());
+    final List<double[]> unique = new ArrayList<>();
+    for (double peak[] : peaks) {
+      boolean overlaps = false;
+      for (double other[] : unique) {
+        if (retentionTimes[(int) peak[0]] < retentionTimes[(int) other[1]]
+            && retentionTimes[(int) peak[1]] > retentionTimes[(int) other[0]]) {
+          overlaps = true;
+          break;
+        }
+      }
+      if (!overlaps)
+        unique.add(peak);
+    }
+    unique.sort(Comparator.comparingDouble((double p[]) -> p[0]));
+    for (double peak[] : unique)
+      result.add(new int[] {(int) peak[0], (int) peak[1]});
+    return result;
+  }
+
+  /**
+   * Wavelet scales (in scans) for the given peak width range: half the peak width, in steps of two
+   */
+  static int[] getScales(final double retentionTimes[], final Range<Double> peakWidth) {
+    final int n = retentionTimes.length;
+    final double scanTime = (retentionTimes[n - 1] - retentionTimes[0]) / (n - 1);
+    if (!(scanTime > 0.0))
+      return new int[0];
+    final int low = (int) Math.rint(peakWidth.lowerEndpoint() / scanTime / 2);
+    final int high = (int) Math.rint(peakWidth.upperEndpoint() / scanTime / 2);
+    if (low <= 0)
+      return high <= 0 ? new int[0] : new int[] {high};
+    final int scales[] = new int[(high - low) / 2 + 1];
+    for (int i = 0; i < scales.length; i++)
+      scales[i] = low + 2 * i;
+    return scales;
+  }
+
+  /**
+   * Trimmed mean of the non-zero values, or the mean of all values if there are less than minPoints
+   * non-zero values
+   */
+  private static double estimateChromNoise(final double values[], final int minPoints) {
+    final double nonZero[] = Arrays.stream(values).filter(v -> v > 0.0).toArray();
+    if (nonZero.length < minPoints)
+      return Arrays.stream(values).average().orElse(0.0);
+    Arrays.sort(nonZero);
+    final int trim = (int) Math.floor(nonZero.length * NOISE_TRIM);
+    return mean(nonZero, trim, nonZero.length - trim);
+  }
+
+  /**
+   * Baseline and noise (standard deviation) of the data outside the region of interest, ignoring
+   * peak-like areas, or of the trimmed data if the region covers the whole chromatogram
+   */
+  private static double[] localNoiseEstimate(final double d[], final int fFrom, final int fTo,
+      final int noiseRange, final int numOfScans, final double threshold, final int minPoints) {
+
+    if (d.length < numOfScans) {
+
+      // All data outside of the region
+      final double outside[] = new double[d.length - (fTo - fFrom + 1)];
+      System.arraycopy(d, 0, outside, 0, fFrom);
+      System.arraycopy(d, fTo + 1, outside, fFrom, d.length - fTo - 1);
+      final double noise1[] = meanAndSd(withoutPeaks(outside, threshold, minPoints));
+
+      // Data next to the region
+      final int leftFrom = Math.max(0, fFrom - noiseRange);
+      final int rightTo = Math.min(d.length - 1, fTo + noiseRange);
+      final double next[] = new double[(fFrom - leftFrom + 1) + (rightTo - fTo + 1)];
+      System.arraycopy(d, leftFrom, next, 0, fFrom - leftFrom + 1);
+      System.arraycopy(d, fTo, next, fFrom - leftFrom + 1, rightTo - fTo + 1);
+      final double noise2[] = meanAndSd(withoutPeaks(next, threshold, minPoints));
+
+      return new double[] {Math.min(noise1[0], noise2[0]), Math.min(noise1[1], noise2[1])};
+    }
+
+    final double nonZero[] = Arrays.stream(d).filter(v -> v > 0.0).toArray();
+    Arrays.sort(nonZero);
+    final int n = nonZero.length;
+    final int first = (int) Math.rint(n * NOISE_TRIM + 1) - 1;
+    final int last = (int) Math.rint(n * (1.0 - NOISE_TRIM)) - 1;
+    return meanAndSd(Arrays.copyOfRange(nonZero, Math.max(0, first), Math.max(first, last + 1)));
+  }
+
+  /**
+   * Removes all runs of at least minPoints values above the threshold
+   */
+  private static double[] withoutPeaks(final double values[], final double threshold,
+      final int minPoints) {
+    final double result[] = new double[values.length];
+    int size = 0;
+    int i = 0;
+    while (i < values.length) {
+      int end = i;
+      while (end < values.length && values[end] > threshold)
+        end++;
+      if (end - i >= minPoints) {
+        i = end;
+        continue;
+      }
+      // values below the threshold and short runs above it
+      end = Math.max(end, i + 1);
+      while (i < end)
+        result[size++] = values[i++];
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  /**
+   * Mean and sample standard deviation, or 1 for less than two values
+   */
+  private static double[] meanAndSd(final double values[]) {
+    if (values.length < 2)
+      return new double[] {1.0, 1.0};
+    final double mean = mean(values, 0, values.length);
+    double sum = 0.0;
+    for (double v : values)
+      sum += (v - mean) * (v - mean);
+    return new double[] {mean, Math.sqrt(sum / (values.length - 1))};
+  }
+
+  private static double mean(final double values[], final int from, final int to) {
+    if (to <= from)
+      return 0.0;
+    double sum = 0.0;
+    for (int i = from; i < to; i++)
+      sum += values[i];
+    return sum / (to - from);
+  }
+
+  private static boolean continuousPointsAbove(final double values[], final int from,
+      final int to, final double threshold, final int minPoints) {
+    int count = 0;
+    for (int i = from; i <= to; i++) {
+      count = values[i] > threshold ? count + 1 : 0;
+      if (count >= minPoints)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Continuous wavelet transform with the Mexican hat wavelet. The data are extended by reflection
+   * to a power of two and convolved circularly. Scales with a wavelet longer than the extended data
+   * are left out.
+   *
+   * @return coefficients [scale][position]
+   */
+  static double[][] cwt(final double d[], final int scales[]) {
+
+    final int oldLength = d.length;
+    final int length = oldLength == 1 ? 1 : Integer.highestOneBit(oldLength - 1) << 1;
+    final double x[] = Arrays.copyOf(d, length);
+    for (int i = oldLength; i < length; i++)
+      x[i] = d[2 * oldLength - 1 - i];
+
+    final List<double[]> result = new ArrayList<>();
+    for (int scale : scales) {
+
+      int waveLength = (int) Math.floor(scale * PSI_RANGE) + 1;
+      if (waveLength > length)
+        break;
+      final double dx = PSI_RANGE / (PSI_LENGTH - 1);
+      final double wave[] = new double[Math.max(2, waveLength)];
+      for (int k = 0; k < waveLength; k++)
+        wave[k] = PSI[(int) Math.floor(k / (scale * dx))];
+      if (waveLength == 1)
+        wave[1] = wave[0];
+      waveLength = wave.length;
+
+      // reverse and remove the mean
+      final double mean = mean(wave, 0, waveLength);
+      final double f[] = new double[waveLength];
+      for (int k = 0; k < waveLength; k++)
+        f[k] = wave[waveLength - 1 - k] - mean;
+
+      // circular convolution, shifted by half of the wavelet
+      final double norm = 1.0 / Math.sqrt(scale);
+      final int shift = waveLength / 2;
+      final double coefficients[] = new double[oldLength];
+      for (int i = 0; i < oldLength; i++) {
+        double sum = 0.0;
+        int pos = Math.floorMod(i - shift, length);
+        for (int k = 0; k < waveLength; k++) {
+          sum += x[pos] * f[k];
+          if (++pos == length)
+            pos = 0;
+        }
+        coefficients[i] = norm * sum;
+      }
+      result.add(coefficients);
+    }
+    return result.toArray(new double[result.size()][]);
+  }
+
+  /**
+   * Local maxima (of positive values) in windows of the given size, as MassSpecWavelet
+   * localMaximum
+   */
+  static boolean[] localMaximum(final double x[], final int windowSize) {
+    final int n = x.length;
+    final boolean result[] = new boolean[n];
+    markWindowMaxima(x, windowSize, 0, result);
+    markWindowMaxima(x, windowSize, windowSize / 2, result);
+
+    // Of two maxima closer than the window size, keep the higher one
+    final int maxima[] = new int[n];
+    int count = 0;
+    for (int i = 0; i < n; i++)
+      if (result[i])
+        maxima[count++] = i;
+    final boolean remove[] = new boolean[n];
+    for (int k = 0; k + 1 < count; k++) {
+      if (maxima[k + 1] - maxima[k] < windowSize) {
+        if (x[maxima[k]] <= x[maxima[k + 1]])
+          remove[maxima[k]] = true;
+        else
+          remove[maxima[k + 1]] = true;
+      }
+    }
+    for (int i = 0; i < n; i++)
+      result[i] &= !remove[i] && x[i] >= 0.0;
+    return result;
+  }
+
+  private static void markWindowMaxima(final double x[], final int windowSize, final int shift,
+      final boolean result[]) {
+    final int n = x.length;
+    for (int start = -shift; start < n; start += windowSize) {
+      final int end = start + windowSize - 1;
+      int max = start;
+      for (int i = start + 1; i <= end; i++)
+        if (padded(x, i) > padded(x, max))
+          max = i;
+      final double maxValue = padded(x, max);
+      if (maxValue > padded(x, start) && maxValue > padded(x, end) && max >= 0 && max < n)
+        result[max] = true;
+    }
+  }
+
+  private static double padded(final double x[], final int i) {
+    return x[Math.max(0, Math.min(x.length - 1, i))];
+  }
+
+  /**
+   * A ridge of local maxima across the scales, positions from the highest scale down
+   */
+  private static class Ridge {
+    private final int topScale;
+    private int positions[] = new int[8];
+    private int size = 0;
+    private int gap = 0;
+
+    private Ridge(int topScale, int position) {
+      this.topScale = topScale;
+      add(position);
+    }
+
+    private void add(int position) {
+      if (size == positions.length)
+        positions = Arrays.copyOf(positions, size * 2);
+      positions[size++] = position;
+    }
+
+    private int last() {
+      return positions[size - 1];
+    }
+
+    private int getScaleIndex(int k) {
+      return topScale - k;
+    }
+  }
+
+  /**
+   * Links the local maxima from the highest to the lowest scale, as MassSpecWavelet getRidge
+   */
+  private static List<Ridge> getRidges(final boolean localMaxima[][], final int scales[]) {
+
+    final int top = localMaxima.length - 1;
+    final int n = localMaxima[top].length;
+    final List<Ridge> finished = new ArrayList<>();
+    List<Ridge> active = new ArrayList<>();
+    for (int i = 0; i < n; i++)
+      if (localMaxima[top][i])
+        active.add(new Ridge(top, i));
+
+    for (int s = top - 1; s >= 0; s--) {
+
+      if (active.isEmpty()) {
+        for (int i = 0; i < n; i++)
+          if (localMaxima[s][i])
+            active.add(new Ridge(s, i));
+        continue;
+      }
+
+      final int window = Math.max(2 * scales[s] + 1, 3);
+      final boolean selected[] = new boolean[n];
+      final Ridge ridgeAt[] = new Ridge[n];
+      final List<Ridge> next = new ArrayList<>();
+
+      for (Ridge ridge : active) {
+        final int current = ridge.last();
+        int nearest = -1;
+        for (int i = Math.max(0, current - window); i <= Math.min(n - 1, current + window); i++) {
+          if (localMaxima[s][i]
+              && (nearest < 0 || Math.abs(i - current) < Math.abs(nearest - current)))
+            nearest = i;
+        }
+        if (nearest < 0) {
+          if (ridge.gap > RIDGE_GAP && scales[s] >= 2) {
+            // Disconnected, remove the positions added without local maximum
+            ridge.size -= ridge.gap;
+            finished.add(ridge);
+            continue;
+          }
+          nearest = current;
+          ridge.gap++;
+        } else {
+          ridge.gap = 0;
+        }
+        ridge.add(nearest);
+
+        // Two ridges on the same local maximum: keep the longer one
+        if (ridgeAt[nearest] != null) {
+          final Ridge other = ridgeAt[nearest];
+          if (ridge.size > other.size) {
+            next.remove(other);
+            finished.add(other);
+          } else {
+            finished.add(ridge);
+            continue;
+          }
+        }
+        ridgeAt[nearest] = ridge;
+        selected[nearest] = true;
+        next.add(ridge);
+      }
+
+      // New ridges at the unselected local maxima
+      if (scales[s] >= 2) {
+        for (int i = 0; i < n; i++)
+          if (localMaxima[s][i] && !selected[i])
+            next.add(new Ridge(s, i));
+      }
+      active = next;
+    }
+
+    finished.addAll(active);
+    finished.removeIf(ridge -> ridge.size <= 0);
+    return finished;
+  }
+
+  /**
+   * Descends from the start position to the closest minimum on both sides
+   */
+  private static int[] descendMin(final double y[], final int start) {
+    int left = start;
+    while (left > 0 && y[left - 1] < y[left])
+      left--;
+    int right = start;
+    while (right < y.length - 1 && y[right + 1] < y[right])
+      right++;
+    return new int[] {left, right};
+  }
+
+  /**
+   * Descends from the start positions until a zero, or until more than maxOutliers values in a row
+   * are higher than the minimum so far
+   */
+  private static int[] descendMinTol(final double y[], final int leftStart, final int rightStart,
+      final int maxOutliers) {
+
+    int left = leftStart, minPos = leftStart, outliers = 0;
+    while (left > 0) {
+      if (y[left - 1] < y[minPos])
+        minPos = left - 1;
+      outliers = y[left - 1] > y[minPos] ? outliers + 1 : 0;
+      if (outliers > maxOutliers) {
+        left = minPos;
+        break;
+      }
+      left--;
+      if (y[left] == 0.0)
+        break;
+    }
+
+    int right = rightStart;
+    minPos = rightStart;
+    outliers = 0;
+    while (right < y.length - 1) {
+      if (y[right + 1] < y[minPos])
+        minPos = right + 1;
+      outliers = y[right + 1] > y[minPos] ? outliers + 1 : 0;
+      if (outliers > maxOutliers) {
+        right = minPos;
+        break;
+      }
+      right++;
+      if (y[right] == 0.0)
+        break;
+    }
+    return new int[] {left, right};
+  }
+
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import com.google.common.collect.Range;
+import com.google.common.io.CountingInputStream;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimpleIsotopePattern;
+import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
+import net.sf.mzmine.datamodel.impl.SimplePeakInformation;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.projectsave.BinaryPeakListSaveHandler;
+
+/**
+ * Random access to a feature list saved in the binary columnar format of
+ * {@link BinaryPeakListSaveHandler}. The header is read when the file is opened, the rows are read
+ * on request. Each request reads only the column ranges of the requested rows.
+ */
+public class BinaryPeakListFile implements AutoCloseable {
+
+  // Rows read at once by readPeakList()
+  private static final int ROWS_PER_READ = 256;
+
+  // Widths of the fixed feature columns: raw data file index, m/z, RT, height, area, status,
+  // charge, representative scan, fragment scan, parent chromatogram row ID
+  private static final int FEATURE_COLUMN_WIDTHS[] = {4, 8, 8, 8, 8, 1, 4, 4, 4, 4};
+
+  // Bytes per data point: scan number, m/z, intensity
+  private static final int DATA_POINT_SIZE = 12;
+
+  private final File file;
+  private final FileChannel channel;
+
+  private final int numberOfRows, numberOfFeatures;
+  private final String name, dateCreated;
+  private final RawDataFile dataFiles[];
+  private final String methodNames[], methodParameters[];
+
+  // Status values by the index saved in the file
+  private final FeatureStatus featureStatuses[];
+  private final IsotopePatternStatus isotopePatternStatuses[];
+
+  // Positions of the sections in the file
+  private final long rowIDStart, rowFirstFeatureStart, rowBlockOffsetStart;
+  private final long featureColumnStart[];
+  private final long firstDataPointStart, featureBlockOffsetStart, rowBlockStart,
+      featureBlockStart, dataPointStart;
+
+  private volatile int finishedRows;
+  private volatile boolean canceled = false;
+
+  /**
+   * @param offset position of the feature list in the file, e.g. of an uncompressed ZIP entry
+   * @param dataFilesIDMap raw data files by the IDs used when the feature list was saved
+   */
+  public BinaryPeakListFile(File file, long offset, Hashtable<String, RawDataFile> dataFilesIDMap)
+      throws IOException {
+
+    this.file = file;
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+    try {
+      channel.position(offset);
+      CountingInputStream counter =
+          new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      DataInputStream header = new DataInputStream(counter);
+
+      if (header.readInt() != BinaryPeakListSaveHandler.MAGIC)
+        throw new IOException("Not a binary feature list: " + file);
+      final int version = header.readInt();
+      if (version > BinaryPeakListSaveHandler.VERSION)
+        throw new IOException("Unsupported binary feature list version " + version + ": " + file);
+
+      numberOfRows = header.readInt();
+      numberOfFeatures = header.readInt();
+      final int numberOfDataFiles = header.readInt();
+      final int numberOfMethods = header.readInt();
+      name = readString(header);
+      dateCreated = readString(header);
+
+      dataFiles = new RawDataFile[numberOfDataFiles];
+      for (int i = 0; i < numberOfDataFiles; i++) {
+        final String dataFileID = readString(header);
+        dataFiles[i] = dataFilesIDMap.get(dataFileID);
+        if (dataFiles[i] == null) {
+          throw new IOException(
+              "Cannot open feature list, because raw data file " + dataFileID + " is missing.");
+        }
+      }
+
+      methodNames = new String[numberOfMethods];
+      methodParameters = new String[numberOfMethods];
+      for (int i = 0; i < numberOfMethods; i++) {
+        methodNames[i] = readString(header);
+        methodParameters[i] = readString(header);
+      }
+
+      featureStatuses = readEnumNames(header, FeatureStatus.class);
+      isotopePatternStatuses = readEnumNames(header, IsotopePatternStatus.class);
+
+      rowIDStart = offset + counter.getCount();
+      rowFirstFeatureStart = rowIDStart + 4L * numberOfRows;
+      rowBlockOffsetStart = rowFirstFeatureStart + 4L * (numberOfRows + 1);
+
+      featureColumnStart = new long[FEATURE_COLUMN_WIDTHS.length];
+      long position = rowBlockOffsetStart + 8L * (numberOfRows + 1);
+      for (int i = 0; i < FEATURE_COLUMN_WIDTHS.length; i++) {
+        featureColumnStart[i] = position;
+        position += (long) FEATURE_COLUMN_WIDTHS[i] * numberOfFeatures;
+      }
+      firstDataPointStart = position;
+      featureBlockOffsetStart = firstDataPointStart + 8L * (numberOfFeatures + 1);
+      rowBlockStart = featureBlockOffsetStart + 8L * (numberOfFeatures + 1);
+      featureBlockStart =
+          rowBlockStart + read(rowBlockOffsetStart + 8L * numberOfRows, 8).getLong();
+      dataPointStart =
+          featureBlockStart + read(featureBlockOffsetStart + 8L * numberOfFeatures, 8).getLong();
+
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public int getNumberOfRows() {
+    return numberOfRows;
+  }
+
+  public int getNumberOfFeatures() {
+    return numberOfFeatures;
+  }
+
+  /**
+   * @return new feature list with the name, raw data files and applied methods, but no rows
+   */
+  public SimplePeakList createPeakList() {
+    SimplePeakList peakList = new SimplePeakList(name, dataFiles);
+    for (int i = 0; i < methodNames.length; i++) {
+      peakList.addDescriptionOfAppliedTask(
+          new SimplePeakListAppliedMethod(methodNames[i], methodParameters[i]));
+    }
+    peakList.setDateCreated(dateCreated);
+    return peakList;
+  }
+
+  /**
+   * Reads the whole feature list
+   */
+  public SimplePeakList readPeakList() throws IOException {
+    SimplePeakList peakList = createPeakList();
+    finishedRows = 0;
+    for (int from = 0; from < numberOfRows; from += ROWS_PER_READ) {
+      if (canceled)
+        throw new IOException("Reading of feature list " + name + " canceled");
+      for (PeakListRow row : readRows(from, Math.min(numberOfRows, from + ROWS_PER_READ)))
+        peakList.addRow(row);
+    }
+    return peakList;
+  }
+
+  public PeakListRow readRow(int index) throws IOException {
+    return readRows(index, index + 1)[0];
+  }
+
+  /**
+   * Reads the rows from fromIndex (inclusive) to toIndex (exclusive)
+   */
+  public PeakListRow[] readRows(int fromIndex, int toIndex) throws IOException {
+
+    if (fromIndex < 0 || toIndex > numberOfRows || fromIndex > toIndex)
+      throw new IndexOutOfBoundsException("Rows " + fromIndex + " to " + toIndex);
+
+    final int count = toIndex - fromIndex;
+    final ByteBuffer rowIDs = read(rowIDStart + 4L * fromIndex, 4L * count);
+    final ByteBuffer firstFeature = read(rowFirstFeatureStart + 4L * fromIndex, 4L * (count + 1));
+    final ByteBuffer rowBlockOffset = read(rowBlockOffsetStart + 8L * fromIndex, 8L * (count + 1));
+
+    final int fromFeature = firstFeature.getInt(0);
+    final int featureCount = firstFeature.getInt(4 * count) - fromFeature;
+    final ByteBuffer columns[] = new ByteBuffer[FEATURE_COLUMN_WIDTHS.length];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = read(featureColumnStart[i] + (long) FEATURE_COLUMN_WIDTHS[i] * fromFeature,
+          (long) FEATURE_COLUMN_WIDTHS[i] * featureCount);
+    }
+    final ByteBuffer firstDataPoint =
+        read(firstDataPointStart + 8L * fromFeature, 8L * (featureCount + 1));
+    final ByteBuffer featureBlockOffset =
+        read(featureBlockOffsetStart + 8L * fromFeature, 8L * (featureCount + 1));
+
+    final long rowBlockBase = rowBlockOffset.getLong(0);
+    final ByteBuffer rowBlocks =
+        read(rowBlockStart + rowBlockBase, rowBlockOffset.getLong(8 * count) - rowBlockBase);
+    final long featureBlockBase = featureBlockOffset.getLong(0);
+    final ByteBuffer featureBlocks = read(featureBlockStart + featureBlockBase,
+        featureBlockOffset.getLong(8 * featureCount) - featureBlockBase);
+    final long dataPointBase = firstDataPoint.getLong(0);
+    final ByteBuffer dataPoints = read(dataPointStart + DATA_POINT_SIZE * dataPointBase,
+        DATA_POINT_SIZE * (firstDataPoint.getLong(8 * featureCount) - dataPointBase));
+
+    final PeakListRow rows[] = new PeakListRow[count];
+    for (int r = 0; r < count; r++) {
+      SimplePeakListRow row = new SimplePeakListRow(rowIDs.getInt(4 * r));
+      ((Buffer) rowBlocks).position((int) (rowBlockOffset.getLong(8 * r) - rowBlockBase));
+      readRowBlock(rowBlocks, row);
+
+      for (int f = firstFeature.getInt(4 * r) - fromFeature; f < firstFeature.getInt(4 * (r + 1))
+          - fromFeature; f++) {
+        final RawDataFile dataFile = dataFiles[columns[0].getInt(4 * f)];
+
+        // Data points
+        final int numOfDataPoints =
+            (int) (firstDataPoint.getLong(8 * (f + 1)) - firstDataPoint.getLong(8 * f));
+        final int pointPosition =
+            (int) (DATA_POINT_SIZE * (firstDataPoint.getLong(8 * f) - dataPointBase));
+        final int scanNumbers[] = new int[numOfDataPoints];
+        final DataPoint mzPeaks[] = new DataPoint[numOfDataPoints];
+        Range<Double> peakRTRange = null, peakMZRange = null, peakIntensityRange = null;
+        for (int i = 0; i < numOfDataPoints; i++) {
+          scanNumbers[i] = dataPoints.getInt(pointPosition + 4 * i);
+          final double mz = dataPoints.getFloat(pointPosition + 4 * (numOfDataPoints + i));
+          final double intensity =
+              dataPoints.getFloat(pointPosition + 4 * (2 * numOfDataPoints + i));
+
+          if (peakIntensityRange == null)
+            peakIntensityRange = Range.singleton(intensity);
+          else
+            peakIntensityRange = peakIntensityRange.span(Range.singleton(intensity));
+          final Scan scan = dataFile.getScan(scanNumbers[i]);
+          if (intensity > 0 && scan != null) {
+            final double retentionTime = scan.getRetentionTime();
+            if (peakRTRange == null)
+              peakRTRange = Range.singleton(retentionTime);
+            else
+              peakRTRange = peakRTRange.span(Range.singleton(retentionTime));
+          }
+          if (mz > 0.0) {
+            mzPeaks[i] = new SimpleDataPoint(mz, intensity);
+            if (peakMZRange == null)
+              peakMZRange = Range.singleton(mz);
+            else
+              peakMZRange = peakMZRange.span(Range.singleton(mz));
+          }
+        }
+
+        // Isotope pattern and MS/MS scans
+        ((Buffer) featureBlocks)
+            .position((int) (featureBlockOffset.getLong(8 * f) - featureBlockBase));
+        final int blockEnd = (int) (featureBlockOffset.getLong(8 * (f + 1)) - featureBlockBase);
+        SimpleIsotopePattern isotopePattern = null;
+        int fragmentScans[] = new int[0];
+        if (featureBlocks.position() < blockEnd) {
+          final int numOfIsotopes = featureBlocks.getInt();
+          if (numOfIsotopes >= 0) {
+            final IsotopePatternStatus status =
+                getEnumValue(isotopePatternStatuses, featureBlocks.get());
+            final String description = readString(featureBlocks);
+            final DataPoint isotopes[] = new DataPoint[numOfIsotopes];
+            final int mzPosition = featureBlocks.position();
+            for (int i = 0; i < numOfIsotopes; i++) {
+              isotopes[i] = new SimpleDataPoint(featureBlocks.getDouble(mzPosition + 8 * i),
+                  featureBlocks.getDouble(mzPosition + 8 * (numOfIsotopes + i)));
+            }
+            ((Buffer) featureBlocks).position(mzPosition + 16 * numOfIsotopes);
+            isotopePattern = new SimpleIsotopePattern(isotopes, status, description);
+          }
+          fragmentScans = new int[featureBlocks.getInt()];
+          for (int i = 0; i < fragmentScans.length; i++)
+            fragmentScans[i] = featureBlocks.getInt();
+        }
+
+        final int parentChromatogramRowID = columns[9].getInt(4 * f);
+        SimpleFeature peak = new SimpleFeature(dataFile, columns[1].getDouble(8 * f),
+            columns[2].getDouble(8 * f), columns[3].getDouble(8 * f), columns[4].getDouble(8 * f),
+            scanNumbers, mzPeaks, getEnumValue(featureStatuses, columns[5].get(f)),
+            columns[7].getInt(4 * f), columns[8].getInt(4 * f), fragmentScans, peakRTRange,
+            peakMZRange, peakIntensityRange);
+        peak.setCharge(columns[6].getInt(4 * f));
+        if (isotopePattern != null)
+          peak.setIsotopePattern(isotopePattern);
+        peak.setParentChromatogramRowID(
+            parentChromatogramRowID < 0 ? null : parentChromatogramRowID);
+
+        row.addPeak(dataFile, peak);
+      }
+
+      rows[r] = row;
+    }
+
+    finishedRows += count;
+    return rows;
+  }
+
+  private void readRowBlock(ByteBuffer block, SimplePeakListRow row) {
+    row.setComment(readString(block));
+
+    final int numOfIdentities = block.getInt();
+    final int preferredIndex = block.getInt();
+    for (int i = 0; i < numOfIdentities; i++) {
+      Hashtable<String, String> properties = new Hashtable<>();
+      final int numOfProperties = block.getInt();
+      for (int j = 0; j < numOfProperties; j++)
+        properties.put(readString(block), readString(block));
+      row.addPeakIdentity(new SimplePeakIdentity(properties), i == preferredIndex);
+    }
+
+    final int numOfInformationProperties = block.getInt();
+    if (numOfInformationProperties >= 0) {
+      Map<String, String> properties = new HashMap<>();
+      for (int j = 0; j < numOfInformationProperties; j++)
+        properties.put(readString(block), readString(block));
+      row.setPeakInformation(new SimplePeakInformation(properties));
+    }
+  }
+
+  /**
+   * @return the values of the given enum type, in the order of the names saved in the file
+   */
+  private <E extends Enum<E>> E[] readEnumNames(DataInputStream in, Class<E> type)
+      throws IOException {
+    final int count = in.readInt();
+    @SuppressWarnings("unchecked")
+    final E values[] = (E[]) Array.newInstance(type, count);
+    for (int i = 0; i < count; i++) {
+      final String name = readString(in);
+      try {
+        values[i] = Enum.valueOf(type, name);
+      } catch (IllegalArgumentException | NullPointerException e) {
+        throw new IOException("Unknown " + type.getSimpleName() + " " + name + " in " + file);
+      }
+    }
+    return values;
+  }
+
+  private <E> E getEnumValue(E values[], int index) throws IOException {
+    if (index < 0 || index >= values.length)
+      throw new IOException("Invalid status index " + index + " in " + file);
+    return values[index];
+  }
+
+  /**
+   * Reads length bytes at the given position
+   */
+  private ByteBuffer read(long position, long length) throws IOException {
+    if (length > Integer.MAX_VALUE)
+      throw new IOException("Too many rows requested at once from " + file);
+    ByteBuffer buffer = ByteBuffer.allocate((int) length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new EOFException("Unexpected end of binary feature list " + file);
+    }
+    // JDK 9 breaks compatibility with JRE8: need to cast
+    ((Buffer) buffer).flip();
+    return buffer;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0)
+      return null;
+    final byte bytes[] = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    final int length = buffer.getInt();
+    if (length < 0)
+      return null;
+    final byte bytes[] = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the progress of readPeakList()
+   */
+  public double getProgress() {
+    if (numberOfRows == 0)
+      return 0;
+    return (double) finishedRows / numberOfRows;
+  }
+
+  public void cancel() {
+    canceled = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import java.util.logging.Logger;
+
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
+
+/**
+ * Loads the rows of a feature list opened on demand, so they are not read by the Swing event thread
+ * when the feature list is opened in the GUI
+ */
+public class PeakListRowsLoadingTask extends AbstractTask {
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final SimplePeakList peakList;
+
+  public PeakListRowsLoadingTask(SimplePeakList peakList) {
+    this.peakList = peakList;
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Loading the rows of feature list " + peakList.getName();
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    return peakList.isLoaded() ? 1 : 0;
+  }
+
+  @Override
+  public void run() {
+
+    setStatus(TaskStatus.PROCESSING);
+
+    try {
+      if (!isCanceled())
+        peakList.loadRows();
+    } catch (Exception e) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage(ExceptionUtils.exceptionToString(e));
+      return;
+    }
+
+    if (!isCanceled()) {
+      logger.info("Finished loading the rows of feature list " + peakList.getName());
+      setStatus(TaskStatus.FINISHED);
+    }
+
+  }
+
+}
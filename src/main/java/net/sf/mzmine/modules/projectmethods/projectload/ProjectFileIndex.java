@@ -0,0 +1,170 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the entries of a project file (ZIP archive), read from its central directory. It gives
+ * the position of the data of uncompressed (stored) entries in the project file, so these data can
+ * be used without extracting them. ZIP64 archives are supported.
+ */
+class ProjectFileIndex {
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+
+  private static final int LOCAL_HEADER_SIZE = 30, CENTRAL_HEADER_SIZE = 46, END_SIZE = 22,
+      ZIP64_END_SIZE = 56, ZIP64_END_LOCATOR_SIZE = 20;
+
+  private static final int METHOD_STORED = 0;
+  private static final long MAX_32BIT = 0xFFFFFFFFL;
+
+  // Position and length of the data of the stored entries
+  private final Map<String, long[]> storedEntries = new HashMap<>();
+
+  ProjectFileIndex(File projectFile) throws IOException {
+
+    try (FileChannel channel = FileChannel.open(projectFile.toPath(), StandardOpenOption.READ)) {
+
+      // The end of central directory record is followed by a comment of max. 65535 bytes
+      final long fileLength = channel.size();
+      final int tailLength = (int) Math.min(fileLength, END_SIZE + 0xFFFF);
+      final ByteBuffer tail = read(channel, fileLength - tailLength, tailLength);
+      int end = tailLength - END_SIZE;
+      while (end >= 0 && tail.getInt(end) != END_SIGNATURE)
+        end--;
+      if (end < 0)
+        throw new IOException("Invalid project file " + projectFile + ": not a ZIP archive");
+
+      long numOfEntries = tail.getShort(end + 10) & 0xFFFF;
+      long directorySize = tail.getInt(end + 12) & MAX_32BIT;
+      long directoryOffset = tail.getInt(end + 16) & MAX_32BIT;
+
+      // ZIP64 archives have another end record, located by the record preceding the end record
+      final int locator = end - ZIP64_END_LOCATOR_SIZE;
+      if (locator >= 0 && tail.getInt(locator) == ZIP64_END_LOCATOR_SIGNATURE) {
+        final ByteBuffer zip64End = read(channel, tail.getLong(locator + 8), ZIP64_END_SIZE);
+        if (zip64End.getInt(0) != ZIP64_END_SIGNATURE)
+          throw new IOException("Invalid project file " + projectFile + ": bad ZIP64 record");
+        numOfEntries = zip64End.getLong(32);
+        directorySize = zip64End.getLong(40);
+        directoryOffset = zip64End.getLong(48);
+      }
+
+      if (directorySize > Integer.MAX_VALUE)
+        throw new IOException("Invalid project file " + projectFile + ": too many entries");
+      final ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+
+      int position = 0;
+      for (long i = 0; i < numOfEntries; i++) {
+        if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE)
+          throw new IOException("Invalid project file " + projectFile + ": bad ZIP directory");
+
+        final int method = directory.getShort(position + 10) & 0xFFFF;
+        long compressedSize = directory.getInt(position + 20) & MAX_32BIT;
+        long size = directory.getInt(position + 24) & MAX_32BIT;
+        final int nameLength = directory.getShort(position + 28) & 0xFFFF;
+        final int extraLength = directory.getShort(position + 30) & 0xFFFF;
+        final int commentLength = directory.getShort(position + 32) & 0xFFFF;
+        long localHeaderOffset = directory.getInt(position + 42) & MAX_32BIT;
+
+        final byte nameBytes[] = new byte[nameLength];
+        directory.position(position + CENTRAL_HEADER_SIZE);
+        directory.get(nameBytes);
+        final String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+        // Values that do not fit into 32 bits are stored in the ZIP64 extra field
+        int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+        final int extraEnd = extra + extraLength;
+        while (extra + 4 <= extraEnd) {
+          final int id = directory.getShort(extra) & 0xFFFF;
+          final int length = directory.getShort(extra + 2) & 0xFFFF;
+          if (id == ZIP64_EXTRA_ID) {
+            int field = extra + 4;
+            if (size == MAX_32BIT) {
+              size = directory.getLong(field);
+              field += 8;
+            }
+            if (compressedSize == MAX_32BIT) {
+              compressedSize = directory.getLong(field);
+              field += 8;
+            }
+            if (localHeaderOffset == MAX_32BIT)
+              localHeaderOffset = directory.getLong(field);
+          }
+          extra += 4 + length;
+        }
+
+        if (method == METHOD_STORED) {
+          final ByteBuffer localHeader = read(channel, localHeaderOffset, LOCAL_HEADER_SIZE);
+          if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE)
+            throw new IOException(
+                "Invalid project file " + projectFile + ": bad ZIP entry " + name);
+          final long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE
+              + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+          storedEntries.put(name, new long[] {dataOffset, size});
+        }
+
+        position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+    }
+  }
+
+  /**
+   * @return position of the data of the given entry in the project file, or -1 if the entry is
+   *         compressed
+   */
+  long getStoredDataOffset(String entryName) {
+    final long entry[] = storedEntries.get(entryName);
+    return entry == null ? -1 : entry[0];
+  }
+
+  /**
+   * @return number of bytes of the given entry, or -1 if the entry is compressed
+   */
+  long getStoredDataLength(String entryName) {
+    final long entry[] = storedEntries.get(entryName);
+    return entry == null ? -1 : entry[1];
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new IOException("Unexpected end of the project file");
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+}
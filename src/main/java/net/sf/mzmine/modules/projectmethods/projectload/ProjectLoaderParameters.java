@@ -21,12 +21,14 @@ package net.sf.mzmine.modules.projectmethods.projectload;
 import java.awt.Window;
 import java.io.File;
 
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import net.sf.mzmine.util.ExitCode;
 
@@ -38,8 +40,13 @@ public class ProjectLoaderParameters extends SimpleParameterSet {
   public static final FileNameParameter projectFile =
       new FileNameParameter("Project file", "File name of project to be loaded");
 
+  public static final BooleanParameter loadOnDemand = new BooleanParameter(
+      "Load feature lists on demand",
+      "Open the project without reading the feature lists. Each feature list is read from the project file when it is used for the first time. Scan data saved without compression are read directly from the project file.",
+      false);
+
   public ProjectLoaderParameters() {
-    super(new Parameter[] {projectFile});
+    super(new Parameter[] {projectFile, loadOnDemand});
   }
 
   @Override
@@ -60,6 +67,11 @@ public class ProjectLoaderParameters extends SimpleParameterSet {
 
     chooser.setMultiSelectionEnabled(false);
 
+    JCheckBox loadOnDemandBox = new JCheckBox(loadOnDemand.getName());
+    loadOnDemandBox.setToolTipText(loadOnDemand.getDescription());
+    loadOnDemandBox.setSelected(Boolean.TRUE.equals(getParameter(loadOnDemand).getValue()));
+    chooser.setAccessory(loadOnDemandBox);
+
     int returnVal = chooser.showOpenDialog(parent);
     if (returnVal != JFileChooser.APPROVE_OPTION)
       return ExitCode.CANCEL;
@@ -67,6 +79,7 @@ public class ProjectLoaderParameters extends SimpleParameterSet {
     File selectedFile = chooser.getSelectedFile();
 
     getParameter(projectFile).setValue(selectedFile);
+    getParameter(loadOnDemand).setValue(loadOnDemandBox.isSelected());
 
     return ExitCode.OK;
 
@@ -24,6 +24,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.logging.Logger;
@@ -37,6 +39,7 @@ import org.xml.sax.SAXException;
 import com.google.common.io.CountingInputStream;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_0.PeakListOpenHandler_2_0;
@@ -47,6 +50,7 @@ import net.sf.mzmine.modules.projectmethods.projectload.version_2_3.UserParamete
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_5.PeakListOpenHandler_2_5;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_5.RawDataFileOpenHandler_2_5;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_5.UserParameterOpenHandler_2_5;
+import net.sf.mzmine.modules.projectmethods.projectsave.BinaryPeakListSaveHandler;
 import net.sf.mzmine.modules.projectmethods.projectsave.ProjectSavingTask;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.project.ProjectManager;
@@ -65,8 +69,13 @@ public class ProjectOpeningTask extends AbstractTask {
   private File openFile;
   private MZmineProjectImpl newProject;
 
+  // Load feature lists on demand and use uncompressed scan data directly from the project file
+  private boolean loadOnDemand = false;
+  private ProjectFileIndex projectFileIndex;
+
   private RawDataFileOpenHandler rawDataFileOpenHandler;
   private PeakListOpenHandler peakListOpenHandler;
+  private BinaryPeakListFile binaryPeakListFile;
   private UserParameterOpenHandler userParameterOpenHandler;
   private StreamCopy copyMachine;
 
@@ -78,8 +87,13 @@ public class ProjectOpeningTask extends AbstractTask {
   private final Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
   private final Hashtable<String, File> scanFilesIDMap = new Hashtable<>();
 
+  // Position and length of the uncompressed scan data in the project file, for each stored ID
+  private final Hashtable<String, long[]> storedScansIDMap = new Hashtable<>();
+
   public ProjectOpeningTask(ParameterSet parameters) {
     this.openFile = parameters.getParameter(ProjectLoaderParameters.projectFile).getValue();
+    this.loadOnDemand = Boolean.TRUE
+        .equals(parameters.getParameter(ProjectLoaderParameters.loadOnDemand).getValue());
   }
 
   public ProjectOpeningTask(File openFile) {
@@ -162,6 +176,8 @@ public class ProjectOpeningTask extends AbstractTask {
       final Pattern rawFilePattern = Pattern.compile("Raw data file #([\\d]+) (.*)\\.xml$");
       final Pattern scansFilePattern = Pattern.compile("Raw data file #([\\d]+) (.*)\\.scans$");
       final Pattern peakListPattern = Pattern.compile("Peak list #([\\d]+) (.*)\\.xml$");
+      final Pattern binaryPeakListPattern = Pattern
+          .compile("Peak list #([\\d]+) (.*)\\." + BinaryPeakListSaveHandler.EXTENSION + "$");
 
       boolean versionInformationLoaded = false;
 
@@ -206,14 +222,21 @@ public class ProjectOpeningTask extends AbstractTask {
         if (scansFileMatcher.matches()) {
           final String fileID = scansFileMatcher.group(1);
           final String fileName = scansFileMatcher.group(2);
-          loadScansFile(cis, fileID, fileName);
+          loadScansFile(cis, fileID, fileName, entryName);
         }
 
         // Load a feature list
         final Matcher peakListMatcher = peakListPattern.matcher(entryName);
         if (peakListMatcher.matches()) {
           final String peakListName = peakListMatcher.group(2);
-          loadPeakList(cis, peakListName);
+          loadPeakList(cis, peakListName, entryName);
+        }
+
+        // Load a feature list saved in the binary format
+        final Matcher binaryPeakListMatcher = binaryPeakListPattern.matcher(entryName);
+        if (binaryPeakListMatcher.matches()) {
+          final String peakListName = binaryPeakListMatcher.group(2);
+          loadBinaryPeakList(cis, peakListName, entryName);
         }
 
         // Close the ZIP entry
@@ -275,6 +298,10 @@ public class ProjectOpeningTask extends AbstractTask {
     if (peakListOpenHandler != null)
       peakListOpenHandler.cancel();
 
+    final BinaryPeakListFile currentBinaryPeakListFile = binaryPeakListFile;
+    if (currentBinaryPeakListFile != null)
+      currentBinaryPeakListFile.cancel();
+
     if (userParameterOpenHandler != null)
       userParameterOpenHandler.cancel();
 
@@ -382,23 +409,41 @@ public class ProjectOpeningTask extends AbstractTask {
 
     currentLoadedObjectName = fileName;
 
-    File scansFile = scanFilesIDMap.get(fileID);
-    if (scansFile == null) {
-      throw new IOException("Missing scans data for file ID " + fileID);
+    RawDataFileImpl newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
+    final long storedScans[] = storedScansIDMap.get(fileID);
+    if (storedScans != null) {
+      newRawDataFile.openDataPointsFile(openFile, storedScans[0], storedScans[1]);
+    } else {
+      File scansFile = scanFilesIDMap.get(fileID);
+      if (scansFile == null) {
+        throw new IOException("Missing scans data for file ID " + fileID);
+      }
+      newRawDataFile.openDataPointsFile(scansFile);
     }
 
-    RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(is, scansFile);
+    RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(is, newRawDataFile);
     newProject.addFile(newFile);
     dataFilesIDMap.put(fileID, newFile);
 
   }
 
-  private void loadScansFile(InputStream is, String fileID, String fileName) throws IOException {
+  private void loadScansFile(InputStream is, String fileID, String fileName, String entryName)
+      throws IOException {
 
     logger.info("Loading scans data #" + fileID + ": " + fileName);
 
     currentLoadedObjectName = fileName + " scan data";
 
+    // Uncompressed scan data are used directly from the project file
+    if (loadOnDemand && getProjectFileIndex() != null) {
+      final long offset = projectFileIndex.getStoredDataOffset(entryName);
+      if (offset >= 0) {
+        storedScansIDMap.put(fileID,
+            new long[] {offset, projectFileIndex.getStoredDataLength(entryName)});
+        return;
+      }
+    }
+
     final File tempFile = RawDataFileImpl.createNewDataPointsFile();
     final FileOutputStream os = new FileOutputStream(tempFile);
 
@@ -410,13 +455,19 @@ public class ProjectOpeningTask extends AbstractTask {
 
   }
 
-  private void loadPeakList(InputStream is, String peakListName) throws IOException,
-      ParserConfigurationException, SAXException, InstantiationException, IllegalAccessException {
-
-    logger.info("Loading feature list " + peakListName);
+  private void loadPeakList(InputStream is, String peakListName, String entryName)
+      throws IOException, ParserConfigurationException, SAXException, InstantiationException,
+      IllegalAccessException {
 
     currentLoadedObjectName = peakListName;
 
+    if (loadOnDemand && (peakListOpenHandler instanceof PeakListOpenHandler_2_5)) {
+      loadPeakListOnDemand(is, peakListName, entryName);
+      return;
+    }
+
+    logger.info("Loading feature list " + peakListName);
+
     PeakList newPeakList = peakListOpenHandler.readPeakList(is);
 
     newProject.addPeakList(newPeakList);
@@ -425,6 +476,104 @@ public class ProjectOpeningTask extends AbstractTask {
     QualityParameters.calculateQualityParameters(newPeakList);
   }
 
+  /**
+   * Reads only the header of the feature list. The rows are read from the project file when they
+   * are accessed for the first time.
+   */
+  private void loadPeakListOnDemand(InputStream is, String peakListName, String entryName)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    logger.info("Loading feature list " + peakListName + " (rows on demand)");
+
+    SimplePeakList newPeakList =
+        ((PeakListOpenHandler_2_5) peakListOpenHandler).readPeakListHeader(is);
+
+    final File projectFile = openFile;
+    final Hashtable<String, RawDataFile> fileIDs = new Hashtable<>(dataFilesIDMap);
+    newPeakList.setRowsLoader(() -> {
+      try (ZipFile zipFile = new ZipFile(projectFile)) {
+        ZipEntry entry = zipFile.getEntry(entryName);
+        if (entry == null)
+          throw new IOException("Feature list " + peakListName + " not found in " + projectFile);
+        PeakList loadedPeakList =
+            new PeakListOpenHandler_2_5(fileIDs).readPeakList(zipFile.getInputStream(entry));
+        QualityParameters.calculateQualityParameters(loadedPeakList);
+        return loadedPeakList.getRows();
+      }
+    });
+
+    newProject.addPeakList(newPeakList);
+  }
+
+  /**
+   * Loads a feature list saved by {@link BinaryPeakListSaveHandler}. Uncompressed feature lists are
+   * read directly from the project file, compressed ones are extracted to a temporary file first.
+   */
+  private void loadBinaryPeakList(InputStream is, String peakListName, String entryName)
+      throws IOException {
+
+    currentLoadedObjectName = peakListName;
+
+    logger.info("Loading feature list " + peakListName + (loadOnDemand ? " (rows on demand)" : ""));
+
+    File peakListFile = openFile;
+    long offset = getProjectFileIndex() == null ? -1
+        : projectFileIndex.getStoredDataOffset(entryName);
+    if (offset < 0) {
+      peakListFile = File.createTempFile("mzmine", "." + BinaryPeakListSaveHandler.EXTENSION);
+      peakListFile.deleteOnExit();
+      Files.copy(is, peakListFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      offset = 0;
+    }
+
+    final Hashtable<String, RawDataFile> fileIDs = new Hashtable<>(dataFilesIDMap);
+    SimplePeakList newPeakList;
+    try (BinaryPeakListFile binaryFile = new BinaryPeakListFile(peakListFile, offset, fileIDs)) {
+      if (loadOnDemand) {
+        newPeakList = binaryFile.createPeakList();
+      } else {
+        binaryPeakListFile = binaryFile;
+        newPeakList = binaryFile.readPeakList();
+      }
+    } finally {
+      binaryPeakListFile = null;
+      if (!loadOnDemand && peakListFile != openFile)
+        peakListFile.delete();
+    }
+
+    if (loadOnDemand) {
+      final File rowsFile = peakListFile;
+      final long rowsOffset = offset;
+      newPeakList.setRowsLoader(() -> {
+        try (BinaryPeakListFile binaryFile =
+            new BinaryPeakListFile(rowsFile, rowsOffset, fileIDs)) {
+          PeakList loadedPeakList = binaryFile.readPeakList();
+          QualityParameters.calculateQualityParameters(loadedPeakList);
+          return loadedPeakList.getRows();
+        }
+      });
+    }
+
+    newProject.addPeakList(newPeakList);
+
+    if (!loadOnDemand)
+      QualityParameters.calculateQualityParameters(newPeakList);
+  }
+
+  /**
+   * @return index of the entries of the project ZIP file, or null if the file cannot be indexed
+   */
+  private ProjectFileIndex getProjectFileIndex() {
+    if (projectFileIndex == null) {
+      try {
+        projectFileIndex = new ProjectFileIndex(openFile);
+      } catch (IOException e) {
+        logger.warning("Cannot index project file " + openFile + ": " + e);
+      }
+    }
+    return projectFileIndex;
+  }
+
   private void loadUserParameters(InputStream is) throws IOException, ParserConfigurationException,
       SAXException, InstantiationException, IllegalAccessException {
 
@@ -18,19 +18,22 @@
 
 package net.sf.mzmine.modules.projectmethods.projectload;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
 
 import org.xml.sax.SAXException;
 
 public interface RawDataFileOpenHandler {
 
-  RawDataFile readRawDataFile(InputStream is, File scansFile)
+  /**
+   * Reads the raw data file description into newRawDataFile, whose data points file must be opened
+   */
+  RawDataFile readRawDataFile(InputStream is, RawDataFileImpl newRawDataFile)
       throws IOException, ParserConfigurationException, SAXException;
 
   void cancel();
@@ -18,10 +18,8 @@
 
 package net.sf.mzmine.modules.projectmethods.projectload.version_2_0;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -31,7 +29,6 @@ import javax.xml.parsers.SAXParserFactory;
 import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.RawDataFileOpenHandler;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableScan;
@@ -61,21 +58,21 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDat
   private boolean canceled = false;
 
   /**
-   * Create a new raw data file using the information from the XML raw data description file
+   * Fill the given raw data file, whose data points file has been opened, using the information
+   * from the XML raw data description file
    * 
    * @param Name raw data file name
    * @throws SAXException
    * @throws ParserConfigurationException
    */
-  public RawDataFile readRawDataFile(InputStream is, File scansFile)
+  public RawDataFile readRawDataFile(InputStream is, RawDataFileImpl newRawDataFile)
       throws IOException, ParserConfigurationException, SAXException {
 
     storageFileOffset = 0;
 
     charBuffer = new StringBuffer();
 
-    newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-    newRawDataFile.openDataPointsFile(scansFile);
+    this.newRawDataFile = newRawDataFile;
 
     // Reads the XML file (raw data description)
     SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -183,20 +180,14 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDat
     if (qName.equals(RawDataElementName_2_0.SCAN.getElementName())) {
 
       try {
-        int newStorageID = 1;
-        TreeMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
-        TreeMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
-        if (!dataPointsOffsets.isEmpty())
-          newStorageID = dataPointsOffsets.lastKey().intValue() + 1;
+        int newStorageID =
+            newRawDataFile.addStoredDataPoints(storageFileOffset, dataPointsNumber);
 
         StorableScan storableScan = new StorableScan(newRawDataFile, newStorageID, dataPointsNumber,
             scanNumber, msLevel, retentionTime, precursorMZ, precursorCharge, fragmentScan,
             spectrumType, PolarityType.UNKNOWN, "", null);
         newRawDataFile.addScan(storableScan);
 
-        dataPointsOffsets.put(newStorageID, storageFileOffset);
-        dataPointsLengths.put(newStorageID, dataPointsNumber);
-
       } catch (IOException e) {
         throw new SAXException(e);
       }
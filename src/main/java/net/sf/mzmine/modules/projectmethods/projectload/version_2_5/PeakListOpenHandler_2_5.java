@@ -94,6 +94,16 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
 
   private boolean canceled = false;
 
+  // Stop parsing at the first row, see readPeakListHeader()
+  private boolean headerOnly = false;
+
+  /**
+   * Thrown to stop parsing after the header of the feature list
+   */
+  private static class HeaderParsedException extends SAXException {
+    private static final long serialVersionUID = 1L;
+  }
+
   public PeakListOpenHandler_2_5(Hashtable<String, RawDataFile> dataFilesIDMap) {
     this.dataFilesIDMap = dataFilesIDMap;
   }
@@ -104,6 +114,28 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
   @Override
   public PeakList readPeakList(InputStream peakListStream)
       throws IOException, ParserConfigurationException, SAXException {
+    headerOnly = false;
+    return parsePeakList(peakListStream);
+  }
+
+  /**
+   * Reads the name, raw data files and applied methods of the feature list, but not its rows. Only
+   * the beginning of the XML feature list file is parsed.
+   */
+  public SimplePeakList readPeakListHeader(InputStream peakListStream)
+      throws IOException, ParserConfigurationException, SAXException {
+    headerOnly = true;
+    try {
+      return parsePeakList(peakListStream);
+    } catch (HeaderParsedException e) {
+      return buildingPeakList;
+    } finally {
+      headerOnly = false;
+    }
+  }
+
+  private SimplePeakList parsePeakList(InputStream peakListStream)
+      throws IOException, ParserConfigurationException, SAXException {
 
     totalRows = 0;
     parsedRows = 0;
@@ -165,6 +197,9 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
       if (buildingPeakList == null) {
         initializePeakList();
       }
+
+      if (headerOnly)
+        throw new HeaderParsedException();
       int rowID = Integer.parseInt(attrs.getValue(PeakListElementName_2_5.ID.getElementName()));
       buildingRow = new SimplePeakListRow(rowID);
       String comment = attrs.getValue(PeakListElementName_2_5.COMMENT.getElementName());
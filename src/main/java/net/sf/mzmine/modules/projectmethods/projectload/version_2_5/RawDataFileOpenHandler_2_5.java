@@ -18,11 +18,9 @@
 
 package net.sf.mzmine.modules.projectmethods.projectload.version_2_5;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -37,7 +35,6 @@ import com.google.common.collect.Range;
 
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.RawDataFileOpenHandler;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableMassList;
@@ -62,8 +59,6 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
   private int currentStorageID;
   private int storedDataID;
   private int storedDataNumDP;
-  private TreeMap<Integer, Long> dataPointsOffsets;
-  private TreeMap<Integer, Integer> dataPointsLengths;
   private ArrayList<StorableMassList> massLists;
   private PolarityType polarity = PolarityType.UNKNOWN;
   private String scanDescription = "";
@@ -72,24 +67,20 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
   private boolean canceled = false;
 
   /**
-   * Extract the scan file and copies it into the temporary folder. Create a new raw data file using
-   * the information from the XML raw data description file
+   * Fill the given raw data file, whose data points file has been opened, using the information
+   * from the XML raw data description file
    * 
    * @param Name raw data file name
    * @throws SAXException
    * @throws ParserConfigurationException
    */
-  public RawDataFile readRawDataFile(InputStream is, File scansFile)
+  public RawDataFile readRawDataFile(InputStream is, RawDataFileImpl newRawDataFile)
       throws IOException, ParserConfigurationException, SAXException {
 
     charBuffer = new StringBuffer();
     massLists = new ArrayList<StorableMassList>();
 
-    newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-    newRawDataFile.openDataPointsFile(scansFile);
-
-    dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
-    dataPointsLengths = newRawDataFile.getDataPointsLengths();
+    this.newRawDataFile = newRawDataFile;
 
     // Reads the XML file (raw data description)
     SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -178,8 +169,11 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
 
     if (qName.equals(RawDataElementName_2_5.STORED_DATA.getElementName())) {
       long offset = Long.parseLong(getTextOfElement());
-      dataPointsOffsets.put(storedDataID, offset);
-      dataPointsLengths.put(storedDataID, storedDataNumDP);
+      try {
+        newRawDataFile.setStoredDataPoints(storedDataID, offset, storedDataNumDP);
+      } catch (IOException e) {
+        throw new SAXException(e);
+      }
     }
 
     if (qName.equals(RawDataElementName_2_5.MS_LEVEL.getElementName())) {
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Map;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import net.sf.mzmine.datamodel.PeakIdentity;
+import net.sf.mzmine.datamodel.PeakInformation;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakList.PeakListAppliedMethod;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+
+/**
+ * Saves a feature list in the binary columnar format (.mzfl), an alternative to the XML format of
+ * {@link PeakListSaveHandler}. Each value of the rows and features is stored in a primitive column,
+ * so the file is compact and a range of rows can be read without reading the others.
+ *
+ * File layout (big endian, as written by DataOutputStream):
+ *
+ * header: magic, version, number of rows, features, raw data files and applied methods, then the
+ * feature list name, creation date, raw data file IDs, applied methods (name, parameters) and the
+ * names of all FeatureStatus and IsotopePatternStatus values (number of values, names). Strings are
+ * saved as length and UTF-8 bytes, -1 for null.
+ *
+ * row columns: ID (int), index of the first feature (int, rows + 1 values), offset of the row block
+ * (long, rows + 1 values)
+ *
+ * feature columns, ordered by row and raw data file: raw data file index (int), m/z, RT in minutes,
+ * height, area (double), status (byte, index in the FeatureStatus names), charge, representative scan,
+ * fragment scan, parent chromatogram row ID or -1 (int), index of the first data point (long,
+ * features + 1 values), offset of the feature block (long, features + 1 values)
+ *
+ * row blocks: comment, identities (number of identities, index of the preferred identity,
+ * properties), information properties or -1
+ *
+ * feature blocks (empty for features without isotope pattern and MS/MS scans): isotope pattern
+ * (number of isotopes or -1, status, description, m/z and intensity values), all MS/MS fragment
+ * scans
+ *
+ * data points, for each feature: scan numbers (int), m/z values (float), intensities (float)
+ */
+public class BinaryPeakListSaveHandler {
+
+  public static final String EXTENSION = "mzfl";
+
+  public static final int MAGIC = 0x4D5A464C; // "MZFL"
+  public static final int VERSION = 1;
+
+  /**
+   * Writes one value of a feature column
+   */
+  private interface FeatureColumn {
+    void write(DataOutputStream out, Feature feature, int dataFileIndex) throws IOException;
+  }
+
+  private final OutputStream finalStream;
+  private final Hashtable<RawDataFile, String> dataFilesIDMap;
+
+  private int numberOfRows, numberOfPasses, finishedRows;
+  private boolean canceled = false;
+
+  public BinaryPeakListSaveHandler(OutputStream finalStream,
+      Hashtable<RawDataFile, String> dataFilesIDMap) {
+    this.finalStream = finalStream;
+    this.dataFilesIDMap = dataFilesIDMap;
+  }
+
+  /**
+   * Writes the feature list to the output stream. The stream is flushed, but not closed.
+   */
+  public void savePeakList(PeakList peakList) throws IOException {
+
+    final RawDataFile dataFiles[] = peakList.getRawDataFiles();
+    final PeakListAppliedMethod methods[] = peakList.getAppliedMethods();
+
+    numberOfRows = peakList.getNumberOfRows();
+    finishedRows = 0;
+    // Passes over the rows: row block offsets, 12 feature columns, row and feature blocks, data
+    // points
+    numberOfPasses = 16;
+
+    // Count the features of each row
+    final int firstFeature[] = new int[numberOfRows + 1];
+    for (int i = 0; i < numberOfRows; i++) {
+      final PeakListRow row = peakList.getRow(i);
+      int count = 0;
+      for (RawDataFile dataFile : dataFiles) {
+        if (row.getPeak(dataFile) != null)
+          count++;
+      }
+      firstFeature[i + 1] = firstFeature[i] + count;
+    }
+    final int numberOfFeatures = firstFeature[numberOfRows];
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(finalStream, 1 << 16));
+
+    // Header
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(numberOfRows);
+    out.writeInt(numberOfFeatures);
+    out.writeInt(dataFiles.length);
+    out.writeInt(methods.length);
+    writeString(out, peakList.getName());
+    String dateText = null;
+    if (peakList instanceof SimplePeakList)
+      dateText = ((SimplePeakList) peakList).getDateCreated();
+    if (dateText == null) {
+      synchronized (PeakListSaveHandler.dateFormat) {
+        dateText = PeakListSaveHandler.dateFormat.format(new Date());
+      }
+    }
+    writeString(out, dateText);
+    for (RawDataFile dataFile : dataFiles)
+      writeString(out, dataFilesIDMap.get(dataFile));
+    for (PeakListAppliedMethod method : methods) {
+      writeString(out, method.getDescription());
+      writeString(out, method.getParameters());
+    }
+    writeEnumNames(out, FeatureStatus.values());
+    writeEnumNames(out, IsotopePatternStatus.values());
+
+    // Row columns
+    for (int i = 0; i < numberOfRows; i++)
+      out.writeInt(peakList.getRow(i).getID());
+    for (int i = 0; i <= numberOfRows; i++)
+      out.writeInt(firstFeature[i]);
+    final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+    final DataOutputStream blockOut = new DataOutputStream(blockBytes);
+    long blockOffset = 0;
+    out.writeLong(blockOffset);
+    for (int i = 0; i < numberOfRows; i++) {
+      if (canceled)
+        return;
+      blockBytes.reset();
+      writeRowBlock(blockOut, peakList.getRow(i));
+      blockOffset += blockBytes.size();
+      out.writeLong(blockOffset);
+    }
+    finishedRows += numberOfRows;
+
+    // Feature columns
+    final FeatureColumn columns[] = {(o, f, file) -> o.writeInt(file),
+        (o, f, file) -> o.writeDouble(f.getMZ()), (o, f, file) -> o.writeDouble(f.getRT()),
+        (o, f, file) -> o.writeDouble(f.getHeight()), (o, f, file) -> o.writeDouble(f.getArea()),
+        (o, f, file) -> o.writeByte(f.getFeatureStatus().ordinal()),
+        (o, f, file) -> o.writeInt(f.getCharge()),
+        (o, f, file) -> o.writeInt(f.getRepresentativeScanNumber()),
+        (o, f, file) -> o.writeInt(f.getMostIntenseFragmentScanNumber()),
+        (o, f, file) -> o.writeInt(
+            f.getParentChromatogramRowID() == null ? -1 : f.getParentChromatogramRowID())};
+    for (FeatureColumn column : columns) {
+      if (!writeFeatureColumn(out, peakList, column))
+        return;
+    }
+
+    final long counters[] = new long[1];
+    out.writeLong(0);
+    if (!writeFeatureColumn(out, peakList, (o, f, file) -> {
+      counters[0] += f.getScanNumbers().length;
+      o.writeLong(counters[0]);
+    }))
+      return;
+
+    counters[0] = 0;
+    out.writeLong(0);
+    if (!writeFeatureColumn(out, peakList, (o, f, file) -> {
+      blockBytes.reset();
+      writeFeatureBlock(blockOut, f);
+      counters[0] += blockBytes.size();
+      o.writeLong(counters[0]);
+    }))
+      return;
+
+    // Row and feature blocks
+    for (int i = 0; i < numberOfRows; i++) {
+      if (canceled)
+        return;
+      writeRowBlock(out, peakList.getRow(i));
+    }
+    finishedRows += numberOfRows;
+    if (!writeFeatureColumn(out, peakList, (o, f, file) -> writeFeatureBlock(o, f)))
+      return;
+
+    // Data points
+    if (!writeFeatureColumn(out, peakList, (o, f, file) -> {
+      final int scanNumbers[] = f.getScanNumbers();
+      final DataPoint dataPoints[] = new DataPoint[scanNumbers.length];
+      for (int i = 0; i < scanNumbers.length; i++) {
+        o.writeInt(scanNumbers[i]);
+        dataPoints[i] = f.getDataPoint(scanNumbers[i]);
+      }
+      for (DataPoint dp : dataPoints)
+        o.writeFloat(dp == null ? 0f : (float) dp.getMZ());
+      for (DataPoint dp : dataPoints)
+        o.writeFloat(dp == null ? 0f : (float) dp.getIntensity());
+    }))
+      return;
+
+    out.flush();
+  }
+
+  /**
+   * Writes one column of all features, in the order of rows and raw data files
+   *
+   * @return false if saving was canceled
+   */
+  private boolean writeFeatureColumn(DataOutputStream out, PeakList peakList, FeatureColumn column)
+      throws IOException {
+    final RawDataFile dataFiles[] = peakList.getRawDataFiles();
+    for (int i = 0; i < numberOfRows; i++) {
+      if (canceled)
+        return false;
+      final PeakListRow row = peakList.getRow(i);
+      for (int j = 0; j < dataFiles.length; j++) {
+        final Feature feature = row.getPeak(dataFiles[j]);
+        if (feature != null)
+          column.write(out, feature, j);
+      }
+      finishedRows++;
+    }
+    return true;
+  }
+
+  private void writeRowBlock(DataOutputStream out, PeakListRow row) throws IOException {
+    writeString(out, row.getComment());
+
+    final PeakIdentity identities[] = row.getPeakIdentities();
+    final PeakIdentity preferred = row.getPreferredPeakIdentity();
+    out.writeInt(identities.length);
+    int preferredIndex = -1;
+    for (int i = 0; i < identities.length; i++) {
+      if (identities[i] == preferred)
+        preferredIndex = i;
+    }
+    out.writeInt(preferredIndex);
+    for (PeakIdentity identity : identities)
+      writeProperties(out, identity.getAllProperties());
+
+    final PeakInformation information = row.getPeakInformation();
+    if (information == null)
+      out.writeInt(-1);
+    else
+      writeProperties(out, information.getAllProperties());
+  }
+
+  private void writeFeatureBlock(DataOutputStream out, Feature feature) throws IOException {
+    final IsotopePattern isotopePattern = feature.getIsotopePattern();
+    final int fragmentScans[] = feature.getAllMS2FragmentScanNumbers();
+    final boolean hasFragmentScans = fragmentScans != null && fragmentScans.length > 0;
+    if (isotopePattern == null && !hasFragmentScans)
+      return;
+
+    if (isotopePattern == null) {
+      out.writeInt(-1);
+    } else {
+      final DataPoint isotopes[] = isotopePattern.getDataPoints();
+      out.writeInt(isotopes.length);
+      out.writeByte(isotopePattern.getStatus().ordinal());
+      writeString(out, isotopePattern.getDescription());
+      for (DataPoint isotope : isotopes)
+        out.writeDouble(isotope.getMZ());
+      for (DataPoint isotope : isotopes)
+        out.writeDouble(isotope.getIntensity());
+    }
+
+    out.writeInt(hasFragmentScans ? fragmentScans.length : 0);
+    if (hasFragmentScans) {
+      for (int scan : fragmentScans)
+        out.writeInt(scan);
+    }
+  }
+
+  private static void writeProperties(DataOutputStream out, Map<String, String> properties)
+      throws IOException {
+    out.writeInt(properties.size());
+    for (Map.Entry<String, String> property : properties.entrySet()) {
+      writeString(out, property.getKey());
+      writeString(out, property.getValue());
+    }
+  }
+
+  private static void writeEnumNames(DataOutputStream out, Enum<?> values[]) throws IOException {
+    out.writeInt(values.length);
+    for (Enum<?> value : values)
+      writeString(out, value.name());
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    final byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * @return the progress of saving the feature list
+   */
+  public double getProgress() {
+    if (numberOfRows == 0)
+      return 0;
+    return Math.min(1.0, (double) finishedRows / ((double) numberOfRows * numberOfPasses));
+  }
+
+  public void cancel() {
+    canceled = true;
+  }
+
+}
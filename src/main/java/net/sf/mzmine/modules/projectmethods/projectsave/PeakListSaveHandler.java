@@ -105,7 +105,9 @@ public class PeakListSaveHandler {
       dateText = ((SimplePeakList) peakList).getDateCreated();
     } else {
       Date date = new Date();
-      dateText = dateFormat.format(date);
+      synchronized (dateFormat) {
+        dateText = dateFormat.format(date);
+      }
     }
     hd.startElement("", "", PeakListElementName.PEAKLIST_DATE.getElementName(), atts);
     hd.characters(dateText.toCharArray(), 0, dateText.length());
@@ -18,12 +18,22 @@
 
 package net.sf.mzmine.modules.projectmethods.projectsave;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.Hashtable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import javax.xml.transform.TransformerConfigurationException;
@@ -31,7 +41,9 @@ import org.xml.sax.SAXException;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.desktop.impl.MainWindow;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoaderParameters;
 import net.sf.mzmine.parameters.ParameterSet;
@@ -53,12 +65,24 @@ public class ProjectSavingTask extends AbstractTask {
   private File saveFile;
   private MZmineProjectImpl savedProject;
 
-  private RawDataFileSaveHandler rawDataFileSaveHandler;
-  private PeakListSaveHandler peakListSaveHandler;
+  private RawDataFileSaveHandler rawDataFileSaveHandlers[];
+  private PeakListSaveHandler peakListSaveHandlers[];
+  private BinaryPeakListSaveHandler binaryPeakListSaveHandlers[];
   private UserParameterSaveHandler userParameterSaveHandler;
 
+  // Raw data files and feature lists are serialized in parallel, then copied to the ZIP file in
+  // their order
+  private ExecutorService savingThreads;
+  private Future<?> rawDataFileFutures[], peakListFutures[];
+  private File peakListFiles[];
+
+  // Binary feature lists are saved with the compression of the scan data
+  private PeakListFormat peakListFormat;
+  private ScanDataCompression compression;
+  private long peakListCRCs[];
+
   private final int totalSaveItems;
-  private int currentStage, finishedSaveItems = 0;
+  private int currentStage;
   private String currentSavedObjectName;
 
   // This hashtable maps raw data files to their ID within the saved project
@@ -90,27 +114,34 @@ public class ProjectSavingTask extends AbstractTask {
     if (totalSaveItems == 0)
       return 0.0;
 
-    double currentItemProgress = 0.0;
-
-    switch (currentStage) {
-      case 2:
-        if (rawDataFileSaveHandler != null)
-          currentItemProgress = rawDataFileSaveHandler.getProgress();
-        break;
-      case 3:
-        if (peakListSaveHandler != null)
-          currentItemProgress = peakListSaveHandler.getProgress();
-        break;
-      case 4:
-      case 5:
-        return 1.0;
-      default:
-        return 0;
+    if (currentStage >= 4)
+      return 1.0;
+
+    double progress = 0.0;
+
+    final RawDataFileSaveHandler rawHandlers[] = rawDataFileSaveHandlers;
+    if (rawHandlers != null) {
+      for (RawDataFileSaveHandler handler : rawHandlers)
+        progress += handler.getProgress();
+    }
+
+    final PeakListSaveHandler peakListHandlers[] = peakListSaveHandlers;
+    if (peakListHandlers != null) {
+      for (PeakListSaveHandler handler : peakListHandlers) {
+        if (handler != null)
+          progress += handler.getProgress();
+      }
     }
 
-    double progress = (finishedSaveItems + currentItemProgress) / totalSaveItems;
+    final BinaryPeakListSaveHandler binaryPeakListHandlers[] = binaryPeakListSaveHandlers;
+    if (binaryPeakListHandlers != null) {
+      for (BinaryPeakListSaveHandler handler : binaryPeakListHandlers) {
+        if (handler != null)
+          progress += handler.getProgress();
+      }
+    }
 
-    return progress;
+    return progress / totalSaveItems;
   }
 
   /**
@@ -123,11 +154,27 @@ public class ProjectSavingTask extends AbstractTask {
 
     setStatus(TaskStatus.CANCELED);
 
-    if (rawDataFileSaveHandler != null)
-      rawDataFileSaveHandler.cancel();
+    final RawDataFileSaveHandler rawHandlers[] = rawDataFileSaveHandlers;
+    if (rawHandlers != null) {
+      for (RawDataFileSaveHandler handler : rawHandlers)
+        handler.cancel();
+    }
 
-    if (peakListSaveHandler != null)
-      peakListSaveHandler.cancel();
+    final PeakListSaveHandler peakListHandlers[] = peakListSaveHandlers;
+    if (peakListHandlers != null) {
+      for (PeakListSaveHandler handler : peakListHandlers) {
+        if (handler != null)
+          handler.cancel();
+      }
+    }
+
+    final BinaryPeakListSaveHandler binaryPeakListHandlers[] = binaryPeakListSaveHandlers;
+    if (binaryPeakListHandlers != null) {
+      for (BinaryPeakListSaveHandler handler : binaryPeakListHandlers) {
+        if (handler != null)
+          handler.cancel();
+      }
+    }
 
     if (userParameterSaveHandler != null)
       userParameterSaveHandler.cancel();
@@ -143,15 +190,23 @@ public class ProjectSavingTask extends AbstractTask {
       logger.info("Saving project to " + saveFile);
       setStatus(TaskStatus.PROCESSING);
 
+      // Stop reading data from the file we are going to replace
+      if (saveFile.exists())
+        releaseSaveFile();
+
       // Prepare a temporary ZIP file. We create this file in the same
       // directory as the final saveFile to avoid moving between
       // filesystems in the last stage (renameTo)
       File tempFile = File.createTempFile(saveFile.getName(), ".tmp", saveFile.getParentFile());
       tempFile.deleteOnExit();
 
+      // Start serializing the raw data files and feature lists
+      startSerialization();
+
       // Create a ZIP stream writing to the temporary file
       FileOutputStream tempStream = new FileOutputStream(tempFile);
-      ZipOutputStream zipStream = new ZipOutputStream(tempStream);
+      ZipOutputStream zipStream =
+          new ZipOutputStream(new BufferedOutputStream(tempStream, 1 << 16));
 
       // Stage 1 - save version and configuration
       currentStage++;
@@ -240,6 +295,132 @@ public class ProjectSavingTask extends AbstractTask {
             + ": " + ExceptionUtils.exceptionToString(e));
       }
 
+    } finally {
+      cleanup();
+    }
+  }
+
+  /**
+   * Loads the rows of the feature lists opened on demand and copies the scan data mapped from the
+   * project file to temporary files, because these may be read from saveFile
+   */
+  private void releaseSaveFile() throws IOException {
+    for (PeakList peakList : savedProject.getPeakLists()) {
+      if ((peakList instanceof SimplePeakList) && !((SimplePeakList) peakList).isLoaded()) {
+        currentSavedObjectName = peakList.getName();
+        ((SimplePeakList) peakList).loadRows();
+      }
+    }
+    for (RawDataFile dataFile : savedProject.getDataFiles()) {
+      if (dataFile instanceof RawDataFileImpl) {
+        currentSavedObjectName = dataFile.getName();
+        ((RawDataFileImpl) dataFile).releaseProjectFile(saveFile);
+      }
+    }
+    currentSavedObjectName = null;
+  }
+
+  /**
+   * Submits the serialization of all raw data files and feature lists to the saving threads
+   */
+  private void startSerialization() {
+
+    final ParameterSet preferences = MZmineCore.getConfiguration().getPreferences();
+    compression = preferences.getParameter(MZminePreferences.projectScanCompression).getValue();
+    if (compression == null)
+      compression = ScanDataCompression.DEFLATE;
+    peakListFormat = preferences.getParameter(MZminePreferences.projectPeakListFormat).getValue();
+    if (peakListFormat == null)
+      peakListFormat = PeakListFormat.XML;
+
+    final int numOfThreads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+    savingThreads = Executors.newFixedThreadPool(numOfThreads, runnable -> {
+      Thread thread = new Thread(runnable, "Project saving thread");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    RawDataFile rawDataFiles[] = savedProject.getDataFiles();
+    rawDataFileSaveHandlers = new RawDataFileSaveHandler[rawDataFiles.length];
+    rawDataFileFutures = new Future<?>[rawDataFiles.length];
+    for (int i = 0; i < rawDataFiles.length; i++) {
+      final RawDataFileSaveHandler handler = new RawDataFileSaveHandler(
+          (RawDataFileImpl) rawDataFiles[i], i + 1, compression);
+      rawDataFileSaveHandlers[i] = handler;
+      dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
+      rawDataFileFutures[i] = savingThreads.submit(() -> {
+        handler.prepare();
+        return null;
+      });
+    }
+
+    PeakList peakLists[] = savedProject.getPeakLists();
+    peakListSaveHandlers = new PeakListSaveHandler[peakLists.length];
+    binaryPeakListSaveHandlers = new BinaryPeakListSaveHandler[peakLists.length];
+    peakListFutures = new Future<?>[peakLists.length];
+    peakListFiles = new File[peakLists.length];
+    peakListCRCs = new long[peakLists.length];
+    for (int i = 0; i < peakLists.length; i++) {
+      final int index = i;
+      peakListFutures[i] = savingThreads.submit(() -> {
+        if (isCanceled())
+          return null;
+        logger.info("Saving feature list: " + peakLists[index].getName());
+        peakListFiles[index] = File.createTempFile("mzmine", "." + getPeakListExtension());
+        peakListFiles[index].deleteOnExit();
+        try (OutputStream out =
+            new BufferedOutputStream(new FileOutputStream(peakListFiles[index]))) {
+          if (peakListFormat == PeakListFormat.BINARY) {
+            BinaryPeakListSaveHandler handler = new BinaryPeakListSaveHandler(out, dataFilesIDMap);
+            binaryPeakListSaveHandlers[index] = handler;
+            handler.savePeakList(peakLists[index]);
+          } else {
+            PeakListSaveHandler handler = new PeakListSaveHandler(out, dataFilesIDMap);
+            peakListSaveHandlers[index] = handler;
+            handler.savePeakList(peakLists[index]);
+          }
+        }
+        if (isBinaryPeakListStored()) {
+          CRC32 crc = new CRC32();
+          try (InputStream in =
+              new CheckedInputStream(new FileInputStream(peakListFiles[index]), crc)) {
+            in.transferTo(OutputStream.nullOutputStream());
+          }
+          peakListCRCs[index] = crc.getValue();
+        }
+        return null;
+      });
+    }
+  }
+
+  /**
+   * Waits until the serialization of a raw data file or feature list has finished
+   */
+  private void waitFor(Future<?> future) throws Exception {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception)
+        throw (Exception) e.getCause();
+      throw e;
+    }
+  }
+
+  /**
+   * Stops the saving threads and deletes the temporary files
+   */
+  private void cleanup() {
+    if (savingThreads != null)
+      savingThreads.shutdownNow();
+    if (rawDataFileSaveHandlers != null) {
+      for (RawDataFileSaveHandler handler : rawDataFileSaveHandlers)
+        handler.cleanup();
+    }
+    if (peakListFiles != null) {
+      for (File peakListFile : peakListFiles) {
+        if (peakListFile != null)
+          peakListFile.delete();
+      }
     }
   }
 
@@ -290,14 +471,8 @@ public class ProjectSavingTask extends AbstractTask {
 
   /**
    * Save the raw data files
-   * 
-   * @throws SAXException
-   * @throws TransformerConfigurationException
    */
-  private void saveRawDataFiles(ZipOutputStream zipStream)
-      throws IOException, TransformerConfigurationException, SAXException {
-
-    rawDataFileSaveHandler = new RawDataFileSaveHandler(zipStream);
+  private void saveRawDataFiles(ZipOutputStream zipStream) throws Exception {
 
     RawDataFile rawDataFiles[] = savedProject.getDataFiles();
 
@@ -307,20 +482,17 @@ public class ProjectSavingTask extends AbstractTask {
         return;
 
       currentSavedObjectName = rawDataFiles[i].getName();
-      rawDataFileSaveHandler.writeRawDataFile((RawDataFileImpl) rawDataFiles[i], i + 1);
-      dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
-      finishedSaveItems++;
+      waitFor(rawDataFileFutures[i]);
+      if (isCanceled())
+        return;
+      rawDataFileSaveHandlers[i].write(zipStream);
     }
   }
 
   /**
    * Save the feature lists
-   * 
-   * @throws SAXException
-   * @throws TransformerConfigurationException
    */
-  private void savePeakLists(ZipOutputStream zipStream)
-      throws IOException, TransformerConfigurationException, SAXException {
+  private void savePeakLists(ZipOutputStream zipStream) throws Exception {
 
     PeakList peakLists[] = savedProject.getPeakLists();
 
@@ -329,18 +501,36 @@ public class ProjectSavingTask extends AbstractTask {
       if (isCanceled())
         return;
 
-      logger.info("Saving feature list: " + peakLists[i].getName());
+      currentSavedObjectName = peakLists[i].getName();
+      waitFor(peakListFutures[i]);
+      if (isCanceled())
+        return;
 
       String peakListSavedName = "Peak list #" + (i + 1) + " " + peakLists[i].getName();
 
-      zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+      ZipEntry peakListEntry = new ZipEntry(peakListSavedName + "." + getPeakListExtension());
+      if (isBinaryPeakListStored()) {
+        peakListEntry.setMethod(ZipEntry.STORED);
+        peakListEntry.setSize(peakListFiles[i].length());
+        peakListEntry.setCompressedSize(peakListFiles[i].length());
+        peakListEntry.setCrc(peakListCRCs[i]);
+      }
+      zipStream.putNextEntry(peakListEntry);
+      Files.copy(peakListFiles[i].toPath(), zipStream);
+    }
+  }
 
-      peakListSaveHandler = new PeakListSaveHandler(zipStream, dataFilesIDMap);
+  private String getPeakListExtension() {
+    return peakListFormat == PeakListFormat.BINARY ? BinaryPeakListSaveHandler.EXTENSION : "xml";
+  }
 
-      currentSavedObjectName = peakLists[i].getName();
-      peakListSaveHandler.savePeakList(peakLists[i]);
-      finishedSaveItems++;
-    }
+  /**
+   * Binary feature lists are not compressed when the scan data are not compressed, so they can be
+   * read directly from the project file
+   */
+  private boolean isBinaryPeakListStored() {
+    return peakListFormat == PeakListFormat.BINARY
+        && compression.getZipMethod() == ZipEntry.STORED;
   }
 
   /**
@@ -18,12 +18,21 @@
 
 package net.sf.mzmine.modules.projectmethods.projectsave;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -45,34 +54,49 @@ import org.xml.sax.helpers.AttributesImpl;
 
 import com.google.common.collect.Range;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Saves one raw data file in two steps. prepare() creates the XML description of the raw data file
+ * in a temporary file and can run in parallel with other save handlers. write() copies the data
+ * points file and the description to the zip file.
+ */
 class RawDataFileSaveHandler {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
+  private final RawDataFileImpl rawDataFile;
+  private final String rawDataSavedName;
+  private final ScanDataCompression compression;
   private int numOfScans, completedScans;
-  private ZipOutputStream zipOutputStream;
-  private boolean canceled = false;
+  private volatile boolean canceled = false;
   private Map<Integer, Long> dataPointsOffsets;
   private Map<Integer, Long> consolidatedDataPointsOffsets;
   private Map<Integer, Integer> dataPointsLengths;
-  private double progress = 0;
+  private volatile double progress = 0;
+
+  // Sections of the data points file that are saved (offset and number of bytes)
+  private final LongArrayList sectionOffsets = new LongArrayList();
+  private final LongArrayList sectionLengths = new LongArrayList();
+  private long scansSize, scansCRC;
 
-  RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
-    this.zipOutputStream = zipOutputStream;
+  private File descriptionFile;
+
+  RawDataFileSaveHandler(RawDataFileImpl rawDataFile, int number,
+      ScanDataCompression compression) {
+    this.rawDataFile = rawDataFile;
+    this.rawDataSavedName = "Raw data file #" + number + " " + rawDataFile.getName();
+    this.compression = compression;
   }
 
   /**
-   * Copy the data points file of the raw data file from the temporary folder to the zip file.
-   * Create an XML file which contains the description of the same raw data file an copy it into the
-   * same zip file.
+   * Determines the parts of the data points file to save and creates the XML description of the raw
+   * data file in a temporary file.
    * 
-   * @param rawDataFile raw data file to be copied
-   * @param rawDataSavedName name of the raw data inside the zip file
    * @throws java.io.IOException
    * @throws TransformerConfigurationException
    * @throws SAXException
    */
-  void writeRawDataFile(RawDataFileImpl rawDataFile, int number)
-      throws IOException, TransformerConfigurationException, SAXException {
+  void prepare() throws IOException, TransformerConfigurationException, SAXException {
 
     numOfScans = rawDataFile.getNumOfScans();
 
@@ -81,59 +105,126 @@ class RawDataFileSaveHandler {
     dataPointsLengths = rawDataFile.getDataPointsLengths();
     consolidatedDataPointsOffsets = new TreeMap<Integer, Long>();
 
-    // step 1 - save data file
-    logger.info("Saving data points of: " + rawDataFile.getName());
-
-    String rawDataSavedName = "Raw data file #" + number + " " + rawDataFile.getName();
-
-    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
-
     // We save only those data points that still have a reference in the
     // dataPointsOffset table. Some deleted mass lists may still be present
-    // in the data points file, we don't want to copy those.
+    // in the data points file, we don't want to copy those. Adjacent blocks
+    // are joined, so the file is copied in a few sequential sections.
+    Integer storageIDs[] = dataPointsOffsets.keySet().toArray(new Integer[0]);
+    Arrays.sort(storageIDs, Comparator.comparingLong(dataPointsOffsets::get));
     long newOffset = 0;
-    byte buffer[] = new byte[1 << 20];
-    RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
-    for (Integer storageID : dataPointsOffsets.keySet()) {
-
-      if (canceled)
-        return;
-
+    for (Integer storageID : storageIDs) {
       final long offset = dataPointsOffsets.get(storageID);
-      dataPointsFile.seek(offset);
-
-      final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
+      final long bytes = dataPointsLengths.get(storageID) * 4L * 2;
       consolidatedDataPointsOffsets.put(storageID, newOffset);
-      if (buffer.length < bytes) {
-        buffer = new byte[bytes * 2];
+      final int last = sectionOffsets.size() - 1;
+      if (last >= 0 && sectionOffsets.getLong(last) + sectionLengths.getLong(last) == offset) {
+        sectionLengths.set(last, sectionLengths.getLong(last) + bytes);
+      } else {
+        sectionOffsets.add(offset);
+        sectionLengths.add(bytes);
       }
-      dataPointsFile.read(buffer, 0, bytes);
-      zipOutputStream.write(buffer, 0, bytes);
       newOffset += bytes;
-      progress = 0.9 * ((double) offset / dataPointsFile.length());
+    }
+    scansSize = newOffset;
+
+    // Uncompressed zip entries need the checksum in advance
+    if (compression.getZipMethod() == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      copyDataPoints(new CheckedOutputStream(OutputStream.nullOutputStream(), crc), false);
+      scansCRC = crc.getValue();
     }
 
     if (canceled)
       return;
 
-    // step 2 - save raw data description
     logger.info("Saving raw data description of: " + rawDataFile.getName());
 
-    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
-    OutputStream finalStream = zipOutputStream;
+    descriptionFile = File.createTempFile("mzmine", ".xml");
+    descriptionFile.deleteOnExit();
+    try (OutputStream finalStream =
+        new BufferedOutputStream(new FileOutputStream(descriptionFile))) {
+
+      StreamResult streamResult = new StreamResult(finalStream);
+      SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory.newInstance();
+
+      TransformerHandler hd = tf.newTransformerHandler();
+      Transformer serializer = hd.getTransformer();
+      serializer.setOutputProperty(OutputKeys.INDENT, "yes");
+      serializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+
+      hd.setResult(streamResult);
+      hd.startDocument();
+      saveRawDataInformation(rawDataFile, hd);
+      hd.endDocument();
+    }
+  }
 
-    StreamResult streamResult = new StreamResult(finalStream);
-    SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory.newInstance();
+  /**
+   * Copy the data points file of the raw data file from the temporary folder to the zip file,
+   * followed by the description created by prepare().
+   * 
+   * @throws java.io.IOException
+   */
+  void write(ZipOutputStream zipOutputStream) throws IOException {
+
+    logger.info("Saving data points of: " + rawDataFile.getName());
+
+    ZipEntry scansEntry = new ZipEntry(rawDataSavedName + ".scans");
+    scansEntry.setMethod(compression.getZipMethod());
+    if (compression.getZipMethod() == ZipEntry.STORED) {
+      scansEntry.setSize(scansSize);
+      scansEntry.setCompressedSize(scansSize);
+      scansEntry.setCrc(scansCRC);
+    } else {
+      zipOutputStream.setLevel(compression.getLevel());
+    }
+    zipOutputStream.putNextEntry(scansEntry);
+    copyDataPoints(zipOutputStream, true);
+    zipOutputStream.setLevel(Deflater.DEFAULT_COMPRESSION);
+
+    if (canceled)
+      return;
 
-    TransformerHandler hd = tf.newTransformerHandler();
-    Transformer serializer = hd.getTransformer();
-    serializer.setOutputProperty(OutputKeys.INDENT, "yes");
-    serializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
+    Files.copy(descriptionFile.toPath(), zipOutputStream);
+    progress = 1.0;
+  }
 
-    hd.setResult(streamResult);
-    hd.startDocument();
-    saveRawDataInformation(rawDataFile, hd);
-    hd.endDocument();
+  /**
+   * Copies the saved sections of the data points file in the order of the file
+   */
+  private void copyDataPoints(OutputStream out, boolean updateProgress) throws IOException {
+    if (sectionOffsets.isEmpty())
+      return;
+    final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+    long copiedBytes = 0;
+    for (int i = 0; i < sectionOffsets.size(); i++) {
+      long position = sectionOffsets.getLong(i);
+      final long end = position + sectionLengths.getLong(i);
+      while (position < end) {
+        if (canceled)
+          return;
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+        final int read = rawDataFile.readDataPointsFile(buffer, position);
+        if (read < 0)
+          throw new IOException(
+              "Unexpected end of the data points file of " + rawDataFile.getName());
+        out.write(buffer.array(), 0, read);
+        position += read;
+        copiedBytes += read;
+        if (updateProgress)
+          progress = 0.1 + 0.9 * ((double) copiedBytes / scansSize);
+      }
+    }
+  }
+
+  /**
+   * Deletes the temporary files
+   */
+  void cleanup() {
+    if (descriptionFile != null)
+      descriptionFile.delete();
   }
 
   /**
@@ -198,7 +289,7 @@ class RawDataFileSaveHandler {
       hd.endElement("", "", RawDataElementName.SCAN.getElementName());
       atts.clear();
       completedScans++;
-      progress = 0.9 + (0.1 * ((double) completedScans / numOfScans));
+      progress = 0.1 * ((double) completedScans / numOfScans);
     }
 
     hd.endElement("", "", RawDataElementName.RAWDATA.getElementName());
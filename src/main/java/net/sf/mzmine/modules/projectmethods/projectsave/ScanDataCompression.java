@@ -0,0 +1,62 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compression of the scan data (.scans entries) in saved projects. Projects saved with any of these
+ * methods can be opened by all versions of MZmine.
+ */
+public enum ScanDataCompression {
+
+  DEFLATE("Default (smallest file)", ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION), //
+  FAST("Fast", ZipEntry.DEFLATED, Deflater.BEST_SPEED), //
+  NONE("None (fastest)", ZipEntry.STORED, Deflater.NO_COMPRESSION);
+
+  private final String name;
+  private final int zipMethod, level;
+
+  ScanDataCompression(String name, int zipMethod, int level) {
+    this.name = name;
+    this.zipMethod = zipMethod;
+    this.level = level;
+  }
+
+  /**
+   * @return ZipEntry.DEFLATED or ZipEntry.STORED
+   */
+  public int getZipMethod() {
+    return zipMethod;
+  }
+
+  /**
+   * @return compression level of the Deflater
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+}
@@ -79,18 +79,19 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
   /**
    * List of available baseline correctors
    */
-  public static final BaselineCorrector baselineCorrectors[] = {new AsymmetryCorrector(), // (Package
-                                                                                          // R "ptw"
-                                                                                          // -
-                                                                                          // http://cran.r-project.org/web/packages/ptw/ptw.pdf)
-      new RollingBallCorrector(), // (Package R "baseline" -
-                                  // http://cran.r-project.org/web/packages/baseline/baseline.pdf)
-      new PeakDetectionCorrector(), // (Package R "baseline" -
-                                    // http://cran.r-project.org/web/packages/baseline/baseline.pdf)
-      new RubberBandCorrector(), // (Package R "hyperSpec" -
-                                 // http://cran.r-project.org/web/packages/hyperSpec/vignettes/baseline.pdf)
-      new LocMinLoessCorrector() // (Package R/Bioc. "PROcess" -
-                                 // http://bioconductor.org/packages/release/bioc/manuals/PROcess/man/PROcess.pdf)
+  public static final BaselineCorrector baselineCorrectors[] = {
+      // Java, as R "ptw" - http://cran.r-project.org/web/packages/ptw/ptw.pdf
+      new AsymmetryCorrector(),
+      // Java, as R "baseline" - http://cran.r-project.org/web/packages/baseline/baseline.pdf
+      new RollingBallCorrector(),
+      // Package R "baseline" - http://cran.r-project.org/web/packages/baseline/baseline.pdf
+      new PeakDetectionCorrector(),
+      // Java, as R "hyperSpec" -
+      // http://cran.r-project.org/web/packages/hyperSpec/vignettes/baseline.pdf
+      new RubberBandCorrector(),
+      // Package R/Bioc. "PROcess" -
+      // http://bioconductor.org/packages/release/bioc/manuals/PROcess/man/PROcess.pdf
+      new LocMinLoessCorrector()
   };
 
   public static final ModuleComboParameter<BaselineCorrector> BASELINE_CORRECTORS =
@@ -130,7 +131,9 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
    * R engine type.
    */
   public static final ComboParameter<REngineType> RENGINE_TYPE = new ComboParameter<REngineType>(
-      "R engine", "The R engine to be used for communicating with R.", REngineType.values(),
+      "R engine",
+      "The R engine to be used for communicating with R (PeakDetection and Local Minima + LOESS correctors).",
+      REngineType.values(),
       REngineType.RCALLER);
 
   /**
@@ -20,7 +20,9 @@ package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -106,7 +108,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
       final RawDataFile dataFile, final ParameterSet parameters,
       final ParameterSet commonParameters) throws IOException, RSessionWrapperException {
 
-    if (isAborted(dataFile) || !rSession.isSessionRunning())
+    if (isAborted(dataFile) || (rSession != null && !rSession.isSessionRunning()))
       return null;
     // Get very last information from root module setup
     // this.setGeneralParameters(MZmineCore.getConfiguration().getModuleParameters(BaselineCorrectionModule.class));
@@ -255,11 +257,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     LOG.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-      baseChrom[binIndex] =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(rSession, origDataFile, baseChrom, false, parameters);
 
     // Subtract baselines.
     LOG.finest("Subtracting baselines.");
@@ -307,22 +305,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     LOG.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-
-      // Calculate baseline.
-      // final double[] baseline = asymBaseline(baseChrom[binIndex]);
-      final double[] baseline =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-
-      // Normalize the baseline w.r.t. chromatogram (TIC).
-      for (int scanIndex = 0; !isAborted(origDataFile) && scanIndex < numScans; scanIndex++) {
-        final double bc = baseChrom[binIndex][scanIndex];
-        if (bc != 0.0) {
-          baseChrom[binIndex][scanIndex] = baseline[scanIndex] / bc;
-        }
-      }
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(rSession, origDataFile, baseChrom, true, parameters);
 
     // Subtract baselines.
     LOG.finest("Subtracting baselines.");
@@ -344,6 +327,71 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
 
   }
 
+  /**
+   * Calculates the baselines of all m/z bins, in place. Correctors which do not require R process
+   * the bins in parallel, using the number of threads set in the preferences.
+   * 
+   * @param origDataFile dataFile of concern.
+   * @param chromatograms the chromatograms, replaced by the baselines.
+   * @param normalize normalize the baselines w.r.t. the chromatograms (TIC).
+   * @param parameters parameters specific to the actual method for baseline computing.
+   * @throws RSessionWrapperException
+   */
+  private void computeBaselines(final RSessionWrapper rSession, final RawDataFile origDataFile,
+      final double[][] chromatograms, final boolean normalize, final ParameterSet parameters)
+      throws RSessionWrapperException {
+
+    if (getRequiresR()) {
+      for (int binIndex = 0; !isAborted(origDataFile) && binIndex < chromatograms.length;
+          binIndex++) {
+        computeBinBaseline(rSession, origDataFile, chromatograms, binIndex, normalize, parameters);
+      }
+      return;
+    }
+
+    final ForkJoinPool pool =
+        new ForkJoinPool(MZmineCore.getConfiguration().getPreferences().getNumOfThreads());
+    try {
+      pool.submit(() -> IntStream.range(0, chromatograms.length).parallel().forEach(binIndex -> {
+        if (isAborted(origDataFile))
+          return;
+        try {
+          computeBinBaseline(null, origDataFile, chromatograms, binIndex, normalize, parameters);
+        } catch (RSessionWrapperException e) {
+          // Not thrown without R session
+          throw new IllegalStateException(e);
+        }
+      })).join();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private void computeBinBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
+      final double[][] chromatograms, final int binIndex, final boolean normalize,
+      final ParameterSet parameters) throws RSessionWrapperException {
+
+    final double[] chromatogram = chromatograms[binIndex];
+    final double[] baseline = computeBaseline(rSession, origDataFile, chromatogram, parameters);
+
+    if (normalize) {
+      // Normalize the baseline w.r.t. chromatogram (TIC).
+      for (int scanIndex = 0; scanIndex < chromatogram.length; scanIndex++) {
+        final double bc = chromatogram[scanIndex];
+        if (bc != 0.0) {
+          chromatogram[scanIndex] = baseline[scanIndex] / bc;
+        }
+      }
+    } else {
+      chromatograms[binIndex] = baseline;
+    }
+
+    final int[] progress = progressMap.get(origDataFile);
+    synchronized (progress) {
+      progress[0]++;
+    }
+  }
+
   /**
    * Constructs base peak (max) chromatograms - one for each m/z bin.
    * 
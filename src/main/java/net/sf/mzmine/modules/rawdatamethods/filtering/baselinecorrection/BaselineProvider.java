@@ -29,13 +29,19 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  */
 public interface BaselineProvider {
 
+  /**
+   * Gets if the corrector's method requires R
+   */
+  public boolean getRequiresR();
+
   /**
    * Gets R required packages for the corrector's method, if applicable
    */
   public String[] getRequiredRPackages();
 
   /**
-   * Returns a baseline for correcting the given chromatogram using R
+   * Returns a baseline for correcting the given chromatogram. rSession is null if the corrector
+   * does not require R.
    * 
    * @throws RSessionWrapperException
    */
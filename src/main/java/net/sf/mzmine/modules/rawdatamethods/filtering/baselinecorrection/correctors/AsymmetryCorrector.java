@@ -18,30 +18,41 @@
 
 package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.BaselineCorrector;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.util.R.RSessionWrapper;
-import net.sf.mzmine.util.R.RSessionWrapperException;
 
 /**
- * @description Asymmetric baseline corrector. Estimates a trend based on asymmetric least squares.
- *              Uses "asysm" feature from "ptw" R-package
+ * @description Asymmetric baseline corrector. Estimates a trend based on asymmetric least squares
+ *              (Whittaker smoother with second order differences and asymmetric weights), as the
+ *              "asysm" feature from "ptw" R-package
  *              (http://cran.r-project.org/web/packages/ptw/ptw.pdf).
  * 
  */
 public class AsymmetryCorrector extends BaselineCorrector {
 
+  // Convergence criteria of asysm.
+  private static final double EPS = 1e-8;
+  private static final int MAX_ITERATIONS = 25;
+
+  @Override
+  public boolean getRequiresR() {
+    return false;
+  }
+
   @Override
   public String[] getRequiredRPackages() {
-    return new String[] { /* "rJava", "Rserve", */"ptw"};
+    return null;
   }
 
   @Override
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
-      double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException {
+      double[] chromatogram, ParameterSet parameters) {
 
     // Smoothing and asymmetry parameters.
     final double smoothing =
@@ -49,31 +60,86 @@ public class AsymmetryCorrector extends BaselineCorrector {
     final double asymmetry =
         parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).getValue();
 
-    // Compute baseline.
-    final double[] baseline;
-
-    // try {
-    // Set chromatogram.
-    // rSession.assignDoubleArray("chromatogram", chromatogram);
-    rSession.assign("chromatogram", chromatogram);
-    // Calculate baseline.
-    rSession.eval("baseline <- asysm(chromatogram," + smoothing + ',' + asymmetry + ')');
-    // baseline = rSession.collectDoubleArray("baseline");
-    baseline = (double[]) rSession.collect("baseline");
-    // Done: Refresh R code stack
-    rSession.clearCode();
-
-    // }
-    // catch (Throwable t) {
-    // //t.printStackTrace();
-    // throw new
-    // IllegalStateException("R error during baseline correction (" +
-    // this.getName() + ").", t);
-    // }
+    final int n = chromatogram.length;
+    double[] baseline = new double[n];
+    final double[] weights = new double[n];
+    Arrays.fill(weights, 1.0);
+
+    for (int it = 0; it < MAX_ITERATIONS; it++) {
+
+      final double[] previous = baseline;
+      baseline = whittakerSmooth(chromatogram, weights, smoothing);
+
+      // Points above the trend get a small weight.
+      double change = 0.0;
+      for (int i = 0; i < n; i++) {
+        weights[i] = chromatogram[i] > baseline[i] ? asymmetry : 1.0 - asymmetry;
+        change = Math.max(change, Math.abs(baseline[i] - previous[i]));
+      }
+      if (change < EPS)
+        break;
+    }
 
     return baseline;
   }
 
+  /**
+   * Solves (W + lambda D'D) z = W y, D being the second order difference matrix. The system is
+   * pentadiagonal, so it is solved by a banded Cholesky decomposition in linear time.
+   */
+  static double[] whittakerSmooth(final double[] y, final double[] w, final double lambda) {
+
+    final int n = y.length;
+
+    // Diagonal and the two sub-diagonals of W + lambda D'D.
+    final double[] a0 = new double[n], a1 = new double[n], a2 = new double[n];
+    for (int i = 0; i < n; i++)
+      a0[i] = w[i];
+    for (int r = 0; r + 2 < n; r++) {
+      a0[r] += lambda;
+      a0[r + 1] += 4.0 * lambda;
+      a0[r + 2] += lambda;
+      a1[r + 1] -= 2.0 * lambda;
+      a1[r + 2] -= 2.0 * lambda;
+      a2[r + 2] += lambda;
+    }
+
+    // Cholesky factor L (diagonal l0, sub-diagonals l1 and l2).
+    final double[] l0 = new double[n], l1 = new double[n], l2 = new double[n];
+    for (int i = 0; i < n; i++) {
+      if (i >= 2)
+        l2[i] = a2[i] / l0[i - 2];
+      if (i >= 1)
+        l1[i] = (a1[i] - (i >= 2 ? l2[i] * l1[i - 1] : 0.0)) / l0[i - 1];
+      final double pivot = a0[i] - l1[i] * l1[i] - l2[i] * l2[i];
+      if (!(pivot > 0.0)) {
+        throw new IllegalArgumentException(
+            "Cannot compute the asymmetric baseline, check the smoothing and asymmetry values.");
+      }
+      l0[i] = Math.sqrt(pivot);
+    }
+
+    // Forward and back substitution.
+    final double[] z = new double[n];
+    for (int i = 0; i < n; i++) {
+      double v = w[i] * y[i];
+      if (i >= 1)
+        v -= l1[i] * z[i - 1];
+      if (i >= 2)
+        v -= l2[i] * z[i - 2];
+      z[i] = v / l0[i];
+    }
+    for (int i = n - 1; i >= 0; i--) {
+      double v = z[i];
+      if (i + 1 < n)
+        v -= l1[i + 1] * z[i + 1];
+      if (i + 2 < n)
+        v -= l2[i + 2] * z[i + 2];
+      z[i] = v / l0[i];
+    }
+    return z;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Asymmetric baseline corrector";
@@ -36,6 +36,11 @@ public class LocMinLoessCorrector extends BaselineCorrector {
 
   private static final double BW_MIN_VAL = 0.001d;
 
+  @Override
+  public boolean getRequiresR() {
+    return true;
+  }
+
   @Override
   public String[] getRequiredRPackages() {
     return new String[] { /* "rJava", "Rserve", */"PROcess"};
@@ -37,6 +37,11 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  */
 public class PeakDetectionCorrector extends BaselineCorrector {
 
+  @Override
+  public boolean getRequiresR() {
+    return true;
+  }
+
   @Override
   public String[] getRequiredRPackages() {
     return new String[] { /* "rJava", "Rserve", */"baseline"};
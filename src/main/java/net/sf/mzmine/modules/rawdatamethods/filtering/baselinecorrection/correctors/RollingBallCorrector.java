@@ -24,11 +24,11 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.BaselineCorrector;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.util.R.RSessionWrapper;
-import net.sf.mzmine.util.R.RSessionWrapperException;
 
 /**
- * @description Rolling Ball baseline corrector. Estimates a trend based on Rolling Ball algorithm.
- *              Uses "rollingBall" feature from "baseline" R-package
+ * @description Rolling Ball baseline corrector. Estimates a trend based on Rolling Ball algorithm:
+ *              local minimization and maximization (window wm) followed by a moving average
+ *              (window ws), as the "rollingBall" feature from "baseline" R-package
  *              (http://cran.r-project.org/web/packages/baseline/baseline.pdf). (Ideas from Rolling
  *              Ball algorithm for X-ray spectra by M.A.Kneen and H.J. Annegarn. Variable window
  *              width has been left out).
@@ -36,51 +36,79 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  */
 public class RollingBallCorrector extends BaselineCorrector {
 
+  @Override
+  public boolean getRequiresR() {
+    return false;
+  }
+
   @Override
   public String[] getRequiredRPackages() {
-    return new String[] { /* "rJava", "Rserve", */"baseline"};
+    return null;
   }
 
   @Override
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
-      double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException {
+      double[] chromatogram, ParameterSet parameters) {
 
     // Rolling Ball parameters.
-    double wm = parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).getValue();
-    double ws = parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).getValue();
-
-    final double[] baseline;
-
-
-    // Set chromatogram.
-    rSession.assign("chromatogram", chromatogram);
-
-    // Transform chromatogram.
-    rSession.eval("mat <- matrix(chromatogram, nrow=1)");
-
-    // Calculate baseline.
-    rSession.eval("bl <- NULL");
-    // This method can fail for some bins when "useBins" is enabled, or more
-    // generally speaking for
-    // abusive parameter set
-    String cmd =
-        "tryCatch({" + "bl <- baseline(mat, wm=" + wm + ", ws=" + ws + ", method='rollingBall')"
-            + "}, warning = function(war) {" + "message(\"<R warning>: \", war);"
-            + "}, error = function(err) {" + "message(\"<R error>: \", err);" + "}, finally = {" +
-            // "" +
-            "})";
-    rSession.eval(cmd);
-    // Return a flat baseline (passing by the lowest intensity scan -
-    // "min(chromatogram)") in case of failure
-    // Anyway, this usually happens when "chromatogram" is fully flat and
-    // zeroed.
-    rSession.eval(
-        "if (!is.null(bl)) { baseline <- getBaseline(bl); } else { baseline <- matrix(rep(min(chromatogram), length(chromatogram)), nrow=1); }");
-    baseline = ((double[][]) rSession.collect("baseline"))[0];
-    // Done: Refresh R code stack
-    rSession.clearCode();
-
-    return baseline;
+    int wm = parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).getValue();
+    int ws = parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).getValue();
+
+    // Minimize, then maximize the minima: the ball rolling below the chromatogram.
+    final double[] minima = movingExtreme(chromatogram, wm, false);
+    final double[] maxima = movingExtreme(minima, wm, true);
+
+    // Smooth.
+    return movingAverage(maxima, ws);
+  }
+
+  /**
+   * Minimum (or maximum) of the values within +/- width of each position. The windows are
+   * truncated at both ends of the chromatogram.
+   */
+  static double[] movingExtreme(final double[] values, final int width, final boolean max) {
+
+    final int n = values.length;
+    final double[] result = new double[n];
+
+    // Monotonic queue of indexes, the extreme of the current window first.
+    final int[] queue = new int[n];
+    int head = 0, tail = 0;
+    int next = 0;
+    for (int i = 0; i < n; i++) {
+      final int last = Math.min(n - 1, i + width);
+      for (; next <= last; next++) {
+        while (tail > head && (max ? values[queue[tail - 1]] <= values[next]
+            : values[queue[tail - 1]] >= values[next]))
+          tail--;
+        queue[tail++] = next;
+      }
+      while (queue[head] < i - width)
+        head++;
+      result[i] = values[queue[head]];
+    }
+    return result;
+  }
+
+  /**
+   * Mean of the values within +/- width of each position. The windows are truncated at both ends
+   * of the chromatogram.
+   */
+  static double[] movingAverage(final double[] values, final int width) {
+
+    final int n = values.length;
+    final double[] result = new double[n];
+
+    double sum = 0.0;
+    int from = 0, to = 0;
+    for (int i = 0; i < n; i++) {
+      for (; to <= Math.min(n - 1, i + width); to++)
+        sum += values[to];
+      for (; from < i - width; from++)
+        sum -= values[from];
+      result[i] = sum / (to - from);
+    }
+    return result;
   }
 
   @Override
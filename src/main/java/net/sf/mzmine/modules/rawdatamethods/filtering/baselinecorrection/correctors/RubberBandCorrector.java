@@ -24,61 +24,133 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.BaselineCorrector;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.util.R.RSessionWrapper;
-import net.sf.mzmine.util.R.RSessionWrapperException;
 
 /**
  * @description Rubber Band baseline corrector. Estimates a trend based on Rubber Band algorithm
- *              (which determines a convex envelope for the spectra - underneath side). Uses
+ *              (which determines a convex envelope for the spectra - underneath side), as the
  *              "spc.rubberband" feature from "hyperSpec" R-package
- *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf).
+ *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf). The
+ *              support points of the envelope are joined by a natural cubic spline or by lines.
  * 
  */
 public class RubberBandCorrector extends BaselineCorrector {
 
+  @Override
+  public boolean getRequiresR() {
+    return false;
+  }
+
   @Override
   public String[] getRequiredRPackages() {
-    return new String[] { /* "rJava", "Rserve", */"hyperSpec"};
+    return null;
   }
 
   @Override
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
-      double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException {
+      double[] chromatogram, ParameterSet parameters) {
 
     // Rubber Band parameters.
     double noise = parameters.getParameter(RubberBandCorrectorParameters.NOISE).getValue();
     boolean autoNoise =
         parameters.getParameter(RubberBandCorrectorParameters.AUTO_NOISE).getValue();
-    double df = parameters.getParameter(RubberBandCorrectorParameters.DF).getValue();
     boolean spline = parameters.getParameter(RubberBandCorrectorParameters.SPLINE).getValue();
     double bend = parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).getValue();
 
-    final double[] baseline;
+    final int n = chromatogram.length;
+    if (n == 0)
+      return new double[0];
 
-    // Set chromatogram.
-    rSession.assign("chromatogram", chromatogram);
-    // Transform chromatogram.
-    rSession.eval("mat <- matrix(chromatogram, nrow=1)");
-    rSession.eval("spc <- new (\"hyperSpec\", spc = mat, wavelength = as.numeric(seq(" + 1 + ", "
-        + chromatogram.length + ")))");
     // Auto noise ?
-    rSession.eval("noise <- " + ((autoNoise) ? "min(mat)" : "" + noise));
-    // Bend
-    rSession.eval("bend <- " + bend + " * wl.eval(spc, function(x) x^2, normalize.wl=normalize01)");
-    // Calculate baseline.
-    rSession.eval("baseline <- spc.rubberband(spc + bend, noise = noise, df = " + df + ", spline="
-        + (spline ? "T" : "F") + ") - bend");
-    // 'NA' might appear in 'baseline' array when 'spline' parameter set to 'FALSE',
-    // So handle them properly if necessary...
-    rSession.eval(
-        "if (is.na(baseline)) { baseline[is.na(baseline)] <- " + RSessionWrapper.NA_DOUBLE + " }");
-    rSession.eval("baseline <- orderwl(baseline)[[1]]");
-    baseline = ((double[][]) rSession.collect("baseline"))[0];
-    // Done: Refresh R code stack
-    rSession.clearCode();
+    if (autoNoise) {
+      noise = Double.POSITIVE_INFINITY;
+      for (final double value : chromatogram)
+        noise = Math.min(noise, value);
+    }
+
+    // Bend: bend * x^2, x being the scan index normalized to [0, 1].
+    final double[] bent = new double[n];
+    final double[] bendValues = new double[n];
+    for (int i = 0; i < n; i++) {
+      final double x = n > 1 ? (double) i / (n - 1) : 0.0;
+      bendValues[i] = bend * x * x;
+      bent[i] = chromatogram[i] + bendValues[i];
+    }
+
+    // Support points: lower convex hull (monotone chain).
+    final int[] hull = new int[n];
+    int size = 0;
+    for (int i = 0; i < n; i++) {
+      while (size >= 2 && cross(hull[size - 2], hull[size - 1], i, bent) <= 0.0)
+        size--;
+      hull[size++] = i;
+    }
+
+    final double[] baseline =
+        spline && size >= 3 ? naturalSpline(hull, size, bent) : linear(hull, size, bent);
+    for (int i = 0; i < n; i++)
+      baseline[i] += noise - bendValues[i];
 
     return baseline;
   }
 
+  /**
+   * Cross product of (a, b) and (a, c), positive if c is left of the line from a to b
+   */
+  private static double cross(final int a, final int b, final int c, final double[] y) {
+    return (double) (b - a) * (y[c] - y[a]) - (y[b] - y[a]) * (c - a);
+  }
+
+  /**
+   * Piecewise linear interpolation between the support points
+   */
+  private static double[] linear(final int[] points, final int size, final double[] y) {
+    final double[] result = new double[y.length];
+    if (size == 1) {
+      result[0] = y[points[0]];
+      return result;
+    }
+    for (int k = 0; k + 1 < size; k++) {
+      final int x0 = points[k], x1 = points[k + 1];
+      for (int i = x0; i <= x1; i++)
+        result[i] = y[x0] + (y[x1] - y[x0]) * (i - x0) / (x1 - x0);
+    }
+    return result;
+  }
+
+  /**
+   * Natural cubic spline interpolation through the support points
+   */
+  private static double[] naturalSpline(final int[] points, final int size, final double[] y) {
+
+    // Second derivatives at the support points (tridiagonal system, Thomas algorithm).
+    final double[] m = new double[size];
+    final double[] c = new double[size];
+    final double[] d = new double[size];
+    for (int k = 1; k < size - 1; k++) {
+      final double h0 = points[k] - points[k - 1];
+      final double h1 = points[k + 1] - points[k];
+      final double rhs =
+          6.0 * ((y[points[k + 1]] - y[points[k]]) / h1 - (y[points[k]] - y[points[k - 1]]) / h0);
+      final double diag = 2.0 * (h0 + h1) - (k > 1 ? h0 * c[k - 1] : 0.0);
+      c[k] = h1 / diag;
+      d[k] = (rhs - (k > 1 ? h0 * d[k - 1] : 0.0)) / diag;
+    }
+    for (int k = size - 2; k >= 1; k--)
+      m[k] = d[k] - c[k] * m[k + 1];
+
+    final double[] result = new double[y.length];
+    for (int k = 0; k + 1 < size; k++) {
+      final int x0 = points[k], x1 = points[k + 1];
+      final double h = x1 - x0;
+      for (int i = x0; i <= x1; i++) {
+        final double a = (x1 - i) / h, b = (i - x0) / h;
+        result[i] = a * y[x0] + b * y[x1]
+            + ((a * a * a - a) * m[k] + (b * b * b - b) * m[k + 1]) * h * h / 6.0;
+      }
+    }
+    return result;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RubberBand baseline corrector";
@@ -42,8 +42,13 @@ public class CropFilterParameters extends SimpleParameterSet {
       new BooleanParameter("Remove source file after filtering",
           "If checked, original file will be removed and only filtered version remains");
 
+  public static final BooleanParameter parallel = new BooleanParameter("Parallel",
+      "Crop the scans on all processor cores, the cropped "
+          + "scans are written in the original order",
+      true);
+
   public CropFilterParameters() {
-    super(new Parameter[] {dataFiles, scanSelection, mzRange, suffix, autoRemove});
+    super(new Parameter[] {dataFiles, scanSelection, mzRange, suffix, autoRemove, parallel});
   }
 
 }
@@ -33,6 +33,7 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.scans.OrderedScanWriter;
 
 public class CropFilterTask extends AbstractTask {
 
@@ -48,6 +49,7 @@ public class CropFilterTask extends AbstractTask {
   private Range<Double> mzRange;
   private String suffix;
   private boolean removeOriginal;
+  private boolean parallel;
 
   CropFilterTask(MZmineProject project, RawDataFile dataFile, ParameterSet parameters) {
     this.project = project;
@@ -57,6 +59,7 @@ public class CropFilterTask extends AbstractTask {
     this.mzRange = parameters.getParameter(CropFilterParameters.mzRange).getValue();
     this.suffix = parameters.getParameter(CropFilterParameters.suffix).getValue();
     this.removeOriginal = parameters.getParameter(CropFilterParameters.autoRemove).getValue();
+    this.parallel = parameters.getParameter(CropFilterParameters.parallel).getValue();
   }
 
   /**
@@ -84,19 +87,28 @@ public class CropFilterTask extends AbstractTask {
       RawDataFileWriter rawDataFileWriter =
           MZmineCore.createNewFile(dataFile.getName() + " " + suffix);
 
-      for (Scan scan : scans) {
-
-        SimpleScan scanCopy = new SimpleScan(scan);
-
-        // Check if we have something to crop
-        if (!mzRange.encloses(scan.getDataPointMZRange())) {
-          DataPoint croppedDataPoints[] = scan.getDataPointsByMass(mzRange);
-          scanCopy.setDataPoints(croppedDataPoints);
+      if (parallel) {
+        // crop on worker threads, write in the original order
+        try (OrderedScanWriter writer =
+            new OrderedScanWriter(rawDataFileWriter, "Crop filter thread")) {
+          for (Scan scan : scans) {
+            if (isCanceled())
+              return;
+            writer.submit(() -> cropScan(scan));
+            processedScans = writer.getNumberOfFinishedScans();
+          }
+          writer.finish();
+          processedScans = writer.getNumberOfFinishedScans();
         }
+        if (isCanceled())
+          return;
+      } else {
+        for (Scan scan : scans) {
 
-        rawDataFileWriter.addScan(scanCopy);
+          rawDataFileWriter.addScan(cropScan(scan));
 
-        processedScans++;
+          processedScans++;
+        }
       }
 
       RawDataFile filteredRawDataFile = rawDataFileWriter.finishWriting();
@@ -116,6 +128,18 @@ public class CropFilterTask extends AbstractTask {
     }
   }
 
+  private Scan cropScan(Scan scan) {
+    SimpleScan scanCopy = new SimpleScan(scan);
+
+    // Check if we have something to crop
+    if (!mzRange.encloses(scan.getDataPointMZRange())) {
+      DataPoint croppedDataPoints[] = scan.getDataPointsByMass(mzRange);
+      scanCopy.setDataPoints(croppedDataPoints);
+    }
+
+    return scanCopy;
+  }
+
   @Override
   public double getFinishedPercentage() {
     if (totalScans == 0)
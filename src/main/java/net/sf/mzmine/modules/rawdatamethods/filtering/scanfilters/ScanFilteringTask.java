@@ -30,6 +30,7 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.scans.OrderedScanWriter;
 
 class ScanFilteringTask extends AbstractTask {
 
@@ -51,6 +52,8 @@ class ScanFilteringTask extends AbstractTask {
 
   private ScanSelection select;
 
+  // filter the scans on several threads
+  private boolean parallel;
 
   /**
    * @param dataFile
@@ -65,6 +68,7 @@ class ScanFilteringTask extends AbstractTask {
 
     suffix = parameters.getParameter(ScanFiltersParameters.suffix).getValue();
     select = parameters.getParameter(ScanFiltersParameters.scanSelect).getValue();
+    parallel = parameters.getParameter(ScanFiltersParameters.parallel).getValue();
 
   }
 
@@ -112,25 +116,25 @@ class ScanFilteringTask extends AbstractTask {
       String newName = dataFile.getName() + " " + suffix;
       RawDataFileWriter rawDataFileWriter = MZmineCore.createNewFile(newName);
 
-      for (int i = 0; i < totalScans; i++) {
-
-        if (isCanceled()) {
+      if (parallel) {
+        if (!filterScansParallel(rawDataFileWriter)) {
           return;
         }
+      } else {
+        for (int i = 0; i < totalScans; i++) {
 
+          if (isCanceled()) {
+            return;
+          }
 
-        Scan scan = dataFile.getScan(scanNumbers[i]);
-        Scan newScan = null;
-        if (select.matches(scan))
-          newScan = rawDataFilter.getModule().filterScan(scan, rawDataFilter.getParameterSet());
-        else
-          newScan = scan;
+          Scan newScan = filterScan(dataFile.getScan(scanNumbers[i]));
 
-        if (newScan != null) {
-          rawDataFileWriter.addScan(newScan);
-        }
+          if (newScan != null) {
+            rawDataFileWriter.addScan(newScan);
+          }
 
-        processedScans++;
+          processedScans++;
+        }
       }
 
       // Finalize writing
@@ -149,7 +153,7 @@ class ScanFilteringTask extends AbstractTask {
       setStatus(TaskStatus.FINISHED);
       logger.info("Finished scan filter on " + dataFile);
 
-    } catch (IOException e) {
+    } catch (IOException | InterruptedException e) {
       setStatus(TaskStatus.ERROR);
       setErrorMessage(e.toString());
       return;
@@ -157,4 +161,37 @@ class ScanFilteringTask extends AbstractTask {
 
   }
 
+  /**
+   * Filters the scans on several threads, the filtered scans are written in the original order
+   *
+   * @return false if the task was canceled
+   */
+  private boolean filterScansParallel(RawDataFileWriter rawDataFileWriter)
+      throws IOException, InterruptedException {
+    try (OrderedScanWriter writer =
+        new OrderedScanWriter(rawDataFileWriter, "Scan filtering thread")) {
+      for (int i = 0; i < totalScans; i++) {
+        if (isCanceled()) {
+          return false;
+        }
+        final int scanNumber = scanNumbers[i];
+        writer.submit(() -> filterScan(dataFile.getScan(scanNumber)));
+        processedScans = writer.getNumberOfFinishedScans();
+      }
+      writer.finish();
+      processedScans = writer.getNumberOfFinishedScans();
+    }
+    return !isCanceled();
+  }
+
+  /**
+   * @return filtered scan, the scan itself if it does not match the scan selection, or null
+   */
+  private Scan filterScan(Scan scan) {
+    if (select.matches(scan))
+      return rawDataFilter.getModule().filterScan(scan, rawDataFilter.getParameterSet());
+    else
+      return scan;
+  }
+
 }
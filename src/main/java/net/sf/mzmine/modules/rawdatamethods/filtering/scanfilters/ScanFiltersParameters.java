@@ -51,8 +51,13 @@ public class ScanFiltersParameters extends SimpleParameterSet {
       new BooleanParameter("Remove source file after filtering",
           "If checked, original file will be removed and only filtered version remains");
 
+  public static final BooleanParameter parallel = new BooleanParameter("Parallel",
+      "Filter the scans on all processor cores, the filtered "
+          + "scans are written in the original order",
+      true);
+
   public ScanFiltersParameters() {
-    super(new Parameter[] {dataFiles, scanSelect, suffix, filter, autoRemove});
+    super(new Parameter[] {dataFiles, scanSelect, suffix, filter, autoRemove, parallel});
   }
 
 }
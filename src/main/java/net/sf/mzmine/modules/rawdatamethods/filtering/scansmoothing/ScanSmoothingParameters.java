@@ -57,9 +57,14 @@ public class ScanSmoothingParameters extends SimpleParameterSet {
   public static final StringParameter suffix =
       new StringParameter("Suffix", "This string is added to filename as suffix", "smooth");
 
+  public static final BooleanParameter parallel = new BooleanParameter("Parallel",
+      "Smooth the scans on all processor cores, the smoothed "
+          + "scans are written in the original order",
+      true);
+
   public ScanSmoothingParameters() {
     super(new Parameter[] {dataFiles, suffix, timeSpan, scanSpan, mzTolerance, mzPoints,
-        minimumHeight, removeOld});
+        minimumHeight, removeOld, parallel});
   }
 
 }
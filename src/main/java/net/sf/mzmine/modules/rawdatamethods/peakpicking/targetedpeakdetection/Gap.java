@@ -59,27 +59,52 @@ class Gap {
     this.noiseLevel = noiseLevel;
   }
 
+  /**
+   * Offers the scan to this target. The most intense data point in the m/z range of the target
+   * continues the peak under construction.
+   */
   void offerNextScan(Scan scan) {
 
     double scanRT = scan.getRetentionTime();
 
+    // If not yet inside the RT range, or the last peak ended after the RT range
+    if (scanRT < rtRange.lowerEndpoint() || isComplete(scanRT)) {
+      return;
+    }
+
+    // Find top m/z peak in our range
+    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+
+    if (basePeak != null) {
+      offerBasePeak(scan, basePeak.getMZ(), basePeak.getIntensity());
+    } else {
+      offerBasePeak(scan, Double.NaN, 0);
+    }
+
+  }
+
+  /**
+   * Offers the most intense data point of the scan in the m/z range of this target. The
+   * high-throughput mode finds these data points for all active targets in one pass over the scan.
+   * mz is NaN if the scan has no data point in the range.
+   */
+  void offerBasePeak(Scan scan, double mz, double intensity) {
+
+    double scanRT = scan.getRetentionTime();
+
     // If not yet inside the RT range
     if (scanRT < rtRange.lowerEndpoint()) {
       return;
     }
 
     // If we have passed the RT range and finished processing last peak
-    if ((scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null)) {
+    if (isComplete(scanRT)) {
       return;
     }
 
-    // Find top m/z peak in our range
-    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
-
     GapDataPoint currentDataPoint;
-    if (basePeak != null) {
-      currentDataPoint =
-          new GapDataPoint(scan.getScanNumber(), basePeak.getMZ(), scanRT, basePeak.getIntensity());
+    if (!Double.isNaN(mz)) {
+      currentDataPoint = new GapDataPoint(scan.getScanNumber(), mz, scanRT, intensity);
     } else {
       final double mzCenter = (mzRange.lowerEndpoint() + mzRange.upperEndpoint()) / 2.0;
       currentDataPoint = new GapDataPoint(scan.getScanNumber(), mzCenter, scanRT, 0);
@@ -110,6 +135,22 @@ class Gap {
 
   }
 
+  /**
+   * @return true if the RT range of this target has passed and its last peak has ended, so the
+   *         high-throughput mode can stop offering scans to it
+   */
+  boolean isComplete(double scanRT) {
+    return (scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null);
+  }
+
+  Range<Double> getMZRange() {
+    return mzRange;
+  }
+
+  Range<Double> getRTRange() {
+    return rtRange;
+  }
+
   public void noMoreOffers() {
 
     // Check peak that was last constructed
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.rawdatamethods.peakpicking.targetedpeakdetection;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import com.Ostermiller.util.CSVParser;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+/**
+ * Targets of a feature list file, parsed once and shared by the tasks of all raw data files. The
+ * targets are kept in file order (row order of the resulting feature lists) and, as primitive
+ * arrays, in m/z order. The last loaded database is reused as long as the file and the parsing
+ * settings do not change.
+ */
+class TargetDatabase {
+
+  private static final Logger logger = Logger.getLogger(TargetDatabase.class.getName());
+
+  private static TargetDatabase lastDatabase;
+
+  private final File file;
+  private final long fileLength, fileLastModified;
+  private final String fieldSeparator;
+  private final boolean ignoreFirstLine;
+
+  private final List<PeakInformation> targets;
+
+  // m/z order: m/z and RT of the targets and their index in file order
+  private final double mzValues[], rtValues[];
+  private final int fileIndexes[];
+
+  private TargetDatabase(File file, String fieldSeparator, boolean ignoreFirstLine)
+      throws IOException {
+    this.file = file.getAbsoluteFile();
+    this.fileLength = file.length();
+    this.fileLastModified = file.lastModified();
+    this.fieldSeparator = fieldSeparator;
+    this.ignoreFirstLine = ignoreFirstLine;
+
+    String[][] peakListValues;
+    try (FileReader dbFileReader = new FileReader(file)) {
+      peakListValues = CSVParser.parse(dbFileReader, fieldSeparator.charAt(0));
+    }
+
+    targets = new ArrayList<>(peakListValues.length);
+    for (int line = ignoreFirstLine ? 1 : 0; line < peakListValues.length; line++) {
+      try {
+        // Removing the FEFF character is important in case the CSV file contains byte-order-mark
+        String mzString = peakListValues[line][0].replace("\uFEFF", "").trim();
+        String rtString = peakListValues[line][1].replace("\uFEFF", "").trim();
+        double mz = Double.parseDouble(mzString);
+        double rt = Double.parseDouble(rtString);
+        String name = peakListValues[line][2].trim();
+        targets.add(new PeakInformation(mz, rt, name));
+      } catch (Exception e) {
+        // ignore incorrect lines
+        logger.log(Level.FINE, "Ignoring line " + (line + 1) + " of " + file, e);
+      }
+    }
+
+    final int size = targets.size();
+    fileIndexes = IntStream.range(0, size).toArray();
+    IntArrays.quickSort(fileIndexes,
+        (a, b) -> Double.compare(targets.get(a).getMZ(), targets.get(b).getMZ()));
+    mzValues = new double[size];
+    rtValues = new double[size];
+    for (int i = 0; i < size; i++) {
+      mzValues[i] = targets.get(fileIndexes[i]).getMZ();
+      rtValues[i] = targets.get(fileIndexes[i]).getRT();
+    }
+  }
+
+  /**
+   * Returns the parsed targets of the file, reading the file only if it was not loaded with the same
+   * settings before or has changed since
+   */
+  static synchronized TargetDatabase load(File file, String fieldSeparator,
+      boolean ignoreFirstLine) throws IOException {
+    if (lastDatabase == null || !lastDatabase.matches(file, fieldSeparator, ignoreFirstLine)) {
+      lastDatabase = null;
+      lastDatabase = new TargetDatabase(file, fieldSeparator, ignoreFirstLine);
+      logger.info("Loaded " + lastDatabase.size() + " targets from " + file);
+    }
+    return lastDatabase;
+  }
+
+  private boolean matches(File file, String fieldSeparator, boolean ignoreFirstLine) {
+    return this.file.equals(file.getAbsoluteFile()) && fileLength == file.length()
+        && fileLastModified == file.lastModified() && this.fieldSeparator.equals(fieldSeparator)
+        && this.ignoreFirstLine == ignoreFirstLine;
+  }
+
+  int size() {
+    return targets.size();
+  }
+
+  /**
+   * @return targets in file order
+   */
+  List<PeakInformation> getTargets() {
+    return targets;
+  }
+
+  /**
+   * @return m/z of the target at the given position in m/z order
+   */
+  double getMZ(int mzIndex) {
+    return mzValues[mzIndex];
+  }
+
+  /**
+   * @return RT of the target at the given position in m/z order
+   */
+  double getRT(int mzIndex) {
+    return rtValues[mzIndex];
+  }
+
+  /**
+   * @return file order index of the target at the given position in m/z order
+   */
+  int getFileIndex(int mzIndex) {
+    return fileIndexes[mzIndex];
+  }
+
+}
@@ -19,10 +19,13 @@ package net.sf.mzmine.modules.rawdatamethods.peakpicking.targetedpeakdetection;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
@@ -44,6 +47,8 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
 import com.Ostermiller.util.CSVParser;
 import com.google.common.collect.Range;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
 class TargetedPeakDetectionModuleTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
@@ -64,6 +69,7 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
   private int finishedLines = 0;
   private int ID = 1;
   private double noiseLevel;
+  private boolean highThroughput;
 
   TargetedPeakDetectionModuleTask(MZmineProject project, ParameterSet parameters,
       RawDataFile dataFile) {
@@ -83,6 +89,8 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
     mzTolerance = parameters.getParameter(TargetedPeakDetectionParameters.MZTolerance).getValue();
     rtTolerance = parameters.getParameter(TargetedPeakDetectionParameters.RTTolerance).getValue();
     noiseLevel = parameters.getParameter(CentroidMassDetectorParameters.noiseLevel).getValue();
+    highThroughput =
+        parameters.getParameter(TargetedPeakDetectionParameters.highThroughput).getValue();
 
     this.dataFile = dataFile;
   }
@@ -97,7 +105,22 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
     // Create new feature list
     processedPeakList = new SimplePeakList(dataFile.getName() + " " + suffix, dataFile);
 
-    List<PeakInformation> peaks = this.readFile();
+    // In high-throughput mode, the tasks of all raw data files share one parsed target database
+    TargetDatabase targets = null;
+    List<PeakInformation> peaks;
+    if (highThroughput) {
+      try {
+        targets = TargetDatabase.load(peakListFile, fieldSeparator, ignoreFirstLine);
+        peaks = targets.getTargets();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not read file " + peakListFile, e);
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(e.toString());
+        return;
+      }
+    } else {
+      peaks = this.readFile();
+    }
 
     if (peaks == null || peaks.isEmpty()) {
       setStatus(TaskStatus.ERROR);
@@ -147,23 +170,30 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
       return;
     }
 
-    // Process each scan
-    for (int scanNumber : scanNumbers) {
-
-      // Canceled?
-      if (isCanceled()) {
+    if (highThroughput) {
+      if (!detectTargets(targets, gaps, scanNumbers)) {
         return;
       }
+    } else {
 
-      // Get the scan
-      Scan scan = dataFile.getScan(scanNumber);
+      // Process each scan
+      for (int scanNumber : scanNumbers) {
 
-      // Feed this scan to all gaps
-      for (Gap gap : gaps) {
-        gap.offerNextScan(scan);
-      }
+        // Canceled?
+        if (isCanceled()) {
+          return;
+        }
 
-      processedScans++;
+        // Get the scan
+        Scan scan = dataFile.getScan(scanNumber);
+
+        // Feed this scan to all gaps
+        for (Gap gap : gaps) {
+          gap.offerNextScan(scan);
+        }
+
+        processedScans++;
+      }
     }
 
     // Finalize gaps
@@ -185,6 +215,109 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
     setStatus(TaskStatus.FINISHED);
   }
 
+  /**
+   * Feeds the scans to the gaps, visiting only the gaps which are active in each scan. The gaps are
+   * indexed in m/z order of their targets, so the top data points of all active gaps are found in
+   * one pass over the data points of the scan. A gap becomes active at the start of its RT range and
+   * is dropped as soon as it is complete, the result is the same as when offering every scan to
+   * every gap.
+   *
+   * @param gaps gaps in file order of the targets
+   * @return false if the task was canceled
+   */
+  private boolean detectTargets(TargetDatabase targets, List<Gap> gaps, int scanNumbers[]) {
+
+    final int numOfTargets = targets.size();
+
+    // m/z-sorted gap index
+    final Gap sortedGaps[] = new Gap[numOfTargets];
+    final double mzMin[] = new double[numOfTargets];
+    final double mzMax[] = new double[numOfTargets];
+    final double rtMin[] = new double[numOfTargets];
+    for (int i = 0; i < numOfTargets; i++) {
+      sortedGaps[i] = gaps.get(targets.getFileIndex(i));
+      mzMin[i] = sortedGaps[i].getMZRange().lowerEndpoint();
+      mzMax[i] = sortedGaps[i].getMZRange().upperEndpoint();
+      rtMin[i] = sortedGaps[i].getRTRange().lowerEndpoint();
+    }
+
+    // Gaps in the order they become active
+    final int activation[] = IntStream.range(0, numOfTargets).toArray();
+    IntArrays.quickSort(activation, (a, b) -> Double.compare(rtMin[a], rtMin[b]));
+    int nextActivation = 0;
+
+    // Active gaps in m/z order
+    final int active[] = new int[numOfTargets];
+    int numOfActive = 0;
+
+    double mzValues[] = new double[0];
+    double intensityValues[] = new double[0];
+
+    for (int scanNumber : scanNumbers) {
+
+      // Canceled?
+      if (isCanceled()) {
+        return false;
+      }
+
+      Scan scan = dataFile.getScan(scanNumber);
+      final double scanRT = scan.getRetentionTime();
+
+      final int previouslyActive = numOfActive;
+      while (nextActivation < numOfTargets && rtMin[activation[nextActivation]] <= scanRT) {
+        active[numOfActive++] = activation[nextActivation++];
+      }
+      if (numOfActive > previouslyActive) {
+        Arrays.sort(active, 0, numOfActive);
+      }
+
+      if (numOfActive > 0) {
+        final int numOfDataPoints = scan.getNumberOfDataPoints();
+        if (mzValues.length < numOfDataPoints) {
+          mzValues = new double[numOfDataPoints];
+          intensityValues = new double[numOfDataPoints];
+        }
+        scan.getDataPoints(mzValues, intensityValues);
+
+        // The lower m/z limits of the active gaps are increasing, so the first data point of each
+        // gap is found by moving forward (back only for rounding differences of equal limits)
+        int first = 0, kept = 0;
+        for (int a = 0; a < numOfActive; a++) {
+          final int g = active[a];
+          while (first > 0 && mzValues[first - 1] >= mzMin[g]) {
+            first--;
+          }
+          while (first < numOfDataPoints && mzValues[first] < mzMin[g]) {
+            first++;
+          }
+          int basePeak = -1;
+          for (int j = first; j < numOfDataPoints && mzValues[j] <= mzMax[g]; j++) {
+            if (basePeak < 0 || intensityValues[j] > intensityValues[basePeak]) {
+              basePeak = j;
+            }
+          }
+
+          final Gap gap = sortedGaps[g];
+          if (basePeak >= 0) {
+            gap.offerBasePeak(scan, mzValues[basePeak], intensityValues[basePeak]);
+          } else {
+            gap.offerBasePeak(scan, Double.NaN, 0);
+          }
+
+          // Keep the gap until no later scan can change it
+          if (!gap.isComplete(scanRT)) {
+            active[kept++] = g;
+          }
+        }
+        numOfActive = kept;
+      }
+
+      processedScans++;
+    }
+
+    return true;
+  }
+
   public List<PeakInformation> readFile() {
     FileReader dbFileReader = null;
     try {
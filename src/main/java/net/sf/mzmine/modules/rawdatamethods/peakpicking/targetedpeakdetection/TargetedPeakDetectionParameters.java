@@ -50,9 +50,14 @@ public class TargetedPeakDetectionParameters extends SimpleParameterSet {
       MZmineCore.getConfiguration().getIntensityFormat());
   public static final MZToleranceParameter MZTolerance = new MZToleranceParameter();
   public static final RTToleranceParameter RTTolerance = new RTToleranceParameter();
+  public static final BooleanParameter highThroughput = new BooleanParameter(
+      "High-throughput mode",
+      "Parse the feature list file once for all raw data files and search only the targets in the"
+          + " m/z and RT range of each scan",
+      true);
 
   public TargetedPeakDetectionParameters() {
     super(new Parameter[] {rawDataFile, msLevel, suffix, peakListFile, fieldSeparator,
-        ignoreFirstLine, intTolerance, noiseLevel, MZTolerance, RTTolerance});
+        ignoreFirstLine, intTolerance, noiseLevel, MZTolerance, RTTolerance, highThroughput});
   }
 }
@@ -18,12 +18,39 @@
 
 package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.util.*;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import io.github.msdk.io.mzml.util.MSNumpress;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.MassSpectrumType;
@@ -32,26 +59,21 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.CompressionUtils;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.scans.ScanUtils;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArrayList;
-import uk.ac.ebi.jmzml.model.mzml.CVParam;
-import uk.ac.ebi.jmzml.model.mzml.ParamGroup;
-import uk.ac.ebi.jmzml.model.mzml.Precursor;
-import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
-import uk.ac.ebi.jmzml.model.mzml.Scan;
-import uk.ac.ebi.jmzml.model.mzml.ScanList;
-import uk.ac.ebi.jmzml.model.mzml.SelectedIonList;
-import uk.ac.ebi.jmzml.model.mzml.Spectrum;
-import uk.ac.ebi.jmzml.xml.io.MzMLObjectIterator;
-import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
 
 /**
- * This class reads mzML 1.0 and 1.1.0 files (http://www.psidev.info/index.php?q=node/257) using the
- * jmzml library (http://code.google.com/p/jmzml/).
+ * This class reads mzML 1.0 and 1.1.0 files (http://www.psidev.info/index.php?q=node/257).
+ *
+ * The file is parsed by a StAX stream reader, one spectrum at a time. The binary data arrays of the
+ * parsed spectra are decoded (base64, zlib, MS-Numpress) by a pool of decoding threads, and the
+ * resulting scans are written to the raw data file in the order of the file. At most
+ * SPECTRA_PER_THREAD spectra per decoding thread are kept in memory at the same time, regardless of
+ * the size of the file.
  */
 public class MzMLReadTask extends AbstractTask {
 
@@ -59,6 +81,15 @@ public class MzMLReadTask extends AbstractTask {
 
   private static final Pattern SCAN_PATTERN = Pattern.compile("scan=([0-9]+)");
 
+  private static final Pattern INDEX_OFFSET_PATTERN =
+      Pattern.compile("<indexListOffset>\\s*([0-9]+)\\s*</indexListOffset>");
+
+  /*
+   * Maximum number of parsed spectra per decoding thread, which are waiting to be decoded or
+   * written to the raw data file
+   */
+  private static final int SPECTRA_PER_THREAD = 4;
+
   private File file;
   private MZmineProject project;
   private RawDataFileWriter newMZmineFile;
@@ -67,7 +98,12 @@ public class MzMLReadTask extends AbstractTask {
 
   private int lastScanNumber = 0;
 
-  private Map<String, Integer> scanIdTable = new Hashtable<String, Integer>();
+  private Map<String, Integer> scanIdTable = new HashMap<String, Integer>();
+
+  // cvParams of the referenceableParamGroup elements, by group ID
+  private final Map<String, List<String[]>> paramGroups = new HashMap<>();
+
+  private final XMLInputFactory xmlInputFactory;
 
   /*
    * This stack stores at most 20 consecutive scans. This window serves to find possible fragments
@@ -77,12 +113,16 @@ public class MzMLReadTask extends AbstractTask {
    * scans.
    */
   private static final int PARENT_STACK_SIZE = 20;
-  private LinkedList<SimpleScan> parentStack = new LinkedList<SimpleScan>();
+  private Deque<SimpleScan> parentStack = new ArrayDeque<SimpleScan>();
 
   public MzMLReadTask(MZmineProject project, File fileToOpen, RawDataFileWriter newMZmineFile) {
     this.project = project;
     this.file = fileToOpen;
     this.newMZmineFile = newMZmineFile;
+
+    xmlInputFactory = XMLInputFactory.newInstance();
+    xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
   }
 
   /**
@@ -100,71 +140,56 @@ public class MzMLReadTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
     logger.info("Started parsing file " + file);
 
-    MzMLUnmarshaller unmarshaller = new MzMLUnmarshaller(file);
+    final int numOfThreads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+    final ExecutorService decodingThreads = Executors.newFixedThreadPool(numOfThreads, runnable -> {
+      Thread thread = new Thread(runnable, "mzML decoding thread");
+      thread.setDaemon(true);
+      return thread;
+    });
 
-    totalScans = unmarshaller.getObjectCountForXpath("/run/spectrumList/spectrum");
+    try {
 
-    fillScanIdTable(
-            unmarshaller.unmarshalCollectionFromXpath("/run/spectrumList/spectrum", Spectrum.class),
-            totalScans);
+      List<String> spectrumIds = readSpectrumIds();
+      totalScans = spectrumIds.size();
+      fillScanIdTable(spectrumIds, totalScans);
 
-    MzMLObjectIterator<Spectrum> spectrumIterator =
-        unmarshaller.unmarshalCollectionFromXpath("/run/spectrumList/spectrum", Spectrum.class);
-    try {
+      // Spectra being decoded, in the order of the file
+      final Deque<MzMLSpectrum> decodingSpectra = new ArrayDeque<>();
+      final int maxDecodingSpectra = numOfThreads * SPECTRA_PER_THREAD;
 
-      while (spectrumIterator.hasNext()) {
+      try (InputStream input = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
 
-        if (isCanceled())
-          return;
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(input);
 
-        Spectrum spectrum = spectrumIterator.next();
+        MzMLSpectrum spectrum;
+        while ((spectrum = readNextSpectrum(reader)) != null) {
 
-        // Ignore scans that are not MS, e.g. UV
-        if (!isMsSpectrum(spectrum)) {
-          parsedScans++;
-          continue;
-        }
+          if (isCanceled())
+            return;
 
-        String scanId = spectrum.getId();
-        Integer scanNumber = scanIdTable.get(scanId);
-        if (scanNumber == null)
-          throw new IllegalStateException("Cannot determine scan number: " + scanId);
-
-        // Extract scan data
-        int msLevel = extractMSLevel(spectrum);
-        double retentionTime = extractRetentionTime(spectrum);
-        PolarityType polarity = extractPolarity(spectrum);
-        int parentScan = extractParentScanNumber(spectrum);
-        double precursorMz = extractPrecursorMz(spectrum);
-        int precursorCharge = extractPrecursorCharge(spectrum);
-        String scanDefinition = extractScanDefinition(spectrum);
-        DataPoint dataPoints[] = extractDataPoints(spectrum);
-
-        // Auto-detect whether this scan is centroided
-        MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
-
-        SimpleScan scan = new SimpleScan(null, scanNumber, msLevel, retentionTime, precursorMz,
-            precursorCharge, null, dataPoints, spectrumType, polarity, scanDefinition, null);
-
-        for (SimpleScan s : parentStack) {
-          if (s.getScanNumber() == parentScan) {
-            s.addFragmentScan(scanNumber);
+          // Ignore scans that are not MS, e.g. UV
+          if (!spectrum.isMsSpectrum()) {
+            parsedScans++;
+            continue;
           }
-        }
 
-        /*
-         * Verify the size of parentStack. The actual size of the window to cover possible
-         * candidates is defined by limitSize.
-         */
-        if (parentStack.size() > PARENT_STACK_SIZE) {
-          SimpleScan firstScan = parentStack.removeLast();
-          newMZmineFile.addScan(firstScan);
-        }
+          final MzMLSpectrum decodedSpectrum = spectrum;
+          decodedSpectrum.decodedScan = decodingThreads.submit(decodedSpectrum::createScan);
+          decodingSpectra.add(decodedSpectrum);
 
-        parentStack.addFirst(scan);
+          // Write the oldest scans while too many spectra are waiting
+          while (decodingSpectra.size() >= maxDecodingSpectra)
+            writeScan(decodingSpectra.poll());
 
-        parsedScans++;
+        }
+
+        reader.close();
+      }
 
+      while (!decodingSpectra.isEmpty()) {
+        if (isCanceled())
+          return;
+        writeScan(decodingSpectra.poll());
       }
 
       while (!parentStack.isEmpty()) {
@@ -180,8 +205,9 @@ public class MzMLReadTask extends AbstractTask {
       e.printStackTrace();
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Error parsing mzML: " + ExceptionUtils.exceptionToString(e));
-      e.printStackTrace();
       return;
+    } finally {
+      decodingThreads.shutdownNow();
     }
 
     if (parsedScans == 0) {
@@ -195,20 +221,129 @@ public class MzMLReadTask extends AbstractTask {
 
   }
 
+  /**
+   * Waits until the scan of given spectrum is decoded and adds it to the parent stack
+   */
+  private void writeScan(MzMLSpectrum spectrum) throws Exception {
+
+    SimpleScan scan = spectrum.decodedScan.get();
+    int scanNumber = scan.getScanNumber();
+
+    for (SimpleScan s : parentStack) {
+      if (s.getScanNumber() == spectrum.parentScan) {
+        s.addFragmentScan(scanNumber);
+      }
+    }
+
+    /*
+     * Verify the size of parentStack. The actual size of the window to cover possible candidates is
+     * defined by limitSize.
+     */
+    if (parentStack.size() > PARENT_STACK_SIZE) {
+      SimpleScan firstScan = parentStack.removeLast();
+      newMZmineFile.addScan(firstScan);
+    }
+
+    parentStack.addFirst(scan);
+
+    parsedScans++;
+
+  }
+
+  /**
+   * Reads the IDs of all spectra. The spectrum index of indexed mzML files is used if possible,
+   * otherwise the whole file is scanned for spectrum elements.
+   */
+  private List<String> readSpectrumIds() throws IOException, XMLStreamException {
+
+    List<String> spectrumIds = readIndexedSpectrumIds();
+    if (spectrumIds != null)
+      return spectrumIds;
+
+    spectrumIds = new ArrayList<>();
+    try (InputStream input = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+      XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(input);
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT
+            && reader.getLocalName().equals("spectrum")) {
+          spectrumIds.add(reader.getAttributeValue(null, "id"));
+        }
+        if (event == XMLStreamConstants.END_ELEMENT
+            && reader.getLocalName().equals("spectrumList")) {
+          break;
+        }
+      }
+      reader.close();
+    }
+    return spectrumIds;
+  }
+
+  /**
+   * Reads the spectrum IDs from the index at the end of an indexed mzML file
+   *
+   * @return the IDs, or null if the file has no valid index
+   */
+  private List<String> readIndexedSpectrumIds() throws IOException {
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+
+      // The offset of the index is stored in the last element of the file
+      final int tailLength = (int) Math.min(raf.length(), 4096);
+      byte tail[] = new byte[tailLength];
+      raf.seek(raf.length() - tailLength);
+      raf.readFully(tail);
+      Matcher matcher =
+          INDEX_OFFSET_PATTERN.matcher(new String(tail, StandardCharsets.ISO_8859_1));
+      if (!matcher.find())
+        return null;
+
+      final long indexOffset = Long.parseLong(matcher.group(1));
+      if (indexOffset <= 0 || indexOffset >= raf.length())
+        return null;
+      raf.seek(indexOffset);
+
+      List<String> spectrumIds = new ArrayList<>();
+      boolean inSpectrumIndex = false;
+      InputStream input = new BufferedInputStream(Channels.newInputStream(raf.getChannel()));
+      XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(input);
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          if (reader.getLocalName().equals("index"))
+            inSpectrumIndex = "spectrum".equals(reader.getAttributeValue(null, "name"));
+          else if (inSpectrumIndex && reader.getLocalName().equals("offset"))
+            spectrumIds.add(reader.getAttributeValue(null, "idRef"));
+        }
+        if (event == XMLStreamConstants.END_ELEMENT
+            && reader.getLocalName().equals("indexList")) {
+          break;
+        }
+      }
+      reader.close();
+
+      return spectrumIds.isEmpty() ? null : spectrumIds;
+
+    } catch (XMLStreamException | NumberFormatException e) {
+      logger.finest("Could not read the index of " + file + ": " + e);
+      return null;
+    }
+  }
+
   /**
    * Retrieves scan numbers from scan IDs and stores them in scanIdTable.
    *
    * If retrieved scan numbers are not unique, we replace them with new scan numbers.
    *
-   * @param iterator iterator from MzMLUnmarshaller
+   * @param spectrumIds IDs of all spectra in the file
    */
-  private void fillScanIdTable(MzMLObjectIterator<Spectrum> iterator, int totalScans) {
+  private void fillScanIdTable(List<String> spectrumIds, int totalScans) {
 
     Map<String, Integer> alternativeScanIdTable = new HashMap<>();
-    for (int i = 1; iterator.hasNext(); ++i) {
-      String id = iterator.next().getId();
+    for (int i = 0; i < spectrumIds.size(); ++i) {
+      String id = spectrumIds.get(i);
       saveScanNumberToTable(id);
-      alternativeScanIdTable.put(id, i);
+      alternativeScanIdTable.put(id, i + 1);
     }
 
     Set<Integer> scanNumberSet = new HashSet<>(scanIdTable.values());
@@ -240,271 +375,366 @@ public class MzMLReadTask extends AbstractTask {
     scanIdTable.put(scanId, scanNumber);
   }
 
-  private int extractMSLevel(Spectrum spectrum) {
-    // Browse the spectrum parameters
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams == null)
-      return 1;
-    for (CVParam param : cvParams) {
-      String accession = param.getAccession();
-      String value = param.getValue();
-      if ((accession == null) || (value == null))
-        continue;
+  /**
+   * Reads the next spectrum element. The binary data arrays are only stored, not decoded.
+   *
+   * @return the parsed spectrum, or null at the end of the spectrum list
+   */
+  private MzMLSpectrum readNextSpectrum(XMLStreamReader reader) throws XMLStreamException {
 
-      // MS level MS:1000511
-      if (accession.equals("MS:1000511")) {
-        int msLevel = Integer.parseInt(value);
-        return msLevel;
-      }
-    }
-    return 1;
-  }
+    MzMLSpectrum spectrum = null;
+    MzMLBinaryArray binaryArray = null;
+    List<String[]> groupParams = null;
 
-  private double extractRetentionTime(Spectrum spectrum) {
+    // Names of the open elements inside the spectrum
+    Deque<String> openElements = new ArrayDeque<>();
 
-    ScanList scanListElement = spectrum.getScanList();
-    if (scanListElement == null)
-      return 0;
-    List<Scan> scanElements = scanListElement.getScan();
-    if (scanElements == null)
-      return 0;
+    while (reader.hasNext()) {
 
-    for (Scan scan : scanElements) {
-      List<CVParam> cvParams = scan.getCvParam();
-      if (cvParams == null)
-        continue;
+      int event = reader.next();
 
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
-        String unitAccession = param.getUnitAccession();
-        String value = param.getValue();
-        if ((accession == null) || (value == null))
-          continue;
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        final String name = reader.getLocalName();
 
-        // Retention time (actually "Scan start time") MS:1000016
-        if (accession.equals("MS:1000016")) {
-          // MS:1000038 is used in mzML 1.0, while UO:0000031
-          // is used in mzML 1.1.0 :-/
-          double retentionTime;
-          if ((unitAccession == null) || (unitAccession.equals("MS:1000038"))
-              || unitAccession.equals("UO:0000031")) {
-            retentionTime = Double.parseDouble(value);
-          } else {
-            retentionTime = Double.parseDouble(value) / 60d;
-          }
-          return retentionTime;
+        if (spectrum == null) {
+          if (name.equals("spectrumList"))
+            return null;
+          if (name.equals("referenceableParamGroup"))
+            groupParams = null;
+          continue;
+        }
 
+        if (name.equals("spectrum"))
+          return spectrum;
+        if (name.equals("binaryDataArray")) {
+          spectrum.binaryArrays.add(binaryArray);
+          binaryArray = null;
         }
+        openElements.pop();
+        continue;
       }
-    }
-
-    return 0;
-  }
 
-  private DataPoint[] extractDataPoints(Spectrum spectrum) {
-    BinaryDataArrayList dataList = spectrum.getBinaryDataArrayList();
-
-    if ((dataList == null) || (dataList.getCount().equals(0)))
-      return new DataPoint[0];
-
-    BinaryDataArray mzArray = dataList.getBinaryDataArray().get(0);
-    BinaryDataArray intensityArray = dataList.getBinaryDataArray().get(1);
-    Number mzValues[] = mzArray.getBinaryDataAsNumberArray();
-    Number intensityValues[] = intensityArray.getBinaryDataAsNumberArray();
-    DataPoint dataPoints[] = new DataPoint[mzValues.length];
-    for (int i = 0; i < dataPoints.length; i++) {
-      double mz = mzValues[i].doubleValue();
-      double intensity = intensityValues[i].doubleValue();
-      dataPoints[i] = new SimpleDataPoint(mz, intensity);
-    }
-    return dataPoints;
+      if (event != XMLStreamConstants.START_ELEMENT)
+        continue;
 
-  }
+      final String name = reader.getLocalName();
+
+      // Elements outside of spectra
+      if (spectrum == null) {
+        switch (name) {
+          case "referenceableParamGroup":
+            groupParams = new ArrayList<>();
+            paramGroups.put(reader.getAttributeValue(null, "id"), groupParams);
+            break;
+          case "cvParam":
+            if (groupParams != null)
+              groupParams.add(readCvParam(reader));
+            break;
+          case "spectrum":
+            spectrum = new MzMLSpectrum(reader.getAttributeValue(null, "id"));
+            break;
+          case "chromatogramList":
+            return null;
+        }
+        continue;
+      }
 
-  private int extractParentScanNumber(Spectrum spectrum) {
-    PrecursorList precursorListElement = spectrum.getPrecursorList();
-    if ((precursorListElement == null) || (precursorListElement.getCount().equals(0)))
-      return -1;
-
-    List<Precursor> precursorList = precursorListElement.getPrecursor();
-    for (Precursor parent : precursorList) {
-      // Get the precursor scan number
-      String precursorScanId = parent.getSpectrumRef();
-      if (precursorScanId == null) {
-        return -1;
+      final String parent = openElements.isEmpty() ? "spectrum" : openElements.peek();
+
+      switch (name) {
+        case "cvParam":
+          addCvParam(spectrum, binaryArray, parent, readCvParam(reader));
+          break;
+        case "referenceableParamGroupRef":
+          List<String[]> params = paramGroups.get(reader.getAttributeValue(null, "ref"));
+          if (params != null) {
+            for (String[] param : params)
+              addCvParam(spectrum, binaryArray, parent, param);
+          }
+          break;
+        case "precursor":
+          if (spectrum.precursorCount++ == 0) {
+            String precursorScanId = reader.getAttributeValue(null, "spectrumRef");
+            Integer parentScan =
+                precursorScanId == null ? null : scanIdTable.get(precursorScanId);
+            spectrum.parentScan = parentScan == null ? -1 : parentScan;
+          }
+          break;
+        case "binaryDataArray":
+          binaryArray = new MzMLBinaryArray();
+          break;
+        case "binary":
+          if (binaryArray != null)
+            binaryArray.encodedData = reader.getElementText();
+          // getElementText() consumed the end element
+          continue;
       }
-      Integer parentScan = scanIdTable.get(precursorScanId);
-      if (parentScan == null)
-        return -1;
 
-      return parentScan;
+      openElements.push(name);
     }
-    return -1;
+
+    return null;
   }
 
-  private double extractPrecursorMz(Spectrum spectrum) {
+  private static String[] readCvParam(XMLStreamReader reader) {
+    return new String[] {reader.getAttributeValue(null, "accession"),
+        reader.getAttributeValue(null, "value"), reader.getAttributeValue(null, "unitAccession")};
+  }
 
-    PrecursorList precursorListElement = spectrum.getPrecursorList();
-    if ((precursorListElement == null) || (precursorListElement.getCount().equals(0)))
-      return 0;
+  private void addCvParam(MzMLSpectrum spectrum, MzMLBinaryArray binaryArray, String parent,
+      String param[]) {
 
-    List<Precursor> precursorList = precursorListElement.getPrecursor();
-    for (Precursor parent : precursorList) {
+    final String accession = param[0], value = param[1], unitAccession = param[2];
+    if (accession == null)
+      return;
 
-      SelectedIonList selectedIonListElement = parent.getSelectedIonList();
-      if ((selectedIonListElement == null) || (selectedIonListElement.getCount().equals(0)))
-        return 0;
-      List<ParamGroup> selectedIonParams = selectedIonListElement.getSelectedIon();
-      if (selectedIonParams == null)
-        continue;
+    switch (parent) {
+
+      case "spectrum":
+        switch (accession) {
+          // MS level MS:1000511
+          case "MS:1000511":
+            if ((value != null) && (spectrum.msLevel == null))
+              spectrum.msLevel = Integer.parseInt(value);
+            break;
+          case "MS:1000130":
+            if (spectrum.polarity == null)
+              spectrum.polarity = PolarityType.POSITIVE;
+            break;
+          case "MS:1000129":
+            if (spectrum.polarity == null)
+              spectrum.polarity = PolarityType.NEGATIVE;
+            break;
+          case "MS:1000512":
+            if (spectrum.scanDefinition == null)
+              spectrum.scanDefinition = value;
+            break;
+          // Electromagnetic radiation spectrum, e.g. UV
+          case "MS:1000804":
+            spectrum.msSpectrum = false;
+            break;
+        }
+        break;
+
+      case "scan":
+        switch (accession) {
+          // Retention time (actually "Scan start time") MS:1000016
+          case "MS:1000016":
+            if ((value == null) || (spectrum.retentionTime != null))
+              break;
+            // MS:1000038 is used in mzML 1.0, while UO:0000031
+            // is used in mzML 1.1.0 :-/
+            if ((unitAccession == null) || (unitAccession.equals("MS:1000038"))
+                || unitAccession.equals("UO:0000031")) {
+              spectrum.retentionTime = Double.parseDouble(value);
+            } else {
+              spectrum.retentionTime = Double.parseDouble(value) / 60d;
+            }
+            break;
+          case "MS:1000130":
+            if (spectrum.scanPolarity == null)
+              spectrum.scanPolarity = PolarityType.POSITIVE;
+            break;
+          case "MS:1000129":
+            if (spectrum.scanPolarity == null)
+              spectrum.scanPolarity = PolarityType.NEGATIVE;
+            break;
+          case "MS:1000512":
+            if (spectrum.scanScanDefinition == null)
+              spectrum.scanScanDefinition = value;
+            break;
+        }
+        break;
 
-      for (ParamGroup pg : selectedIonParams) {
-        List<CVParam> pgCvParams = pg.getCvParam();
-        for (CVParam param : pgCvParams) {
-          String accession = param.getAccession();
-          String value = param.getValue();
-          if ((accession == null) || (value == null))
-            continue;
+      case "selectedIon":
+        if (value == null)
+          break;
+        switch (accession) {
           // MS:1000040 is used in mzML 1.0,
           // MS:1000744 is used in mzML 1.1.0
-          if (accession.equals("MS:1000040") || accession.equals("MS:1000744")) {
-            double precursorMz = Double.parseDouble(value);
-            return precursorMz;
-          }
+          case "MS:1000040":
+          case "MS:1000744":
+            if (spectrum.precursorMz == null)
+              spectrum.precursorMz = Double.parseDouble(value);
+            break;
+          case "MS:1000041":
+            if (spectrum.precursorCharge == null)
+              spectrum.precursorCharge = Integer.parseInt(value);
+            break;
         }
+        break;
 
-      }
+      case "binaryDataArray":
+        if (binaryArray != null)
+          binaryArray.addCvParam(accession);
+        break;
     }
-    return 0;
   }
 
-  private int extractPrecursorCharge(Spectrum spectrum) {
-    PrecursorList precursorListElement = spectrum.getPrecursorList();
-    if ((precursorListElement == null) || (precursorListElement.getCount().equals(0)))
-      return 0;
+  public String getTaskDescription() {
+    return "Opening file " + file;
+  }
 
-    List<Precursor> precursorList = precursorListElement.getPrecursor();
-    for (Precursor parent : precursorList) {
+  /**
+   * Spectrum element parsed from the mzML file. The binary data arrays are decoded by createScan(),
+   * which runs in one of the decoding threads.
+   */
+  private class MzMLSpectrum {
 
-      SelectedIonList selectedIonListElement = parent.getSelectedIonList();
-      if ((selectedIonListElement == null) || (selectedIonListElement.getCount().equals(0)))
-        return 0;
-      List<ParamGroup> selectedIonParams = selectedIonListElement.getSelectedIon();
-      if (selectedIonParams == null)
-        continue;
+    private final String id;
+    private final List<MzMLBinaryArray> binaryArrays = new ArrayList<>(2);
 
-      for (ParamGroup pg : selectedIonParams) {
-        List<CVParam> pgCvParams = pg.getCvParam();
-        for (CVParam param : pgCvParams) {
-          String accession = param.getAccession();
-          String value = param.getValue();
-          if ((accession == null) || (value == null))
-            continue;
-          if (accession.equals("MS:1000041")) {
-            int precursorCharge = Integer.parseInt(value);
-            return precursorCharge;
-          }
+    private Integer msLevel, precursorCharge;
+    private Double retentionTime, precursorMz;
+    private PolarityType polarity, scanPolarity;
+    private String scanDefinition, scanScanDefinition;
+    private boolean msSpectrum = true;
+    private int precursorCount = 0, parentScan = -1;
 
-        }
+    private Future<SimpleScan> decodedScan;
 
-      }
+    MzMLSpectrum(String id) {
+      this.id = id;
     }
-    return 0;
-  }
-
-  private PolarityType extractPolarity(Spectrum spectrum) {
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams != null) {
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
 
-        if (accession == null)
-          continue;
-        if (accession.equals("MS:1000130"))
-          return PolarityType.POSITIVE;
-        if (accession.equals("MS:1000129"))
-          return PolarityType.NEGATIVE;
-      }
+    boolean isMsSpectrum() {
+      // By default, let's assume unidentified spectra are MS spectra
+      return msSpectrum;
     }
-    ScanList scanListElement = spectrum.getScanList();
-    if (scanListElement != null) {
-      List<Scan> scanElements = scanListElement.getScan();
-      if (scanElements != null) {
-        for (Scan scan : scanElements) {
-          cvParams = scan.getCvParam();
-          if (cvParams == null)
-            continue;
-          for (CVParam param : cvParams) {
-            String accession = param.getAccession();
-            if (accession == null)
-              continue;
-            if (accession.equals("MS:1000130"))
-              return PolarityType.POSITIVE;
-            if (accession.equals("MS:1000129"))
-              return PolarityType.NEGATIVE;
-          }
 
-        }
-      }
+    SimpleScan createScan() throws DataFormatException {
+
+      Integer scanNumber = scanIdTable.get(id);
+      if (scanNumber == null)
+        throw new IllegalStateException("Cannot determine scan number: " + id);
+
+      DataPoint dataPoints[] = extractDataPoints();
+
+      // Auto-detect whether this scan is centroided
+      MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
+
+      PolarityType scanPolarity = polarity != null ? polarity
+          : this.scanPolarity != null ? this.scanPolarity : PolarityType.UNKNOWN;
+      String definition = scanDefinition != null ? scanDefinition
+          : scanScanDefinition != null ? scanScanDefinition : id;
+
+      return new SimpleScan(null, scanNumber, msLevel == null ? 1 : msLevel,
+          retentionTime == null ? 0 : retentionTime, precursorMz == null ? 0 : precursorMz,
+          precursorCharge == null ? 0 : precursorCharge, null, dataPoints, spectrumType,
+          scanPolarity, definition, null);
     }
-    return PolarityType.UNKNOWN;
 
-  }
+    private DataPoint[] extractDataPoints() throws DataFormatException {
 
-  private String extractScanDefinition(Spectrum spectrum) {
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams != null) {
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
+      if (binaryArrays.size() < 2)
+        return new DataPoint[0];
 
-        if (accession == null)
-          continue;
-        if (accession.equals("MS:1000512"))
-          return param.getValue();
+      // Use the array types, if specified, otherwise the m/z values come first
+      MzMLBinaryArray mzArray = binaryArrays.get(0), intensityArray = binaryArrays.get(1);
+      for (MzMLBinaryArray binaryArray : binaryArrays) {
+        if (binaryArray.mzArray)
+          mzArray = binaryArray;
+        if (binaryArray.intensityArray)
+          intensityArray = binaryArray;
       }
-    }
-    ScanList scanListElement = spectrum.getScanList();
-    if (scanListElement != null) {
-      List<Scan> scanElements = scanListElement.getScan();
-      if (scanElements != null) {
-        for (Scan scan : scanElements) {
-          cvParams = scan.getCvParam();
-          if (cvParams == null)
-            continue;
-          for (CVParam param : cvParams) {
-            String accession = param.getAccession();
-            if (accession == null)
-              continue;
-            if (accession.equals("MS:1000512"))
-              return param.getValue();
-          }
 
-        }
+      double mzValues[] = mzArray.decode();
+      double intensityValues[] = intensityArray.decode();
+      binaryArrays.clear();
+
+      DataPoint dataPoints[] = new DataPoint[Math.min(mzValues.length, intensityValues.length)];
+      for (int i = 0; i < dataPoints.length; i++) {
+        dataPoints[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
       }
+      return dataPoints;
+
     }
-    return spectrum.getId();
-  }
 
-  public String getTaskDescription() {
-    return "Opening file " + file;
   }
 
-  boolean isMsSpectrum(Spectrum spectrum) {
+  /**
+   * Encoded binaryDataArray element
+   */
+  private static class MzMLBinaryArray {
+
+    private String encodedData;
+    private boolean mzArray, intensityArray, zlib, integer;
+    private int bytesPerValue = 8;
+    private String numpress;
+
+    void addCvParam(String accession) {
+      switch (accession) {
+        case "MS:1000514":
+          mzArray = true;
+          break;
+        case "MS:1000515":
+          intensityArray = true;
+          break;
+        case "MS:1000521":
+          bytesPerValue = 4;
+          integer = false;
+          break;
+        case "MS:1000523":
+          bytesPerValue = 8;
+          integer = false;
+          break;
+        case "MS:1000519":
+          bytesPerValue = 4;
+          integer = true;
+          break;
+        case "MS:1000522":
+          bytesPerValue = 8;
+          integer = true;
+          break;
+        case "MS:1000574":
+          zlib = true;
+          break;
+        // MS-Numpress linear, pic and slof compression, optionally followed by zlib
+        case MSNumpress.ACC_NUMPRESS_LINEAR:
+        case MSNumpress.ACC_NUMPRESS_PIC:
+        case MSNumpress.ACC_NUMPRESS_SLOF:
+          numpress = accession;
+          break;
+        case "MS:1002746":
+          numpress = MSNumpress.ACC_NUMPRESS_LINEAR;
+          zlib = true;
+          break;
+        case "MS:1002747":
+          numpress = MSNumpress.ACC_NUMPRESS_PIC;
+          zlib = true;
+          break;
+        case "MS:1002748":
+          numpress = MSNumpress.ACC_NUMPRESS_SLOF;
+          zlib = true;
+          break;
+      }
+    }
+
+    double[] decode() throws DataFormatException {
 
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams != null) {
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
-        if (accession == null)
-          continue;
+      if ((encodedData == null) || encodedData.isEmpty())
+        return new double[0];
+
+      byte bytes[] = Base64.getMimeDecoder().decode(encodedData);
+      encodedData = null;
+
+      if (zlib)
+        bytes = CompressionUtils.decompress(bytes);
+
+      if (numpress != null)
+        return MSNumpress.decode(numpress, bytes, bytes.length);
 
-        if (accession.equals("MS:1000804"))
-          return false;
+      ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+      double values[] = new double[bytes.length / bytesPerValue];
+      for (int i = 0; i < values.length; i++) {
+        if (bytesPerValue == 4)
+          values[i] = integer ? buffer.getInt() : buffer.getFloat();
+        else
+          values[i] = integer ? buffer.getLong() : buffer.getDouble();
       }
+      return values;
     }
 
-    // By default, let's assume unidentified spectra are MS spectra
-    return true;
   }
 
 }
@@ -19,11 +19,15 @@
 package net.sf.mzmine.modules.visualization.peaklisttable;
 
 import javax.annotation.Nonnull;
+import javax.swing.SwingUtilities;
 
 import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineModule;
+import net.sf.mzmine.modules.projectmethods.projectload.PeakListRowsLoadingTask;
 import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.taskcontrol.TaskStatus;
 
 public class PeakListTableModule implements MZmineModule {
 
@@ -35,6 +39,18 @@ public class PeakListTableModule implements MZmineModule {
   }
 
   public static void showNewPeakListVisualizerWindow(PeakList peakList) {
+
+    // Rows of a feature list opened on demand are read by a task, the window is opened afterwards
+    if ((peakList instanceof SimplePeakList) && !((SimplePeakList) peakList).isLoaded()) {
+      PeakListRowsLoadingTask loadingTask = new PeakListRowsLoadingTask((SimplePeakList) peakList);
+      loadingTask.addTaskStatusListener((task, newStatus, oldStatus) -> {
+        if (newStatus == TaskStatus.FINISHED)
+          SwingUtilities.invokeLater(() -> showNewPeakListVisualizerWindow(peakList));
+      });
+      MZmineCore.getTaskController().addTask(loadingTask);
+      return;
+    }
+
     ParameterSet parameters =
         MZmineCore.getConfiguration().getModuleParameters(PeakListTableModule.class);
     final PeakListTableWindow window = new PeakListTableWindow(peakList, parameters);
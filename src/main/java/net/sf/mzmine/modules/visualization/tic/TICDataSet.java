@@ -321,32 +321,64 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
     // Determine plot type (now done from constructor).
     final TICPlotType plotType = this.plotType;
 
+    // Buffers for the m/z and intensity values, reused for all scans.
+    double mzBuffer[] = new double[0];
+    double intensityBuffer[] = new double[0];
+
     // Process each scan.
     for (int index = 0; status != TaskStatus.CANCELED && index < totalScans; index++) {
 
       // Current scan.
       final Scan scan = scans[index];
 
-      // Determine base peak value.
-      final DataPoint basePeak =
-          mzRange.encloses(scan.getDataPointMZRange()) ? scan.getHighestDataPoint()
-              : ScanUtils.findBasePeak(scan, mzRange);
-      if (basePeak != null) {
+      // Determine base peak value and peak intensity.
+      double intensity = 0.0;
+      if (mzRange.encloses(scan.getDataPointMZRange())) {
 
-        basePeakValues[index] = basePeak.getMZ();
-      }
+        final DataPoint basePeak = scan.getHighestDataPoint();
+        if (basePeak != null) {
 
-      // Determine peak intensity.
-      double intensity = 0.0;
-      if (plotType == TICPlotType.TIC) {
+          basePeakValues[index] = basePeak.getMZ();
+        }
 
-        // Total ion count.
-        intensity = mzRange.encloses(scan.getDataPointMZRange()) ? scan.getTIC()
-            : ScanUtils.calculateTIC(scan, mzRange);
+        if (plotType == TICPlotType.TIC) {
 
-      } else if (plotType == TICPlotType.BASEPEAK && basePeak != null) {
+          // Total ion count.
+          intensity = scan.getTIC();
+
+        } else if (plotType == TICPlotType.BASEPEAK && basePeak != null) {
+
+          intensity = basePeak.getIntensity();
+        }
+
+      } else {
 
-        intensity = basePeak.getIntensity();
+        // Read the data points in the m/z range only once, into reused buffers.
+        final int numOfDataPoints = scan.getNumberOfDataPoints();
+        if (mzBuffer.length < numOfDataPoints) {
+          mzBuffer = new double[numOfDataPoints];
+          intensityBuffer = new double[numOfDataPoints];
+        }
+        final int numInRange = scan.getDataPointsByMass(mzRange, mzBuffer, intensityBuffer);
+
+        final int basePeakIndex =
+            ScanUtils.findBasePeakIndex(mzBuffer, intensityBuffer, numInRange, mzRange);
+        if (basePeakIndex >= 0) {
+
+          basePeakValues[index] = mzBuffer[basePeakIndex];
+        }
+
+        if (plotType == TICPlotType.TIC) {
+
+          // Total ion count.
+          for (int i = 0; i < numInRange; i++) {
+            intensity += intensityBuffer[i];
+          }
+
+        } else if (plotType == TICPlotType.BASEPEAK && basePeakIndex >= 0) {
+
+          intensity = intensityBuffer[basePeakIndex];
+        }
       }
 
       intensityValues[index] = intensity;
@@ -31,9 +31,7 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.DataPointSorter;
-import net.sf.mzmine.util.SortingDirection;
-import net.sf.mzmine.util.SortingProperty;
+import net.sf.mzmine.util.scans.ScanUtils;
 
 class TwoDDataSet extends AbstractXYDataset implements Task {
 
@@ -43,7 +41,7 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   private double retentionTimes[];
   private double basePeaks[];
-  private SoftReference<DataPoint[]> dataPointMatrix[];
+  private SoftReference<ScanValues> dataPointMatrix[];
 
   private final Range<Double> totalRTRange, totalMZRange;
   private int totalScans, processedScans;
@@ -92,8 +90,7 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
       DataPoint scanBasePeak = scan.getHighestDataPoint();
       retentionTimes[index] = scan.getRetentionTime();
       basePeaks[index] = (scanBasePeak == null ? 0 : scanBasePeak.getIntensity());
-      DataPoint scanDataPoints[] = scan.getDataPoints();
-      dataPointMatrix[index] = new SoftReference<DataPoint[]>(scanDataPoints);
+      loadScanValues(index);
       processedScans++;
     }
 
@@ -242,39 +239,31 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
     for (int scanIndex = startScanIndex; ((scanIndex < searchRetentionTimes.length)
         && (searchRetentionTimes[scanIndex] <= rtRange.upperEndpoint())); scanIndex++) {
-      // get the list of data points
-      DataPoint dataPoints[] = dataPointMatrix[scanIndex].get();
-      // Binary search for the mz values in the range you want
+      // get the m/z and intensity values
+      ScanValues values = getScanValues(scanIndex);
+      double mzValues[] = values.mzValues;
+      double intensityValues[] = values.intensityValues;
+      int numOfDataPoints = values.numOfDataPoints;
 
-      DataPoint searchMZ = new SimpleDataPoint(mzRange.lowerEndpoint(), 0);
-      int startMZIndex = Arrays.binarySearch(dataPoints, searchMZ,
-          new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
-      if (startMZIndex < 0)
-        startMZIndex = (startMZIndex * -1) - 1;
+      // Binary search for the mz values in the range you want
+      int startMZIndex = ScanUtils.findFirstIndexByMass(mzValues, numOfDataPoints,
+          mzRange.lowerEndpoint());
 
-      if (startMZIndex >= dataPoints.length)
+      if (startMZIndex >= numOfDataPoints)
         startMZIndex = 0;
 
-      for (int mzIndex = startMZIndex; ((mzIndex < dataPoints.length)
-          && (dataPoints[mzIndex].getMZ() <= mzRange.upperEndpoint())); mzIndex++) {
-
-        DataPoint curFoundDataPoint;
-        curFoundDataPoint = dataPoints[mzIndex];
+      for (int mzIndex = startMZIndex; ((mzIndex < numOfDataPoints)
+          && (mzValues[mzIndex] <= mzRange.upperEndpoint())); mzIndex++) {
 
-        // System.out.println("curFoundDataPoint.getMZ()");
-        // System.out.println(curFoundDataPoint.getMZ());
-
-        dataPointsInRanges.add(curFoundDataPoint);
+        dataPointsInRanges.add(new SimpleDataPoint(mzValues[mzIndex], intensityValues[mzIndex]));
         Double toAddRt = new Double(searchRetentionTimes[scanIndex]);
         rtInRange.add(toAddRt);
 
-        double curIntensity = curFoundDataPoint.getIntensity();
-
+        double curIntensity = intensityValues[mzIndex];
 
         if (curIntensity > curMaxIntensity)
           curMaxIntensity = curIntensity;
 
-
       }
 
     }
@@ -285,60 +274,86 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   private double upperEndpointIntensity(int dataPointMatrixIndex, Range<Double> mzRange,
       PlotMode plotMode) {
-    DataPoint dataPoints[] = dataPointMatrix[dataPointMatrixIndex].get();
-    if (dataPoints == null) {
-      Scan scan = scans[dataPointMatrixIndex];
-      dataPoints = scan.getDataPoints();
-      dataPointMatrix[dataPointMatrixIndex] = new SoftReference<DataPoint[]>(dataPoints);
-    }
-    return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+    ScanValues values = getScanValues(dataPointMatrixIndex);
+    return upperEndpointIntensity(values.mzValues, values.intensityValues, values.numOfDataPoints,
+        mzRange, plotMode);
   }
 
-  private double upperEndpointIntensity(DataPoint dataPoints[], Range<Double> mzRange,
-      PlotMode plotMode) {
+  private double upperEndpointIntensity(double mzValues[], double intensityValues[],
+      int numOfDataPoints, Range<Double> mzRange, PlotMode plotMode) {
 
     double maxIntensity = 0;
 
-    DataPoint searchMZ = new SimpleDataPoint(mzRange.lowerEndpoint(), 0);
-    int startMZIndex = Arrays.binarySearch(dataPoints, searchMZ,
-        new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
-    if (startMZIndex < 0)
-      startMZIndex = (startMZIndex * -1) - 1;
+    int startMZIndex =
+        ScanUtils.findFirstIndexByMass(mzValues, numOfDataPoints, mzRange.lowerEndpoint());
 
-    if (startMZIndex >= dataPoints.length)
+    if (startMZIndex >= numOfDataPoints)
       return 0;
 
-    if (dataPoints[startMZIndex].getMZ() > mzRange.upperEndpoint()) {
+    if (mzValues[startMZIndex] > mzRange.upperEndpoint()) {
       if (plotMode != PlotMode.CENTROID) {
         if (startMZIndex == 0)
           return 0;
-        if (startMZIndex == dataPoints.length - 1)
-          return dataPoints[startMZIndex - 1].getIntensity();
+        if (startMZIndex == numOfDataPoints - 1)
+          return intensityValues[startMZIndex - 1];
 
         // find which data point is closer
-        double diffNext = dataPoints[startMZIndex].getMZ() - mzRange.upperEndpoint();
-        double diffPrev = mzRange.lowerEndpoint() - dataPoints[startMZIndex - 1].getMZ();
+        double diffNext = mzValues[startMZIndex] - mzRange.upperEndpoint();
+        double diffPrev = mzRange.lowerEndpoint() - mzValues[startMZIndex - 1];
 
         if (diffPrev < diffNext)
-          return dataPoints[startMZIndex - 1].getIntensity();
+          return intensityValues[startMZIndex - 1];
         else
-          return dataPoints[startMZIndex].getIntensity();
+          return intensityValues[startMZIndex];
       } else {
         return 0;
       }
 
     }
 
-    for (int mzIndex = startMZIndex; ((mzIndex < dataPoints.length)
-        && (dataPoints[mzIndex].getMZ() <= mzRange.upperEndpoint())); mzIndex++) {
-      if (dataPoints[mzIndex].getIntensity() > maxIntensity)
-        maxIntensity = dataPoints[mzIndex].getIntensity();
+    for (int mzIndex = startMZIndex; ((mzIndex < numOfDataPoints)
+        && (mzValues[mzIndex] <= mzRange.upperEndpoint())); mzIndex++) {
+      if (intensityValues[mzIndex] > maxIntensity)
+        maxIntensity = intensityValues[mzIndex];
     }
 
     return maxIntensity;
 
   }
 
+  /**
+   * Returns the m/z and intensity values of given scan, reading them again if the soft reference
+   * has been cleared
+   */
+  private ScanValues getScanValues(int index) {
+    ScanValues values = dataPointMatrix[index].get();
+    if (values == null)
+      values = loadScanValues(index);
+    return values;
+  }
+
+  private ScanValues loadScanValues(int index) {
+    Scan scan = scans[index];
+    ScanValues values = new ScanValues(scan.getNumberOfDataPoints());
+    values.numOfDataPoints = scan.getDataPoints(values.mzValues, values.intensityValues);
+    dataPointMatrix[index] = new SoftReference<ScanValues>(values);
+    return values;
+  }
+
+  /**
+   * m/z and intensity values of one scan, kept in primitive arrays to avoid creating a DataPoint
+   * instance per value
+   */
+  private static class ScanValues {
+    final double mzValues[], intensityValues[];
+    int numOfDataPoints;
+
+    ScanValues(int capacity) {
+      mzValues = new double[capacity];
+      intensityValues = new double[capacity];
+    }
+  }
+
   @Override
   public void cancel() {
     status = TaskStatus.CANCELED;
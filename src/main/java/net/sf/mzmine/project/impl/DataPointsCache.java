@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import net.sf.mzmine.datamodel.DataPoint;
+
+/**
+ * Cache of decoded data points of scans and mass lists, shared by all RawDataFileImpl instances.
+ * Entries are keyed by the raw data file and the storage ID. The cache is bounded by the estimated
+ * heap size of the cached data points and evicts the least recently used entries first. The size
+ * is set in the MZmine preferences, 0 disables the cache.
+ *
+ * The cached arrays are never handed out directly, callers get a copy of the array (DataPoint
+ * instances are immutable and may be shared), so modules are free to sort or modify the returned
+ * arrays.
+ */
+public class DataPointsCache {
+
+  private static final Logger logger = Logger.getLogger(DataPointsCache.class.getName());
+
+  /**
+   * Default cache size in MB: 5% of the maximum heap size, at most 256 MB
+   */
+  public static final int DEFAULT_SIZE_MB =
+      (int) Math.min(256, (Runtime.getRuntime().maxMemory() / 20) >> 20);
+
+  // Estimated heap size of one cached data point: array reference + SimpleDataPoint instance
+  private static final int BYTES_PER_DATA_POINT = 4 + 32;
+  private static final int BYTES_PER_ENTRY = 64;
+
+  private static final DataPointsCache instance = new DataPointsCache();
+
+  private volatile Cache<Key, DataPoint[]> cache;
+  private volatile long maximumSize;
+
+  private DataPointsCache() {
+    setMaximumSize((long) DEFAULT_SIZE_MB << 20);
+  }
+
+  public static DataPointsCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Sets the maximum heap size of the cached data points in bytes. All currently cached entries are
+   * discarded, as well as the hit/miss/eviction statistics.
+   */
+  public synchronized void setMaximumSize(long bytes) {
+
+    if ((cache != null) && (bytes == maximumSize))
+      return;
+
+    if (cache != null) {
+      logger.finest("Spectra cache statistics: " + cache.stats());
+      cache.invalidateAll();
+    }
+
+    maximumSize = Math.max(0, bytes);
+    cache = CacheBuilder.newBuilder().maximumWeight(maximumSize)
+        .weigher((Key key, DataPoint[] dataPoints) -> BYTES_PER_ENTRY
+            + dataPoints.length * BYTES_PER_DATA_POINT)
+        .recordStats().build();
+
+    logger.info("Spectra cache size set to " + (maximumSize >> 20) + " MB");
+
+  }
+
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  /**
+   * @return a copy of the cached data points, or null if they are not cached
+   */
+  @Nullable
+  public DataPoint[] get(@Nonnull RawDataFileImpl dataFile, int storageID) {
+    final DataPoint cached[] = cache.getIfPresent(new Key(dataFile, storageID));
+    return cached == null ? null : cached.clone();
+  }
+
+  /**
+   * @return the cached data points without copying them, or null if they are not cached. The
+   *         returned array must not be modified.
+   */
+  @Nullable
+  DataPoint[] peek(@Nonnull RawDataFileImpl dataFile, int storageID) {
+    return cache.getIfPresent(new Key(dataFile, storageID));
+  }
+
+  /**
+   * Stores a copy of the given data points in the cache
+   */
+  public void put(@Nonnull RawDataFileImpl dataFile, int storageID,
+      @Nonnull DataPoint dataPoints[]) {
+    if (maximumSize == 0)
+      return;
+    cache.put(new Key(dataFile, storageID), dataPoints.clone());
+  }
+
+  public void invalidate(@Nonnull RawDataFileImpl dataFile, int storageID) {
+    cache.invalidate(new Key(dataFile, storageID));
+  }
+
+  /**
+   * Removes all cached data points of given raw data file
+   */
+  public void invalidate(@Nonnull RawDataFileImpl dataFile) {
+    cache.asMap().keySet().removeIf(key -> key.dataFile == dataFile);
+  }
+
+  /**
+   * @return hit, miss and eviction counters of the cache
+   */
+  public @Nonnull CacheStats getStats() {
+    return cache.stats();
+  }
+
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  public long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+  private static final class Key {
+
+    private final RawDataFileImpl dataFile;
+    private final int storageID;
+
+    Key(RawDataFileImpl dataFile, int storageID) {
+      this.dataFile = dataFile;
+      this.storageID = storageID;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return (dataFile == other.dataFile) && (storageID == other.storageID);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(dataFile) + storageID;
+    }
+
+  }
+
+}
@@ -0,0 +1,616 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.util.files.MemoryMapUtils;
+
+/**
+ * Storage of data points in a temporary file, used by RawDataFileImpl. Each stored block of data
+ * points is identified by a storage ID. The data points are written as (m/z, intensity) float
+ * pairs in big-endian byte order, so the file layout is the same as the .scans entries of saved
+ * projects.
+ *
+ * Writing is serialized, reading only takes the shared read lock, which excludes close(). The file
+ * is memory-mapped in segments of SEGMENT_SIZE bytes and the offsets and lengths of the stored
+ * blocks are kept in primitive arrays indexed by the storage ID, so any number of threads can
+ * decode scans of the same file in parallel. A segment is re-mapped when a reader needs bytes that
+ * were appended after the segment was mapped, and at least as many bytes as the segment already
+ * covers are available. Other blocks that are not covered by a mapped segment, for example blocks
+ * that span a segment boundary, are read by a positional channel read, which is also thread-safe.
+ *
+ * The storage can also start with a read-only part of another file (the uncompressed scan data of a
+ * project file). The read-only part is mapped in place at the offsets 0 to baseLength, data points
+ * stored later are appended to the temporary file. Before that other file is replaced, the storage
+ * has to be copied to a new temporary file (see copyTo()).
+ *
+ * The mapped segments, including the ones replaced by a re-mapping, are unmapped when the storage is
+ * closed, so the files can be deleted or overwritten afterwards (also on Windows). close() waits
+ * until the running reads have finished, later reads throw an IOException. If the JVM does not
+ * support unmapping, the data points are read by positional channel reads instead of mapping the
+ * files.
+ */
+public class MappedDataPointsStorage {
+
+  private static final Logger logger = Logger.getLogger(MappedDataPointsStorage.class.getName());
+
+  // 256 MB per mapped segment
+  private static final int SEGMENT_BITS = 28;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+  private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  // Each data point is stored as two 4-byte floats
+  private static final int BYTES_PER_DATA_POINT = 2 * 4;
+
+  private final File fileName;
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+
+  // Read-only part of the storage, if any. The offsets of the appended data points start at
+  // appendStart, which is the first segment after the read-only part, so each segment belongs to
+  // one of the files.
+  private final File baseFileName;
+  private final RandomAccessFile baseFile;
+  private final FileChannel baseChannel;
+  private final long baseOffset, baseLength, appendStart;
+
+  // Index of the stored blocks. Length -1 marks an unused or removed storage ID. The arrays are
+  // only replaced or modified under the lock of this object, the volatile write of lastID
+  // publishes the changes to the lock-free readers.
+  private volatile long offsets[] = new long[0];
+  private volatile int lengths[] = new int[0];
+  private volatile int lastID = 0;
+
+  // Current length of the file, written only under the lock of this object
+  private volatile long fileLength;
+
+  private volatile AtomicReferenceArray<MappedByteBuffer> segments =
+      new AtomicReferenceArray<>(16);
+
+  // Segments replaced by a re-mapping, unmapped when the storage is closed. New segments are
+  // mapped under the lock of this list.
+  private final List<MappedByteBuffer> replacedSegments = new ArrayList<>();
+
+  // Reads of the mapped segments hold the read lock, close() holds the write lock
+  private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+  private boolean closed = false;
+
+  // Buffer used by the (serialized) writer
+  private ByteBuffer writeBuffer = ByteBuffer.allocate(20000);
+
+  /**
+   * Opens the given file as storage. If the file is not empty, its contents must be described by
+   * subsequent calls to setStoredDataPoints().
+   */
+  public MappedDataPointsStorage(File fileName) throws IOException {
+    this(null, 0, 0, fileName);
+  }
+
+  /**
+   * Opens a storage whose data points at the offsets 0 to baseLength are read from baseFileName,
+   * starting at baseOffset. The contents must be described by subsequent calls to
+   * setStoredDataPoints(), new data points are appended to fileName.
+   */
+  public MappedDataPointsStorage(File baseFileName, long baseOffset, long baseLength,
+      File fileName) throws IOException {
+
+    this.baseFileName = baseFileName;
+    if (baseFileName != null) {
+      this.baseFile = new RandomAccessFile(baseFileName, "r");
+      this.baseChannel = baseFile.getChannel();
+    } else {
+      this.baseFile = null;
+      this.baseChannel = null;
+    }
+    this.baseOffset = baseOffset;
+    this.baseLength = baseLength;
+    this.appendStart = (baseLength + SEGMENT_MASK) & ~SEGMENT_MASK;
+
+    this.fileName = fileName;
+    this.file = new RandomAccessFile(fileName, "rw");
+    this.channel = file.getChannel();
+    this.fileLength = appendStart + file.length();
+
+    // Locks the temporary file so it is not removed when another instance
+    // of MZmine is starting. Lock will be automatically released when this
+    // instance of MZmine exits. Locking may fail on network-mounted filesystems.
+    try {
+      channel.lock();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to lock the file " + fileName, e);
+    }
+
+    // Unfortunately, deleteOnExit() doesn't work on Windows, see JDK
+    // bug #4171239. We will try to remove the temporary files in a
+    // shutdown hook registered in the main.ShutDownHook class
+    fileName.deleteOnExit();
+
+  }
+
+  public File getFileName() {
+    return fileName;
+  }
+
+  /**
+   * @return the file containing the read-only part of the storage, or null
+   */
+  public File getBaseFileName() {
+    return baseFileName;
+  }
+
+  /**
+   * Appends the data points to the end of the file and returns a new storage ID.
+   */
+  public synchronized int storeDataPoints(DataPoint dataPoints[]) throws IOException {
+
+    final int numOfDataPoints = dataPoints.length;
+    final int numOfBytes = numOfDataPoints * BYTES_PER_DATA_POINT;
+
+    if (writeBuffer.capacity() < numOfBytes) {
+      writeBuffer = ByteBuffer.allocate(numOfBytes * 2);
+    } else {
+      // JDK 9 breaks compatibility with JRE8: need to cast
+      // https://stackoverflow.com/questions/48693695/java-nio-buffer-not-loading-clear-method-on-runtime
+      ((Buffer) writeBuffer).clear();
+    }
+
+    for (DataPoint dp : dataPoints) {
+      writeBuffer.putFloat((float) dp.getMZ());
+      writeBuffer.putFloat((float) dp.getIntensity());
+    }
+    ((Buffer) writeBuffer).flip();
+
+    final int currentID = lastID + 1;
+    setStoredDataPoints(currentID, appendBytes(writeBuffer), numOfDataPoints);
+    return currentID;
+
+  }
+
+  /**
+   * Copies all stored data points to a new storage in the given file, under the same storage IDs.
+   * Used to stop reading the read-only part from a file which is going to be replaced.
+   */
+  public synchronized MappedDataPointsStorage copyTo(File newFileName) throws IOException {
+    final MappedDataPointsStorage copy = new MappedDataPointsStorage(newFileName);
+    final Lock readLock = lockOpened();
+    try {
+      for (int ID : getStorageIDs()) {
+        final ByteBuffer source = getDataPointsBuffer(ID);
+        final int numOfDataPoints = source.capacity() / BYTES_PER_DATA_POINT;
+        synchronized (copy) {
+          copy.setStoredDataPoints(ID, copy.appendBytes(source), numOfDataPoints);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      copy.close();
+      throw e;
+    } finally {
+      readLock.unlock();
+    }
+    return copy;
+  }
+
+  /**
+   * Writes the remaining bytes of the buffer to the end of the file. Must be called under the lock
+   * of this object.
+   *
+   * @return offset of the written bytes
+   */
+  private long appendBytes(ByteBuffer buffer) throws IOException {
+    final long currentOffset = fileLength;
+    long position = currentOffset - appendStart;
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    fileLength = appendStart + position;
+    return currentOffset;
+  }
+
+  /**
+   * Registers a block of data points that is already present in the file under the given storage
+   * ID. Used when loading projects.
+   */
+  public synchronized void setStoredDataPoints(int ID, long offset, int numOfDataPoints) {
+
+    if (ID <= 0)
+      throw new IllegalArgumentException("Invalid storage ID " + ID);
+
+    long newOffsets[] = offsets;
+    int newLengths[] = lengths;
+    if (ID >= newLengths.length) {
+      final int newSize = Math.max(ID + 1, newLengths.length * 2);
+      newOffsets = Arrays.copyOf(newOffsets, newSize);
+      newLengths = Arrays.copyOf(newLengths, newSize);
+      Arrays.fill(newLengths, lengths.length, newSize, -1);
+    }
+
+    newOffsets[ID] = offset;
+    newLengths[ID] = numOfDataPoints;
+
+    offsets = newOffsets;
+    lengths = newLengths;
+    lastID = Math.max(lastID, ID);
+
+  }
+
+  /**
+   * Registers a block of data points that is already present in the file under a new storage ID.
+   * Used when loading projects of old versions which did not save the storage IDs.
+   */
+  public synchronized int addStoredDataPoints(long offset, int numOfDataPoints) {
+    final int newID = lastID + 1;
+    setStoredDataPoints(newID, offset, numOfDataPoints);
+    return newID;
+  }
+
+  public synchronized void removeStoredDataPoints(int ID) {
+    if ((ID > 0) && (ID < lengths.length))
+      lengths[ID] = -1;
+  }
+
+  /**
+   * @return the sorted array of storage IDs that are currently in use
+   */
+  public int[] getStorageIDs() {
+    final int maxID = lastID;
+    final int currentLengths[] = lengths;
+    int result[] = new int[maxID];
+    int count = 0;
+    for (int ID = 1; ID <= maxID; ID++) {
+      if (currentLengths[ID] >= 0)
+        result[count++] = ID;
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  public long getOffset(int ID) {
+    getStoredLength(ID);
+    return offsets[ID];
+  }
+
+  public int getNumOfDataPoints(int ID) {
+    return getStoredLength(ID);
+  }
+
+  /**
+   * Reads the data points stored under the given ID. This method only blocks while the storage is
+   * being closed and may be called by multiple threads at the same time.
+   */
+  public DataPoint[] readDataPoints(int ID) throws IOException {
+
+    final Lock readLock = lockOpened();
+    try {
+      final ByteBuffer source = getDataPointsBuffer(ID);
+      final int numOfDataPoints = source.capacity() / BYTES_PER_DATA_POINT;
+
+      return decodeDataPoints(source, 0, numOfDataPoints);
+    } finally {
+      readLock.unlock();
+    }
+
+  }
+
+  /**
+   * Reads the data points stored under the given ID whose m/z value is within the given bounds
+   * (inclusive). The data points must have been stored in m/z order.
+   */
+  public DataPoint[] readDataPoints(int ID, double minMZ, double maxMZ) throws IOException {
+
+    final Lock readLock = lockOpened();
+    try {
+      final ByteBuffer source = getDataPointsBuffer(ID);
+      final int numOfDataPoints = source.capacity() / BYTES_PER_DATA_POINT;
+
+      final int startIndex = findFirstIndex(source, numOfDataPoints, minMZ, false);
+      final int endIndex = findFirstIndex(source, numOfDataPoints, maxMZ, true);
+
+      return decodeDataPoints(source, startIndex, Math.max(0, endIndex - startIndex));
+    } finally {
+      readLock.unlock();
+    }
+
+  }
+
+  /**
+   * Copies the m/z and intensity values stored under the given ID into the given arrays, without
+   * creating DataPoint instances.
+   *
+   * @return number of data points copied
+   */
+  public int readDataPoints(int ID, double mzValues[], double intensityValues[])
+      throws IOException {
+
+    final Lock readLock = lockOpened();
+    try {
+      final ByteBuffer source = getDataPointsBuffer(ID);
+      final int numOfDataPoints = source.capacity() / BYTES_PER_DATA_POINT;
+
+      decodeValues(source, 0, numOfDataPoints, mzValues, intensityValues);
+      return numOfDataPoints;
+    } finally {
+      readLock.unlock();
+    }
+
+  }
+
+  /**
+   * Copies the m/z and intensity values stored under the given ID whose m/z value is within the
+   * given bounds (inclusive) into the given arrays. The range is located by binary search, so the
+   * data points must have been stored in m/z order.
+   *
+   * @return number of data points copied
+   */
+  public int readDataPoints(int ID, double minMZ, double maxMZ, double mzValues[],
+      double intensityValues[]) throws IOException {
+
+    final Lock readLock = lockOpened();
+    try {
+      final ByteBuffer source = getDataPointsBuffer(ID);
+      final int numOfDataPoints = source.capacity() / BYTES_PER_DATA_POINT;
+
+      final int startIndex = findFirstIndex(source, numOfDataPoints, minMZ, false);
+      final int endIndex = findFirstIndex(source, numOfDataPoints, maxMZ, true);
+      final int count = Math.max(0, endIndex - startIndex);
+
+      decodeValues(source, startIndex, count, mzValues, intensityValues);
+      return count;
+    } finally {
+      readLock.unlock();
+    }
+
+  }
+
+  /**
+   * Acquires the read lock, which prevents closing the storage while the mapped segments are read.
+   *
+   * @return the locked read lock, to be unlocked by the caller
+   */
+  private Lock lockOpened() throws IOException {
+    final Lock readLock = closeLock.readLock();
+    readLock.lock();
+    if (closed) {
+      readLock.unlock();
+      throw new IOException("Data points file " + fileName + " has been closed");
+    }
+    return readLock;
+  }
+
+  /**
+   * Returns a buffer containing exactly the bytes of the data points stored under the given ID.
+   * The buffer is private to the calling thread and may be a view of a mapped segment, so it must
+   * only be used while holding the read lock (see lockOpened()).
+   */
+  private ByteBuffer getDataPointsBuffer(int ID) throws IOException {
+
+    // The length is read only once, a concurrent removal may set it to -1
+    final int numOfBytes = getStoredLength(ID) * BYTES_PER_DATA_POINT;
+    final long offset = offsets[ID];
+
+    final int segmentOffset = (int) (offset & SEGMENT_MASK);
+    final MappedByteBuffer segment = (MemoryMapUtils.isUnmapSupported()
+        && (segmentOffset + (long) numOfBytes <= SEGMENT_SIZE))
+            ? getSegment((int) (offset >>> SEGMENT_BITS), segmentOffset + numOfBytes)
+            : null;
+    if (segment != null) {
+      final ByteBuffer view = segment.duplicate();
+      // JDK 9 breaks compatibility with JRE8: need to cast
+      ((Buffer) view).position(segmentOffset);
+      ((Buffer) view).limit(segmentOffset + numOfBytes);
+      return view.slice();
+    }
+
+    final ByteBuffer source = ByteBuffer.allocate(numOfBytes);
+    long position = offset;
+    while (source.hasRemaining()) {
+      final int read = readBytes(source, position);
+      if (read < 0)
+        throw new IOException("Unexpected end of file " + fileName);
+      position += read;
+    }
+    return source;
+
+  }
+
+  /**
+   * Reads a sequence of bytes starting at the given offset of the storage into the buffer, like
+   * FileChannel.read(ByteBuffer, long). The read does not go beyond the read-only part of the
+   * storage, if the offset is within that part. May be called by multiple threads at the same time.
+   *
+   * @return number of bytes read or -1 if the offset is beyond the stored data
+   */
+  public int readBytes(ByteBuffer buffer, long offset) throws IOException {
+
+    if (offset >= appendStart)
+      return channel.read(buffer, offset - appendStart);
+
+    final long available = baseLength - offset;
+    if (available <= 0)
+      return -1;
+    if (buffer.remaining() <= available)
+      return baseChannel.read(buffer, baseOffset + offset);
+
+    final ByteBuffer part = buffer.duplicate();
+    // JDK 9 breaks compatibility with JRE8: need to cast
+    ((Buffer) part).limit(part.position() + (int) available);
+    final int read = baseChannel.read(part, baseOffset + offset);
+    if (read > 0)
+      ((Buffer) buffer).position(buffer.position() + read);
+    return read;
+  }
+
+  /**
+   * Binary search for the first data point with m/z value >= mz (or > mz, if exclusive is set)
+   */
+  private static int findFirstIndex(ByteBuffer source, int numOfDataPoints, double mz,
+      boolean exclusive) {
+    int low = 0, high = numOfDataPoints;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      final double middleMZ = source.getFloat(middle * BYTES_PER_DATA_POINT);
+      if ((middleMZ < mz) || (exclusive && (middleMZ == mz)))
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  private static DataPoint[] decodeDataPoints(ByteBuffer source, int startIndex,
+      int numOfDataPoints) {
+    // Absolute getters do not modify the state of the buffer
+    DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+    for (int i = 0; i < numOfDataPoints; i++) {
+      final int index = (startIndex + i) * BYTES_PER_DATA_POINT;
+      float mz = source.getFloat(index);
+      float intensity = source.getFloat(index + 4);
+      dataPoints[i] = new SimpleDataPoint(mz, intensity);
+    }
+    return dataPoints;
+  }
+
+  private static void decodeValues(ByteBuffer source, int startIndex, int numOfDataPoints,
+      double mzValues[], double intensityValues[]) {
+    for (int i = 0; i < numOfDataPoints; i++) {
+      final int index = (startIndex + i) * BYTES_PER_DATA_POINT;
+      mzValues[i] = source.getFloat(index);
+      intensityValues[i] = source.getFloat(index + 4);
+    }
+  }
+
+  /**
+   * Closes the files and unmaps all mapped segments. Waits until the running reads have finished.
+   */
+  public void close() throws IOException {
+    final Lock writeLock = closeLock.writeLock();
+    writeLock.lock();
+    try {
+      if (closed)
+        return;
+      closed = true;
+      final List<MappedByteBuffer> unusedSegments = new ArrayList<>();
+      synchronized (replacedSegments) {
+        final AtomicReferenceArray<MappedByteBuffer> mappedSegments = segments;
+        segments = new AtomicReferenceArray<>(0);
+        for (int i = 0; i < mappedSegments.length(); i++) {
+          if (mappedSegments.get(i) != null)
+            unusedSegments.add(mappedSegments.get(i));
+        }
+        unusedSegments.addAll(replacedSegments);
+        replacedSegments.clear();
+      }
+      unusedSegments.forEach(MemoryMapUtils::unmap);
+      file.close();
+      if (baseFile != null)
+        baseFile.close();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * @return number of data points stored under the given ID
+   */
+  private int getStoredLength(int ID) {
+    final int maxID = lastID;
+    final int currentLengths[] = lengths;
+    final int length = ((ID > 0) && (ID <= maxID)) ? currentLengths[ID] : -1;
+    if (length < 0)
+      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    return length;
+  }
+
+  /**
+   * Returns the mapped segment with the given index, if it covers at least requiredLength bytes.
+   * A segment of the growing temporary file is only re-mapped when it would at least double its
+   * size, otherwise null is returned and the bytes have to be read from the channel. Must be called
+   * while holding the read lock.
+   */
+  private MappedByteBuffer getSegment(int index, int requiredLength) throws IOException {
+
+    final AtomicReferenceArray<MappedByteBuffer> currentSegments = segments;
+    if (index < currentSegments.length()) {
+      final MappedByteBuffer segment = currentSegments.get(index);
+      if ((segment != null) && (segment.capacity() >= requiredLength))
+        return segment;
+    }
+
+    synchronized (replacedSegments) {
+
+      if (index >= segments.length())
+        growSegments(index + 1);
+
+      final MappedByteBuffer segment = segments.get(index);
+      if ((segment != null) && (segment.capacity() >= requiredLength))
+        return segment;
+
+      final MappedByteBuffer newSegment;
+      final long start = (long) index << SEGMENT_BITS;
+      if (start < appendStart) {
+        final long size = Math.min(SEGMENT_SIZE, baseLength - start);
+        if (size < requiredLength)
+          throw new IOException("Unexpected end of the stored data points in " + fileName);
+        newSegment = baseChannel.map(FileChannel.MapMode.READ_ONLY, baseOffset + start, size);
+      } else {
+        final long size = Math.min(SEGMENT_SIZE, fileLength - start);
+        if (size < requiredLength)
+          throw new IOException("Unexpected end of file " + fileName);
+        if ((segment != null) && (size < SEGMENT_SIZE) && (size < 2L * segment.capacity()))
+          return null;
+        newSegment = channel.map(FileChannel.MapMode.READ_ONLY, start - appendStart, size);
+      }
+
+      // Other readers may still use the replaced segment, so it is unmapped by close()
+      if (segment != null)
+        replacedSegments.add(segment);
+      segments.set(index, newSegment);
+      return newSegment;
+
+    }
+  }
+
+  /**
+   * Must be called under the lock of replacedSegments
+   */
+  private void growSegments(int minSize) {
+    final AtomicReferenceArray<MappedByteBuffer> currentSegments = segments;
+    AtomicReferenceArray<MappedByteBuffer> newSegments =
+        new AtomicReferenceArray<>(Math.max(minSize, currentSegments.length() * 2));
+    for (int i = 0; i < currentSegments.length(); i++)
+      newSegments.set(i, currentSegments.get(i));
+    segments = newSegments;
+  }
+
+}
@@ -20,11 +20,7 @@ package net.sf.mzmine.project.impl;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -33,7 +29,8 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.logging.Level;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -44,17 +41,18 @@ import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
-import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 
 /**
  * RawDataFile implementation. It provides storage of data points for scans and mass lists using the
  * storeDataPoints() and readDataPoints() methods. The data points are stored in a temporary file
- * (dataPointsFile) and the structure of the file is stored in two TreeMaps. The dataPointsOffsets
- * maps storage ID to the offset in the dataPointsFile. The dataPointsLength maps the storage ID to
- * the number of data points stored under this ID. When stored data points are deleted using
- * removeStoredDataPoints(), the dataPointsFile is not modified, the storage ID is just deleted from
- * the two TreeMaps. When the project is saved, the contents of the dataPointsFile are consolidated
- * - only data points referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * (dataPointsFile) managed by a MappedDataPointsStorage, which maps storage IDs to offsets and
+ * numbers of data points in the file. Reading and storing of data points only block while the
+ * storage is replaced (see releaseProjectFile()), so multiple tasks can read scans of the same file
+ * in parallel. When stored data points are deleted using
+ * removeStoredDataPoints(), the dataPointsFile is not modified, the storage ID is just released.
+ * When the project is saved, the contents of the dataPointsFile are consolidated - only data points
+ * referenced by valid storage IDs are saved (see the RawDataFileSaveHandler class). Recently read
+ * data points are kept in the shared DataPointsCache.
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
@@ -67,13 +65,13 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   private final Hashtable<Integer, Double> dataMaxBasePeakIntensity, dataMaxTIC;
   private final Hashtable<Integer, int[]> scanNumbersCache;
 
-  private ByteBuffer buffer = ByteBuffer.allocate(20000);
-  private final TreeMap<Integer, Long> dataPointsOffsets;
-  private final TreeMap<Integer, Integer> dataPointsLengths;
-
   // Temporary file for scan data storage
-  private File dataPointsFileName;
-  private RandomAccessFile dataPointsFile;
+  private volatile MappedDataPointsStorage dataPointsStorage;
+
+  // Reads and stores of data points hold the read lock, releaseProjectFile() holds the write lock
+  // while the storage is copied and replaced. Always acquired after the lock of this object, if
+  // both are needed.
+  private final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
 
   // To store mass lists that have been added but not yet reflected in the GUI by the
   // notifyUpdatedMassLists() method
@@ -95,8 +93,6 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     dataMaxBasePeakIntensity = new Hashtable<Integer, Double>();
     dataMaxTIC = new Hashtable<Integer, Double>();
     scans = new Hashtable<Integer, StorableScan>();
-    dataPointsOffsets = new TreeMap<Integer, Long>();
-    dataPointsLengths = new TreeMap<Integer, Integer>();
 
   }
 
@@ -113,41 +109,82 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   }
 
   /**
-   * Returns the (already opened) data points file. Warning: may return null in case no scans have
-   * been added yet to this RawDataFileImpl instance
+   * Reads bytes of the data points file starting at the given offset (see getDataPointsOffsets()).
+   * Used to copy the data points file when saving projects.
+   * 
+   * @return number of bytes read or -1 if the offset is beyond the stored data
    */
-  public RandomAccessFile getDataPointsFile() {
-    return dataPointsFile;
+  public int readDataPointsFile(ByteBuffer buffer, long offset) throws IOException {
+    final Lock readLock = storageLock.readLock();
+    readLock.lock();
+    try {
+      final MappedDataPointsStorage storage = dataPointsStorage;
+      if (storage == null)
+        return -1;
+      return storage.readBytes(buffer, offset);
+    } finally {
+      readLock.unlock();
+    }
   }
 
   /**
    * Opens the given file as a data points file for this RawDataFileImpl instance. If the file is
-   * not empty, the TreeMaps supplied as parameters have to describe the mapping of storage IDs to
-   * data points in the file.
+   * not empty, its contents have to be described by calls to setStoredDataPoints() or
+   * addStoredDataPoints().
    */
   public synchronized void openDataPointsFile(File dataPointsFileName) throws IOException {
 
-    if (this.dataPointsFile != null) {
+    if (this.dataPointsStorage != null) {
       throw new IOException("Cannot open another data points file, because one is already open");
     }
 
-    this.dataPointsFileName = dataPointsFileName;
-    this.dataPointsFile = new RandomAccessFile(dataPointsFileName, "rw");
+    this.dataPointsStorage = new MappedDataPointsStorage(dataPointsFileName);
 
-    // Locks the temporary file so it is not removed when another instance
-    // of MZmine is starting. Lock will be automatically released when this
-    // instance of MZmine exits. Locking may fail on network-mounted filesystems.
-    try {
-      FileChannel fileChannel = dataPointsFile.getChannel();
-      fileChannel.lock();
-    } catch (IOException e) {
-      logger.log(Level.WARNING, "Failed to lock the file " + dataPointsFileName, e);
+  }
+
+  /**
+   * Opens a new data points file for this RawDataFileImpl instance, which starts with the scan data
+   * stored uncompressed in a project file. These data are mapped from the project file, not copied.
+   * The contents have to be described by calls to setStoredDataPoints().
+   * 
+   * @param projectFile project file
+   * @param offset position of the scan data in the project file
+   * @param length number of bytes of the scan data
+   */
+  public synchronized void openDataPointsFile(File projectFile, long offset, long length)
+      throws IOException {
+
+    if (this.dataPointsStorage != null) {
+      throw new IOException("Cannot open another data points file, because one is already open");
     }
 
-    // Unfortunately, deleteOnExit() doesn't work on Windows, see JDK
-    // bug #4171239. We will try to remove the temporary files in a
-    // shutdown hook registered in the main.ShutDownHook class
-    dataPointsFileName.deleteOnExit();
+    this.dataPointsStorage =
+        new MappedDataPointsStorage(projectFile, offset, length, createNewDataPointsFile());
+
+  }
+
+  /**
+   * If the scan data are read from the given project file, copies them to a new temporary data
+   * points file, so the project file can be replaced. Reads and stores of data points wait until
+   * the copy has replaced the old storage.
+   */
+  public synchronized void releaseProjectFile(File projectFile) throws IOException {
+
+    final Lock writeLock = storageLock.writeLock();
+    writeLock.lock();
+    try {
+      final MappedDataPointsStorage storage = dataPointsStorage;
+      if ((storage == null) || (storage.getBaseFileName() == null)
+          || !storage.getBaseFileName().getCanonicalFile().equals(projectFile.getCanonicalFile()))
+        return;
+
+      logger.info("Copying the scan data of " + dataFileName + " from " + projectFile);
+      dataPointsStorage = storage.copyTo(createNewDataPointsFile());
+      storage.close();
+      storage.getFileName().delete();
+    } finally {
+      writeLock.unlock();
+    }
 
   }
 
@@ -319,91 +356,178 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   }
 
-  public synchronized int storeDataPoints(DataPoint dataPoints[]) throws IOException {
+  public int storeDataPoints(DataPoint dataPoints[]) throws IOException {
 
-    if (dataPointsFile == null) {
-      File newFile = RawDataFileImpl.createNewDataPointsFile();
-      openDataPointsFile(newFile);
+    if (dataPointsStorage == null) {
+      synchronized (this) {
+        if (dataPointsStorage == null) {
+          File newFile = RawDataFileImpl.createNewDataPointsFile();
+          openDataPointsFile(newFile);
+        }
+      }
     }
 
-    final long currentOffset = dataPointsFile.length();
+    final Lock readLock = storageLock.readLock();
+    readLock.lock();
+    try {
+      return dataPointsStorage.storeDataPoints(dataPoints);
+    } finally {
+      readLock.unlock();
+    }
 
-    final int currentID;
-    if (!dataPointsOffsets.isEmpty())
-      currentID = dataPointsOffsets.lastKey() + 1;
-    else
-      currentID = 1;
+  }
 
-    final int numOfDataPoints = dataPoints.length;
+  public DataPoint[] readDataPoints(int ID) throws IOException {
 
-    // Convert the dataPoints into a byte array. Each float takes 4 bytes,
-    // so we get the current float offset by dividing the size of the file
-    // by 4
-    final int numOfBytes = numOfDataPoints * 2 * 4;
+    final DataPointsCache cache = DataPointsCache.getInstance();
+    DataPoint dataPoints[] = cache.get(this, ID);
+    if (dataPoints != null)
+      return dataPoints;
 
-    if (buffer.capacity() < numOfBytes) {
-      buffer = ByteBuffer.allocate(numOfBytes * 2);
-    } else {
-      // JDK 9 breaks compatibility with JRE8: need to cast
-      // https://stackoverflow.com/questions/48693695/java-nio-buffer-not-loading-clear-method-on-runtime
-      ((Buffer) buffer).clear();
+    final Lock readLock = storageLock.readLock();
+    readLock.lock();
+    try {
+      dataPoints = getStorage(ID).readDataPoints(ID);
+    } finally {
+      readLock.unlock();
     }
+    cache.put(this, ID, dataPoints);
+    return dataPoints;
 
-    FloatBuffer floatBuffer = buffer.asFloatBuffer();
-    for (DataPoint dp : dataPoints) {
-      floatBuffer.put((float) dp.getMZ());
-      floatBuffer.put((float) dp.getIntensity());
-    }
+  }
 
-    dataPointsFile.seek(currentOffset);
-    dataPointsFile.write(buffer.array(), 0, numOfBytes);
+  /**
+   * Reads the stored data points whose m/z value is within the given bounds (inclusive)
+   */
+  public DataPoint[] readDataPoints(int ID, double minMZ, double maxMZ) throws IOException {
 
-    dataPointsOffsets.put(currentID, currentOffset);
-    dataPointsLengths.put(currentID, numOfDataPoints);
+    final DataPoint cached[] = DataPointsCache.getInstance().peek(this, ID);
+    if (cached != null) {
+      final int startIndex = findFirstIndex(cached, minMZ, false);
+      final int endIndex = findFirstIndex(cached, maxMZ, true);
+      return Arrays.copyOfRange(cached, startIndex, Math.max(startIndex, endIndex));
+    }
 
-    return currentID;
+    final Lock readLock = storageLock.readLock();
+    readLock.lock();
+    try {
+      return getStorage(ID).readDataPoints(ID, minMZ, maxMZ);
+    } finally {
+      readLock.unlock();
+    }
 
   }
 
-  public synchronized DataPoint[] readDataPoints(int ID) throws IOException {
-
-    final Long currentOffset = dataPointsOffsets.get(ID);
-    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+  /**
+   * Copies the stored m/z and intensity values into the given arrays
+   * 
+   * @return number of data points copied
+   */
+  public int readDataPoints(int ID, double mzValues[], double intensityValues[])
+      throws IOException {
+
+    final DataPoint cached[] = DataPointsCache.getInstance().peek(this, ID);
+    if (cached != null) {
+      for (int i = 0; i < cached.length; i++) {
+        mzValues[i] = cached[i].getMZ();
+        intensityValues[i] = cached[i].getIntensity();
+      }
+      return cached.length;
+    }
 
-    if ((currentOffset == null) || (numOfDataPoints == null)) {
-      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    final Lock readLock = storageLock.readLock();
+    readLock.lock();
+    try {
+      return getStorage(ID).readDataPoints(ID, mzValues, intensityValues);
+    } finally {
+      readLock.unlock();
     }
 
-    final int numOfBytes = numOfDataPoints * 2 * 4;
+  }
 
-    if (buffer.capacity() < numOfBytes) {
-      buffer = ByteBuffer.allocate(numOfBytes * 2);
-    } else {
-      // JDK 9 breaks compatibility with JRE8: need to cast
-      // https://stackoverflow.com/questions/48693695/java-nio-buffer-not-loading-clear-method-on-runtime
-      ((Buffer) buffer).clear();
+  /**
+   * Copies the stored m/z and intensity values whose m/z value is within the given bounds
+   * (inclusive) into the given arrays
+   * 
+   * @return number of data points copied
+   */
+  public int readDataPoints(int ID, double minMZ, double maxMZ, double mzValues[],
+      double intensityValues[]) throws IOException {
+    final Lock readLock = storageLock.readLock();
+    readLock.lock();
+    try {
+      return getStorage(ID).readDataPoints(ID, minMZ, maxMZ, mzValues, intensityValues);
+    } finally {
+      readLock.unlock();
     }
+  }
 
-    dataPointsFile.seek(currentOffset);
-    dataPointsFile.read(buffer.array(), 0, numOfBytes);
+  /**
+   * @return number of data points stored under the given ID
+   */
+  public int getNumOfStoredDataPoints(int ID) {
+    return getStorage(ID).getNumOfDataPoints(ID);
+  }
 
-    FloatBuffer floatBuffer = buffer.asFloatBuffer();
+  public void removeStoredDataPoints(int ID) throws IOException {
+    DataPointsCache.getInstance().invalidate(this, ID);
+    final Lock readLock = storageLock.readLock();
+    readLock.lock();
+    try {
+      final MappedDataPointsStorage storage = dataPointsStorage;
+      if (storage != null)
+        storage.removeStoredDataPoints(ID);
+    } finally {
+      readLock.unlock();
+    }
+  }
 
-    DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+  /**
+   * Registers data points that are already present in the data points file under the given storage
+   * ID. Used when loading projects.
+   */
+  public void setStoredDataPoints(int ID, long offset, int numOfDataPoints) throws IOException {
+    getOpenedStorage().setStoredDataPoints(ID, offset, numOfDataPoints);
+  }
 
-    for (int i = 0; i < numOfDataPoints; i++) {
-      float mz = floatBuffer.get();
-      float intensity = floatBuffer.get();
-      dataPoints[i] = new SimpleDataPoint(mz, intensity);
-    }
+  /**
+   * Registers data points that are already present in the data points file under a new storage ID.
+   * Used when loading projects of old versions.
+   * 
+   * @return the new storage ID
+   */
+  public int addStoredDataPoints(long offset, int numOfDataPoints) throws IOException {
+    return getOpenedStorage().addStoredDataPoints(offset, numOfDataPoints);
+  }
 
-    return dataPoints;
+  /**
+   * Binary search for the first data point with m/z value >= mz (or > mz, if exclusive is set)
+   */
+  private static int findFirstIndex(DataPoint dataPoints[], double mz, boolean exclusive) {
+    int low = 0, high = dataPoints.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      final double middleMZ = dataPoints[middle].getMZ();
+      if ((middleMZ < mz) || (exclusive && (middleMZ == mz)))
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
 
+  private MappedDataPointsStorage getStorage(int ID) {
+    final MappedDataPointsStorage storage = dataPointsStorage;
+    if (storage == null)
+      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    return storage;
   }
 
-  public synchronized void removeStoredDataPoints(int ID) throws IOException {
-    dataPointsOffsets.remove(ID);
-    dataPointsLengths.remove(ID);
+  private MappedDataPointsStorage getOpenedStorage() throws IOException {
+    final MappedDataPointsStorage storage = dataPointsStorage;
+    if (storage == null)
+      throw new IOException("Data points file has not been opened");
+    return storage;
   }
 
   @Override
@@ -433,7 +557,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     for (StorableScan scan : scans.values()) {
       scan.updateValues();
     }
-    logger.finest("Writing of scans to file " + dataPointsFileName + " finished");
+    logger.finest("Writing of scans to file "
+        + (dataPointsStorage == null ? null : dataPointsStorage.getFileName()) + " finished");
     return this;
   }
 
@@ -524,23 +649,43 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return getScanNumbers(msLevel).length;
   }
 
-  public synchronized TreeMap<Integer, Long> getDataPointsOffsets() {
+  /**
+   * @return a snapshot of the mapping of storage IDs to offsets in the data points file
+   */
+  public TreeMap<Integer, Long> getDataPointsOffsets() {
+    TreeMap<Integer, Long> dataPointsOffsets = new TreeMap<Integer, Long>();
+    final MappedDataPointsStorage storage = dataPointsStorage;
+    if (storage != null) {
+      for (int ID : storage.getStorageIDs())
+        dataPointsOffsets.put(ID, storage.getOffset(ID));
+    }
     return dataPointsOffsets;
   }
 
-  public synchronized TreeMap<Integer, Integer> getDataPointsLengths() {
+  /**
+   * @return a snapshot of the mapping of storage IDs to numbers of stored data points
+   */
+  public TreeMap<Integer, Integer> getDataPointsLengths() {
+    TreeMap<Integer, Integer> dataPointsLengths = new TreeMap<Integer, Integer>();
+    final MappedDataPointsStorage storage = dataPointsStorage;
+    if (storage != null) {
+      for (int ID : storage.getStorageIDs())
+        dataPointsLengths.put(ID, storage.getNumOfDataPoints(ID));
+    }
     return dataPointsLengths;
   }
 
   @Override
   public synchronized void close() {
+    DataPointsCache.getInstance().invalidate(this);
+    final MappedDataPointsStorage storage = dataPointsStorage;
+    if (storage == null)
+      return;
     try {
-      if (dataPointsFileName != null) {
-        dataPointsFile.close();
-        dataPointsFileName.delete();
-      }
+      storage.close();
+      storage.getFileName().delete();
     } catch (IOException e) {
-      logger.warning("Could not close file " + dataPointsFileName + ": " + e.toString());
+      logger.warning("Could not close file " + storage.getFileName() + ": " + e.toString());
     }
   }
 
@@ -21,7 +21,6 @@ package net.sf.mzmine.project.impl;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Vector;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
@@ -35,6 +34,7 @@ import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.desktop.impl.projecttree.RawDataTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.util.scans.ScanUtils;
@@ -127,49 +127,76 @@ public class StorableScan implements Scan {
 
   }
 
+  /**
+   * @see net.sf.mzmine.datamodel.MassSpectrum#getDataPoints(double[], double[])
+   */
+  @Override
+  public int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+
+    try {
+      return rawDataFile.readDataPoints(storageID, mzValues, intensityValues);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return 0;
+    }
+
+  }
+
   /**
    * @return Returns scan datapoints within a given range
    */
   public @Nonnull DataPoint[] getDataPointsByMass(@Nonnull Range<Double> mzRange) {
 
-    DataPoint dataPoints[] = getDataPoints();
-
-    int startIndex, endIndex;
-    for (startIndex = 0; startIndex < dataPoints.length; startIndex++) {
-      if (dataPoints[startIndex].getMZ() >= mzRange.lowerEndpoint()) {
-        break;
-      }
+    // Only the data points within the range are decoded
+    try {
+      return rawDataFile.readDataPoints(storageID, mzRange.lowerEndpoint(),
+          mzRange.upperEndpoint());
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return new DataPoint[0];
     }
 
-    for (endIndex = startIndex; endIndex < dataPoints.length; endIndex++) {
-      if (dataPoints[endIndex].getMZ() > mzRange.upperEndpoint()) {
-        break;
-      }
-    }
+  }
 
-    DataPoint pointsWithinRange[] = new DataPoint[endIndex - startIndex];
+  /**
+   * @see net.sf.mzmine.datamodel.MassSpectrum#getDataPointsByMass(Range, double[], double[])
+   */
+  @Override
+  public int getDataPointsByMass(@Nonnull Range<Double> mzRange, @Nonnull double mzValues[],
+      @Nonnull double intensityValues[]) {
 
-    // Copy the relevant points
-    System.arraycopy(dataPoints, startIndex, pointsWithinRange, 0, endIndex - startIndex);
+    try {
+      return rawDataFile.readDataPoints(storageID, mzRange.lowerEndpoint(),
+          mzRange.upperEndpoint(), mzValues, intensityValues);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return 0;
+    }
 
-    return pointsWithinRange;
   }
 
   /**
    * @return Returns scan datapoints over certain intensity
    */
   public @Nonnull DataPoint[] getDataPointsOverIntensity(double intensity) {
-    int index;
-    Vector<DataPoint> points = new Vector<DataPoint>();
-    DataPoint dataPoints[] = getDataPoints();
 
-    for (index = 0; index < dataPoints.length; index++) {
-      if (dataPoints[index].getIntensity() >= intensity) {
-        points.add(dataPoints[index]);
+    final double mzValues[] = new double[numberOfDataPoints];
+    final double intensityValues[] = new double[numberOfDataPoints];
+    final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
+
+    // Only create DataPoint instances for the points that pass the threshold
+    int count = 0;
+    for (int i = 0; i < numOfDataPoints; i++) {
+      if (intensityValues[i] >= intensity) {
+        mzValues[count] = mzValues[i];
+        intensityValues[count] = intensityValues[i];
+        count++;
       }
     }
 
-    DataPoint pointsOverIntensity[] = points.toArray(new DataPoint[0]);
+    DataPoint pointsOverIntensity[] = new DataPoint[count];
+    for (int i = 0; i < count; i++)
+      pointsOverIntensity[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
 
     return pointsOverIntensity;
   }
@@ -225,26 +252,32 @@ public class StorableScan implements Scan {
   }
 
   void updateValues() {
-    DataPoint dataPoints[] = getDataPoints();
+
+    final double mzValues[] = new double[numberOfDataPoints];
+    final double intensityValues[] = new double[numberOfDataPoints];
+    final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
 
     // find m/z range and base peak
-    if (dataPoints.length > 0) {
+    if (numOfDataPoints > 0) {
 
-      basePeak = dataPoints[0];
-      mzRange = Range.singleton(dataPoints[0].getMZ());
+      int basePeakIndex = 0;
+      double minMZ = mzValues[0], maxMZ = mzValues[0];
       double tic = 0;
 
-      for (DataPoint dp : dataPoints) {
+      for (int i = 0; i < numOfDataPoints; i++) {
 
-        if (dp.getIntensity() > basePeak.getIntensity())
-          basePeak = dp;
+        if (intensityValues[i] > intensityValues[basePeakIndex])
+          basePeakIndex = i;
 
-        mzRange = mzRange.span(Range.singleton(dp.getMZ()));
+        minMZ = Math.min(minMZ, mzValues[i]);
+        maxMZ = Math.max(maxMZ, mzValues[i]);
 
-        tic += dp.getIntensity();
+        tic += intensityValues[i];
 
       }
 
+      basePeak = new SimpleDataPoint(mzValues[basePeakIndex], intensityValues[basePeakIndex]);
+      mzRange = Range.closed(minMZ, maxMZ);
       totalIonCurrent = new Double(tic);
 
     } else {
@@ -18,6 +18,8 @@
 
 package net.sf.mzmine.taskcontrol;
 
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 import net.sf.mzmine.taskcontrol.impl.TaskQueue;
 
 /**
@@ -33,6 +35,27 @@ public interface TaskController {
 
   public void addTasks(Task tasks[], TaskPriority[] priority);
 
+  /**
+   * Adds given task to the queue once all given tasks are done. If any of them did not finish
+   * successfully, the task is canceled instead.
+   * 
+   * @return future of the added task, see {@link #getTaskFuture(Task)}
+   */
+  public CompletableFuture<TaskStatus> addTaskAfter(Task task,
+      Collection<? extends Task> dependencies);
+
+  /**
+   * Returns a future which is completed with the final status of given task when the task is done.
+   * If the task threw an exception, the future is completed exceptionally.
+   */
+  public CompletableFuture<TaskStatus> getTaskFuture(Task task);
+
+  /**
+   * Waits until all given tasks are done. If called from a running task, the thread of the calling
+   * task is not counted as running while waiting, so the given tasks can be started.
+   */
+  public void waitForTasks(Collection<? extends Task> tasks) throws InterruptedException;
+
   public void setTaskPriority(Task task, TaskPriority priority);
 
   public void addTaskControlListener(TaskControlListener listener);
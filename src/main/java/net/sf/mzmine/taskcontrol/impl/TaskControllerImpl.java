@@ -18,13 +18,26 @@
 
 package net.sf.mzmine.taskcontrol.impl;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import com.google.common.collect.MapMaker;
 import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
 import net.sf.mzmine.main.GoogleAnalyticsTracker;
@@ -36,28 +49,59 @@ import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 
 /**
- * Task controller implementation
+ * Task controller implementation. Tasks are executed by a thread pool. HIGH priority tasks are
+ * started immediately, NORMAL priority tasks wait in the queue until one of the threads for NORMAL
+ * priority tasks is free. The maximum number of these threads is specified in the preferences
+ * dialog. Tasks are started when they are added or when another task is done, the Tasks in
+ * progress window is updated independently by a separate thread.
  */
-public class TaskControllerImpl implements TaskController, Runnable {
+public class TaskControllerImpl implements TaskController {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  ArrayList<TaskControlListener> listeners = new ArrayList<TaskControlListener>();
+  List<TaskControlListener> listeners = new CopyOnWriteArrayList<TaskControlListener>();
 
   /**
    * Update the task progress window every 300 ms
    */
-  private final int TASKCONTROLLER_THREAD_SLEEP = 300;
-
-  private Thread taskControllerThread;
+  private final int PROGRESS_UPDATE_INTERVAL = 300;
 
   private TaskQueue taskQueue;
 
+  private ExecutorService executor;
+
+  private ScheduledExecutorService progressUpdater;
+
+  /**
+   * NORMAL priority tasks waiting for a free thread, in the order they were added
+   */
+  private final Deque<WrappedTask> waitingTasks = new ArrayDeque<WrappedTask>();
+
+  /**
+   * Number of NORMAL priority tasks occupying a thread
+   */
+  private int runningTasks = 0;
+
+  /**
+   * Number of tasks waiting to occupy a thread again after waitForTasks(). They take precedence over
+   * the waiting tasks.
+   */
+  private int resumingTasks = 0;
+
   /**
-   * This vector contains references to all running threads of NORMAL priority. Maximum number of
-   * concurrent threads is specified in the preferences dialog.
+   * Futures of the added tasks. The tasks are weak keys compared by identity, so finished tasks can
+   * be garbage collected.
    */
-  private Vector<WorkerThread> runningThreads;
+  private final ConcurrentMap<Task, CompletableFuture<TaskStatus>> taskFutures =
+      new MapMaker().weakKeys().makeMap();
+
+  /**
+   * Task being processed by the current thread
+   */
+  private final ThreadLocal<WrappedTask> currentTask = new ThreadLocal<WrappedTask>();
+
+  private int previousQueueSize = -1;
+  private int previousPercentDone = -1;
 
   /**
    * Initialize the task controller
@@ -66,13 +110,19 @@ public class TaskControllerImpl implements TaskController, Runnable {
 
     taskQueue = new TaskQueue();
 
-    runningThreads = new Vector<WorkerThread>();
+    final AtomicInteger threadCounter = new AtomicInteger();
+    executor = Executors.newCachedThreadPool(
+        runnable -> new Thread(runnable, "Task thread " + threadCounter.incrementAndGet()));
 
-    // Create a low-priority thread that will manage the queue and start
-    // worker threads for tasks
-    taskControllerThread = new Thread(this, "Task controller thread");
-    taskControllerThread.setPriority(Thread.MIN_PRIORITY);
-    taskControllerThread.start();
+    // Create a low-priority thread that will update the Tasks in progress window
+    progressUpdater = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "Task controller thread");
+      thread.setPriority(Thread.MIN_PRIORITY);
+      thread.setDaemon(true);
+      return thread;
+    });
+    progressUpdater.scheduleWithFixedDelay(this::updateProgress, PROGRESS_UPDATE_INTERVAL,
+        PROGRESS_UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
 
   }
 
@@ -119,10 +169,20 @@ public class TaskControllerImpl implements TaskController, Runnable {
       taskClassName = task.getClass().getName();
       taskClassName = taskClassName.substring(taskClassName.lastIndexOf(".") + 1);
       uniqueTaskClasses.add(taskClassName);
-      WrappedTask newQueueEntry = new WrappedTask(task, priority);
+      WrappedTask newQueueEntry = new WrappedTask(task, priority, getOrCreateFuture(task));
       taskQueue.addWrappedTask(newQueueEntry);
+
+      if (priority == TaskPriority.HIGH) {
+        startTask(newQueueEntry);
+      } else {
+        synchronized (this) {
+          waitingTasks.add(newQueueEntry);
+        }
+      }
     }
 
+    startWaitingTasks();
+
     // Track module usage
 
     for (String value : uniqueTaskClasses) {
@@ -132,103 +192,62 @@ public class TaskControllerImpl implements TaskController, Runnable {
       gatThread.start();
     }
 
-    // Wake up the task controller thread
-    synchronized (this) {
-      this.notifyAll();
-    }
   }
 
-  /**
-   * Task controller thread main method.
-   * 
-   * @see java.lang.Runnable#run()
-   */
   @Override
-  public void run() {
-
-    int previousQueueSize = -1;
-    int previousPercentDone = -1; 
-
-    while (true) {
-
-      final int waitingTasks = taskQueue.getNumOfWaitingTasks();
-      final int percentDone = taskQueue.getTotalPercentComplete();
-      if ((waitingTasks != previousQueueSize) || (percentDone != previousPercentDone)) {
-        previousQueueSize = waitingTasks;
-        previousPercentDone = percentDone;
-        for (TaskControlListener listener : listeners)
-          listener.numberOfWaitingTasksChanged(waitingTasks, percentDone);
+  public CompletableFuture<TaskStatus> addTaskAfter(Task task,
+      Collection<? extends Task> dependencies) {
+
+    final CompletableFuture<TaskStatus> future = getOrCreateFuture(task);
+    final CompletableFuture<?> dependencyFutures[] =
+        dependencies.stream().map(this::getTaskFuture).toArray(CompletableFuture[]::new);
+
+    CompletableFuture.allOf(dependencyFutures).whenComplete((result, error) -> {
+      boolean allFinished = (error == null) && Arrays.stream(dependencyFutures)
+          .allMatch(dependency -> dependency.join() == TaskStatus.FINISHED);
+      if (allFinished) {
+        addTask(task);
+      } else {
+        task.cancel();
+        future.complete(task.getStatus());
       }
+    });
 
-      // If the queue is empty, we can sleep. When new task is added into
-      // the queue, we will be awaken by notify()
-      synchronized (this) {
-        while (taskQueue.isEmpty()) {
-          try {
-            this.wait();
-          } catch (InterruptedException e) {
-            // Ignore
-          }
-        }
-      }
-
-      // Check if all tasks in the queue are finished
-      if (taskQueue.allTasksFinished()) {
-        taskQueue.clear();
-        continue;
-      }
-
-      // Remove already finished threads from runningThreads
-      Iterator<WorkerThread> threadIterator = runningThreads.iterator();
-      while (threadIterator.hasNext()) {
-        WorkerThread thread = threadIterator.next();
-        if (thread.isFinished())
-          threadIterator.remove();
-      }
-
-      // Get a snapshot of the queue
-      WrappedTask[] queueSnapshot = taskQueue.getQueueSnapshot();
-
-      // Obtain the settings of max concurrent threads
-      NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
-          .getParameter(MZminePreferences.numOfThreads);
-      int maxRunningThreads;
-      if (parameter.isAutomatic() || (parameter.getValue() == null))
-        maxRunningThreads = Runtime.getRuntime().availableProcessors();
-      else
-        maxRunningThreads = parameter.getValue();
-
-      // Check all tasks in the queue
-      for (WrappedTask task : queueSnapshot) {
-
-        // Skip assigned and canceled tasks
-        if (task.isAssigned() || (task.getActualTask().getStatus() == TaskStatus.CANCELED))
-          continue;
-
-        // Create a new thread if the task is high-priority or if we
-        // have less then maximum # of threads running
-        if ((task.getPriority() == TaskPriority.HIGH)
-            || (runningThreads.size() < maxRunningThreads)) {
-          WorkerThread newThread = new WorkerThread(task);
-
-          if (task.getPriority() == TaskPriority.NORMAL) {
-            runningThreads.add(newThread);
-          }
+    return future;
+  }
 
-          newThread.start();
-        }
-      }
+  @Override
+  public CompletableFuture<TaskStatus> getTaskFuture(Task task) {
+    CompletableFuture<TaskStatus> future = taskFutures.get(task);
+    if (future != null)
+      return future;
+
+    // The task was not added to the task controller yet
+    final TaskStatus status = task.getStatus();
+    if ((status != TaskStatus.WAITING) && (status != TaskStatus.PROCESSING))
+      return CompletableFuture.completedFuture(status);
+    return getOrCreateFuture(task);
+  }
 
-      // Tell the queue to refresh the Task progress window
-      taskQueue.refresh();
+  @Override
+  public void waitForTasks(Collection<? extends Task> tasks) throws InterruptedException {
 
-      // Sleep for a while until next update
-      try {
-        Thread.sleep(TASKCONTROLLER_THREAD_SLEEP);
-      } catch (InterruptedException e) {
-        // Ignore
-      }
+    final CompletableFuture<Void> allDone = CompletableFuture
+        .allOf(tasks.stream().map(this::getTaskFuture).toArray(CompletableFuture[]::new));
+    if (allDone.isDone())
+      return;
 
+    // Free the thread of the calling task while waiting
+    final WrappedTask waitingTask = currentTask.get();
+    final boolean releasedThread = (waitingTask != null) && releaseThread(waitingTask);
+
+    try {
+      allDone.get();
+    } catch (ExecutionException e) {
+      // Failures of the tasks are reported by their status
+    } finally {
+      if (releasedThread)
+        reoccupyThread(waitingTask);
     }
 
   }
@@ -247,6 +266,10 @@ public class TaskControllerImpl implements TaskController, Runnable {
             "Setting priority of task \"" + task.getTaskDescription() + "\" to " + priority);
         wrappedTask.setPriority(priority);
 
+        // High priority tasks are started immediately
+        if (priority == TaskPriority.HIGH)
+          startTask(wrappedTask);
+
         // Call refresh to re-sort the queue according to new priority
         // and update the Task progress window
         taskQueue.refresh();
@@ -259,4 +282,163 @@ public class TaskControllerImpl implements TaskController, Runnable {
     listeners.add(listener);
   }
 
+  void setCurrentTask(WrappedTask wrappedTask) {
+    if (wrappedTask == null)
+      currentTask.remove();
+    else
+      currentTask.set(wrappedTask);
+  }
+
+  /**
+   * Called by the TaskRunner when the task is done
+   */
+  void taskDone(WrappedTask wrappedTask, TaskStatus status, Throwable failure) {
+
+    releaseThread(wrappedTask);
+
+    if (failure == null)
+      wrappedTask.getFuture().complete(status);
+    else
+      wrappedTask.getFuture().completeExceptionally(failure);
+
+    startWaitingTasks();
+
+  }
+
+  private CompletableFuture<TaskStatus> getOrCreateFuture(Task task) {
+    return taskFutures.computeIfAbsent(task, t -> new CompletableFuture<TaskStatus>());
+  }
+
+  /**
+   * Starts the task in a new thread, unless it was already started
+   */
+  private void startTask(WrappedTask wrappedTask) {
+    if (wrappedTask.assign())
+      executor.execute(new TaskRunner(this, wrappedTask));
+  }
+
+  /**
+   * Starts waiting NORMAL priority tasks while there are free threads
+   */
+  private void startWaitingTasks() {
+
+    final int maxRunningThreads = getMaxRunningThreads();
+    final List<WrappedTask> tasksToStart = new ArrayList<WrappedTask>();
+
+    synchronized (this) {
+      while ((runningTasks + resumingTasks < maxRunningThreads) && !waitingTasks.isEmpty()) {
+        WrappedTask wrappedTask = waitingTasks.poll();
+
+        // Skip tasks which were already started as HIGH priority tasks
+        if (!wrappedTask.assign())
+          continue;
+
+        wrappedTask.setOccupiesThread(true);
+        runningTasks++;
+        tasksToStart.add(wrappedTask);
+      }
+    }
+
+    for (WrappedTask wrappedTask : tasksToStart)
+      executor.execute(new TaskRunner(this, wrappedTask));
+
+  }
+
+  /**
+   * @return true if the task occupied a thread for NORMAL priority tasks
+   */
+  private boolean releaseThread(WrappedTask wrappedTask) {
+    synchronized (this) {
+      if (!wrappedTask.occupiesThread())
+        return false;
+      wrappedTask.setOccupiesThread(false);
+      runningTasks--;
+      notifyAll();
+    }
+    startWaitingTasks();
+    return true;
+  }
+
+  /**
+   * Waits until a thread for NORMAL priority tasks is free and lets the task occupy it again, so the
+   * number of running tasks stays within the limit
+   */
+  private void reoccupyThread(WrappedTask wrappedTask) {
+    boolean interrupted = false;
+    synchronized (this) {
+      resumingTasks++;
+      try {
+        while (runningTasks >= getMaxRunningThreads()) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            // The thread is still counted, so keep waiting and restore the flag later
+            interrupted = true;
+          }
+        }
+        wrappedTask.setOccupiesThread(true);
+        runningTasks++;
+      } finally {
+        resumingTasks--;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private int getMaxRunningThreads() {
+    // Obtain the settings of max concurrent threads
+    NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
+        .getParameter(MZminePreferences.numOfThreads);
+    if (parameter.isAutomatic() || (parameter.getValue() == null))
+      return Runtime.getRuntime().availableProcessors();
+    else
+      return parameter.getValue();
+  }
+
+  /**
+   * Updates the listeners and the Tasks in progress window. Runs periodically in the task
+   * controller thread.
+   */
+  private void updateProgress() {
+
+    // Tasks canceled while waiting are done
+    final List<WrappedTask> canceledTasks = new ArrayList<WrappedTask>();
+    synchronized (this) {
+      Iterator<WrappedTask> iterator = waitingTasks.iterator();
+      while (iterator.hasNext()) {
+        WrappedTask wrappedTask = iterator.next();
+        if ((wrappedTask.getActualTask().getStatus() == TaskStatus.CANCELED)
+            && wrappedTask.assign()) {
+          iterator.remove();
+          canceledTasks.add(wrappedTask);
+        }
+      }
+    }
+    for (WrappedTask wrappedTask : canceledTasks)
+      wrappedTask.getFuture().complete(TaskStatus.CANCELED);
+
+    final int waitingTasks = taskQueue.getNumOfWaitingTasks();
+    final int percentDone = taskQueue.getTotalPercentComplete();
+    if ((waitingTasks != previousQueueSize) || (percentDone != previousPercentDone)) {
+      previousQueueSize = waitingTasks;
+      previousPercentDone = percentDone;
+      for (TaskControlListener listener : listeners)
+        listener.numberOfWaitingTasksChanged(waitingTasks, percentDone);
+    }
+
+    if (taskQueue.isEmpty())
+      return;
+
+    // Check if all tasks in the queue are finished
+    if (taskQueue.allTasksFinished()) {
+      taskQueue.clear();
+      return;
+    }
+
+    // Tell the queue to refresh the Task progress window
+    taskQueue.refresh();
+
+  }
+
 }
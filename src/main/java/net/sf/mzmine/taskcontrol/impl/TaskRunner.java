@@ -27,19 +27,18 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 
 /**
- * Task controller worker thread, this thread will process one task and then finish
+ * Processes one task on a thread of the task controller
  */
-class WorkerThread extends Thread {
+class TaskRunner implements Runnable {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private WrappedTask wrappedTask;
-  private boolean finished = false;
+  private final TaskControllerImpl taskController;
+  private final WrappedTask wrappedTask;
 
-  WorkerThread(WrappedTask wrappedTask) {
-    super("Thread executing task " + wrappedTask);
+  TaskRunner(TaskControllerImpl taskController, WrappedTask wrappedTask) {
+    this.taskController = taskController;
     this.wrappedTask = wrappedTask;
-    wrappedTask.assignTo(this);
   }
 
   /**
@@ -47,39 +46,45 @@ class WorkerThread extends Thread {
    */
   public void run() {
 
+    final Thread thread = Thread.currentThread();
+    final String threadName = thread.getName();
+    thread.setName("Thread executing task " + wrappedTask);
+    wrappedTask.assignTo(thread);
+
     Task actualTask = wrappedTask.getActualTask();
+    Throwable failure = null;
 
     try {
 
-      // Log the start (INFO level events go to the Status bar, too)
-      logger.info("Starting processing of task " + actualTask.getTaskDescription());
+      // Tasks canceled while waiting in the queue are not started
+      if (actualTask.getStatus() != TaskStatus.CANCELED) {
 
-      // Process the actual task
-      actualTask.run();
+        // Log the start (INFO level events go to the Status bar, too)
+        logger.info("Starting processing of task " + actualTask.getTaskDescription());
 
-      // Check if task finished with an error
-      if (actualTask.getStatus() == TaskStatus.ERROR) {
+        // Process the actual task
+        taskController.setCurrentTask(wrappedTask);
+        actualTask.run();
 
-        String errorMsg = actualTask.getErrorMessage();
-        if (errorMsg == null)
-          errorMsg = "Unspecified error";
+        // Check if task finished with an error
+        if (actualTask.getStatus() == TaskStatus.ERROR) {
 
-        // Log the error
-        logger.severe("Error of task " + actualTask.getTaskDescription() + ": " + errorMsg);
+          String errorMsg = actualTask.getErrorMessage();
+          if (errorMsg == null)
+            errorMsg = "Unspecified error";
 
-        MZmineCore.getDesktop().displayErrorMessage(MZmineCore.getDesktop().getMainWindow(),
-            "Error of task " + actualTask.getTaskDescription(), errorMsg);
-      } else {
-        // Log the finish
-        logger.info("Processing of task " + actualTask.getTaskDescription() + " done, status "
-            + actualTask.getStatus());
-      }
+          // Log the error
+          logger.severe("Error of task " + actualTask.getTaskDescription() + ": " + errorMsg);
 
-      /*
-       * This is important to allow the garbage collector to remove the task, while keeping the task
-       * description in the "Tasks in progress" window
-       */
-      wrappedTask.removeTaskReference();
+          MZmineCore.getDesktop().displayErrorMessage(MZmineCore.getDesktop().getMainWindow(),
+              "Error of task " + actualTask.getTaskDescription(), errorMsg);
+        } else {
+          // Log the finish
+          logger.info("Processing of task " + actualTask.getTaskDescription() + " done, status "
+              + actualTask.getStatus());
+        }
+
+      }
 
     } catch (Throwable e) {
 
@@ -88,6 +93,8 @@ class WorkerThread extends Thread {
        * was some severe error, like OutOfMemoryError
        */
 
+      failure = e;
+
       logger.log(Level.SEVERE,
           "Unhandled exception " + e + " while processing task " + actualTask.getTaskDescription(),
           e);
@@ -98,17 +105,26 @@ class WorkerThread extends Thread {
           "Unhandled exception in task " + actualTask.getTaskDescription() + ": "
               + ExceptionUtils.exceptionToString(e));
 
-    }
+    } finally {
 
-    /*
-     * Mark this thread as finished
-     */
-    finished = true;
+      taskController.setCurrentTask(null);
+      wrappedTask.assignTo(null);
+      thread.setPriority(Thread.NORM_PRIORITY);
+      thread.setName(threadName);
 
-  }
+      final TaskStatus status = actualTask.getStatus();
+
+      /*
+       * This is important to allow the garbage collector to remove the task, while keeping the task
+       * description in the "Tasks in progress" window
+       */
+      if (failure == null)
+        wrappedTask.removeTaskReference();
+
+      taskController.taskDone(wrappedTask, status, failure);
+
+    }
 
-  boolean isFinished() {
-    return finished;
   }
 
 }
@@ -18,8 +18,10 @@
 
 package net.sf.mzmine.taskcontrol.impl;
 
+import java.util.concurrent.CompletableFuture;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
+import net.sf.mzmine.taskcontrol.TaskStatus;
 
 /**
  * Wrapper class for Tasks that stores additional information
@@ -28,24 +30,30 @@ public class WrappedTask {
 
   private Task task;
   private TaskPriority priority;
-  private WorkerThread assignedTo;
+  private boolean assigned = false;
+  private Thread assignedTo;
+  private final CompletableFuture<TaskStatus> future;
 
-  WrappedTask(Task task, TaskPriority priority) {
+  // True if the task occupies one of the threads for NORMAL priority tasks
+  private boolean occupiesThread = false;
+
+  WrappedTask(Task task, TaskPriority priority, CompletableFuture<TaskStatus> future) {
     this.task = task;
     this.priority = priority;
+    this.future = future;
   }
 
   /**
    * @return Returns the priority.
    */
-  TaskPriority getPriority() {
+  synchronized TaskPriority getPriority() {
     return priority;
   }
 
   /**
    * @param priority The priority to set.
    */
-  void setPriority(TaskPriority priority) {
+  synchronized void setPriority(TaskPriority priority) {
     this.priority = priority;
     if (assignedTo != null) {
       switch (priority) {
@@ -62,12 +70,41 @@ public class WrappedTask {
   /**
    * @return Returns the assigned.
    */
-  boolean isAssigned() {
-    return assignedTo != null;
+  synchronized boolean isAssigned() {
+    return assigned;
   }
 
-  void assignTo(WorkerThread thread) {
+  /**
+   * Marks the task as assigned for execution
+   * 
+   * @return false if the task was already assigned
+   */
+  synchronized boolean assign() {
+    if (assigned)
+      return false;
+    assigned = true;
+    return true;
+  }
+
+  /**
+   * Sets the thread which is executing the task, or null when the execution ended
+   */
+  synchronized void assignTo(Thread thread) {
     assignedTo = thread;
+    if (thread != null)
+      setPriority(priority);
+  }
+
+  synchronized boolean occupiesThread() {
+    return occupiesThread;
+  }
+
+  synchronized void setOccupiesThread(boolean occupiesThread) {
+    this.occupiesThread = occupiesThread;
+  }
+
+  CompletableFuture<TaskStatus> getFuture() {
+    return future;
   }
 
   /**
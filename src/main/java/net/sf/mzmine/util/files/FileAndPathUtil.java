@@ -434,6 +434,17 @@ public class FileAndPathUtil {
     }
   }
 
+  /**
+   * Folder for files cached by MZmine between sessions (e.g. compiled spectral libraries), inside
+   * the system temporary folder. The folder is created if it does not exist.
+   */
+  public static File getCacheDir() {
+    final String user = System.getProperty("user.name", "").replaceAll("[^A-Za-z0-9._-]", "_");
+    File dir = new File(System.getProperty("java.io.tmpdir"), "mzmine_cache_" + user);
+    createDirectory(dir);
+    return dir;
+  }
+
   /**
    * The Path of the Jar.
    * 
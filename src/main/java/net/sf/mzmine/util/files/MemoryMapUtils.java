@@ -0,0 +1,79 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.files;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Releases memory-mapped files without waiting for the garbage collector, so the files can be
+ * deleted or replaced afterwards (also on Windows). The buffer and all its views must not be used
+ * after unmapping, which would crash the JVM.
+ */
+public class MemoryMapUtils {
+
+  private static final Logger logger = Logger.getLogger(MemoryMapUtils.class.getName());
+
+  private static final Object unsafe;
+  private static final Method invokeCleaner;
+
+  static {
+    Object foundUnsafe = null;
+    Method foundInvokeCleaner = null;
+    try {
+      // Unsafe.invokeCleaner() is available in Java 9 or newer
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      foundUnsafe = theUnsafe.get(null);
+      foundInvokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.info("Unmapping of memory-mapped files is not supported: " + e);
+      foundUnsafe = null;
+      foundInvokeCleaner = null;
+    }
+    unsafe = foundUnsafe;
+    invokeCleaner = foundInvokeCleaner;
+  }
+
+  /**
+   * @return true if unmap() releases the buffers
+   */
+  public static boolean isUnmapSupported() {
+    return invokeCleaner != null;
+  }
+
+  /**
+   * Unmaps the buffer, if supported. Otherwise it is released by the garbage collector.
+   */
+  public static void unmap(MappedByteBuffer buffer) {
+    if ((buffer == null) || (invokeCleaner == null))
+      return;
+    try {
+      invokeCleaner.invoke(unsafe, buffer);
+    } catch (ReflectiveOperationException e) {
+      logger.log(Level.WARNING, "Could not unmap a memory-mapped file", e);
+    }
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.util.scans;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.mzmine.datamodel.RawDataFileWriter;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Processes scans on worker threads and adds the results to a raw data file writer in the order
+ * they were submitted. Only the submitting thread writes to the raw data file. It writes the oldest
+ * scan as soon as SCANS_PER_THREAD scans per worker are being processed or waiting, so the memory
+ * of the pipeline is bounded.
+ */
+public class OrderedScanWriter implements AutoCloseable {
+
+  // max. number of scans per worker thread that are being processed or waiting to be written
+  private static final int SCANS_PER_THREAD = 8;
+
+  private final RawDataFileWriter writer;
+  private final ExecutorService workers;
+  private final int maxPendingScans;
+  private final Deque<Future<? extends Scan>> pendingScans = new ArrayDeque<>();
+  private volatile int finishedScans = 0;
+
+  /**
+   * @param threadName name of the worker threads
+   */
+  public OrderedScanWriter(RawDataFileWriter writer, String threadName) {
+    this.writer = writer;
+    final int numOfThreads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+    this.maxPendingScans = numOfThreads * SCANS_PER_THREAD;
+    this.workers = Executors.newFixedThreadPool(numOfThreads, runnable -> {
+      Thread thread = new Thread(runnable, threadName);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Runs the processing of one scan on a worker thread. The resulting scan is written after the
+   * results of all previously submitted scans, null results are skipped. Blocks while too many
+   * scans are pending.
+   */
+  public void submit(Callable<? extends Scan> processing) throws IOException, InterruptedException {
+    pendingScans.add(workers.submit(processing));
+    while (pendingScans.size() >= maxPendingScans)
+      writeNext();
+  }
+
+  /**
+   * Waits for all submitted scans and writes them
+   */
+  public void finish() throws IOException, InterruptedException {
+    while (!pendingScans.isEmpty())
+      writeNext();
+  }
+
+  /**
+   * @return number of submitted scans which were written or skipped
+   */
+  public int getNumberOfFinishedScans() {
+    return finishedScans;
+  }
+
+  private void writeNext() throws IOException, InterruptedException {
+    final Scan scan;
+    try {
+      scan = pendingScans.poll().get();
+    } catch (ExecutionException e) {
+      throw new IOException("Error while processing scan: " + e.getCause(), e.getCause());
+    }
+    if (scan != null)
+      writer.addScan(scan);
+    finishedScans++;
+  }
+
+  /**
+   * Stops the worker threads, scans which were not written yet are discarded
+   */
+  @Override
+  public void close() {
+    workers.shutdownNow();
+  }
+
+}
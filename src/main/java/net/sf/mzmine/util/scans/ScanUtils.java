@@ -414,6 +414,46 @@ public class ScanUtils {
     return mostIntense;
   }
 
+  /**
+   * Returns the index of the first m/z value which is >= mz, using binary search. Only the first
+   * numOfValues elements of the array are considered.
+   *
+   * @param mzValues sorted(!) m/z values
+   * @return index of the m/z value or numOfValues, if all values are smaller
+   */
+  public static int findFirstIndexByMass(double mzValues[], int numOfValues, double mz) {
+    int low = 0, high = numOfValues;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (mzValues[middle] < mz)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the index of the value with highest intensity within the given m/z range. If there are
+   * more values with the same intensity, the one with lowest m/z is returned.
+   *
+   * @param mzValues sorted(!) m/z values
+   * @param intensityValues intensity values
+   * @param numOfValues number of valid elements in the arrays
+   * @param mzRange m/z range to search in
+   * @return index of the base peak or -1, if no value is in range
+   */
+  public static int findBasePeakIndex(double mzValues[], double intensityValues[],
+      int numOfValues, Range<Double> mzRange) {
+    int basePeakIndex = -1;
+    for (int i = findFirstIndexByMass(mzValues, numOfValues, mzRange.lowerEndpoint()); i < numOfValues
+        && mzValues[i] <= mzRange.upperEndpoint(); i++) {
+      if ((basePeakIndex < 0) || (intensityValues[i] > intensityValues[basePeakIndex]))
+        basePeakIndex = i;
+    }
+    return basePeakIndex;
+  }
+
   /**
    * Returns index of m/z value in a given array, which is closest to given value, limited by given
    * m/z tolerance. We assume the m/z array is sorted.
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.util.scans.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.util.scans.ScanAlignment;
+
+/**
+ * Aligns a library and a query spectrum and calculates cosine based scores on primitive arrays. The
+ * alignment is the same as {@link ScanAlignment#align(MZTolerance, DataPoint[], DataPoint[])}:
+ * library signals are matched in order of decreasing intensity to the most intense free query
+ * signal within the m/z tolerance. The query signals are kept sorted by m/z, so the candidates are
+ * found by binary search. The sums are calculated in the same order as on the aligned list, so the
+ * scores are identical to the scores of the list based calculation.
+ * <p>
+ * The work arrays are reused, so one instance must only be used by one thread (see
+ * {@link #forCurrentThread()}).
+ */
+public class CosineSimilarityEngine {
+
+  private static final ThreadLocal<CosineSimilarityEngine> engines =
+      ThreadLocal.withInitial(CosineSimilarityEngine::new);
+
+  private DataPoint library[], query[];
+  private int libraryN, queryN, overlap;
+
+  // library signals, libraryOrder is the intensity order
+  private double libraryMZ[] = new double[0], libraryIntensity[] = new double[0];
+  private int libraryOrder[] = new int[0];
+  // matching query signal of libraryOrder[i] or -1
+  private int match[] = new int[0];
+
+  // query signals, queryMZOrder is the m/z order with the sorted m/z values in sortedQueryMZ,
+  // queryOrder is the intensity order and queryRank the position of each signal in it
+  private double queryMZ[] = new double[0], queryIntensity[] = new double[0];
+  private double sortedQueryMZ[] = new double[0];
+  private int queryMZOrder[] = new int[0], queryOrder[] = new int[0], queryRank[] = new int[0];
+  private boolean queryMatched[] = new boolean[0];
+
+  // matched pairs sorted by their lowest m/z
+  private int pairs[] = new int[0];
+
+  // Same order as the intensity descending DataPointSorter, ties in the original order
+  private final IntComparator libraryIntensityComparator =
+      (i, j) -> compareIntensity(libraryIntensity, libraryMZ, i, j);
+  private final IntComparator queryIntensityComparator =
+      (i, j) -> compareIntensity(queryIntensity, queryMZ, i, j);
+  private final IntComparator queryMZComparator = (i, j) -> {
+    int result = Double.compare(queryMZ[i], queryMZ[j]);
+    return result != 0 ? result : Integer.compare(i, j);
+  };
+  private final IntComparator pairComparator = (p, q) -> {
+    int result = Double.compare(getPairMinMZ(p), getPairMinMZ(q));
+    return result != 0 ? result : Integer.compare(p, q);
+  };
+
+  /**
+   * @return the engine of the current thread
+   */
+  public static CosineSimilarityEngine forCurrentThread() {
+    return engines.get();
+  }
+
+  /**
+   * Aligns the signals of both spectra. The arrays are not changed.
+   *
+   * @return number of aligned signals (overlap)
+   */
+  public int align(MZTolerance mzTol, DataPoint library[], DataPoint query[]) {
+    this.library = library;
+    this.query = query;
+    libraryN = library.length;
+    queryN = query.length;
+    ensureCapacity();
+
+    for (int i = 0; i < libraryN; i++) {
+      libraryMZ[i] = library[i].getMZ();
+      libraryIntensity[i] = library[i].getIntensity();
+      libraryOrder[i] = i;
+    }
+    IntArrays.quickSort(libraryOrder, 0, libraryN, libraryIntensityComparator);
+
+    for (int i = 0; i < queryN; i++) {
+      queryMZ[i] = query[i].getMZ();
+      queryIntensity[i] = query[i].getIntensity();
+      queryMZOrder[i] = i;
+      queryOrder[i] = i;
+      queryMatched[i] = false;
+    }
+    IntArrays.quickSort(queryMZOrder, 0, queryN, queryMZComparator);
+    IntArrays.quickSort(queryOrder, 0, queryN, queryIntensityComparator);
+    for (int r = 0; r < queryN; r++) {
+      queryRank[queryOrder[r]] = r;
+      sortedQueryMZ[r] = queryMZ[queryMZOrder[r]];
+    }
+
+    overlap = 0;
+    for (int i = 0; i < libraryN; i++) {
+      final double mz = libraryMZ[libraryOrder[i]];
+      final double tolerance = mzTol.getMzToleranceForMass(mz);
+      final double upper = mz + tolerance;
+      // the free candidate which comes first in the intensity order
+      int best = -1;
+      for (int k = firstIndex(sortedQueryMZ, queryN, mz - tolerance); k < queryN
+          && sortedQueryMZ[k] <= upper; k++) {
+        final int q = queryMZOrder[k];
+        if (!queryMatched[q] && (best == -1 || queryRank[q] < queryRank[best]))
+          best = q;
+      }
+      match[i] = best;
+      if (best != -1) {
+        queryMatched[best] = true;
+        pairs[overlap++] = i;
+      }
+    }
+    return overlap;
+  }
+
+  /**
+   * @return number of aligned signals of the last alignment
+   */
+  public int getOverlap() {
+    return overlap;
+  }
+
+  /**
+   * Cosine of the weighted intensities (intensity^weightIntensity * m/z^weightMZ) of the last
+   * alignment. Unaligned signals count as 0 in the other spectrum.
+   *
+   * @param removeUnmatched only use the aligned signals
+   */
+  public double weightedCosine(Weights weights, boolean removeUnmatched) {
+    final double weightIntensity = weights.getIntensity();
+    final double weightMZ = weights.getMz();
+    double dot = 0, libraryNorm = 0, queryNorm = 0;
+    for (int i = 0; i < libraryN; i++) {
+      final int q = match[i];
+      if (q == -1 && removeUnmatched)
+        continue;
+      final int l = libraryOrder[i];
+      final double libraryValue =
+          weight(libraryIntensity[l], libraryMZ[l], weightIntensity, weightMZ);
+      libraryNorm += libraryValue * libraryValue;
+      if (q != -1) {
+        final double queryValue = weight(queryIntensity[q], queryMZ[q], weightIntensity, weightMZ);
+        dot += libraryValue * queryValue;
+        queryNorm += queryValue * queryValue;
+      }
+    }
+    if (!removeUnmatched) {
+      for (int r = 0; r < queryN; r++) {
+        final int q = queryOrder[r];
+        if (queryMatched[q])
+          continue;
+        final double queryValue = weight(queryIntensity[q], queryMZ[q], weightIntensity, weightMZ);
+        queryNorm += queryValue * queryValue;
+      }
+    }
+    return dot / (Math.sqrt(libraryNorm) * Math.sqrt(queryNorm));
+  }
+
+  /**
+   * Sum of the relative intensity ratios of m/z neighbours in both spectra, divided by the overlap
+   * (0-1), of the last alignment
+   */
+  public double relativeNeighbourFactor() {
+    IntArrays.quickSort(pairs, 0, overlap, pairComparator);
+    double factor = 0;
+    for (int p = 1; p < overlap; p++) {
+      final int i1 = pairs[p - 1], i2 = pairs[p];
+      double ratioLibrary =
+          libraryIntensity[libraryOrder[i2]] / libraryIntensity[libraryOrder[i1]];
+      double ratioQuery = queryIntensity[match[i2]] / queryIntensity[match[i1]];
+      factor += Math.min(ratioLibrary, ratioQuery) / Math.max(ratioLibrary, ratioQuery);
+    }
+    return factor / overlap;
+  }
+
+  /**
+   * The aligned data points of the last alignment, for {@link SpectralSimilarity}
+   *
+   * @return list of aligned data points [library, query]
+   */
+  public List<DataPoint[]> getAlignedDataPoints() {
+    List<DataPoint[]> aligned = new ArrayList<>(overlap);
+    for (int i = 0; i < libraryN; i++) {
+      if (match[i] != -1)
+        aligned.add(new DataPoint[] {library[libraryOrder[i]], query[match[i]]});
+    }
+    return aligned;
+  }
+
+  private static double weight(double intensity, double mz, double weightIntensity,
+      double weightMZ) {
+    return Math.pow(intensity, weightIntensity) * Math.pow(mz, weightMZ);
+  }
+
+  private static int compareIntensity(double intensity[], double mz[], int i, int j) {
+    int result = Double.compare(intensity[j], intensity[i]);
+    if (result == 0)
+      result = Double.compare(mz[j], mz[i]);
+    return result != 0 ? result : Integer.compare(i, j);
+  }
+
+  private double getPairMinMZ(int p) {
+    return Math.min(libraryMZ[libraryOrder[p]], queryMZ[match[p]]);
+  }
+
+  /**
+   * @return index of the first value >= value
+   */
+  private static int firstIndex(double sorted[], int length, double value) {
+    int low = 0, high = length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sorted[mid] < value)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private void ensureCapacity() {
+    if (libraryMZ.length < libraryN) {
+      final int length = Math.max(libraryN, libraryMZ.length * 2);
+      libraryMZ = new double[length];
+      libraryIntensity = new double[length];
+      libraryOrder = new int[length];
+      match = new int[length];
+      pairs = new int[length];
+    }
+    if (queryMZ.length < queryN) {
+      final int length = Math.max(queryN, queryMZ.length * 2);
+      queryMZ = new double[length];
+      queryIntensity = new double[length];
+      sortedQueryMZ = new double[length];
+      queryMZOrder = new int[length];
+      queryOrder = new int[length];
+      queryRank = new int[length];
+      queryMatched = new boolean[length];
+    }
+  }
+
+}
@@ -18,16 +18,12 @@
 
 package net.sf.mzmine.util.scans.similarity.impl.composite;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.Objects;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import net.sf.mzmine.util.maths.similarity.Similarity;
-import net.sf.mzmine.util.scans.ScanAlignment;
+import net.sf.mzmine.util.scans.similarity.CosineSimilarityEngine;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarity;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarityFunction;
 import net.sf.mzmine.util.scans.similarity.Weights;
@@ -55,23 +51,18 @@ public class CompositeCosineSpectralSimilarity extends SpectralSimilarityFunctio
     boolean removeUnmatched = parameters
         .getParameter(CompositeCosineSpectralSimilarityParameters.removeUnmatched).getValue();
 
-    // align
-    List<DataPoint[]> aligned = alignDataPoints(mzTol, library, query);
-    // removes all signals which were not found in both masslists
-    if (removeUnmatched)
-      aligned = removeUnaligned(aligned);
+    // align (overlapping within mass tolerance)
+    CosineSimilarityEngine engine = CosineSimilarityEngine.forCurrentThread();
+    int overlap = engine.align(mzTol, library, query);
 
     int queryN = query.length;
-    int overlap = calcOverlap(aligned);
 
     if (overlap >= minMatch) {
       // relative factor ranges from 0-1
-      double relativeFactor = calcRelativeNeighbourFactor(aligned);
+      double relativeFactor = engine.relativeNeighbourFactor();
 
-      // weighted cosine
-      double[][] diffArray =
-          ScanAlignment.toIntensityMatrixWeighted(aligned, weights.getIntensity(), weights.getMz());
-      double diffCosine = Similarity.COSINE.calc(diffArray);
+      // weighted cosine, optionally only of the signals found in both masslists
+      double diffCosine = engine.weightedCosine(weights, removeUnmatched);
 
       // composite dot product identity score
       // NIST search similar
@@ -79,66 +70,14 @@ public class CompositeCosineSpectralSimilarity extends SpectralSimilarityFunctio
 
 
       if (composite >= minCos)
-        return new SpectralSimilarity(getName(), composite, overlap, library, query, aligned);
+        return new SpectralSimilarity(getName(), composite, overlap, library, query,
+            engine.getAlignedDataPoints());
       else
         return null;
     }
     return null;
   }
 
-  /**
-   * sum of relative ratios of neighbours in both mass lists
-   * 
-   * @param aligned
-   * @return
-   */
-  private double calcRelativeNeighbourFactor(List<DataPoint[]> aligned) {
-    // remove all unaligned signals
-    List<DataPoint[]> filtered = removeUnaligned(aligned);
-    // sort by mz
-    sortByMZ(filtered);
-
-    // overlapping within mass tolerance
-    int overlap = calcOverlap(aligned);
-
-    // sum of relative ratios of neighbours in both mass lists
-    double factor = 0;
-    for (int i = 1; i < filtered.size(); i++) {
-      DataPoint[] match1 = filtered.get(i - 1);
-      DataPoint[] match2 = filtered.get(i);
-
-      // 0 is library
-      // 1 is query
-      double ratioLibrary = match2[0].getIntensity() / match1[0].getIntensity();
-      double ratioQuery = match2[1].getIntensity() / match1[1].getIntensity();
-      factor += Math.min(ratioLibrary, ratioQuery) / Math.max(ratioLibrary, ratioQuery);
-    }
-    // factor ranges from 0-1 * overlap
-    return factor / (overlap);
-  }
-
-  /**
-   * Sort aligned datapoints by their minimum mz values (ascending)
-   * 
-   * @param filtered
-   * @return
-   */
-  private void sortByMZ(List<DataPoint[]> filtered) {
-    filtered.sort((a, b) -> {
-      return Double.compare(getMinMZ(a), getMinMZ(b));
-    });
-  }
-
-  /**
-   * Minimum mz of all aligned datapoints
-   * 
-   * @param dp
-   * @return
-   */
-  private double getMinMZ(DataPoint[] dp) {
-    return Arrays.stream(dp).filter(Objects::nonNull).mapToDouble(DataPoint::getMZ).min().orElse(0);
-  }
-
   @Override
   @Nonnull
   public String getName() {
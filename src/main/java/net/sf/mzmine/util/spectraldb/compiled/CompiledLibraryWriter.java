@@ -0,0 +1,236 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.spectraldb.compiled;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import net.sf.mzmine.util.spectraldb.parser.AutoLibraryParser;
+import net.sf.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+
+/**
+ * Compiles a spectral library (all formats of {@link AutoLibraryParser}) to the binary format of
+ * {@link CompiledSpectralLibrary}.
+ *
+ * File layout (big endian): header (magic, version, source file length and last modified time,
+ * number of entries, size of the field name table), field name table (number of fields, then length
+ * and UTF-8 bytes of each {@link DBEntryField} name), precursor m/z of all entries (NaN if missing),
+ * offsets of all entries plus the end offset, entries. Each entry consists of its fields (number of
+ * fields, then index in the field name table, value type and value) and its peaks (number of peaks,
+ * m/z values, intensities). The numeric fields of {@link DBEntryField} are stored as numbers, the
+ * intensities are normalized to the highest peak (100).
+ */
+public class CompiledLibraryWriter {
+
+  /**
+   * Intensity of the highest peak of each entry
+   */
+  static final double NORMALIZED_MAX_INTENSITY = 100;
+
+  /**
+   * Parses the library file and writes the compiled library to target
+   *
+   * @return false if the task was canceled or the library file contained no entries
+   */
+  public static boolean compile(AbstractTask mainTask, File libraryFile, File target)
+      throws UnsupportedFormatException, IOException {
+
+    final File dir = target.getAbsoluteFile().getParentFile();
+    final File entriesFile = File.createTempFile("mzmine", ".entries", dir);
+    final File tmpTarget =
+        File.createTempFile("mzmine", "." + CompiledSpectralLibrary.EXTENSION, dir);
+    entriesFile.deleteOnExit();
+    tmpTarget.deleteOnExit();
+
+    try {
+      // Write the entries in the order of the library file
+      final DoubleArrayList precursorMZ = new DoubleArrayList();
+      final LongArrayList offsets = new LongArrayList();
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(entriesFile))) {
+        final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        final DataOutputStream entryOut = new DataOutputStream(entryBytes);
+        offsets.add(0);
+        AutoLibraryParser parser = new AutoLibraryParser(1000, (list, alreadyProcessed) -> {
+          try {
+            for (SpectralDBEntry entry : list) {
+              entryBytes.reset();
+              writeEntry(entryOut, entry);
+              entryBytes.writeTo(out);
+              Double mz = entry.getPrecursorMZ();
+              precursorMZ.add(mz == null ? Double.NaN : mz);
+              offsets.add(offsets.getLong(offsets.size() - 1) + entryBytes.size());
+            }
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        boolean parsed;
+        try {
+          parsed = parser.parse(mainTask, libraryFile);
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+        if (!parsed || mainTask.isCanceled() || precursorMZ.isEmpty())
+          return false;
+      }
+
+      // Sort by precursor m/z, entries without precursor last
+      final int numOfEntries = precursorMZ.size();
+      final int order[] = new int[numOfEntries];
+      for (int i = 0; i < numOfEntries; i++)
+        order[i] = i;
+      IntArrays.mergeSort(order,
+          (a, b) -> Double.compare(precursorMZ.getDouble(a), precursorMZ.getDouble(b)));
+
+      // Field names in the order of their indexes
+      final ByteArrayOutputStream fieldTable = new ByteArrayOutputStream();
+      final DataOutputStream fieldTableOut = new DataOutputStream(fieldTable);
+      fieldTableOut.writeShort(DBEntryField.values().length);
+      for (DBEntryField field : DBEntryField.values()) {
+        byte name[] = field.name().getBytes(StandardCharsets.UTF_8);
+        fieldTableOut.writeByte(name.length);
+        fieldTableOut.write(name);
+      }
+
+      // Write header and index
+      final long dataStart =
+          CompiledSpectralLibrary.HEADER_SIZE + fieldTable.size() + numOfEntries * 16L + 8;
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpTarget)))) {
+        out.writeInt(CompiledSpectralLibrary.MAGIC);
+        out.writeInt(CompiledSpectralLibrary.VERSION);
+        out.writeLong(libraryFile.length());
+        out.writeLong(libraryFile.lastModified());
+        out.writeInt(numOfEntries);
+        out.writeInt(fieldTable.size());
+        fieldTable.writeTo(out);
+        for (int i : order)
+          out.writeDouble(precursorMZ.getDouble(i));
+        long offset = dataStart;
+        for (int i : order) {
+          out.writeLong(offset);
+          offset += offsets.getLong(i + 1) - offsets.getLong(i);
+        }
+        out.writeLong(offset);
+      }
+
+      // Copy the entries in sorted order
+      try (FileChannel in = FileChannel.open(entriesFile.toPath(), StandardOpenOption.READ);
+          FileChannel out = FileChannel.open(tmpTarget.toPath(), StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND)) {
+        for (int i : order) {
+          long position = offsets.getLong(i);
+          final long end = offsets.getLong(i + 1);
+          while (position < end)
+            position += in.transferTo(position, end - position, out);
+          if (mainTask.isCanceled())
+            return false;
+        }
+      }
+
+      Files.move(tmpTarget.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      return true;
+
+    } finally {
+      entriesFile.delete();
+      tmpTarget.delete();
+    }
+  }
+
+  private static void writeEntry(DataOutputStream out, SpectralDBEntry entry) throws IOException {
+
+    int numOfFields = 0;
+    for (DBEntryField field : DBEntryField.values())
+      if (entry.getField(field).isPresent())
+        numOfFields++;
+    out.writeShort(numOfFields);
+    for (DBEntryField field : DBEntryField.values()) {
+      Object value = entry.getField(field).orElse(null);
+      if (value == null)
+        continue;
+      value = toFieldType(field, value);
+      // index in the field name table
+      out.writeByte(field.ordinal());
+      if (value instanceof Double) {
+        out.writeByte(CompiledSpectralLibrary.TYPE_DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof Integer) {
+        out.writeByte(CompiledSpectralLibrary.TYPE_INTEGER);
+        out.writeInt((Integer) value);
+      } else {
+        byte bytes[] = value.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeByte(CompiledSpectralLibrary.TYPE_STRING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+
+    // Peaks sorted by m/z, intensities relative to the highest peak
+    DataPoint dataPoints[] = entry.getDataPoints().clone();
+    Arrays.sort(dataPoints, Comparator.comparingDouble(DataPoint::getMZ));
+    double maxIntensity = 0;
+    for (DataPoint dp : dataPoints)
+      maxIntensity = Math.max(maxIntensity, dp.getIntensity());
+    final double factor = maxIntensity > 0 ? NORMALIZED_MAX_INTENSITY / maxIntensity : 1;
+    out.writeInt(dataPoints.length);
+    for (DataPoint dp : dataPoints)
+      out.writeDouble(dp.getMZ());
+    for (DataPoint dp : dataPoints)
+      out.writeDouble(dp.getIntensity() * factor);
+  }
+
+  /**
+   * Converts values of numeric fields which the parser kept as text to the type of the field
+   *
+   * @return the converted value, or the original value if it cannot be converted
+   */
+  private static Object toFieldType(DBEntryField field, Object value) {
+    final Class<?> type = field.getObjectClass();
+    if (type == Double.class && value instanceof Number)
+      return ((Number) value).doubleValue();
+    if ((type == Double.class || type == Integer.class) && value instanceof String) {
+      try {
+        return field.convertValue(((String) value).trim());
+      } catch (NumberFormatException e) {
+        return value;
+      }
+    }
+    return value;
+  }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.spectraldb.compiled;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.util.files.FileAndPathUtil;
+import net.sf.mzmine.util.files.FileTypeFilter;
+import net.sf.mzmine.util.files.MemoryMapUtils;
+import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import net.sf.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+
+/**
+ * Read-only, memory-mapped spectral library compiled by {@link CompiledLibraryWriter}. Entries are
+ * sorted by precursor m/z (entries without precursor m/z last), so all entries within an m/z range
+ * are found by binary search. Peaks of each entry are sorted by m/z and their intensities are
+ * normalized to the highest peak. Entries are decoded on demand, the instance can be shared between
+ * threads.
+ *
+ * Libraries are opened by {@link #open(AbstractTask, File)} and must be closed when the task is
+ * done. A library stays open while any task uses it and is unmapped when the last task closes it.
+ */
+public class CompiledSpectralLibrary implements AutoCloseable {
+
+  private static Logger logger = Logger.getLogger(CompiledSpectralLibrary.class.getName());
+
+  public static final String EXTENSION = "mzlib";
+
+  static final int MAGIC = 0x4D5A4C42; // "MZLB"
+  static final int VERSION = 3;
+
+  /**
+   * Size of the fixed header: magic, version, source length, source last modified, entry count,
+   * size of the field name table
+   */
+  static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+
+  // Value types of the entry fields
+  static final byte TYPE_STRING = 0, TYPE_DOUBLE = 1, TYPE_INTEGER = 2;
+
+  private static final Map<String, DBEntryField> FIELDS_BY_NAME = new HashMap<>();
+  static {
+    for (DBEntryField field : DBEntryField.values())
+      FIELDS_BY_NAME.put(field.name(), field);
+  }
+
+  private static final Pattern INVALID_FILE_NAME_CHARS = Pattern.compile("[^A-Za-z0-9._-]");
+
+  // Libraries in use, guarded by the map
+  private static final Map<File, CompiledSpectralLibrary> openLibraries = new HashMap<>();
+
+  private final File file;
+  private int openCount = 0;
+
+  // Entry fields by their index in the field name table of the file, null for unknown names
+  private final DBEntryField fields[];
+  private final long fileLastModified;
+  private final long sourceLength, sourceLastModified;
+  private final double precursorMZ[];
+  private final long offsets[];
+
+  // The entry data is mapped in segments of max. 2 GB, each segment starts at an entry
+  private final MappedByteBuffer segments[];
+  private final long segmentStart[];
+  private final int segmentFirstEntry[];
+
+  private CompiledSpectralLibrary(File file) throws IOException {
+    this.file = file;
+    this.fileLastModified = file.lastModified();
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+      ByteBuffer header = read(channel, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION)
+        throw new IOException("Not a compiled spectral library (or wrong version): " + file);
+      sourceLength = header.getLong();
+      sourceLastModified = header.getLong();
+      final int numOfEntries = header.getInt();
+      final int fieldTableSize = header.getInt();
+
+      // Fields are stored by name, so changes of DBEntryField do not break compiled libraries
+      ByteBuffer fieldTable = read(channel, HEADER_SIZE, fieldTableSize);
+      fields = new DBEntryField[fieldTable.getShort()];
+      for (int i = 0; i < fields.length; i++) {
+        byte name[] = new byte[fieldTable.get()];
+        fieldTable.get(name);
+        fields[i] = FIELDS_BY_NAME.get(new String(name, StandardCharsets.UTF_8));
+      }
+
+      // The index is read to the heap, it is used by every search
+      final long indexSize = numOfEntries * 8L + (numOfEntries + 1) * 8L;
+      if (indexSize > Integer.MAX_VALUE)
+        throw new IOException("Too many entries in " + file);
+      ByteBuffer index = read(channel, HEADER_SIZE + fieldTableSize, (int) indexSize);
+      precursorMZ = new double[numOfEntries];
+      offsets = new long[numOfEntries + 1];
+      index.asDoubleBuffer().get(precursorMZ);
+      index.position(numOfEntries * 8);
+      index.asLongBuffer().get(offsets);
+
+      // Map the entries
+      List<MappedByteBuffer> segmentList = new ArrayList<>();
+      List<Long> startList = new ArrayList<>();
+      List<Integer> firstEntryList = new ArrayList<>();
+      int first = 0;
+      while (first < numOfEntries) {
+        int last = first;
+        while (last < numOfEntries && offsets[last + 1] - offsets[first] <= Integer.MAX_VALUE)
+          last++;
+        if (last == first)
+          throw new IOException("Library entry too large in " + file);
+        segmentList.add(channel.map(FileChannel.MapMode.READ_ONLY, offsets[first],
+            offsets[last] - offsets[first]));
+        startList.add(offsets[first]);
+        firstEntryList.add(first);
+        first = last;
+      }
+      segments = segmentList.toArray(new MappedByteBuffer[segmentList.size()]);
+      segmentStart = startList.stream().mapToLong(Long::longValue).toArray();
+      segmentFirstEntry = firstEntryList.stream().mapToInt(Integer::intValue).toArray();
+    }
+  }
+
+  /**
+   * Reads a part of the file to the heap
+   */
+  private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new IOException("Unexpected end of the compiled library");
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Opens the compiled version of a spectral library file. The library is compiled on the first use
+   * and compiled again when the library file has changed. Compiled library files (.mzlib) are opened
+   * directly. The returned library must be closed.
+   *
+   * @param mainTask the calling task, to stop compilation when canceled
+   * @param libraryFile MSP, MGF, JDX or JSON library, or a compiled library
+   * @return the library or null if the task was canceled or the library file has no entries
+   */
+  public static CompiledSpectralLibrary open(AbstractTask mainTask, File libraryFile)
+      throws UnsupportedFormatException, IOException {
+
+    if (new FileTypeFilter(EXTENSION, "").accept(libraryFile))
+      return openCompiled(libraryFile, -1, -1);
+
+    // Only compile each library once, even if several searches start at the same time
+    synchronized (openLibraries) {
+      final long length = libraryFile.length();
+      final long lastModified = libraryFile.lastModified();
+
+      final File compiledFile = getCompiledFile(libraryFile);
+      if (compiledFile.isFile()) {
+        try {
+          CompiledSpectralLibrary library = openCompiled(compiledFile, length, lastModified);
+          if (library != null)
+            return library;
+        } catch (IOException e) {
+          logger.warning("Cannot read compiled library " + compiledFile + ": " + e);
+        }
+      }
+
+      // Remove libraries compiled from older versions of the library file
+      final String prefix = getCompiledFilePrefix(libraryFile);
+      final File outdatedFiles[] = compiledFile.getParentFile().listFiles(
+          (dir, name) -> name.startsWith(prefix) && name.endsWith("." + EXTENSION));
+      if (outdatedFiles != null) {
+        for (File outdatedFile : outdatedFiles) {
+          if (!openLibraries.containsKey(outdatedFile.getAbsoluteFile()))
+            outdatedFile.delete();
+        }
+      }
+
+      logger.info("Compiling spectral library " + libraryFile + " to " + compiledFile);
+      if (!CompiledLibraryWriter.compile(mainTask, libraryFile, compiledFile))
+        return null;
+      return openCompiled(compiledFile, length, lastModified);
+    }
+  }
+
+  /**
+   * Opens a compiled library file, or returns null if it was not compiled from a source file with
+   * the given length and modification time (-1 to skip the check)
+   */
+  private static CompiledSpectralLibrary openCompiled(File compiledFile, long sourceLength,
+      long sourceLastModified) throws IOException {
+    synchronized (openLibraries) {
+      CompiledSpectralLibrary library = openLibraries.get(compiledFile.getAbsoluteFile());
+      if (library == null || !library.isUpToDate()) {
+        library = new CompiledSpectralLibrary(compiledFile);
+      }
+      if (sourceLength != -1 && (library.sourceLength != sourceLength
+          || library.sourceLastModified != sourceLastModified)) {
+        if (library.openCount == 0) {
+          for (MappedByteBuffer segment : library.segments)
+            MemoryMapUtils.unmap(segment);
+        }
+        return null;
+      }
+      openLibraries.put(compiledFile.getAbsoluteFile(), library);
+      library.openCount++;
+      return library;
+    }
+  }
+
+  /**
+   * The compiled library is stored in the MZmine cache folder. Its name contains a hash of the path
+   * and the modification time of the library file.
+   */
+  private static File getCompiledFile(File libraryFile) {
+    return new File(FileAndPathUtil.getCacheDir(), getCompiledFilePrefix(libraryFile)
+        + Long.toHexString(libraryFile.lastModified()) + "." + EXTENSION);
+  }
+
+  private static String getCompiledFilePrefix(File libraryFile) {
+    final String name = INVALID_FILE_NAME_CHARS.matcher(libraryFile.getName()).replaceAll("_");
+    return "mzmine_" + name + "_"
+        + Integer.toHexString(libraryFile.getAbsolutePath().hashCode()) + "_";
+  }
+
+  /**
+   * Releases the library. When no task uses it, the library is removed from the open libraries and
+   * the memory-mapped data is unmapped, so the entries must not be read afterwards.
+   */
+  @Override
+  public void close() {
+    synchronized (openLibraries) {
+      openCount--;
+      if (openCount > 0)
+        return;
+      openLibraries.remove(file.getAbsoluteFile(), this);
+      for (MappedByteBuffer segment : segments)
+        MemoryMapUtils.unmap(segment);
+    }
+  }
+
+  private boolean isUpToDate() {
+    return file.lastModified() == fileLastModified && file.length() == offsets[offsets.length - 1];
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public int getNumberOfEntries() {
+    return precursorMZ.length;
+  }
+
+  /**
+   * @return precursor m/z of the entry or NaN if the entry has none
+   */
+  public double getPrecursorMZ(int index) {
+    return precursorMZ[index];
+  }
+
+  /**
+   * @return index of the first entry with a precursor m/z >= mz
+   */
+  public int getFirstIndex(double mz) {
+    int low = 0, high = precursorMZ.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      // NaN (no precursor) is sorted last
+      if (precursorMZ[mid] < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * @return all entries between fromIndex (inclusive) and toIndex (exclusive)
+   */
+  public List<SpectralDBEntry> getEntries(int fromIndex, int toIndex) {
+    List<SpectralDBEntry> entries = new ArrayList<>(Math.max(0, toIndex - fromIndex));
+    for (int i = fromIndex; i < toIndex; i++)
+      entries.add(getEntry(i));
+    return entries;
+  }
+
+  /**
+   * Entries between fromIndex (inclusive) and toIndex (exclusive) with a precursor m/z within the
+   * given range
+   */
+  public List<SpectralDBEntry> getEntries(int fromIndex, int toIndex, Range<Double> precursorRange) {
+    final int first = Math.max(fromIndex, getFirstIndex(precursorRange.lowerEndpoint()));
+    int last = first;
+    while (last < toIndex && precursorMZ[last] <= precursorRange.upperEndpoint())
+      last++;
+    return getEntries(first, last);
+  }
+
+  /**
+   * Decodes one entry
+   */
+  public SpectralDBEntry getEntry(int index) {
+    int segment = Arrays.binarySearch(segmentFirstEntry, index);
+    if (segment < 0)
+      segment = -segment - 2;
+    ByteBuffer buffer = segments[segment].duplicate();
+    buffer.position((int) (offsets[index] - segmentStart[segment]));
+
+    final Map<DBEntryField, Object> entryFields = new EnumMap<>(DBEntryField.class);
+    final int numOfFields = buffer.getShort();
+    for (int i = 0; i < numOfFields; i++) {
+      final DBEntryField field = fields[buffer.get() & 0xFF];
+      final byte type = buffer.get();
+      final Object value;
+      switch (type) {
+        case TYPE_DOUBLE:
+          value = buffer.getDouble();
+          break;
+        case TYPE_INTEGER:
+          value = buffer.getInt();
+          break;
+        default:
+          byte bytes[] = new byte[buffer.getInt()];
+          buffer.get(bytes);
+          value = new String(bytes, StandardCharsets.UTF_8);
+      }
+      // Fields which no longer exist are skipped
+      if (field != null)
+        entryFields.put(field, value);
+    }
+
+    final int numOfPeaks = buffer.getInt();
+    final double mzValues[] = new double[numOfPeaks];
+    final double intensities[] = new double[numOfPeaks];
+    buffer.asDoubleBuffer().get(mzValues);
+    buffer.position(buffer.position() + numOfPeaks * 8);
+    buffer.asDoubleBuffer().get(intensities);
+
+    DataPoint dataPoints[] = new DataPoint[numOfPeaks];
+    for (int i = 0; i < numOfPeaks; i++)
+      dataPoints[i] = new SimpleDataPoint(mzValues[i], intensities[i]);
+    return new SpectralDBEntry(entryFields, dataPoints);
+  }
+
+}
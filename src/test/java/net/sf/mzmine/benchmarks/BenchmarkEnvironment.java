@@ -0,0 +1,66 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.benchmarks;
+
+import java.lang.reflect.Field;
+import java.util.Locale;
+
+import net.sf.mzmine.desktop.impl.HeadLessDesktop;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.main.impl.MZmineConfigurationImpl;
+import net.sf.mzmine.project.impl.ProjectManagerImpl;
+
+/**
+ * Sets up the parts of MZmineCore that the benchmarked or tested code needs (configuration with
+ * default preferences, project manager and a headless desktop), without loading the modules or the
+ * GUI.
+ */
+public class BenchmarkEnvironment {
+
+  private static boolean initialized = false;
+
+  public static synchronized void init() {
+
+    if (initialized)
+      return;
+
+    // Same as in MZmineCore.main()
+    Locale.setDefault(new Locale("en", "US"));
+
+    ProjectManagerImpl projectManager = new ProjectManagerImpl();
+    setCoreField("configuration", new MZmineConfigurationImpl());
+    setCoreField("projectManager", projectManager);
+    setCoreField("desktop", new HeadLessDesktop());
+    projectManager.initModule();
+
+    initialized = true;
+
+  }
+
+  private static void setCoreField(String name, Object value) {
+    try {
+      Field field = MZmineCore.class.getDeclaredField(name);
+      field.setAccessible(true);
+      field.set(null, value);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot initialize MZmineCore." + name, e);
+    }
+  }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Deterministic generator of synthetic LC-MS data for the benchmarks and tests. The data consist of
+ * compounds with a Gaussian elution profile and random noise peaks. All values are derived from the
+ * seed, so the same parameters always produce the same data and benchmark results can be compared
+ * between versions.
+ */
+public class SyntheticLCMSData {
+
+  public static final long DEFAULT_SEED = 20181120L;
+
+  /**
+   * Time between two scans, in minutes
+   */
+  public static final double SCAN_INTERVAL = 0.005;
+
+  private static final double MIN_MZ = 100, MAX_MZ = 1000;
+  private static final double NOISE_LEVEL = 1E3;
+
+  // Profile peaks are sampled in PROFILE_POINTS steps of PROFILE_STEP m/z
+  private static final int PROFILE_POINTS = 7;
+  private static final double PROFILE_STEP = 0.002;
+
+  private final long seed;
+  private final int numOfScans, noisePeaksPerScan;
+
+  // Compounds: m/z, apex and width (sigma) in scans, height
+  private final double compoundMZ[], compoundApex[], compoundWidth[], compoundHeight[];
+
+  // Indexes of the compounds eluting in each scan
+  private final int scanCompounds[][];
+
+  public SyntheticLCMSData(int numOfScans, int numOfCompounds, int noisePeaksPerScan) {
+    this(DEFAULT_SEED, numOfScans, numOfCompounds, noisePeaksPerScan);
+  }
+
+  public SyntheticLCMSData(long seed, int numOfScans, int numOfCompounds, int noisePeaksPerScan) {
+
+    this.seed = seed;
+    this.numOfScans = numOfScans;
+    this.noisePeaksPerScan = noisePeaksPerScan;
+
+    compoundMZ = new double[numOfCompounds];
+    compoundApex = new double[numOfCompounds];
+    compoundWidth = new double[numOfCompounds];
+    compoundHeight = new double[numOfCompounds];
+
+    final Random random = new Random(seed);
+    final int compoundsPerScan[] = new int[numOfScans];
+    for (int i = 0; i < numOfCompounds; i++) {
+      compoundMZ[i] = MIN_MZ + random.nextDouble() * (MAX_MZ - MIN_MZ);
+      compoundApex[i] = random.nextDouble() * numOfScans;
+      compoundWidth[i] = 2 + random.nextDouble() * 8;
+      compoundHeight[i] = Math.pow(10, 4 + 3 * random.nextDouble());
+      for (int scan = getFirstScan(i); scan <= getLastScan(i); scan++)
+        compoundsPerScan[scan]++;
+    }
+
+    scanCompounds = new int[numOfScans][];
+    for (int scan = 0; scan < numOfScans; scan++)
+      scanCompounds[scan] = new int[compoundsPerScan[scan]];
+    Arrays.fill(compoundsPerScan, 0);
+    for (int i = 0; i < numOfCompounds; i++) {
+      for (int scan = getFirstScan(i); scan <= getLastScan(i); scan++)
+        scanCompounds[scan][compoundsPerScan[scan]++] = i;
+    }
+
+  }
+
+  public int getNumOfScans() {
+    return numOfScans;
+  }
+
+  public int getNumOfCompounds() {
+    return compoundMZ.length;
+  }
+
+  public double getCompoundMZ(int compound) {
+    return compoundMZ[compound];
+  }
+
+  public double getCompoundRT(int compound) {
+    return compoundApex[compound] * SCAN_INTERVAL;
+  }
+
+  /**
+   * @return retention time of the scan with given index, in minutes
+   */
+  public double getRetentionTime(int scanIndex) {
+    return scanIndex * SCAN_INTERVAL;
+  }
+
+  /**
+   * Generates the spectrum of the scan with given index, sorted by m/z. Different sample indexes
+   * produce the same compounds with different noise.
+   */
+  public DataPoint[] generateSpectrum(int sampleIndex, int scanIndex, boolean profile) {
+
+    final long scanSeed = seed ^ ((31L * sampleIndex + 1) * (0x9E3779B97F4A7C15L + scanIndex));
+    final Random random = new Random(scanSeed);
+    final int compounds[] = scanCompounds[scanIndex];
+    final int numOfPeaks = compounds.length + noisePeaksPerScan;
+    final double mzValues[] = new double[numOfPeaks], intensities[] = new double[numOfPeaks];
+
+    for (int i = 0; i < compounds.length; i++) {
+      final int c = compounds[i];
+      final double distance = (scanIndex - compoundApex[c]) / compoundWidth[c];
+      mzValues[i] = compoundMZ[c] + random.nextGaussian() * 0.0005;
+      intensities[i] = compoundHeight[c] * Math.exp(-0.5 * distance * distance)
+          * (1 + 0.05 * random.nextGaussian());
+    }
+    for (int i = compounds.length; i < numOfPeaks; i++) {
+      mzValues[i] = MIN_MZ + random.nextDouble() * (MAX_MZ - MIN_MZ);
+      intensities[i] = -NOISE_LEVEL * Math.log(1 - random.nextDouble());
+    }
+
+    DataPoint dataPoints[];
+    if (profile) {
+      dataPoints = new DataPoint[numOfPeaks * PROFILE_POINTS];
+      for (int i = 0; i < numOfPeaks; i++) {
+        for (int j = 0; j < PROFILE_POINTS; j++) {
+          final double k = j - PROFILE_POINTS / 2;
+          dataPoints[i * PROFILE_POINTS + j] = new SimpleDataPoint(mzValues[i] + k * PROFILE_STEP,
+              intensities[i] * Math.exp(-0.5 * k * k / 1.44));
+        }
+      }
+    } else {
+      dataPoints = new DataPoint[numOfPeaks];
+      for (int i = 0; i < numOfPeaks; i++)
+        dataPoints[i] = new SimpleDataPoint(mzValues[i], Math.max(intensities[i], 1));
+    }
+
+    Arrays.sort(dataPoints, Comparator.comparingDouble(DataPoint::getMZ));
+    return dataPoints;
+  }
+
+  /**
+   * Generates all scans of one sample and stores them in a new raw data file. Scan numbers start at
+   * 1.
+   */
+  public RawDataFile createRawDataFile(String name, int sampleIndex, boolean profile)
+      throws IOException {
+
+    final MassSpectrumType spectrumType =
+        profile ? MassSpectrumType.PROFILE : MassSpectrumType.CENTROIDED;
+
+    RawDataFileImpl dataFile = new RawDataFileImpl(name);
+    for (int i = 0; i < numOfScans; i++) {
+      dataFile.addScan(new SimpleScan(null, i + 1, 1, getRetentionTime(i), 0, 0, null,
+          generateSpectrum(sampleIndex, i, profile), spectrumType, PolarityType.POSITIVE, "", null));
+    }
+    return dataFile.finishWriting();
+
+  }
+
+  /**
+   * Creates a feature list of given raw data files. Each compound is detected in each file with the
+   * given probability, the others are left as gaps. The retention times of the features are moved
+   * by rtShift minutes.
+   */
+  public PeakList createPeakList(String name, RawDataFile dataFiles[], double detectionRate,
+      double rtShift) {
+
+    final Random random = new Random(seed ^ name.hashCode());
+    SimplePeakList peakList = new SimplePeakList(name, dataFiles);
+
+    for (int c = 0; c < compoundMZ.length; c++) {
+
+      PeakListRow row = new SimplePeakListRow(c + 1);
+      for (RawDataFile dataFile : dataFiles) {
+        if (random.nextDouble() >= detectionRate)
+          continue;
+
+        final double mz = compoundMZ[c] + random.nextGaussian() * 0.0005;
+        final double rt = getCompoundRT(c) + rtShift + random.nextGaussian() * SCAN_INTERVAL;
+        final int apexScan = (int) Math.round(compoundApex[c]);
+        final int firstScan = Math.max(apexScan - 1, 0);
+        final int lastScan = Math.min(apexScan + 1, numOfScans - 1);
+
+        int scanNumbers[] = new int[lastScan - firstScan + 1];
+        DataPoint dataPoints[] = new DataPoint[scanNumbers.length];
+        for (int i = 0; i < scanNumbers.length; i++) {
+          final double distance = (firstScan + i - compoundApex[c]) / compoundWidth[c];
+          scanNumbers[i] = firstScan + i + 1;
+          dataPoints[i] =
+              new SimpleDataPoint(mz, compoundHeight[c] * Math.exp(-0.5 * distance * distance));
+        }
+
+        final double area =
+            compoundHeight[c] * compoundWidth[c] * SCAN_INTERVAL * Math.sqrt(2 * Math.PI);
+        row.addPeak(dataFile,
+            new SimpleFeature(dataFile, mz, rt, compoundHeight[c], area, scanNumbers, dataPoints,
+                FeatureStatus.DETECTED, scanNumbers[scanNumbers.length / 2], -1, new int[0],
+                Range.closed(rt - 2 * compoundWidth[c] * SCAN_INTERVAL,
+                    rt + 2 * compoundWidth[c] * SCAN_INTERVAL),
+                Range.singleton(mz), Range.closed(0.0, compoundHeight[c])));
+      }
+
+      if (row.getNumberOfPeaks() > 0)
+        peakList.addRow(row);
+    }
+
+    return peakList;
+  }
+
+  private int getFirstScan(int compound) {
+    return Math.max(0, (int) Math.ceil(compoundApex[compound] - 4 * compoundWidth[compound]));
+  }
+
+  private int getLastScan(int compound) {
+    return Math.min(numOfScans - 1,
+        (int) Math.floor(compoundApex[compound] + 4 * compoundWidth[compound]));
+  }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.csvexport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.modules.peaklistmethods.io.gnpsexport.fbmn.GnpsFbmnExportAndSubmitParameters.RowFilter;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * The rows formatted in parallel chunks must be written exactly like the rows formatted one by one
+ */
+public class CSVExportTaskTest {
+
+  private static PeakList peakList;
+
+  @TempDir
+  Path tempDir;
+
+  @BeforeAll
+  public static void createPeakList() throws IOException {
+    BenchmarkEnvironment.init();
+
+    // Enough rows for several chunks, and features missing in some of the files
+    SyntheticLCMSData data = new SyntheticLCMSData(1000, 2000, 0);
+    RawDataFile dataFiles[] = new RawDataFile[3];
+    for (int i = 0; i < dataFiles.length; i++)
+      dataFiles[i] = new RawDataFileImpl("Sample " + i);
+    peakList = data.createPeakList("Feature list", dataFiles, 0.7, 0);
+  }
+
+  @Test
+  public void parallelExportEqualsSequentialExport() throws IOException {
+    File sequential = export("sequential.csv", false, false);
+    File parallel = export("parallel.csv", false, true);
+
+    assertArrayEquals(Files.readAllBytes(sequential.toPath()),
+        Files.readAllBytes(parallel.toPath()));
+  }
+
+  @Test
+  public void parallelGzipExportEqualsSequentialExport() throws IOException {
+    File sequential = export("sequential.csv", false, false);
+    File parallel = export("parallel.csv", true, true);
+
+    assertEquals("parallel.csv.gz", parallel.getName());
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(parallel.toPath()))) {
+      assertArrayEquals(Files.readAllBytes(sequential.toPath()), in.readAllBytes());
+    }
+  }
+
+  private File export(String fileName, boolean gzip, boolean parallel) {
+    File file = tempDir.resolve(fileName).toFile();
+    CSVExportTask task = new CSVExportTask(new PeakList[] {peakList}, file, ",",
+        ExportRowCommonElement.values(), ExportRowDataFileElement.values(), false, ";",
+        RowFilter.ALL, gzip, parallel);
+    task.run();
+    assertEquals(TaskStatus.FINISHED, task.getStatus());
+    return gzip ? new File(file.getPath() + ".gz") : file;
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Exports synthetic feature lists to an in-memory H2 database and reads the table back
+ */
+public class SQLExportTaskTest {
+
+  private static final String CONNECTION_STRING = "jdbc:h2:mem:sqlexport;DB_CLOSE_DELAY=-1";
+
+  private static RawDataFile dataFiles[];
+  private static PeakList peakList;
+
+  private Connection connection;
+
+  @BeforeAll
+  public static void createPeakList() throws IOException {
+    BenchmarkEnvironment.init();
+
+    dataFiles = new RawDataFile[3];
+    for (int i = 0; i < dataFiles.length; i++)
+      dataFiles[i] = new RawDataFileImpl("Sample " + i);
+    SyntheticLCMSData data = new SyntheticLCMSData(1000, 500, 0);
+    peakList = data.createPeakList("Feature list", dataFiles, 0.7, 0);
+  }
+
+  @BeforeEach
+  public void createTable() throws SQLException {
+    connection = DriverManager.getConnection(CONNECTION_STRING);
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE features (id INT, rawfile VARCHAR(100), mz DOUBLE, "
+          + "peakmz DOUBLE, peakheight DOUBLE, status VARCHAR(20), project VARCHAR(20))");
+    }
+  }
+
+  @AfterEach
+  public void dropTable() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("DROP TABLE features");
+    }
+    connection.close();
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  public void exportFeatures(boolean streamRows) throws SQLException {
+
+    // Batch size does not divide the number of table rows
+    export(peakList, false, 7, streamRows);
+
+    int expectedRows = 0;
+    for (PeakListRow row : peakList.getRows())
+      expectedRows += row.getNumberOfPeaks();
+    assertEquals(expectedRows, countRows());
+
+    try (Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT * FROM features")) {
+      int checkedRows = 0;
+      while (result.next()) {
+        PeakListRow row = peakList.findRowByID(result.getInt("id"));
+        assertNotNull(row);
+        RawDataFile dataFile = getDataFile(result.getString("rawfile"));
+        Feature peak = row.getPeak(dataFile);
+        assertNotNull(peak);
+        assertEquals(row.getAverageMZ(), result.getDouble("mz"));
+        assertEquals(peak.getMZ(), result.getDouble("peakmz"));
+        assertEquals(peak.getHeight(), result.getDouble("peakheight"));
+        assertEquals(peak.getFeatureStatus().name(), result.getString("status"));
+        assertEquals("test", result.getString("project"));
+        checkedRows++;
+      }
+      assertEquals(expectedRows, checkedRows);
+    }
+  }
+
+  @Test
+  public void exportEmptyRow() throws SQLException {
+    export(new SimplePeakList("Empty feature list", dataFiles), true, 100, false);
+
+    try (Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT * FROM features")) {
+      assertTrue(result.next());
+      assertEquals(dataFiles[0].getName(), result.getString("rawfile"));
+      assertEquals("test", result.getString("project"));
+      result.getDouble("mz");
+      assertTrue(result.wasNull());
+      assertFalse(result.next());
+    }
+  }
+
+  private void export(PeakList peakList, boolean emptyExport, int batchSize, boolean streamRows) {
+    SQLColumnSettings columns = new SQLColumnSettings();
+    addColumn(columns, "id", SQLExportDataType.ID, null);
+    addColumn(columns, "rawfile", SQLExportDataType.RAWFILE, null);
+    addColumn(columns, "mz", SQLExportDataType.MZ, null);
+    addColumn(columns, "peakmz", SQLExportDataType.PEAKMZ, null);
+    addColumn(columns, "peakheight", SQLExportDataType.PEAKHEIGHT, null);
+    addColumn(columns, "status", SQLExportDataType.PEAKSTATUS, null);
+    addColumn(columns, "project", SQLExportDataType.CONSTANT, "test");
+
+    SQLExportTask task = new SQLExportTask(peakList, CONNECTION_STRING, "features", columns,
+        emptyExport, batchSize, streamRows);
+    task.run();
+    assertEquals(TaskStatus.FINISHED, task.getStatus(), task.getErrorMessage());
+  }
+
+  private void addColumn(SQLColumnSettings columns, String name, SQLExportDataType dataType,
+      String value) {
+    int row = columns.getRowCount();
+    columns.addNewRow();
+    columns.setValueAt(name, row, 0);
+    columns.setValueAt(dataType, row, 1);
+    if (value != null)
+      columns.setValueAt(value, row, 2);
+  }
+
+  private int countRows() throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM features")) {
+      result.next();
+      return result.getInt(1);
+    }
+  }
+
+  private RawDataFile getDataFile(String name) {
+    for (RawDataFile dataFile : dataFiles) {
+      if (dataFile.getName().equals(name))
+        return dataFile;
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Hashtable;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.benchmarks.SyntheticLCMSData;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import net.sf.mzmine.datamodel.PeakIdentity;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimpleIsotopePattern;
+import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
+import net.sf.mzmine.datamodel.impl.SimplePeakInformation;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.projectsave.BinaryPeakListSaveHandler;
+
+/**
+ * Saves feature lists by BinaryPeakListSaveHandler and reads them back by BinaryPeakListFile
+ */
+public class BinaryPeakListFileTest {
+
+  private static final int NUM_OF_SCANS = 200;
+
+  private static RawDataFile dataFiles[];
+
+  @TempDir
+  Path tempDir;
+
+  @BeforeAll
+  public static void createDataFiles() throws IOException {
+    BenchmarkEnvironment.init();
+
+    // The retention time ranges of the features are read from the scans
+    SyntheticLCMSData data = new SyntheticLCMSData(NUM_OF_SCANS, 10, 5);
+    dataFiles = new RawDataFile[3];
+    for (int i = 0; i < dataFiles.length; i++)
+      dataFiles[i] = data.createRawDataFile("Sample " + i, i, false);
+  }
+
+  @Test
+  public void readPeakList() throws IOException {
+    PeakList peakList = createPeakList(1000);
+    File file = tempDir.resolve("peaklist.mzfl").toFile();
+    save(peakList, file, 0);
+
+    try (BinaryPeakListFile binaryFile = new BinaryPeakListFile(file, 0, getDataFilesIDMap())) {
+      assertEquals(peakList.getNumberOfRows(), binaryFile.getNumberOfRows());
+
+      SimplePeakList readPeakList = binaryFile.readPeakList();
+      assertEquals(peakList.getName(), readPeakList.getName());
+      assertEquals(((SimplePeakList) peakList).getDateCreated(), readPeakList.getDateCreated());
+      assertArrayEquals(peakList.getRawDataFiles(), readPeakList.getRawDataFiles());
+      assertEquals(peakList.getAppliedMethods().length, readPeakList.getAppliedMethods().length);
+      for (int i = 0; i < peakList.getAppliedMethods().length; i++) {
+        assertEquals(peakList.getAppliedMethods()[i].getDescription(),
+            readPeakList.getAppliedMethods()[i].getDescription());
+        assertEquals(peakList.getAppliedMethods()[i].getParameters(),
+            readPeakList.getAppliedMethods()[i].getParameters());
+      }
+
+      assertEquals(peakList.getNumberOfRows(), readPeakList.getNumberOfRows());
+      for (int i = 0; i < peakList.getNumberOfRows(); i++)
+        assertRowEquals(peakList.getRow(i), readPeakList.getRow(i));
+    }
+  }
+
+  @Test
+  public void readRowsAtOffset() throws IOException {
+    PeakList peakList = createPeakList(500);
+
+    // Same as a feature list stored in a project file
+    File file = tempDir.resolve("project.zip").toFile();
+    save(peakList, file, 1234);
+
+    try (BinaryPeakListFile binaryFile =
+        new BinaryPeakListFile(file, 1234, getDataFilesIDMap())) {
+      PeakListRow rows[] = binaryFile.readRows(250, 260);
+      assertEquals(10, rows.length);
+      for (int i = 0; i < rows.length; i++)
+        assertRowEquals(peakList.getRow(250 + i), rows[i]);
+      assertRowEquals(peakList.getRow(499), binaryFile.readRow(499));
+      assertEquals(0, binaryFile.readRows(500, 500).length);
+    }
+  }
+
+  @Test
+  public void emptyPeakList() throws IOException {
+    PeakList peakList = new SimplePeakList("Empty feature list", dataFiles);
+    File file = tempDir.resolve("empty.mzfl").toFile();
+    save(peakList, file, 0);
+
+    try (BinaryPeakListFile binaryFile = new BinaryPeakListFile(file, 0, getDataFilesIDMap())) {
+      assertEquals(0, binaryFile.readPeakList().getNumberOfRows());
+    }
+  }
+
+  private static PeakList createPeakList(int numOfRows) {
+
+    final Random random = new Random(numOfRows);
+    SimplePeakList peakList = new SimplePeakList("Feature list", dataFiles);
+    peakList.addDescriptionOfAppliedTask(
+        new SimplePeakListAppliedMethod("Test method", "<parameter name=\"test\"/>"));
+
+    for (int id = 1; id <= numOfRows; id++) {
+
+      // Row IDs are not consecutive
+      SimplePeakListRow row = new SimplePeakListRow(id * 3);
+
+      for (RawDataFile dataFile : dataFiles) {
+        if (row.getNumberOfPeaks() > 0 && random.nextInt(4) == 0)
+          continue;
+        row.addPeak(dataFile, createFeature(dataFile, random, id));
+      }
+
+      if (id % 3 == 0) {
+        row.setComment("Comment, \"row\" " + id);
+        row.addPeakIdentity(new SimplePeakIdentity("Compound " + id), false);
+        row.addPeakIdentity(
+            new SimplePeakIdentity("Compound " + id + "b", "C6H12O6", "Test", "ID" + id, null),
+            true);
+      }
+      if (id % 4 == 0)
+        row.setPeakInformation(new SimplePeakInformation("Property", "Value " + id));
+
+      peakList.addRow(row);
+    }
+
+    return peakList;
+  }
+
+  private static Feature createFeature(RawDataFile dataFile, Random random, int id) {
+
+    final double mz = 100 + 900 * random.nextDouble();
+    final int firstScan = 1 + random.nextInt(NUM_OF_SCANS - 10);
+    final int scanNumbers[] = new int[1 + random.nextInt(10)];
+    final DataPoint dataPoints[] = new DataPoint[scanNumbers.length];
+    double height = 0;
+    int representativeScan = firstScan;
+    for (int i = 0; i < scanNumbers.length; i++) {
+      scanNumbers[i] = firstScan + i;
+      dataPoints[i] = new SimpleDataPoint(mz + 0.001 * random.nextGaussian(),
+          1E5 * random.nextDouble());
+      if (dataPoints[i].getIntensity() > height) {
+        height = dataPoints[i].getIntensity();
+        representativeScan = scanNumbers[i];
+      }
+    }
+    final double rt = dataFile.getScan(representativeScan).getRetentionTime();
+    final FeatureStatus status =
+        FeatureStatus.values()[random.nextInt(FeatureStatus.values().length)];
+    final int fragmentScan = random.nextBoolean() ? -1 : scanNumbers[0];
+    final int allFragmentScans[] = fragmentScan < 0 ? new int[0] : new int[] {fragmentScan};
+
+    SimpleFeature feature = new SimpleFeature(dataFile, mz, rt, height, height * 0.1,
+        scanNumbers, dataPoints, status, representativeScan, fragmentScan, allFragmentScans,
+        Range.singleton(rt), Range.singleton(mz), Range.closed(0.0, height));
+    feature.setCharge(random.nextInt(4));
+    if (id % 5 == 0) {
+      feature.setIsotopePattern(new SimpleIsotopePattern(
+          new DataPoint[] {new SimpleDataPoint(mz, 1.0), new SimpleDataPoint(mz + 1.003, 0.2)},
+          IsotopePatternStatus.PREDICTED, "C6H12O6"));
+    }
+    if (id % 7 == 0)
+      feature.setParentChromatogramRowID(id);
+    return feature;
+  }
+
+  private static void save(PeakList peakList, File file, int offset) throws IOException {
+    Hashtable<RawDataFile, String> dataFilesIDMap = new Hashtable<>();
+    for (RawDataFile dataFile : dataFiles)
+      dataFilesIDMap.put(dataFile, dataFile.getName());
+    try (OutputStream out = Files.newOutputStream(file.toPath())) {
+      out.write(new byte[offset]);
+      new BinaryPeakListSaveHandler(out, dataFilesIDMap).savePeakList(peakList);
+    }
+  }
+
+  private static Hashtable<String, RawDataFile> getDataFilesIDMap() {
+    Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
+    for (RawDataFile dataFile : dataFiles)
+      dataFilesIDMap.put(dataFile.getName(), dataFile);
+    return dataFilesIDMap;
+  }
+
+  private static void assertRowEquals(PeakListRow expected, PeakListRow actual) {
+    assertEquals(expected.getID(), actual.getID());
+    assertEquals(expected.getComment(), actual.getComment());
+
+    PeakIdentity expectedIdentities[] = expected.getPeakIdentities();
+    PeakIdentity actualIdentities[] = actual.getPeakIdentities();
+    assertEquals(expectedIdentities.length, actualIdentities.length);
+    for (int i = 0; i < expectedIdentities.length; i++) {
+      assertEquals(expectedIdentities[i].getAllProperties(),
+          actualIdentities[i].getAllProperties());
+    }
+    if (expected.getPreferredPeakIdentity() == null)
+      assertNull(actual.getPreferredPeakIdentity());
+    else
+      assertEquals(expected.getPreferredPeakIdentity().getName(),
+          actual.getPreferredPeakIdentity().getName());
+
+    if (expected.getPeakInformation() == null) {
+      assertNull(actual.getPeakInformation());
+    } else {
+      assertNotNull(actual.getPeakInformation());
+      assertEquals(expected.getPeakInformation().getAllProperties(),
+          actual.getPeakInformation().getAllProperties());
+    }
+
+    assertArrayEquals(expected.getRawDataFiles(), actual.getRawDataFiles());
+    for (RawDataFile dataFile : expected.getRawDataFiles())
+      assertFeatureEquals(expected.getPeak(dataFile), actual.getPeak(dataFile));
+  }
+
+  private static void assertFeatureEquals(Feature expected, Feature actual) {
+    assertEquals(expected.getDataFile(), actual.getDataFile());
+    assertEquals(expected.getMZ(), actual.getMZ());
+    assertEquals(expected.getRT(), actual.getRT());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    assertEquals(expected.getArea(), actual.getArea());
+    assertEquals(expected.getFeatureStatus(), actual.getFeatureStatus());
+    assertEquals(expected.getCharge(), actual.getCharge());
+    assertEquals(expected.getRepresentativeScanNumber(), actual.getRepresentativeScanNumber());
+    assertEquals(expected.getMostIntenseFragmentScanNumber(),
+        actual.getMostIntenseFragmentScanNumber());
+    assertArrayEquals(expected.getAllMS2FragmentScanNumbers(),
+        actual.getAllMS2FragmentScanNumbers());
+    assertEquals(expected.getParentChromatogramRowID(), actual.getParentChromatogramRowID());
+
+    // m/z and intensity values of the data points are saved as float
+    assertArrayEquals(expected.getScanNumbers(), actual.getScanNumbers());
+    for (int scanNumber : expected.getScanNumbers()) {
+      DataPoint expectedPoint = expected.getDataPoint(scanNumber);
+      DataPoint actualPoint = actual.getDataPoint(scanNumber);
+      assertEquals((float) expectedPoint.getMZ(), (float) actualPoint.getMZ());
+      assertEquals((float) expectedPoint.getIntensity(), (float) actualPoint.getIntensity());
+    }
+    assertEquals(dataPointsRTRange(expected), actual.getRawDataPointsRTRange());
+
+    IsotopePattern expectedPattern = expected.getIsotopePattern();
+    IsotopePattern actualPattern = actual.getIsotopePattern();
+    if (expectedPattern == null) {
+      assertNull(actualPattern);
+      return;
+    }
+    assertNotNull(actualPattern);
+    assertEquals(expectedPattern.getStatus(), actualPattern.getStatus());
+    assertEquals(expectedPattern.getDescription(), actualPattern.getDescription());
+    assertEquals(expectedPattern.getNumberOfDataPoints(), actualPattern.getNumberOfDataPoints());
+    for (int i = 0; i < expectedPattern.getNumberOfDataPoints(); i++) {
+      assertEquals(expectedPattern.getDataPoints()[i].getMZ(),
+          actualPattern.getDataPoints()[i].getMZ());
+      assertEquals(expectedPattern.getDataPoints()[i].getIntensity(),
+          actualPattern.getDataPoints()[i].getIntensity());
+    }
+  }
+
+  /**
+   * Retention time range of the scans with a non-zero intensity
+   */
+  private static Range<Double> dataPointsRTRange(Feature feature) {
+    Range<Double> range = null;
+    for (int scanNumber : feature.getScanNumbers()) {
+      if (feature.getDataPoint(scanNumber).getIntensity() <= 0)
+        continue;
+      final double rt = feature.getDataFile().getScan(scanNumber).getRetentionTime();
+      range = range == null ? Range.singleton(rt) : range.span(Range.singleton(rt));
+    }
+    return range;
+  }
+
+}
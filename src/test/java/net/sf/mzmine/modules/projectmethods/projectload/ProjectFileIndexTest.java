@@ -0,0 +1,190 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reads the central directory of ZIP and ZIP64 archives written by java.util.zip or by hand
+ */
+public class ProjectFileIndexTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void storedAndCompressedEntries() throws IOException {
+    final byte first[] = "first stored entry".getBytes(StandardCharsets.UTF_8);
+    final byte second[] = new byte[100000];
+    for (int i = 0; i < second.length; i++)
+      second[i] = (byte) (i * 31);
+
+    File file = tempDir.resolve("project.zip").toFile();
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+      zip.setComment("Project comment");
+      putStoredEntry(zip, "first", first);
+      zip.putNextEntry(new ZipEntry("compressed"));
+      zip.write(second);
+      zip.closeEntry();
+      putStoredEntry(zip, "dir/second é", second);
+    }
+
+    ProjectFileIndex index = new ProjectFileIndex(file);
+    assertArrayEquals(first, readStoredEntry(file, index, "first"));
+    assertArrayEquals(second, readStoredEntry(file, index, "dir/second é"));
+    assertEquals(-1, index.getStoredDataOffset("compressed"));
+    assertEquals(-1, index.getStoredDataLength("compressed"));
+    assertEquals(-1, index.getStoredDataOffset("missing"));
+  }
+
+  @Test
+  public void zip64EndRecord() throws IOException {
+
+    // More entries than the end record can count
+    final int numOfEntries = 0x10000 + 10;
+    File file = tempDir.resolve("many.zip").toFile();
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+      for (int i = 0; i < numOfEntries; i++)
+        putStoredEntry(zip, "entry" + i, Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    ProjectFileIndex index = new ProjectFileIndex(file);
+    for (int i : new int[] {0, 1, 0xFFFF, numOfEntries - 1}) {
+      assertArrayEquals(Integer.toString(i).getBytes(StandardCharsets.UTF_8),
+          readStoredEntry(file, index, "entry" + i));
+    }
+  }
+
+  @Test
+  public void zip64ExtraField() throws IOException {
+    final byte data[] = "data of a ZIP64 entry".getBytes(StandardCharsets.UTF_8);
+    File file = tempDir.resolve("zip64.zip").toFile();
+    writeZip64Archive(file, "entry", data);
+
+    // The archive itself must be valid
+    try (ZipFile zipFile = new ZipFile(file);
+        InputStream in = zipFile.getInputStream(zipFile.getEntry("entry"))) {
+      assertArrayEquals(data, in.readAllBytes());
+    }
+
+    ProjectFileIndex index = new ProjectFileIndex(file);
+    assertArrayEquals(data, readStoredEntry(file, index, "entry"));
+  }
+
+  @Test
+  public void notAZipArchive() throws IOException {
+    File file = tempDir.resolve("project.zip").toFile();
+    Files.write(file.toPath(), new byte[1000]);
+    assertThrows(IOException.class, () -> new ProjectFileIndex(file));
+  }
+
+  private static void putStoredEntry(ZipOutputStream zip, String name, byte data[])
+      throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(data.length);
+    entry.setCompressedSize(data.length);
+    entry.setCrc(crc.getValue());
+    zip.putNextEntry(entry);
+    zip.write(data);
+    zip.closeEntry();
+  }
+
+  private static byte[] readStoredEntry(File file, ProjectFileIndex index, String name)
+      throws IOException {
+    final long offset = index.getStoredDataOffset(name);
+    final long length = index.getStoredDataLength(name);
+    byte data[] = new byte[(int) length];
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      in.seek(offset);
+      in.readFully(data);
+    }
+    return data;
+  }
+
+  /**
+   * Writes an archive with one stored entry, whose sizes and offset are only given in the ZIP64
+   * extra fields, and the ZIP64 end records
+   */
+  private static void writeZip64Archive(File file, String name, byte data[]) throws IOException {
+    final byte nameBytes[] = name.getBytes(StandardCharsets.UTF_8);
+    CRC32 crc = new CRC32();
+    crc.update(data);
+
+    ByteBuffer buffer = ByteBuffer.allocate(1000 + data.length).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Local header with ZIP64 sizes
+    buffer.putInt(0x04034b50).putShort((short) 45).putShort((short) 0).putShort((short) 0);
+    buffer.putShort((short) 0).putShort((short) 0x21).putInt((int) crc.getValue());
+    buffer.putInt(-1).putInt(-1).putShort((short) nameBytes.length).putShort((short) 20);
+    buffer.put(nameBytes);
+    buffer.putShort((short) 1).putShort((short) 16).putLong(data.length).putLong(data.length);
+    buffer.put(data);
+
+    // Central directory
+    final int directoryOffset = buffer.position();
+    buffer.putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0);
+    buffer.putShort((short) 0).putShort((short) 0).putShort((short) 0x21);
+    buffer.putInt((int) crc.getValue()).putInt(-1).putInt(-1);
+    buffer.putShort((short) nameBytes.length).putShort((short) 28).putShort((short) 0);
+    buffer.putShort((short) 0).putShort((short) 0).putInt(0).putInt(-1);
+    buffer.put(nameBytes);
+    buffer.putShort((short) 1).putShort((short) 24).putLong(data.length).putLong(data.length)
+        .putLong(0);
+    final int directorySize = buffer.position() - directoryOffset;
+
+    // ZIP64 end record and its locator
+    final int zip64EndOffset = buffer.position();
+    buffer.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45);
+    buffer.putInt(0).putInt(0).putLong(1).putLong(1).putLong(directorySize)
+        .putLong(directoryOffset);
+    buffer.putInt(0x07064b50).putInt(0).putLong(zip64EndOffset).putInt(1);
+
+    // End record
+    buffer.putInt(0x06054b50).putShort((short) 0).putShort((short) 0);
+    buffer.putShort((short) -1).putShort((short) -1).putInt(-1).putInt(-1).putShort((short) 0);
+
+    try (OutputStream out = Files.newOutputStream(file.toPath())) {
+      out.write(buffer.array(), 0, buffer.position());
+    }
+  }
+
+}
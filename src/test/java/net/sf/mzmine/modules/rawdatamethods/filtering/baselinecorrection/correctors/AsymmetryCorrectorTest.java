@@ -0,0 +1,119 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math.linear.Array2DRowRealMatrix;
+import org.apache.commons.math.linear.LUDecompositionImpl;
+import org.apache.commons.math.linear.RealMatrix;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import net.sf.mzmine.parameters.ParameterSet;
+
+/**
+ * Compares the banded Cholesky solution of the Whittaker smoother with a dense solution, and
+ * checks the asymmetric baseline of a synthetic chromatogram
+ */
+public class AsymmetryCorrectorTest {
+
+  @ParameterizedTest
+  @ValueSource(doubles = {0.0, 1.0, 1E3, 1E6})
+  public void whittakerSmoothEqualsDenseSolution(double lambda) {
+    final Random random = new Random(1);
+    for (int n : new int[] {1, 2, 3, 4, 5, 50}) {
+      final double y[] = new double[n], w[] = new double[n];
+      for (int i = 0; i < n; i++) {
+        y[i] = 1000 * random.nextDouble();
+        w[i] = random.nextBoolean() ? 0.001 : 0.999;
+      }
+
+      // The dense LU solution loses some digits for large lambda
+      final double expected[] = denseWhittakerSmooth(y, w, lambda);
+      final double actual[] = AsymmetryCorrector.whittakerSmooth(y, w, lambda);
+      for (int i = 0; i < n; i++)
+        assertEquals(expected[i], actual[i], 1E-6 * Math.max(1, Math.abs(expected[i])));
+    }
+  }
+
+  @Test
+  public void whittakerSmoothKeepsStraightLine() {
+    final double y[] = new double[100], w[] = new double[100];
+    for (int i = 0; i < y.length; i++)
+      y[i] = 5 + 0.5 * i;
+    Arrays.fill(w, 1.0);
+
+    assertArrayEquals(y, AsymmetryCorrector.whittakerSmooth(y, w, 1E7), 1E-6);
+  }
+
+  @Test
+  public void baselineOfPeakOnSlope() {
+    final int n = 500;
+    final double trend[] = new double[n], chromatogram[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      trend[i] = 1000 + 2 * i;
+      final double distance = (i - 250) / 10.0;
+      chromatogram[i] = trend[i] + 1E5 * Math.exp(-0.5 * distance * distance);
+    }
+
+    ParameterSet parameters = new AsymmetryCorrectorParameters();
+    parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).setValue(1E5);
+    parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).setValue(0.001);
+    final double baseline[] =
+        new AsymmetryCorrector().computeBaseline(null, null, chromatogram, parameters);
+
+    // The baseline follows the trend below the peak, and does not rise into the peak
+    assertEquals(n, baseline.length);
+    for (int i = 0; i < n; i++)
+      assertEquals(trend[i], baseline[i], 0.01 * 1E5, "Baseline at " + i);
+    assertTrue(chromatogram[250] - baseline[250] > 0.99 * 1E5);
+  }
+
+  /**
+   * Solves (W + lambda D'D) z = W y with the dense matrices
+   */
+  private static double[] denseWhittakerSmooth(double y[], double w[], double lambda) {
+    final int n = y.length;
+    RealMatrix system = new Array2DRowRealMatrix(n, n);
+    for (int i = 0; i < n; i++)
+      system.addToEntry(i, i, w[i]);
+    if (n > 2) {
+      RealMatrix differences = new Array2DRowRealMatrix(n - 2, n);
+      for (int r = 0; r < n - 2; r++) {
+        differences.setEntry(r, r, 1);
+        differences.setEntry(r, r + 1, -2);
+        differences.setEntry(r, r + 2, 1);
+      }
+      system = system.add(differences.transpose().multiply(differences).scalarMultiply(lambda));
+    }
+
+    final double weighted[] = new double[n];
+    for (int i = 0; i < n; i++)
+      weighted[i] = w[i] * y[i];
+    return new LUDecompositionImpl(system).getSolver().solve(weighted);
+  }
+
+}
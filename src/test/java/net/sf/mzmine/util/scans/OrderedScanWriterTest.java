@@ -0,0 +1,130 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.scans;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.benchmarks.BenchmarkEnvironment;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.RawDataFileWriter;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Checks that scans processed on the worker threads are written in the submitted order
+ */
+public class OrderedScanWriterTest {
+
+  @BeforeAll
+  public static void init() {
+    BenchmarkEnvironment.init();
+  }
+
+  @Test
+  public void scansAreWrittenInSubmittedOrder() throws IOException, InterruptedException {
+    final int numOfScans = 500;
+    final int numOfThreads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+    final Random random = new Random(1);
+    RecordingWriter writer = new RecordingWriter();
+
+    try (OrderedScanWriter scanWriter = new OrderedScanWriter(writer, "Test worker")) {
+      for (int i = 0; i < numOfScans; i++) {
+        final int scanNumber = i;
+        // random delays, so later scans often finish first, every 7th scan is skipped
+        final int delay = random.nextInt(3);
+        scanWriter.submit(() -> {
+          Thread.sleep(delay);
+          return scanNumber % 7 == 0 ? null : createScan(scanNumber);
+        });
+
+        // the number of pending scans is bounded
+        assertTrue(scanWriter.getNumberOfFinishedScans() >= i + 2 - 8 * numOfThreads);
+      }
+      scanWriter.finish();
+      assertEquals(numOfScans, scanWriter.getNumberOfFinishedScans());
+    }
+
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < numOfScans; i++) {
+      if (i % 7 != 0)
+        expected.add(i);
+    }
+    assertEquals(expected, writer.scanNumbers);
+    for (Thread thread : writer.threads)
+      assertSame(Thread.currentThread(), thread);
+  }
+
+  @Test
+  public void processingErrorIsThrown() throws IOException, InterruptedException {
+    RecordingWriter writer = new RecordingWriter();
+    try (OrderedScanWriter scanWriter = new OrderedScanWriter(writer, "Test worker")) {
+      scanWriter.submit(() -> createScan(0));
+      scanWriter.submit(() -> {
+        throw new IllegalStateException("Broken scan");
+      });
+      IOException e = assertThrows(IOException.class, scanWriter::finish);
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(List.of(0), writer.scanNumbers);
+  }
+
+  private static Scan createScan(int scanNumber) {
+    return new SimpleScan(null, scanNumber, 1, scanNumber, 0, 0, new int[0], new DataPoint[0],
+        MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.singleton(0d));
+  }
+
+  /**
+   * Keeps the scan numbers and the threads of the written scans
+   */
+  private static class RecordingWriter implements RawDataFileWriter {
+
+    private final List<Integer> scanNumbers = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    @Override
+    public void addScan(Scan newScan) {
+      scanNumbers.add(newScan.getScanNumber());
+      threads.add(Thread.currentThread());
+    }
+
+    @Override
+    public RawDataFile finishWriting() {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.scans.similarity;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.util.maths.similarity.Similarity;
+import net.sf.mzmine.util.scans.ScanAlignment;
+
+/**
+ * Compares the alignment and the scores of the engine with the list based calculation on
+ * {@link ScanAlignment}
+ */
+public class CosineSimilarityEngineTest {
+
+  private static final MZTolerance mzTol = new MZTolerance(0.005, 10);
+
+  @Test
+  public void sameScoresAsScanAlignment() {
+    final Random random = new Random(1);
+    // one engine for all spectra, so the work arrays grow and are reused
+    CosineSimilarityEngine engine = CosineSimilarityEngine.forCurrentThread();
+    for (int i = 0; i < 500; i++) {
+      final DataPoint library[] = createSpectrum(random, 1 + random.nextInt(60));
+      final DataPoint query[] = createSpectrum(random, 1 + random.nextInt(60));
+      final DataPoint libraryCopy[] = library.clone(), queryCopy[] = query.clone();
+
+      final int overlap = engine.align(mzTol, library, query);
+
+      // the engine must not sort the arrays, ScanAlignment sorts the library array
+      assertArrayEquals(libraryCopy, library);
+      assertArrayEquals(queryCopy, query);
+      final List<DataPoint[]> aligned = ScanAlignment.align(mzTol, libraryCopy, queryCopy);
+      final List<DataPoint[]> matched = ScanAlignment.removeUnaligned(aligned);
+
+      assertEquals(matched.size(), overlap);
+      assertEquals(overlap, engine.getOverlap());
+      final List<DataPoint[]> engineMatched = engine.getAlignedDataPoints();
+      assertEquals(matched.size(), engineMatched.size());
+      for (int m = 0; m < matched.size(); m++)
+        assertArrayEquals(matched.get(m), engineMatched.get(m));
+
+      for (Weights weights : Weights.VALUES) {
+        assertEquals(cosine(aligned, weights), engine.weightedCosine(weights, false),
+            weights + " with unmatched signals");
+        assertEquals(cosine(matched, weights), engine.weightedCosine(weights, true),
+            weights + " without unmatched signals");
+      }
+      assertEquals(relativeNeighbourFactor(matched), engine.relativeNeighbourFactor());
+    }
+  }
+
+  @Test
+  public void forCurrentThread() throws InterruptedException {
+    CosineSimilarityEngine engine = CosineSimilarityEngine.forCurrentThread();
+    assertSame(engine, CosineSimilarityEngine.forCurrentThread());
+
+    CosineSimilarityEngine otherEngine[] = new CosineSimilarityEngine[1];
+    Thread thread = new Thread(() -> otherEngine[0] = CosineSimilarityEngine.forCurrentThread());
+    thread.start();
+    thread.join();
+    assertNotSame(engine, otherEngine[0]);
+  }
+
+  /**
+   * Random spectrum with equal intensities and m/z values closer than the tolerance
+   */
+  private static DataPoint[] createSpectrum(Random random, int size) {
+    DataPoint dataPoints[] = new DataPoint[size];
+    for (int i = 0; i < size; i++) {
+      final double mz = 100 + random.nextInt(50) + 0.002 * random.nextInt(3);
+      final double intensity = random.nextInt(4) == 0 ? 1000 : 1 + random.nextInt(100000);
+      dataPoints[i] = new SimpleDataPoint(mz, intensity);
+    }
+    return dataPoints;
+  }
+
+  private static double cosine(List<DataPoint[]> aligned, Weights weights) {
+    double[][] diffArray =
+        ScanAlignment.toIntensityMatrixWeighted(aligned, weights.getIntensity(), weights.getMz());
+    return Similarity.COSINE.calc(diffArray);
+  }
+
+  /**
+   * Calculation of the composite cosine similarity on the aligned list
+   */
+  private static double relativeNeighbourFactor(List<DataPoint[]> matched) {
+    DataPoint[][] filtered = matched.toArray(new DataPoint[0][]);
+    Arrays.sort(filtered, (a, b) -> Double.compare(getMinMZ(a), getMinMZ(b)));
+
+    double factor = 0;
+    for (int i = 1; i < filtered.length; i++) {
+      DataPoint[] match1 = filtered[i - 1];
+      DataPoint[] match2 = filtered[i];
+      double ratioLibrary = match2[0].getIntensity() / match1[0].getIntensity();
+      double ratioQuery = match2[1].getIntensity() / match1[1].getIntensity();
+      factor += Math.min(ratioLibrary, ratioQuery) / Math.max(ratioLibrary, ratioQuery);
+    }
+    return factor / matched.size();
+  }
+
+  private static double getMinMZ(DataPoint[] dp) {
+    return Arrays.stream(dp).filter(Objects::nonNull).mapToDouble(DataPoint::getMZ).min().orElse(0);
+  }
+
+}